@@ -29,11 +29,23 @@ package cientistavuador.cienspools;
 import cientistavuador.cienspools.natives.Natives;
 import cientistavuador.cienspools.newrendering.N3DModel;
 import cientistavuador.cienspools.newrendering.N3DModelImporter;
+import cientistavuador.cienspools.newrendering.N3DObject;
 import cientistavuador.cienspools.newrendering.NCubemap;
 import cientistavuador.cienspools.newrendering.NCubemapImporter;
 import cientistavuador.cienspools.newrendering.NCubemapStore;
+import cientistavuador.cienspools.newrendering.NLight;
+import cientistavuador.cienspools.newrendering.NLightmapsCache;
+import cientistavuador.cienspools.newrendering.NLightmapsStore;
+import cientistavuador.cienspools.newrendering.NMap;
 import cientistavuador.cienspools.popups.ChannelManipulator;
+import cientistavuador.cienspools.resourcepack.Resource;
+import cientistavuador.cienspools.resourcepack.ResourcePack;
+import cientistavuador.cienspools.resources.ResourceLoader;
 import cientistavuador.cienspools.audio.AudioSystem;
+import cientistavuador.cienspools.util.bakedlighting.Lightmapper;
+import cientistavuador.cienspools.util.bakedlighting.LightmapperService;
+import cientistavuador.cienspools.util.bakedlighting.LightmapperTelemetry;
+import cientistavuador.cienspools.util.bakedlighting.Scene;
 import cientistavuador.cienspools.util.postprocess.MarginAutomata;
 import com.formdev.flatlaf.FlatDarkLaf;
 import java.awt.Toolkit;
@@ -48,12 +60,17 @@ import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Pattern;
 import javax.imageio.ImageIO;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import org.xml.sax.SAXException;
 import static org.lwjgl.glfw.GLFW.*;
 import org.lwjgl.openal.AL;
 import org.lwjgl.openal.ALC;
@@ -292,6 +309,166 @@ public class MainWrapper {
         System.exit(0);
     }
 
+    public static void bakeMap(String model, int threads) {
+        ResourceLoader.init();
+
+        Resource modelResource = null;
+        Path path = Path.of(model);
+        if (Files.isRegularFile(path)) {
+            System.out.println("Loading " + model + "...");
+            try {
+                ResourcePack pack = ResourcePack.of(path).global();
+                for (Resource r : pack.getResourcesByType(N3DModel.RESOURCES.getResourceType())) {
+                    modelResource = r;
+                    break;
+                }
+            } catch (IOException | SAXException ex) {
+                System.out.println("Failed to load " + model);
+                ex.printStackTrace(System.out);
+                System.exit(-1);
+                return;
+            }
+        } else {
+            modelResource = Resource.get(N3DModel.RESOURCES.getResourceType(), model);
+        }
+
+        if (modelResource == null) {
+            System.out.println(model + " is not a model id or a resource pack with a model.");
+            System.exit(-1);
+            return;
+        }
+
+        N3DModel loadedModel;
+        try {
+            loadedModel = N3DModel.RESOURCES.get(modelResource);
+        } catch (RuntimeException ex) {
+            System.out.println("Failed to load model " + modelResource.getId());
+            ex.printStackTrace(System.out);
+            System.exit(-1);
+            return;
+        }
+        if (loadedModel == null) {
+            System.out.println("Failed to load model " + modelResource.getId());
+            System.exit(-1);
+            return;
+        }
+
+        if (threads > 0) {
+            Lightmapper.NUMBER_OF_THREADS = threads;
+        }
+        LightmapperService service = LightmapperService.configureShared(
+                Lightmapper.NUMBER_OF_THREADS,
+                LightmapperService.MAX_CONCURRENT_BAKES
+        );
+        Lightmapper.CHECKPOINT_DIRECTORY = Path.of("LightmapperCheckpoints");
+        Lightmapper.TELEMETRY_EVENTS_ENABLED = true;
+        Lightmapper.TELEMETRY_FILE = Path.of("LightmapperTelemetry.xml");
+        NLightmapsCache.CACHE_DIRECTORY = Path.of("LightmapsCache");
+
+        System.out.println("Model: " + modelResource.getId());
+        System.out.println("Threads: " + service.getNumberOfThreads());
+
+        NLight.NDirectionalLight sun = new NLight.NDirectionalLight("sun");
+        sun.getDiffuse().set(20f);
+        sun.getSpecular().set(3f);
+        sun.getAmbient().set(0.1f);
+        sun.setDynamic(false);
+        sun.getDirection().set(-0.5f, -0.75f, -0.45f).normalize();
+
+        Scene scene = new Scene();
+        scene.getLights().add(NMap.convertLight(sun));
+
+        long here = System.currentTimeMillis();
+
+        NMap map = new NMap(
+                "map",
+                List.of(new N3DObject("room", loadedModel)),
+                NMap.DEFAULT_LIGHTMAP_MARGIN,
+                45f
+        );
+
+        System.out.println("Lightmap Size: " + map.getLightmapSize() + "x" + map.getLightmapSize());
+
+        NMap.BakeStatus status = map.bake(scene, true);
+        String lastStatus = null;
+        long nextProgress = 0;
+        while (!status.getTask().isDone()) {
+            String currentStatus = status.getStatus();
+            long now = System.currentTimeMillis();
+            if (!currentStatus.equals(lastStatus) || now >= nextProgress) {
+                System.out.println(currentStatus + " - "
+                        + String.format("%,.2f", status.getProgress() * 100.0) + "% - "
+                        + String.format("%,.2f", status.getRaysPerSecond()) + " Rays Per Second");
+                lastStatus = currentStatus;
+                nextProgress = now + 5000;
+            }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ex) {
+                System.out.println("Bake interrupted.");
+                System.exit(-1);
+                return;
+            }
+        }
+
+        try {
+            status.getTask().get();
+        } catch (InterruptedException | ExecutionException ex) {
+            System.out.println("Bake failed:");
+            ex.printStackTrace(System.out);
+            System.exit(-1);
+            return;
+        }
+
+        Path outputFile = Path.of("lightmap.lit");
+        System.out.println("Writing to " + outputFile.toAbsolutePath());
+        try (BufferedOutputStream outBuffer = new BufferedOutputStream(Files.newOutputStream(outputFile))) {
+            NLightmapsStore.writeLightmaps(map.getLightmaps(), outBuffer);
+        } catch (IOException ex) {
+            ex.printStackTrace(System.out);
+            System.exit(-1);
+            return;
+        }
+
+        long time = System.currentTimeMillis() - here;
+
+        LightmapperTelemetry.Snapshot telemetry = status.getTelemetry();
+        if (telemetry != null) {
+            Map<String, long[]> phases = new LinkedHashMap<>();
+            for (LightmapperTelemetry.Phase p : telemetry.getPhases()) {
+                long[] total = phases.computeIfAbsent(p.getName(), (k) -> new long[3]);
+                total[0] += p.getWallTime();
+                total[1] += p.getCpuTime();
+                total[2] += p.getRays();
+            }
+            System.out.println("Phases:");
+            for (Map.Entry<String, long[]> e : phases.entrySet()) {
+                long[] total = e.getValue();
+                System.out.println(String.format(
+                        "  %-40s %,12.2fms wall %,12.2fms cpu %,16d rays",
+                        e.getKey(), total[0] / 1E6, total[1] / 1E6, total[2]
+                ));
+            }
+            System.out.println(String.format(
+                    "Lightmapper: %,.2fms wall, %,.2fms cpu, %,d rays, %,.2f Rays Per Second",
+                    telemetry.getWallTime() / 1E6, telemetry.getCpuTime() / 1E6,
+                    telemetry.getRays(), telemetry.getRaysPerSecond()
+            ));
+            System.out.println(String.format(
+                    "Indirect Cache: %,d texels, %,d lookups, %,.2f%% hit rate",
+                    telemetry.getIndirectCacheSize(), telemetry.getIndirectCacheLookups(),
+                    telemetry.getIndirectCacheHitRate() * 100.0
+            ));
+        } else {
+            System.out.println("Lightmaps loaded from the bake cache.");
+        }
+        System.out.println("Total: " + String.format("%,d", time) + "ms");
+
+        System.out.println("Done!");
+
+        System.exit(0);
+    }
+
     /**
      * @param args the command line arguments
      */
@@ -305,7 +482,7 @@ public class MainWrapper {
         }
         String file = fileBuilder.toString();
         if (args.length != 0) {
-            switch (args[0].toLowerCase()) {
+            switch (args[0].toLowerCase().split(Pattern.quote("/"))[0]) {
                 case "-marginautomata" -> {
                     int iterations = -1;
                     boolean keepAlpha = false;
@@ -346,6 +523,29 @@ public class MainWrapper {
                     importCubemap(file);
                     return;
                 }
+                case "-bake" -> {
+                    if (args.length == 1) {
+                        System.out.println("Usage: -bake[/threads] <model id or resource pack>");
+                        System.exit(-1);
+                        return;
+                    }
+                    int threads = -1;
+                    {
+                        String[] split = args[0].split(Pattern.quote("/"));
+                        if (split.length > 1) {
+                            try {
+                                threads = Integer.parseInt(split[1]);
+                            } catch (NumberFormatException ex) {
+                                System.out.println("Invalid number of threads:");
+                                ex.printStackTrace(System.out);
+                                System.exit(-1);
+                                return;
+                            }
+                        }
+                    }
+                    bakeMap(file, threads);
+                    return;
+                }
                 case "-channels" -> {
                     ChannelManipulator.main(new String[0]);
                     return;
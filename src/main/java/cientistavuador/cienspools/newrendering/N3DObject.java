@@ -40,10 +40,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 import org.joml.Matrix4d;
+import org.joml.Matrix4dc;
 import org.joml.Matrix4f;
 import org.joml.Matrix4fc;
 import org.joml.Quaternionf;
 import org.joml.Vector3d;
+import org.joml.Vector3dc;
 import org.joml.Vector3f;
 import static org.lwjgl.opengl.GL33C.*;
 
@@ -75,6 +77,10 @@ public class N3DObject {
     private final WrappedQueryObject queryObject = new WrappedQueryObject();
 
     private NAnimator animator = null;
+    private NAnimator skinnedAnimator = null;
+    private float skinnedAnimationCounter = Float.NaN;
+    private float[][] skinnedVertices = null;
+    private BVH[] skinnedBVHs = null;
     private NLightmaps lightmaps = NLightmaps.NULL_LIGHTMAPS;
     private NMap map = null;
 
@@ -262,6 +268,101 @@ public class N3DObject {
         this.animator = animator;
     }
 
+    private void skinVertices(NGeometry geometry, NAnimator currentAnimator, float[] output) {
+        NMesh mesh = geometry.getMesh();
+        Matrix4fc toRootSpace = geometry.getParent().getToRootSpace();
+
+        Matrix4f[] boneMatrices = new Matrix4f[mesh.getNumberOfBones()];
+        for (int i = 0; i < boneMatrices.length; i++) {
+            String bone = mesh.getBone(i);
+            boneMatrices[i] = new Matrix4f()
+                    .set(currentAnimator.getBoneMatrix(bone))
+                    .mul(this.n3DModel.getNode(bone).getToNodeSpace())
+                    .mul(toRootSpace);
+        }
+
+        float[] vertices = mesh.getVertices();
+        Vector3f transformed = new Vector3f();
+        for (int v = 0; v < vertices.length / NMesh.VERTEX_SIZE; v++) {
+            int i = v * NMesh.VERTEX_SIZE;
+            float x = vertices[i + NMesh.OFFSET_POSITION_XYZ + 0];
+            float y = vertices[i + NMesh.OFFSET_POSITION_XYZ + 1];
+            float z = vertices[i + NMesh.OFFSET_POSITION_XYZ + 2];
+
+            float outX = 0f;
+            float outY = 0f;
+            float outZ = 0f;
+            for (int j = 0; j < NMesh.MAX_AMOUNT_OF_BONE_WEIGHTS; j++) {
+                int boneId = Float.floatToRawIntBits(vertices[i + NMesh.OFFSET_BONE_IDS_XYZW + j]);
+                float boneWeight = vertices[i + NMesh.OFFSET_BONE_WEIGHTS_XYZW + j];
+                if (boneId < 0) {
+                    continue;
+                }
+                boneMatrices[boneId].transformProject(transformed.set(x, y, z));
+                outX += transformed.x() * boneWeight;
+                outY += transformed.y() * boneWeight;
+                outZ += transformed.z() * boneWeight;
+            }
+
+            output[(v * 3) + 0] = outX;
+            output[(v * 3) + 1] = outY;
+            output[(v * 3) + 2] = outZ;
+        }
+    }
+
+    private void updateSkinnedBVHs() {
+        NAnimator currentAnimator = this.animator;
+        if (currentAnimator == null) {
+            this.skinnedAnimator = null;
+            this.skinnedAnimationCounter = Float.NaN;
+            this.skinnedVertices = null;
+            this.skinnedBVHs = null;
+            return;
+        }
+        if (currentAnimator == this.skinnedAnimator
+                && currentAnimator.getAnimationCounter() == this.skinnedAnimationCounter) {
+            return;
+        }
+        this.skinnedAnimator = currentAnimator;
+        this.skinnedAnimationCounter = currentAnimator.getAnimationCounter();
+
+        int numberOfGeometries = this.n3DModel.getNumberOfGeometries();
+        if (this.skinnedBVHs == null) {
+            this.skinnedVertices = new float[numberOfGeometries][];
+            this.skinnedBVHs = new BVH[numberOfGeometries];
+        }
+
+        for (int i = 0; i < numberOfGeometries; i++) {
+            NGeometry geometry = this.n3DModel.getGeometry(i);
+            NMesh mesh = geometry.getMesh();
+            if (mesh.getNumberOfBones() == 0) {
+                continue;
+            }
+
+            if (this.skinnedVertices[i] == null) {
+                this.skinnedVertices[i] = new float[(mesh.getVertices().length / NMesh.VERTEX_SIZE) * 3];
+            }
+            skinVertices(geometry, currentAnimator, this.skinnedVertices[i]);
+
+            if (this.skinnedBVHs[i] == null) {
+                this.skinnedBVHs[i] = mesh.getBVH().copy(this.skinnedVertices[i], 3, 0);
+            } else {
+                this.skinnedBVHs[i].refit();
+            }
+        }
+    }
+
+    public BVH getSkinnedBVH(NGeometry geometry) {
+        if (geometry.getModel() != this.n3DModel) {
+            throw new IllegalArgumentException("Geometry is not from this object's model.");
+        }
+        updateSkinnedBVHs();
+        if (this.skinnedBVHs == null) {
+            return null;
+        }
+        return this.skinnedBVHs[geometry.getGlobalId()];
+    }
+
     public NLightmaps getLightmaps() {
         return lightmaps;
     }
@@ -315,28 +416,50 @@ public class N3DObject {
         this.nextAmbientCubeUpdate = time + nextTime;
     }
 
+    public Matrix4d calculateToWorldSpace(Matrix4d outToWorldSpace) {
+        outToWorldSpace
+                .translation(getPosition())
+                .rotate(getRotation())
+                .scale(getScale().x(), getScale().y(), getScale().z());
+        getTransformation().mul(outToWorldSpace, outToWorldSpace);
+        return outToWorldSpace;
+    }
+
     public List<NRayResult> testRay(
             double pX, double pY, double pZ,
             float dX, float dY, float dZ
     ) {
         List<NRayResult> results = new ArrayList<>();
 
-        Vector3d rayPosition = new Vector3d(pX, pY, pZ);
-        Vector3f rayDirection = new Vector3f(dX, dY, dZ);
+        Matrix4d toWorldSpace = calculateToWorldSpace(new Matrix4d());
+        Matrix4d toObjectSpace = toWorldSpace.invert(new Matrix4d());
 
-        Matrix4d toWorldSpace = new Matrix4d()
-                .translate(getPosition())
-                .rotate(getRotation())
-                .scale(getScale().x(), getScale().y(), getScale().z());
-        new Matrix4d(getTransformation())
-                .mul(toWorldSpace, toWorldSpace);
-        Matrix4d toObjectSpace = new Matrix4d(toWorldSpace).invert();
+        Vector3d objectPosition = toObjectSpace.transformPosition(pX, pY, pZ, new Vector3d());
+        Vector3d objectDirection = toObjectSpace.transformDirection(dX, dY, dZ, new Vector3d());
+
+        for (int i = 0; i < this.n3DModel.getNumberOfGeometries(); i++) {
+            testGeometryRay(
+                    this.n3DModel.getGeometry(i),
+                    toWorldSpace, objectPosition, objectDirection,
+                    pX, pY, pZ,
+                    dX, dY, dZ,
+                    results
+            );
+        }
 
-        Vector3d objectPosition = new Vector3d(rayPosition);
-        Vector3d objectDirection = new Vector3d(rayDirection);
+        return results;
+    }
 
-        toObjectSpace.transformPosition(objectPosition);
-        toObjectSpace.transformDirection(objectDirection);
+    void testGeometryRay(
+            NGeometry geometry,
+            Matrix4dc toWorldSpace,
+            Vector3dc objectPosition, Vector3dc objectDirection,
+            double pX, double pY, double pZ,
+            float dX, float dY, float dZ,
+            List<NRayResult> results
+    ) {
+        Vector3d rayPosition = new Vector3d(pX, pY, pZ);
+        Vector3f rayDirection = new Vector3f(dX, dY, dZ);
 
         Vector3f geometryPosition = new Vector3f();
         Vector3f geometryDirection = new Vector3f();
@@ -344,43 +467,171 @@ public class N3DObject {
         Vector3f rootSpaceHitPosition = new Vector3f();
         Vector3d hitPosition = new Vector3d();
 
-        for (int i = 0; i < this.n3DModel.getNumberOfGeometries(); i++) {
-            NGeometry geometry = this.n3DModel.getGeometry(i);
+        BVH skinnedBVH = getSkinnedBVH(geometry);
+        Matrix4fc toGeometrySpace = (skinnedBVH != null
+                ? NAnimator.IDENTITY : geometry.getParent().getToNodeSpace());
+        Matrix4fc toRootSpace = (skinnedBVH != null
+                ? NAnimator.IDENTITY : geometry.getParent().getToRootSpace());
+
+        toGeometrySpace.transformPosition(
+                (float) objectPosition.x(),
+                (float) objectPosition.y(),
+                (float) objectPosition.z(),
+                geometryPosition
+        );
+        toGeometrySpace.transformDirection(
+                (float) objectDirection.x(),
+                (float) objectDirection.y(),
+                (float) objectDirection.z(),
+                geometryDirection
+        ).normalize();
+
+        BVH meshBVH = (skinnedBVH != null ? skinnedBVH : geometry.getMesh().getBVH());
+
+        List<LocalRayResult> localRays = meshBVH.testRay(geometryPosition, geometryDirection);
+
+        for (LocalRayResult localRay : localRays) {
+            rootSpaceHitPosition.set(localRay.getLocalHitPosition());
+            toRootSpace.transformPosition(rootSpaceHitPosition);
+            hitPosition.set(rootSpaceHitPosition);
+            toWorldSpace.transformPosition(hitPosition);
+
+            results.add(new NRayResult(
+                    rayPosition, rayDirection, hitPosition,
+                    this, geometry, localRay
+            ));
+        }
+    }
 
-            Matrix4fc toGeometrySpace = geometry.getParent().getToNodeSpace();
-            Matrix4fc toRootSpace = geometry.getParent().getToRootSpace();
+    public boolean testRayClosest(
+            double pX, double pY, double pZ,
+            float dX, float dY, float dZ,
+            double maxDistance,
+            NRayHit hit
+    ) {
+        if (Double.isNaN(maxDistance)) {
+            maxDistance = Double.POSITIVE_INFINITY;
+        }
 
-            toGeometrySpace.transformPosition(
-                    (float) objectPosition.x(),
-                    (float) objectPosition.y(),
-                    (float) objectPosition.z(),
-                    geometryPosition
-            );
-            toGeometrySpace.transformDirection(
-                    (float) objectDirection.x(),
-                    (float) objectDirection.y(),
-                    (float) objectDirection.z(),
-                    geometryDirection
-            ).normalize();
-
-            BVH meshBVH = geometry.getMesh().getBVH();
-
-            List<LocalRayResult> localRays = meshBVH.testRay(geometryPosition, geometryDirection);
-
-            for (LocalRayResult localRay : localRays) {
-                rootSpaceHitPosition.set(localRay.getLocalHitPosition());
-                toRootSpace.transformPosition(rootSpaceHitPosition);
-                hitPosition.set(rootSpaceHitPosition);
-                toWorldSpace.transformPosition(hitPosition);
-
-                results.add(new NRayResult(
-                        rayPosition, rayDirection, hitPosition,
-                        this, geometry, localRay
-                ));
+        Matrix4d toWorldSpace = calculateToWorldSpace(hit.toWorldSpace);
+        Matrix4d toObjectSpace = toWorldSpace.invert(hit.toObjectSpace);
+
+        Vector3d objectPosition = toObjectSpace.transformPosition(pX, pY, pZ, hit.objectPosition);
+        Vector3d objectDirection = toObjectSpace.transformDirection(dX, dY, dZ, hit.objectDirection);
+
+        boolean found = false;
+        for (int i = 0; i < this.n3DModel.getNumberOfGeometries(); i++) {
+            if (testGeometryRayClosest(
+                    this.n3DModel.getGeometry(i),
+                    toWorldSpace, objectPosition, objectDirection,
+                    pX, pY, pZ,
+                    dX, dY, dZ,
+                    maxDistance,
+                    hit
+            )) {
+                maxDistance = hit.getDistance();
+                found = true;
             }
         }
 
-        return results;
+        return found;
+    }
+
+    boolean testGeometryRayClosest(
+            NGeometry geometry,
+            Matrix4dc toWorldSpace,
+            Vector3dc objectPosition, Vector3dc objectDirection,
+            double pX, double pY, double pZ,
+            float dX, float dY, float dZ,
+            double maxDistance,
+            NRayHit hit
+    ) {
+        Vector3f geometryPosition = hit.geometryPosition;
+        Vector3f geometryDirection = hit.geometryDirection;
+
+        Vector3f rootSpaceHitPosition = hit.rootSpaceHitPosition;
+        Vector3d hitPosition = hit.candidatePosition;
+
+        BVH skinnedBVH = getSkinnedBVH(geometry);
+        Matrix4fc toGeometrySpace = (skinnedBVH != null
+                ? NAnimator.IDENTITY : geometry.getParent().getToNodeSpace());
+        Matrix4fc toRootSpace = (skinnedBVH != null
+                ? NAnimator.IDENTITY : geometry.getParent().getToRootSpace());
+
+        toGeometrySpace.transformPosition(
+                (float) objectPosition.x(),
+                (float) objectPosition.y(),
+                (float) objectPosition.z(),
+                geometryPosition
+        );
+        toGeometrySpace.transformDirection(
+                (float) objectDirection.x(),
+                (float) objectDirection.y(),
+                (float) objectDirection.z(),
+                geometryDirection
+        );
+        float localScale = geometryDirection.length();
+        geometryDirection.div(localScale);
+
+        BVH meshBVH = (skinnedBVH != null ? skinnedBVH : geometry.getMesh().getBVH());
+
+        if (!meshBVH.testRayClosest(
+                geometryPosition, geometryDirection,
+                (float) (maxDistance * localScale), false,
+                hit.candidateHit
+        )) {
+            return false;
+        }
+
+        rootSpaceHitPosition.set(hit.candidateHit.getLocalHitPosition());
+        toRootSpace.transformPosition(rootSpaceHitPosition);
+        hitPosition.set(rootSpaceHitPosition);
+        toWorldSpace.transformPosition(hitPosition);
+
+        double distance = hitPosition.distance(pX, pY, pZ);
+        if (distance > maxDistance) {
+            return false;
+        }
+
+        hit.accept(
+                pX, pY, pZ,
+                dX, dY, dZ,
+                hitPosition, distance,
+                this, geometry
+        );
+        return true;
+    }
+
+    boolean testGeometryRayAny(
+            NGeometry geometry,
+            Vector3dc objectPosition, Vector3dc objectDirection,
+            double maxDistance,
+            Vector3f geometryPosition, Vector3f geometryDirection
+    ) {
+        BVH skinnedBVH = getSkinnedBVH(geometry);
+        Matrix4fc toGeometrySpace = (skinnedBVH != null
+                ? NAnimator.IDENTITY : geometry.getParent().getToNodeSpace());
+
+        toGeometrySpace.transformPosition(
+                (float) objectPosition.x(),
+                (float) objectPosition.y(),
+                (float) objectPosition.z(),
+                geometryPosition
+        );
+        toGeometrySpace.transformDirection(
+                (float) objectDirection.x(),
+                (float) objectDirection.y(),
+                (float) objectDirection.z(),
+                geometryDirection
+        );
+        float localScale = geometryDirection.length();
+        geometryDirection.div(localScale);
+
+        BVH meshBVH = (skinnedBVH != null ? skinnedBVH : geometry.getMesh().getBVH());
+        return meshBVH.fastTestRay(
+                geometryPosition, geometryDirection,
+                (float) (maxDistance * localScale)
+        );
     }
 
 }
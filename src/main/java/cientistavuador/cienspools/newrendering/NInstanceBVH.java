@@ -0,0 +1,563 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.newrendering;
+
+import cientistavuador.cienspools.util.raycast.BVH;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.joml.Matrix4d;
+import org.joml.Vector3d;
+import org.joml.Vector3f;
+
+/**
+ *
+ * @author Cien
+ */
+public class NInstanceBVH {
+
+    public static final int NODE_BOUNDS_SIZE = 6;
+    public static final int OFFSET_MIN_X = 0;
+    public static final int OFFSET_MIN_Y = 1;
+    public static final int OFFSET_MIN_Z = 2;
+    public static final int OFFSET_MAX_X = 3;
+    public static final int OFFSET_MAX_Y = 4;
+    public static final int OFFSET_MAX_Z = 5;
+
+    public static final int NODE_DATA_SIZE = 4;
+    public static final int OFFSET_LEFT = 0;
+    public static final int OFFSET_RIGHT = 1;
+    public static final int OFFSET_FIRST_INSTANCE = 2;
+    public static final int OFFSET_AMOUNT_OF_INSTANCES = 3;
+
+    public static final int MAX_INSTANCES_PER_LEAF = 2;
+
+    private static double intersectRayNode(
+            double[] nodeBounds, int node,
+            double oX, double oY, double oZ,
+            double invDirX, double invDirY, double invDirZ
+    ) {
+        int b = node * NODE_BOUNDS_SIZE;
+
+        double tNear, tFar, tyMin, tyMax, tzMin, tzMax;
+        if (invDirX >= 0.0) {
+            tNear = (nodeBounds[b + OFFSET_MIN_X] - oX) * invDirX;
+            tFar = (nodeBounds[b + OFFSET_MAX_X] - oX) * invDirX;
+        } else {
+            tNear = (nodeBounds[b + OFFSET_MAX_X] - oX) * invDirX;
+            tFar = (nodeBounds[b + OFFSET_MIN_X] - oX) * invDirX;
+        }
+        if (invDirY >= 0.0) {
+            tyMin = (nodeBounds[b + OFFSET_MIN_Y] - oY) * invDirY;
+            tyMax = (nodeBounds[b + OFFSET_MAX_Y] - oY) * invDirY;
+        } else {
+            tyMin = (nodeBounds[b + OFFSET_MAX_Y] - oY) * invDirY;
+            tyMax = (nodeBounds[b + OFFSET_MIN_Y] - oY) * invDirY;
+        }
+        if (tNear > tyMax || tyMin > tFar) {
+            return -1.0;
+        }
+        if (invDirZ >= 0.0) {
+            tzMin = (nodeBounds[b + OFFSET_MIN_Z] - oZ) * invDirZ;
+            tzMax = (nodeBounds[b + OFFSET_MAX_Z] - oZ) * invDirZ;
+        } else {
+            tzMin = (nodeBounds[b + OFFSET_MAX_Z] - oZ) * invDirZ;
+            tzMax = (nodeBounds[b + OFFSET_MIN_Z] - oZ) * invDirZ;
+        }
+        if (tNear > tzMax || tzMin > tFar) {
+            return -1.0;
+        }
+        tNear = (tyMin > tNear || Double.isNaN(tNear)) ? tyMin : tNear;
+        tFar = (tyMax < tFar || Double.isNaN(tFar)) ? tyMax : tFar;
+        tNear = (tzMin > tNear) ? tzMin : tNear;
+        tFar = (tzMax < tFar) ? tzMax : tFar;
+        if (tNear <= tFar && tFar >= 0.0) {
+            return Math.max(tNear, 0.0);
+        }
+        return -1.0;
+    }
+
+    private final N3DObject[] objects;
+    private final Matrix4d[] toWorldSpace;
+    private final Matrix4d[] toObjectSpace;
+
+    private final int[] instanceObjects;
+    private final NGeometry[] instanceGeometries;
+    private final double[] instanceBounds;
+
+    private final double[] nodeBounds;
+    private final int[] nodeData;
+    private final int[] nodeInstances;
+    private int amountOfNodes = 0;
+    private int maxDepth = 0;
+
+    private final Matrix4d refitTransformation = new Matrix4d();
+    private final Matrix4d refitInstanceTransformation = new Matrix4d();
+    private final Vector3d refitMin = new Vector3d();
+    private final Vector3d refitMax = new Vector3d();
+    private final Vector3d refitAnimatedMin = new Vector3d();
+    private final Vector3d refitAnimatedMax = new Vector3d();
+
+    public NInstanceBVH(N3DObject[] objects) {
+        this.objects = objects.clone();
+        this.toWorldSpace = new Matrix4d[this.objects.length];
+        this.toObjectSpace = new Matrix4d[this.objects.length];
+
+        int amountOfInstances = 0;
+        for (int i = 0; i < this.objects.length; i++) {
+            this.toWorldSpace[i] = this.objects[i].calculateToWorldSpace(new Matrix4d());
+            this.toObjectSpace[i] = this.toWorldSpace[i].invert(new Matrix4d());
+            amountOfInstances += this.objects[i].getN3DModel().getNumberOfGeometries();
+        }
+
+        this.instanceObjects = new int[amountOfInstances];
+        this.instanceGeometries = new NGeometry[amountOfInstances];
+        this.instanceBounds = new double[amountOfInstances * NODE_BOUNDS_SIZE];
+
+        int instance = 0;
+        for (int i = 0; i < this.objects.length; i++) {
+            N3DModel model = this.objects[i].getN3DModel();
+            for (int j = 0; j < model.getNumberOfGeometries(); j++) {
+                this.instanceObjects[instance] = i;
+                this.instanceGeometries[instance] = model.getGeometry(j);
+                calculateInstanceBounds(instance);
+                instance++;
+            }
+        }
+
+        int maxNodes = Math.max((amountOfInstances * 2) - 1, 0);
+        this.nodeBounds = new double[maxNodes * NODE_BOUNDS_SIZE];
+        this.nodeData = new int[maxNodes * NODE_DATA_SIZE];
+        this.nodeInstances = new int[amountOfInstances];
+        for (int i = 0; i < this.nodeInstances.length; i++) {
+            this.nodeInstances[i] = i;
+        }
+
+        if (amountOfInstances != 0) {
+            build(0, amountOfInstances, 0);
+            refitNodes();
+        }
+    }
+
+    private void calculateInstanceBounds(int instance) {
+        int object = this.instanceObjects[instance];
+        NGeometry geometry = this.instanceGeometries[instance];
+        BVH bvh = geometry.getMesh().getBVH();
+
+        Matrix4d transformation = this.refitInstanceTransformation
+                .set(geometry.getParent().getToRootSpace());
+        this.toWorldSpace[object].mul(transformation, transformation);
+
+        transformation.transformAab(
+                bvh.getMin().x(), bvh.getMin().y(), bvh.getMin().z(),
+                bvh.getMax().x(), bvh.getMax().y(), bvh.getMax().z(),
+                this.refitMin, this.refitMax
+        );
+
+        if (geometry.getMesh().getNumberOfBones() != 0 && geometry.isAnimatedAabbGenerated()) {
+            this.toWorldSpace[object].transformAab(
+                    geometry.getAnimatedAabbMin().x(),
+                    geometry.getAnimatedAabbMin().y(),
+                    geometry.getAnimatedAabbMin().z(),
+                    geometry.getAnimatedAabbMax().x(),
+                    geometry.getAnimatedAabbMax().y(),
+                    geometry.getAnimatedAabbMax().z(),
+                    this.refitAnimatedMin, this.refitAnimatedMax
+            );
+            this.refitMin.min(this.refitAnimatedMin);
+            this.refitMax.max(this.refitAnimatedMax);
+        }
+
+        int b = instance * NODE_BOUNDS_SIZE;
+        this.instanceBounds[b + OFFSET_MIN_X] = this.refitMin.x();
+        this.instanceBounds[b + OFFSET_MIN_Y] = this.refitMin.y();
+        this.instanceBounds[b + OFFSET_MIN_Z] = this.refitMin.z();
+        this.instanceBounds[b + OFFSET_MAX_X] = this.refitMax.x();
+        this.instanceBounds[b + OFFSET_MAX_Y] = this.refitMax.y();
+        this.instanceBounds[b + OFFSET_MAX_Z] = this.refitMax.z();
+    }
+
+    private double centroid(int instance, int axis) {
+        int b = instance * NODE_BOUNDS_SIZE;
+        return this.instanceBounds[b + OFFSET_MIN_X + axis] + this.instanceBounds[b + OFFSET_MAX_X + axis];
+    }
+
+    private int build(int start, int end, int depth) {
+        int node = this.amountOfNodes++;
+        this.maxDepth = Math.max(this.maxDepth, depth);
+
+        int d = node * NODE_DATA_SIZE;
+        this.nodeData[d + OFFSET_FIRST_INSTANCE] = start;
+        this.nodeData[d + OFFSET_AMOUNT_OF_INSTANCES] = end - start;
+
+        int amount = end - start;
+        if (amount <= MAX_INSTANCES_PER_LEAF) {
+            this.nodeData[d + OFFSET_LEFT] = -1;
+            this.nodeData[d + OFFSET_RIGHT] = -1;
+            return node;
+        }
+
+        double[] min = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] max = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+        for (int i = start; i < end; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                double c = centroid(this.nodeInstances[i], axis);
+                min[axis] = Math.min(min[axis], c);
+                max[axis] = Math.max(max[axis], c);
+            }
+        }
+        int axis = 0;
+        for (int i = 1; i < 3; i++) {
+            if ((max[i] - min[i]) > (max[axis] - min[axis])) {
+                axis = i;
+            }
+        }
+
+        final int sortAxis = axis;
+        Integer[] sorted = new Integer[amount];
+        for (int i = 0; i < amount; i++) {
+            sorted[i] = this.nodeInstances[start + i];
+        }
+        Arrays.sort(sorted, (o1, o2) -> Double.compare(centroid(o1, sortAxis), centroid(o2, sortAxis)));
+        for (int i = 0; i < amount; i++) {
+            this.nodeInstances[start + i] = sorted[i];
+        }
+
+        int middle = start + (amount / 2);
+        int left = build(start, middle, depth + 1);
+        int right = build(middle, end, depth + 1);
+
+        this.nodeData[d + OFFSET_LEFT] = left;
+        this.nodeData[d + OFFSET_RIGHT] = right;
+
+        return node;
+    }
+
+    private void refitNodes() {
+        for (int node = this.amountOfNodes - 1; node >= 0; node--) {
+            int b = node * NODE_BOUNDS_SIZE;
+            int d = node * NODE_DATA_SIZE;
+
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double minZ = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            double maxZ = Double.NEGATIVE_INFINITY;
+
+            int left = this.nodeData[d + OFFSET_LEFT];
+            if (left < 0) {
+                int first = this.nodeData[d + OFFSET_FIRST_INSTANCE];
+                int amount = this.nodeData[d + OFFSET_AMOUNT_OF_INSTANCES];
+                for (int i = first; i < first + amount; i++) {
+                    int ib = this.nodeInstances[i] * NODE_BOUNDS_SIZE;
+                    minX = Math.min(minX, this.instanceBounds[ib + OFFSET_MIN_X]);
+                    minY = Math.min(minY, this.instanceBounds[ib + OFFSET_MIN_Y]);
+                    minZ = Math.min(minZ, this.instanceBounds[ib + OFFSET_MIN_Z]);
+                    maxX = Math.max(maxX, this.instanceBounds[ib + OFFSET_MAX_X]);
+                    maxY = Math.max(maxY, this.instanceBounds[ib + OFFSET_MAX_Y]);
+                    maxZ = Math.max(maxZ, this.instanceBounds[ib + OFFSET_MAX_Z]);
+                }
+            } else {
+                int right = this.nodeData[d + OFFSET_RIGHT];
+                int lb = left * NODE_BOUNDS_SIZE;
+                int rb = right * NODE_BOUNDS_SIZE;
+                minX = Math.min(this.nodeBounds[lb + OFFSET_MIN_X], this.nodeBounds[rb + OFFSET_MIN_X]);
+                minY = Math.min(this.nodeBounds[lb + OFFSET_MIN_Y], this.nodeBounds[rb + OFFSET_MIN_Y]);
+                minZ = Math.min(this.nodeBounds[lb + OFFSET_MIN_Z], this.nodeBounds[rb + OFFSET_MIN_Z]);
+                maxX = Math.max(this.nodeBounds[lb + OFFSET_MAX_X], this.nodeBounds[rb + OFFSET_MAX_X]);
+                maxY = Math.max(this.nodeBounds[lb + OFFSET_MAX_Y], this.nodeBounds[rb + OFFSET_MAX_Y]);
+                maxZ = Math.max(this.nodeBounds[lb + OFFSET_MAX_Z], this.nodeBounds[rb + OFFSET_MAX_Z]);
+            }
+
+            this.nodeBounds[b + OFFSET_MIN_X] = minX;
+            this.nodeBounds[b + OFFSET_MIN_Y] = minY;
+            this.nodeBounds[b + OFFSET_MIN_Z] = minZ;
+            this.nodeBounds[b + OFFSET_MAX_X] = maxX;
+            this.nodeBounds[b + OFFSET_MAX_Y] = maxY;
+            this.nodeBounds[b + OFFSET_MAX_Z] = maxZ;
+        }
+    }
+
+    public boolean refit() {
+        boolean changed = false;
+        for (int i = 0; i < this.objects.length; i++) {
+            this.objects[i].calculateToWorldSpace(this.refitTransformation);
+            if (!this.refitTransformation.equals(this.toWorldSpace[i])) {
+                this.toWorldSpace[i].set(this.refitTransformation);
+                this.toWorldSpace[i].invert(this.toObjectSpace[i]);
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return false;
+        }
+        for (int i = 0; i < this.instanceObjects.length; i++) {
+            calculateInstanceBounds(i);
+        }
+        refitNodes();
+        return true;
+    }
+
+    public int getNumberOfObjects() {
+        return this.objects.length;
+    }
+
+    public int getNumberOfInstances() {
+        return this.instanceObjects.length;
+    }
+
+    public int getAmountOfNodes() {
+        return amountOfNodes;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public boolean testRayClosest(
+            double pX, double pY, double pZ,
+            float dX, float dY, float dZ,
+            double maxDistance,
+            NRayHit hit
+    ) {
+        if (Double.isNaN(maxDistance)) {
+            maxDistance = Double.POSITIVE_INFINITY;
+        }
+        if (this.amountOfNodes == 0) {
+            return false;
+        }
+
+        double directionLength = Math.sqrt((dX * dX) + (dY * dY) + (dZ * dZ));
+        double invDirX = 1.0 / dX;
+        double invDirY = 1.0 / dY;
+        double invDirZ = 1.0 / dZ;
+
+        double rootDistance = intersectRayNode(this.nodeBounds, 0, pX, pY, pZ, invDirX, invDirY, invDirZ);
+        if (rootDistance < 0.0) {
+            return false;
+        }
+
+        int[] stack = hit.instanceStack(this.maxDepth + 2);
+        double[] distances = hit.instanceDistanceStack(this.maxDepth + 2);
+        int stackSize = 0;
+
+        stack[stackSize] = 0;
+        distances[stackSize] = rootDistance * directionLength;
+        stackSize++;
+
+        boolean found = false;
+        while (stackSize != 0) {
+            stackSize--;
+            int node = stack[stackSize];
+            if (distances[stackSize] > maxDistance) {
+                continue;
+            }
+
+            int d = node * NODE_DATA_SIZE;
+            int left = this.nodeData[d + OFFSET_LEFT];
+            if (left < 0) {
+                int first = this.nodeData[d + OFFSET_FIRST_INSTANCE];
+                int amount = this.nodeData[d + OFFSET_AMOUNT_OF_INSTANCES];
+                for (int i = first; i < first + amount; i++) {
+                    int instance = this.nodeInstances[i];
+                    int object = this.instanceObjects[instance];
+
+                    Matrix4d toObject = this.toObjectSpace[object];
+                    toObject.transformPosition(pX, pY, pZ, hit.objectPosition);
+                    toObject.transformDirection(dX, dY, dZ, hit.objectDirection);
+
+                    if (this.objects[object].testGeometryRayClosest(
+                            this.instanceGeometries[instance],
+                            this.toWorldSpace[object], hit.objectPosition, hit.objectDirection,
+                            pX, pY, pZ,
+                            dX, dY, dZ,
+                            maxDistance,
+                            hit
+                    )) {
+                        maxDistance = hit.getDistance();
+                        found = true;
+                    }
+                }
+                continue;
+            }
+            int right = this.nodeData[d + OFFSET_RIGHT];
+
+            double leftDistance = intersectRayNode(this.nodeBounds, left, pX, pY, pZ, invDirX, invDirY, invDirZ);
+            double rightDistance = intersectRayNode(this.nodeBounds, right, pX, pY, pZ, invDirX, invDirY, invDirZ);
+
+            if (leftDistance >= 0.0 && rightDistance >= 0.0 && rightDistance < leftDistance) {
+                stack[stackSize] = left;
+                distances[stackSize] = leftDistance * directionLength;
+                stackSize++;
+                stack[stackSize] = right;
+                distances[stackSize] = rightDistance * directionLength;
+                stackSize++;
+                continue;
+            }
+            if (rightDistance >= 0.0) {
+                stack[stackSize] = right;
+                distances[stackSize] = rightDistance * directionLength;
+                stackSize++;
+            }
+            if (leftDistance >= 0.0) {
+                stack[stackSize] = left;
+                distances[stackSize] = leftDistance * directionLength;
+                stackSize++;
+            }
+        }
+
+        return found;
+    }
+
+    public boolean testRayAny(
+            double pX, double pY, double pZ,
+            float dX, float dY, float dZ,
+            double maxDistance
+    ) {
+        if (Double.isNaN(maxDistance)) {
+            maxDistance = Double.POSITIVE_INFINITY;
+        }
+        if (this.amountOfNodes == 0) {
+            return false;
+        }
+
+        double directionLength = Math.sqrt((dX * dX) + (dY * dY) + (dZ * dZ));
+        double invDirX = 1.0 / dX;
+        double invDirY = 1.0 / dY;
+        double invDirZ = 1.0 / dZ;
+
+        Vector3d objectPosition = new Vector3d();
+        Vector3d objectDirection = new Vector3d();
+        Vector3f geometryPosition = new Vector3f();
+        Vector3f geometryDirection = new Vector3f();
+
+        int[] stack = new int[this.maxDepth + 2];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+
+        while (stackSize != 0) {
+            int node = stack[--stackSize];
+
+            double distance = intersectRayNode(this.nodeBounds, node, pX, pY, pZ, invDirX, invDirY, invDirZ);
+            if (distance < 0.0 || (distance * directionLength) > maxDistance) {
+                continue;
+            }
+
+            int d = node * NODE_DATA_SIZE;
+            int left = this.nodeData[d + OFFSET_LEFT];
+            if (left < 0) {
+                int first = this.nodeData[d + OFFSET_FIRST_INSTANCE];
+                int amount = this.nodeData[d + OFFSET_AMOUNT_OF_INSTANCES];
+                for (int i = first; i < first + amount; i++) {
+                    int instance = this.nodeInstances[i];
+                    int object = this.instanceObjects[instance];
+
+                    Matrix4d toObject = this.toObjectSpace[object];
+                    toObject.transformPosition(pX, pY, pZ, objectPosition);
+                    toObject.transformDirection(dX, dY, dZ, objectDirection);
+
+                    if (this.objects[object].testGeometryRayAny(
+                            this.instanceGeometries[instance],
+                            objectPosition, objectDirection,
+                            maxDistance,
+                            geometryPosition, geometryDirection
+                    )) {
+                        return true;
+                    }
+                }
+                continue;
+            }
+
+            stack[stackSize++] = this.nodeData[d + OFFSET_RIGHT];
+            stack[stackSize++] = left;
+        }
+
+        return false;
+    }
+
+    public List<NRayResult> testRay(
+            double pX, double pY, double pZ,
+            float dX, float dY, float dZ
+    ) {
+        List<NRayResult> results = new ArrayList<>();
+        if (this.amountOfNodes == 0) {
+            return results;
+        }
+
+        double invDirX = 1.0 / dX;
+        double invDirY = 1.0 / dY;
+        double invDirZ = 1.0 / dZ;
+
+        Vector3d objectPosition = new Vector3d();
+        Vector3d objectDirection = new Vector3d();
+
+        int[] stack = new int[this.maxDepth + 2];
+        int stackSize = 0;
+        stack[stackSize++] = 0;
+
+        while (stackSize != 0) {
+            int node = stack[--stackSize];
+
+            if (intersectRayNode(this.nodeBounds, node, pX, pY, pZ, invDirX, invDirY, invDirZ) < 0.0) {
+                continue;
+            }
+
+            int d = node * NODE_DATA_SIZE;
+            int left = this.nodeData[d + OFFSET_LEFT];
+            if (left < 0) {
+                int first = this.nodeData[d + OFFSET_FIRST_INSTANCE];
+                int amount = this.nodeData[d + OFFSET_AMOUNT_OF_INSTANCES];
+                for (int i = first; i < first + amount; i++) {
+                    int instance = this.nodeInstances[i];
+                    int object = this.instanceObjects[instance];
+
+                    Matrix4d toObject = this.toObjectSpace[object];
+                    toObject.transformPosition(pX, pY, pZ, objectPosition);
+                    toObject.transformDirection(dX, dY, dZ, objectDirection);
+
+                    this.objects[object].testGeometryRay(
+                            this.instanceGeometries[instance],
+                            this.toWorldSpace[object], objectPosition, objectDirection,
+                            pX, pY, pZ,
+                            dX, dY, dZ,
+                            results
+                    );
+                }
+                continue;
+            }
+
+            stack[stackSize++] = this.nodeData[d + OFFSET_RIGHT];
+            stack[stackSize++] = left;
+        }
+
+        results.sort((o1, o2) -> Double.compare(o1.getDistance(), o2.getDistance()));
+
+        return results;
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.newrendering;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author Cien
+ */
+public class NLightmapsCache {
+
+    public static final String EXTENSION = "lit";
+
+    public static volatile Path CACHE_DIRECTORY = null;
+    public static volatile long MAX_CACHE_SIZE = 1024L * 1024L * 1024L;
+    public static volatile int MAX_CACHE_ENTRIES = 256;
+
+    private static class Entry {
+
+        final Path file;
+        final long size;
+        final long lastModified;
+
+        public Entry(Path file, long size, long lastModified) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+
+    private static Path entryFile(Path directory, String key) {
+        return directory.resolve(key + "." + EXTENSION);
+    }
+
+    public static NLightmaps read(String key) {
+        Path directory = CACHE_DIRECTORY;
+        if (directory == null) {
+            return null;
+        }
+        Path file = entryFile(directory, key);
+
+        NLightmaps lightmaps;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            lightmaps = NLightmapsStore.readLightmaps(in);
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException | RuntimeException ex) {
+            ex.printStackTrace(System.out);
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ex1) {
+                ex1.printStackTrace(System.out);
+            }
+            return null;
+        }
+
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ex) {
+            ex.printStackTrace(System.out);
+        }
+
+        return lightmaps;
+    }
+
+    public static void write(String key, NLightmaps lightmaps) {
+        Path directory = CACHE_DIRECTORY;
+        if (directory == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, key, ".tmp");
+            try {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                    NLightmapsStore.writeLightmaps(lightmaps, out);
+                }
+                long size = Files.size(temporary);
+                if (size > MAX_CACHE_SIZE) {
+                    System.out.println("Lightmaps "+key+" not cached, "+size+" bytes is larger than the cache size limit of "+MAX_CACHE_SIZE+" bytes.");
+                    return;
+                }
+                Files.move(temporary, entryFile(directory, key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            evict(directory);
+        } catch (IOException ex) {
+            ex.printStackTrace(System.out);
+        }
+    }
+
+    public static void evict() {
+        Path directory = CACHE_DIRECTORY;
+        if (directory == null) {
+            return;
+        }
+        try {
+            evict(directory);
+        } catch (IOException ex) {
+            ex.printStackTrace(System.out);
+        }
+    }
+
+    private static List<Entry> entries(Path directory) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return entries;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*." + EXTENSION)) {
+            for (Path file : files) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException ex) {
+                    continue;
+                }
+                entries.add(new Entry(file, attributes.size(), attributes.lastModifiedTime().toMillis()));
+            }
+        }
+        return entries;
+    }
+
+    private static synchronized void evict(Path directory) throws IOException {
+        List<Entry> entries = entries(directory);
+        entries.sort((o1, o2) -> {
+            int compare = Long.compare(o2.lastModified, o1.lastModified);
+            if (compare != 0) {
+                return compare;
+            }
+            return o1.file.getFileName().toString().compareTo(o2.file.getFileName().toString());
+        });
+
+        long maxSize = MAX_CACHE_SIZE;
+        int maxEntries = MAX_CACHE_ENTRIES;
+
+        long size = 0;
+        int kept = 0;
+        for (Entry e : entries) {
+            if (kept >= maxEntries || (size + e.size) > maxSize) {
+                Files.deleteIfExists(e.file);
+                continue;
+            }
+            size += e.size;
+            kept++;
+        }
+    }
+
+    public static void clear() {
+        Path directory = CACHE_DIRECTORY;
+        if (directory == null) {
+            return;
+        }
+        try {
+            for (Entry e : entries(directory)) {
+                Files.deleteIfExists(e.file);
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace(System.out);
+        }
+    }
+
+    private NLightmapsCache() {
+
+    }
+
+}
@@ -29,6 +29,7 @@ package cientistavuador.cienspools.newrendering;
 import cientistavuador.cienspools.util.bakedlighting.AmbientCube;
 import cientistavuador.cienspools.Main;
 import cientistavuador.cienspools.util.ColorUtils;
+import cientistavuador.cienspools.util.CryptoUtils;
 import cientistavuador.cienspools.util.DXT5TextureStore;
 import cientistavuador.cienspools.util.DXT5TextureStore.DXT5Texture;
 import cientistavuador.cienspools.util.E8Image;
@@ -38,17 +39,22 @@ import cientistavuador.cienspools.util.RGBA8Image;
 import cientistavuador.cienspools.util.bakedlighting.LightmapAmbientCube;
 import cientistavuador.cienspools.util.bakedlighting.LightmapUVs;
 import cientistavuador.cienspools.util.bakedlighting.Lightmapper;
+import cientistavuador.cienspools.util.bakedlighting.LightmapperFingerprints;
+import cientistavuador.cienspools.util.bakedlighting.LightmapperService;
+import cientistavuador.cienspools.util.bakedlighting.LightmapperTelemetry;
 import cientistavuador.cienspools.util.bakedlighting.Scene;
+import cientistavuador.cienspools.util.raycast.LocalRayHit;
 import cientistavuador.cienspools.util.raycast.LocalRayResult;
 import com.jme3.bullet.collision.shapes.MeshCollisionShape;
 import com.jme3.bullet.collision.shapes.infos.IndexedMesh;
 import com.jme3.bullet.objects.PhysicsRigidBody;
 import com.jme3.util.BufferUtils;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import org.joml.Matrix3f;
 import org.joml.Matrix4f;
@@ -109,11 +115,12 @@ public class NMap {
 
     public static class BakeStatus {
 
-        private final Future<Void> task;
-        private Lightmapper lightmapper;
+        private volatile LightmapperService.Job<Void> job;
+        private volatile Lightmapper lightmapper;
+        private volatile LightmapperTelemetry.Snapshot telemetry;
+
+        private BakeStatus() {
 
-        public BakeStatus(Future<Void> task) {
-            this.task = task;
         }
 
         protected Lightmapper getLightmapper() {
@@ -121,32 +128,55 @@ public class NMap {
         }
 
         protected void setLightmapper(Lightmapper lightmapper) {
+            Lightmapper previous = this.lightmapper;
+            if (lightmapper == null && previous != null) {
+                this.telemetry = previous.getTelemetry();
+            }
             this.lightmapper = lightmapper;
         }
 
+        public LightmapperService.Job<Void> getJob() {
+            return job;
+        }
+
         public Future<Void> getTask() {
-            return task;
+            return this.job.getFuture();
+        }
+
+        public void cancel() {
+            this.job.cancel();
         }
 
         public String getStatus() {
-            if (this.lightmapper == null) {
-                return "Waiting for Lightmapper Creation";
+            Lightmapper l = this.lightmapper;
+            if (l == null) {
+                return this.job.getStatus();
             }
-            return this.lightmapper.getStatus();
+            return l.getStatus();
         }
 
         public double getRaysPerSecond() {
-            if (this.lightmapper == null) {
+            Lightmapper l = this.lightmapper;
+            if (l == null) {
                 return 0.0;
             }
-            return this.lightmapper.getRaysPerSecond();
+            return l.getRaysPerSecond();
         }
 
         public double getProgress() {
-            if (this.lightmapper == null) {
+            Lightmapper l = this.lightmapper;
+            if (l == null) {
                 return 0.0;
             }
-            return this.lightmapper.getProgress();
+            return l.getProgress();
+        }
+
+        public LightmapperTelemetry.Snapshot getTelemetry() {
+            Lightmapper l = this.lightmapper;
+            if (l == null) {
+                return this.telemetry;
+            }
+            return l.getTelemetry();
         }
     }
 
@@ -168,6 +198,8 @@ public class NMap {
     private final int lightmapSize;
     private final Rectanglei[] lightmapRectangles;
 
+    private final NInstanceBVH instanceBVH;
+
     private NLightmaps lightmaps = null;
     private NCubemaps cubemaps = null;
 
@@ -388,6 +420,8 @@ public class NMap {
 
         this.meshCollision = new MeshCollisionShape(true, collisionMeshes);
         this.rigidBody = new PhysicsRigidBody(this.meshCollision, 0f);
+
+        this.instanceBVH = new NInstanceBVH(this.objects);
     }
 
     public String getName() {
@@ -453,19 +487,44 @@ public class NMap {
         this.cubemaps = cubemaps;
     }
 
+    public NInstanceBVH getInstanceBVH() {
+        return instanceBVH;
+    }
+
+    public boolean refitInstances() {
+        return this.instanceBVH.refit();
+    }
+
     public List<NRayResult> testRay(
             double pX, double pY, double pZ,
             float dX, float dY, float dZ
     ) {
-        List<NRayResult> results = new ArrayList<>();
+        return this.instanceBVH.testRay(pX, pY, pZ, dX, dY, dZ);
+    }
 
-        for (N3DObject obj : this.objects) {
-            results.addAll(obj.testRay(pX, pY, pZ, dX, dY, dZ));
-        }
+    public boolean testRayAny(
+            double pX, double pY, double pZ,
+            float dX, float dY, float dZ,
+            double maxDistance
+    ) {
+        return this.instanceBVH.testRayAny(pX, pY, pZ, dX, dY, dZ, maxDistance);
+    }
 
-        results.sort((o1, o2) -> Double.compare(o1.getDistance(), o2.getDistance()));
+    public boolean testRayClosest(
+            double pX, double pY, double pZ,
+            float dX, float dY, float dZ,
+            NRayHit hit
+    ) {
+        return testRayClosest(pX, pY, pZ, dX, dY, dZ, Double.POSITIVE_INFINITY, hit);
+    }
 
-        return results;
+    public boolean testRayClosest(
+            double pX, double pY, double pZ,
+            float dX, float dY, float dZ,
+            double maxDistance,
+            NRayHit hit
+    ) {
+        return this.instanceBVH.testRayClosest(pX, pY, pZ, dX, dY, dZ, maxDistance, hit);
     }
 
     public void testShadow(
@@ -554,17 +613,11 @@ public class NMap {
                 }
                 direction.div(distance);
 
-                List<NRayResult> results = testRay(
+                if (!testRayAny(
                         pX, pY, pZ,
-                        direction.x(), direction.y(), direction.z()
-                );
-
-                if (!results.isEmpty()) {
-                    NRayResult closest = results.get(0);
-                    if (closest.getDistance() > distance) {
-                        filtered.add(e);
-                    }
-                } else {
+                        direction.x(), direction.y(), direction.z(),
+                        distance
+                )) {
                     filtered.add(e);
                 }
             }
@@ -647,6 +700,7 @@ public class NMap {
 
         Vector3f direction = new Vector3f();
         Vector3f weights = new Vector3f();
+        NRayHit hit = new NRayHit();
 
         Vector3f lightmapColor = new Vector3f();
 
@@ -658,14 +712,12 @@ public class NMap {
             for (int j = 0; j < numberOfRays; j++) {
                 AmbientCube.randomSideDirection180(i, direction);
 
-                List<NRayResult> rayResults = testRay(
+                if (testRayClosest(
                         pX, pY, pZ,
-                        direction.x(), direction.y(), direction.z()
-                );
-                if (!rayResults.isEmpty()) {
-                    NRayResult closest = rayResults.get(0);
-
-                    LocalRayResult localRay = closest.getLocalRay();
+                        direction.x(), direction.y(), direction.z(),
+                        hit
+                )) {
+                    LocalRayHit localRay = hit.getLocalHit();
                     localRay.weights(weights);
 
                     float lu = localRay.lerp(weights, NMesh.OFFSET_LIGHTMAP_TEXTURE_XY + 0);
@@ -689,23 +741,81 @@ public class NMap {
     }
 
     public BakeStatus bake(Scene scene) {
-        CompletableFuture<Void> task = new CompletableFuture<>();
-        BakeStatus status = new BakeStatus(task);
-        Thread t = new Thread(() -> {
-            try {
-                this.bake(status, scene);
-                task.complete(null);
-                status.setLightmapper(null);
-            } catch (Throwable ex) {
-                task.completeExceptionally(ex);
-            }
-        }, "Lightmapper-map-" + this.name);
-        t.start();
+        return bake(scene, LightmapperService.DEFAULT_PRIORITY, false);
+    }
+
+    public BakeStatus bake(Scene scene, boolean headless) {
+        return bake(scene, LightmapperService.DEFAULT_PRIORITY, headless);
+    }
 
+    public BakeStatus bake(Scene scene, int priority, boolean headless) {
+        BakeStatus status = new BakeStatus();
+        status.job = LightmapperService.getShared().submit("map-" + this.name, priority, (job) -> {
+            NLightmaps finalLightmaps = this.bake(status, job, scene);
+            if (!headless) {
+                Main.MAIN_TASKS.add(() -> {
+                    for (N3DObject obj : this.objects) {
+                        obj.setLightmaps(finalLightmaps);
+                    }
+                });
+            }
+            status.setLightmapper(null);
+            return null;
+        });
         return status;
     }
 
-    private void bake(BakeStatus status, Scene scene) {
+    private String bakeFingerprint(Scene scene) {
+        StringBuilder b = new StringBuilder();
+
+        b.append(this.name).append('\n');
+        b.append(this.lightmapMargin).append(' ');
+        b.append(this.lightmapPixelToWorldRatio).append(' ');
+        b.append(this.lightmapSize).append('\n');
+        for (Rectanglei r : this.lightmapRectangles) {
+            b.append(r.minX).append(' ').append(r.minY).append(' ');
+            b.append(r.maxX).append(' ').append(r.maxY).append('\n');
+        }
+
+        double[] transformation = new double[16];
+        for (N3DObject obj : this.objects) {
+            b.append(obj.getName()).append('\n');
+            obj.getTransformation().get(transformation);
+            for (double d : transformation) {
+                b.append(d).append(' ');
+            }
+            b.append('\n');
+
+            N3DModel model = obj.getN3DModel();
+            for (int i = 0; i < model.getNumberOfGeometries(); i++) {
+                NGeometry geometry = model.getGeometry(i);
+                NMaterial material = geometry.getMaterial();
+
+                b.append(geometry.getMesh().getSha256()).append(' ');
+                b.append(material.isInvisible()).append(' ');
+                b.append(material.getBlendingMode()).append(' ');
+                b.append(material.getEmissive()).append(' ');
+                b.append(material.getTextures().getLightmapSha256()).append('\n');
+            }
+        }
+
+        b.append(LightmapperFingerprints.scene(scene));
+
+        return CryptoUtils.sha256(ByteBuffer.wrap(b.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private NLightmaps bake(BakeStatus status, LightmapperService.Job<Void> job, Scene scene) {
+        String fingerprint = null;
+        if (NLightmapsCache.CACHE_DIRECTORY != null) {
+            fingerprint = bakeFingerprint(scene);
+
+            NLightmaps cached = NLightmapsCache.read(fingerprint);
+            if (cached != null) {
+                this.lightmaps = cached;
+                return cached;
+            }
+        }
+
         float[] opaqueMesh = new float[Lightmapper.VERTEX_SIZE * 64];
         int opaqueMeshIndex = 0;
 
@@ -849,6 +959,8 @@ public class NMap {
                 this.lightmapMargin, this.lightmapSize, this.lightmapRectangles,
                 opaqueMesh, alphaMesh
         );
+        lightmapper.setPreviousKey("map-" + this.name);
+        lightmapper.setJob(job);
         status.setLightmapper(lightmapper);
 
         Lightmapper.LightmapperOutput output = lightmapper.bake();
@@ -922,11 +1034,11 @@ public class NMap {
 
         this.lightmaps = finalLightmaps;
 
-        Main.MAIN_TASKS.add(() -> {
-            for (N3DObject obj : this.objects) {
-                obj.setLightmaps(finalLightmaps);
-            }
-        });
+        if (fingerprint != null) {
+            NLightmapsCache.write(fingerprint, finalLightmaps);
+        }
+
+        return finalLightmaps;
     }
 
 }
@@ -111,10 +111,8 @@ public class NMesh {
             Path bvhPath = r.getData().get(BVH_FILE_NAME);
             BVH bvh;
             if (bvhPath != null) {
-                try (BufferedInputStream in = new BufferedInputStream(Files.newInputStream(bvhPath))) {
-                    bvh = BVHStore.readBVH(
-                            in, vertices, indices, NMesh.VERTEX_SIZE, NMesh.OFFSET_POSITION_XYZ, mesh);
-                }
+                bvh = BVHStore.readBVH(
+                        bvhPath, vertices, indices, NMesh.VERTEX_SIZE, NMesh.OFFSET_POSITION_XYZ, mesh);
                 mesh.setBVH(bvh);
             } else {
                 mesh.generateBVH();
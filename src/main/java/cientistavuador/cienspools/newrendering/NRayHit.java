@@ -0,0 +1,141 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.newrendering;
+
+import cientistavuador.cienspools.util.raycast.LocalRayHit;
+import org.joml.Matrix4d;
+import org.joml.Vector3d;
+import org.joml.Vector3dc;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ *
+ * @author Cien
+ */
+public class NRayHit {
+
+    private final Vector3d origin = new Vector3d();
+    private final Vector3f direction = new Vector3f();
+    private final Vector3d hitPosition = new Vector3d();
+    private double distance = Double.POSITIVE_INFINITY;
+    private N3DObject object = null;
+    private NGeometry geometry = null;
+    private LocalRayHit localHit = new LocalRayHit();
+
+    LocalRayHit candidateHit = new LocalRayHit();
+    final Matrix4d toWorldSpace = new Matrix4d();
+    final Matrix4d toObjectSpace = new Matrix4d();
+    final Vector3d objectPosition = new Vector3d();
+    final Vector3d objectDirection = new Vector3d();
+    final Vector3d candidatePosition = new Vector3d();
+    final Vector3f geometryPosition = new Vector3f();
+    final Vector3f geometryDirection = new Vector3f();
+    final Vector3f rootSpaceHitPosition = new Vector3f();
+
+    private int[] instanceStack = new int[0];
+    private double[] instanceDistanceStack = new double[0];
+
+    public NRayHit() {
+
+    }
+
+    public void reset() {
+        this.origin.zero();
+        this.direction.zero();
+        this.hitPosition.zero();
+        this.distance = Double.POSITIVE_INFINITY;
+        this.object = null;
+        this.geometry = null;
+        this.localHit.reset();
+    }
+
+    int[] instanceStack(int size) {
+        if (this.instanceStack.length < size) {
+            this.instanceStack = new int[size];
+        }
+        return this.instanceStack;
+    }
+
+    double[] instanceDistanceStack(int size) {
+        if (this.instanceDistanceStack.length < size) {
+            this.instanceDistanceStack = new double[size];
+        }
+        return this.instanceDistanceStack;
+    }
+
+    void accept(
+            double pX, double pY, double pZ,
+            float dX, float dY, float dZ,
+            Vector3dc hitPosition, double distance,
+            N3DObject object, NGeometry geometry
+    ) {
+        this.origin.set(pX, pY, pZ);
+        this.direction.set(dX, dY, dZ);
+        this.hitPosition.set(hitPosition);
+        this.distance = distance;
+        this.object = object;
+        this.geometry = geometry;
+
+        LocalRayHit swap = this.localHit;
+        this.localHit = this.candidateHit;
+        this.candidateHit = swap;
+    }
+
+    public boolean hasHit() {
+        return this.object != null;
+    }
+
+    public Vector3dc getOrigin() {
+        return origin;
+    }
+
+    public Vector3fc getDirection() {
+        return direction;
+    }
+
+    public Vector3dc getHitPosition() {
+        return hitPosition;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public N3DObject getObject() {
+        return object;
+    }
+
+    public NGeometry getGeometry() {
+        return geometry;
+    }
+
+    public LocalRayHit getLocalHit() {
+        return localHit;
+    }
+
+}
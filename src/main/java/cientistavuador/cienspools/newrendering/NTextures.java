@@ -32,6 +32,7 @@ import cientistavuador.cienspools.resourcepack.ResourcePackWriter.DataEntry;
 import cientistavuador.cienspools.resourcepack.ResourcePackWriter.ResourceEntry;
 import cientistavuador.cienspools.resourcepack.ResourceRW;
 import cientistavuador.cienspools.util.DXT5TextureStore;
+import cientistavuador.cienspools.util.CryptoUtils;
 import cientistavuador.cienspools.util.DXT5TextureStore.DXT5Texture;
 import cientistavuador.cienspools.util.M8Image;
 import cientistavuador.cienspools.util.MipmapUtils;
@@ -221,6 +222,8 @@ public class NTextures {
     private WeakReference<byte[]> decompressed_cr_cg_cb_ca_ref = null;
     private WeakReference<byte[]> decompressed_ht_rg_mt_nx_ref = null;
     private WeakReference<byte[]> decompressed_em_ao_wt_ny_ref = null;
+
+    private volatile String lightmapSha256 = null;
     
     public NTextures(
             String id,
@@ -351,6 +354,16 @@ public class NTextures {
         return decompressed;
     }
 
+    public String getLightmapSha256() {
+        String sha256 = this.lightmapSha256;
+        if (sha256 == null) {
+            sha256 = CryptoUtils.sha256(ByteBuffer.wrap(data_r_g_b_a()))
+                    + CryptoUtils.sha256(ByteBuffer.wrap(data_er_eg_eb_ny()));
+            this.lightmapSha256 = sha256;
+        }
+        return sha256;
+    }
+
     private void validateTextures() {
         if (this.wrappedTextures.textures != 0) {
             return;
@@ -126,39 +126,42 @@ public class AmbientCube {
     };
     
     public static void randomSideDirection180(int side, Vector3f outDirection) {
-        Vector3fc min = SIDE_CUBES[side][0];
-        Vector3fc max = SIDE_CUBES[side][1];
-
         ThreadLocalRandom random = ThreadLocalRandom.current();
+        sampleSideDirection180(side, random.nextFloat(), random.nextFloat(), outDirection);
+    }
+
+    public static void sampleSideDirection180(int side, float u, float v, Vector3f outDirection) {
+        LightmapperSampler.uniformHemisphere(u, v, outDirection);
+
+        int axis = side / 2;
+        float sign = (side % 2 == 0 ? 1f : -1f);
+
+        float x = outDirection.x();
+        float y = outDirection.y();
+        float z = outDirection.z() * sign;
 
-        float x;
-        float y;
-        float z;
-        float lengthSquared;
-        do {
-            x = random.nextFloat();
-            y = random.nextFloat();
-            z = random.nextFloat();
-            
-            x = (min.x() * (1f - x)) + (max.x() * x);
-            y = (min.y() * (1f - y)) + (max.y() * y);
-            z = (min.z() * (1f - z)) + (max.z() * z);
-            
-            lengthSquared = (x * x) + (y * y) + (z * z);
-        } while (lengthSquared == 0f || lengthSquared > 1f);
-
-        outDirection.set(x, y, z).normalize();
+        switch (axis) {
+            case 0 -> outDirection.set(z, x, y);
+            case 1 -> outDirection.set(y, z, x);
+            case 2 -> outDirection.set(x, y, z);
+        }
     }
 
     public static void randomSideDirection90(int side, Vector3f outDirection) {
-        Vector3fc[] quad = SIDE_QUADS[side];
-
         ThreadLocalRandom random = ThreadLocalRandom.current();
+        sampleSideDirection90(side,
+                random.nextFloat(), random.nextFloat(),
+                random.nextFloat(), random.nextFloat(),
+                outDirection
+        );
+    }
 
-        float w0 = random.nextFloat();
-        float w1 = random.nextFloat();
-        float w2 = random.nextFloat();
-        float w3 = random.nextFloat();
+    public static void sampleSideDirection90(
+            int side,
+            float w0, float w1, float w2, float w3,
+            Vector3f outDirection
+    ) {
+        Vector3fc[] quad = SIDE_QUADS[side];
 
         float sum = w0 + w1 + w2 + w3;
 
@@ -43,8 +43,6 @@ import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import org.joml.Matrix3f;
 import org.joml.Vector3f;
@@ -197,7 +195,8 @@ public class BakedLighting {
     public static Status bake(BakedLightingOutput output, Scene scene) {
         Status status = new Status();
         BakedLighting baked = new BakedLighting(output, scene, status);
-        status.task = CompletableFuture.runAsync(() -> {
+        status.task = LightmapperService.getShared().<Void>submit("BakedLighting", LightmapperService.DEFAULT_PRIORITY, (job) -> {
+            baked.job = job;
             try {
                 baked.bake();
                 status.currentProgress = 100f;
@@ -208,7 +207,8 @@ public class BakedLighting {
                 status.error = true;
                 throw t;
             }
-        });
+            return null;
+        }).getFuture();
         return status;
     }
 
@@ -345,7 +345,7 @@ public class BakedLighting {
     }
 
     //global state
-    private final ExecutorService threads = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    private LightmapperService.Job<Void> job = null;
     private final BakedLightingOutput output;
     private final Scene scene;
     private final List<Geometry> geometries;
@@ -737,7 +737,7 @@ public class BakedLighting {
     }
 
     private void bakeLightComponents() {
-        int amountOfCores = Runtime.getRuntime().availableProcessors();
+        int amountOfCores = this.job.getService().getNumberOfThreads();
 
         this.status.setProgressBarStep(this.geometryLightmapSize);
 
@@ -754,9 +754,9 @@ public class BakedLighting {
                 if (line >= this.geometryLightmapSize) {
                     break;
                 }
-                tasks.add(this.threads.submit(() -> {
+                tasks.add(CompletableFuture.runAsync(() -> {
                     processLine(line);
-                }));
+                }, this.job));
             }
 
             for (Future<?> f : tasks) {
@@ -1261,7 +1261,7 @@ public class BakedLighting {
         final ColorBuffer indirectOutput = new ColorBuffer(this.geometryLightmapSize, numSamples);
         final GrayBuffer reversedShadowOutput = new GrayBuffer(this.geometryLightmapSize, numSamples);
 
-        int amountOfCores = Runtime.getRuntime().availableProcessors();
+        int amountOfCores = this.job.getService().getNumberOfThreads();
         List<Future<?>> tasks = new ArrayList<>(amountOfCores);
 
         this.status.setProgressBarStep(this.lightmapperQuads.length);
@@ -1273,9 +1273,9 @@ public class BakedLighting {
                 if (quad >= this.lightmapperQuads.length) {
                     break;
                 }
-                tasks.add(this.threads.submit(() -> {
+                tasks.add(CompletableFuture.runAsync(() -> {
                     denoiseQuad(indirectOutput, reversedShadowOutput, quad);
-                }));
+                }, this.job));
             }
 
             for (Future<?> f : tasks) {
@@ -1532,7 +1532,7 @@ public class BakedLighting {
     }
 
     private void generateMargins() {
-        int numberOfCores = Runtime.getRuntime().availableProcessors();
+        int numberOfCores = this.job.getService().getNumberOfThreads();
         this.status.setProgressBarStep(this.lightmapperQuads.length);
 
         List<Future<?>> tasks = new ArrayList<>();
@@ -1541,9 +1541,9 @@ public class BakedLighting {
             for (int j = 0; j < numberOfCores; j++) {
                 final int index = i + j;
                 if (index < this.lightmapperQuads.length) {
-                    tasks.add(this.threads.submit(() -> {
+                    tasks.add(CompletableFuture.runAsync(() -> {
                         generateMargin(this.lightmapperQuads[index]);
-                    }));
+                    }, this.job));
                 }
             }
             for (Future<?> task : tasks) {
@@ -1661,31 +1661,27 @@ public class BakedLighting {
     }
 
     public void bake() {
-        try {
-            loadTextures();
-            scheduleLightmapMeshes();
-            waitForLightmapMeshes();
-            waitForBVHs();
-            for (int i = 0; i < this.geometries.size(); i++) {
-                loadGeometry(i);
-                computeGeometryBuffers();
-                for (int j = 0; j < this.lightGroups.size(); j++) {
-                    loadLightGroup(j);
-                    for (int k = 0; k < this.currentLightGroupLights.size(); k++) {
-                        loadLight(k);
-                        bakeLightComponents();
-                        denoiseComponents();
-                        combineComponents();
-                        unloadLight();
-                    }
-                    generateMargins();
-                    outputLightmap();
-                    unloadLightGroup();
+        loadTextures();
+        scheduleLightmapMeshes();
+        waitForLightmapMeshes();
+        waitForBVHs();
+        for (int i = 0; i < this.geometries.size(); i++) {
+            loadGeometry(i);
+            computeGeometryBuffers();
+            for (int j = 0; j < this.lightGroups.size(); j++) {
+                loadLightGroup(j);
+                for (int k = 0; k < this.currentLightGroupLights.size(); k++) {
+                    loadLight(k);
+                    bakeLightComponents();
+                    denoiseComponents();
+                    combineComponents();
+                    unloadLight();
                 }
-                unloadGeometry();
+                generateMargins();
+                outputLightmap();
+                unloadLightGroup();
             }
-        } finally {
-            this.threads.shutdownNow();
+            unloadGeometry();
         }
     }
 
@@ -76,7 +76,7 @@ public class LightmapAmbientCubeBVHStore {
         }
     }
     
-    private static void writeAmbientCubes(List<LightmapAmbientCube> cubes, ObjectOutputStream out) throws IOException {
+    static void writeAmbientCubes(List<LightmapAmbientCube> cubes, ObjectOutputStream out) throws IOException {
         out.writeInt(cubes.size());
         for (LightmapAmbientCube cube:cubes) {
             writeAmbientCube(cube, out);
@@ -118,7 +118,7 @@ public class LightmapAmbientCubeBVHStore {
         gzipOut.finish();
     }
     
-    private static List<LightmapAmbientCube> readAmbientCubes(ObjectInputStream in) throws IOException {
+    static List<LightmapAmbientCube> readAmbientCubes(ObjectInputStream in) throws IOException {
         int amount = in.readInt();
         List<LightmapAmbientCube> cubes = new ArrayList<>(amount);
         
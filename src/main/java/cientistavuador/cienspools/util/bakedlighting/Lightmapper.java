@@ -33,17 +33,22 @@ import cientistavuador.cienspools.util.RasterUtils;
 import cientistavuador.cienspools.util.postprocess.GaussianBlur;
 import cientistavuador.cienspools.util.postprocess.MarginAutomata;
 import cientistavuador.cienspools.util.raycast.BVH;
+import cientistavuador.cienspools.util.raycast.LocalRayHit;
+import cientistavuador.cienspools.util.raycast.LocalRayHits;
 import cientistavuador.cienspools.util.raycast.LocalRayResult;
+import cientistavuador.cienspools.util.raycast.OverlapQuery;
+import cientistavuador.cienspools.util.raycast.RayBatch;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.ThreadLocalRandom;
-import org.joml.Matrix3f;
+import java.util.concurrent.atomic.LongAdder;
+import org.joml.Intersectionf;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
 import org.joml.Vector4f;
@@ -76,6 +81,9 @@ public class Lightmapper {
         memory += 1L * Float.BYTES * 3 * resolution * resolution;
         memory += 1L * Float.BYTES * 3 * resolution * resolution;
 
+        memory += 1L * Float.BYTES * 3 * resolution * resolution;
+        memory += 1L * Float.BYTES * 3 * resolution * resolution;
+
         return memory;
     }
 
@@ -103,6 +111,7 @@ public class Lightmapper {
     public static final float AMBIENT_CUBE_DISTANCE_FROM_WALLS = 0.05f;
     public static final int NUMBER_OF_AMBIENT_CUBE_OCCLUSION_RAYS_PER_SIDE = 24;
     public static final int NUMBER_OF_AMBIENT_CUBE_RAYS_PER_SIDE = 1024;
+    public static final int AMBIENT_CUBE_BLOCK_SIZE = 4;
 
     private static float[] validate(float[] mesh) {
         if (mesh == null) {
@@ -173,6 +182,8 @@ public class Lightmapper {
         private final float[][] lightmapsEmissive;
         private final float[] color;
         private final LightmapAmbientCubeBVH ambientCubes;
+        private final String geometryFingerprint;
+        private final String[] groupsFingerprints;
 
         public LightmapperOutput(
                 int size,
@@ -180,7 +191,9 @@ public class Lightmapper {
                 float[][] lightmaps,
                 float[][] lightmapsEmissive,
                 float[] color,
-                LightmapAmbientCubeBVH ambientCubes
+                LightmapAmbientCubeBVH ambientCubes,
+                String geometryFingerprint,
+                String[] groupsFingerprints
         ) {
             this.size = size;
             this.names = names;
@@ -188,6 +201,19 @@ public class Lightmapper {
             this.lightmapsEmissive = lightmapsEmissive;
             this.color = color;
             this.ambientCubes = ambientCubes;
+            this.geometryFingerprint = geometryFingerprint;
+            this.groupsFingerprints = groupsFingerprints;
+        }
+
+        public LightmapperOutput(
+                int size,
+                String[] names,
+                float[][] lightmaps,
+                float[][] lightmapsEmissive,
+                float[] color,
+                LightmapAmbientCubeBVH ambientCubes
+        ) {
+            this(size, names, lightmaps, lightmapsEmissive, color, ambientCubes, null, null);
         }
 
         public int getSize() {
@@ -214,6 +240,14 @@ public class Lightmapper {
             return ambientCubes;
         }
 
+        public String getGeometryFingerprint() {
+            return geometryFingerprint;
+        }
+
+        public String[] getGroupsFingerprints() {
+            return groupsFingerprints;
+        }
+
     }
 
     private static class LightGroup {
@@ -296,7 +330,16 @@ public class Lightmapper {
 
     }
 
-    private static class Float3ImageBuffer extends Float3Buffer {
+    private static interface Float3Image {
+
+        public boolean allocated(int x, int y);
+
+        public void write(Vector3f vec, int x, int y);
+
+        public void read(Vector3f vec, int x, int y);
+    }
+
+    private static class Float3ImageBuffer extends Float3Buffer implements Float3Image {
 
         public Float3ImageBuffer(int width, int height) {
             super(width, height, 1);
@@ -306,16 +349,155 @@ public class Lightmapper {
             super(size, 1);
         }
 
+        @Override
+        public boolean allocated(int x, int y) {
+            return true;
+        }
+
+        @Override
         public void write(Vector3f vec, int x, int y) {
             this.write(vec, x, y, 0);
         }
 
+        @Override
         public void read(Vector3f vec, int x, int y) {
             this.read(vec, x, y, 0);
         }
 
     }
 
+    private static class SparseFloat3ImageBuffer implements Float3Image {
+
+        private static final int MIN_TILES_PER_BLOCK = 64;
+        private static final int MAX_BLOCKS = 16;
+
+        private final LightmapperStorage storage;
+        private final int tileSize;
+        private final int tilesPerLine;
+        private final int tileElements;
+        private final int tilesPerBlock;
+        private final int[] slots;
+        private final LightmapperStorage.Block[] blocks;
+        private int nextSlot = 0;
+
+        public SparseFloat3ImageBuffer(LightmapperStorage storage, int size, int tileSize) {
+            this.storage = storage;
+            this.tileSize = tileSize;
+            this.tilesPerLine = (size + tileSize - 1) / tileSize;
+            this.tileElements = tileSize * tileSize * 3;
+
+            int numTiles = this.tilesPerLine * this.tilesPerLine;
+            this.tilesPerBlock = Math.max(MIN_TILES_PER_BLOCK, (numTiles + MAX_BLOCKS - 1) / MAX_BLOCKS);
+            this.slots = new int[numTiles];
+            Arrays.fill(this.slots, -1);
+            this.blocks = new LightmapperStorage.Block[(numTiles + this.tilesPerBlock - 1) / this.tilesPerBlock];
+        }
+
+        private int tileIndex(int x, int y) {
+            return (x / this.tileSize) + ((y / this.tileSize) * this.tilesPerLine);
+        }
+
+        private long pixelIndex(int slot, int x, int y) {
+            long tile = ((long) (slot % this.tilesPerBlock)) * this.tileElements;
+            return tile + (((x % this.tileSize) + ((y % this.tileSize) * this.tileSize)) * 3);
+        }
+
+        private synchronized void allocateTile(int index) {
+            if (this.slots[index] >= 0) {
+                return;
+            }
+            int slot = this.nextSlot++;
+            int block = slot / this.tilesPerBlock;
+            if (this.blocks[block] == null) {
+                this.blocks[block] = this.storage.allocate(((long) this.tilesPerBlock) * this.tileElements);
+            }
+            this.slots[index] = slot;
+        }
+
+        public void allocate(int x, int y) {
+            allocateTile(tileIndex(x, y));
+        }
+
+        public void allocate(Rectanglei rectangle) {
+            if (rectangle.lengthX() <= 0 || rectangle.lengthY() <= 0) {
+                return;
+            }
+            int minTileX = Math.max(rectangle.minX / this.tileSize, 0);
+            int minTileY = Math.max(rectangle.minY / this.tileSize, 0);
+            int maxTileX = Math.min((rectangle.maxX - 1) / this.tileSize, this.tilesPerLine - 1);
+            int maxTileY = Math.min((rectangle.maxY - 1) / this.tileSize, this.tilesPerLine - 1);
+            for (int y = minTileY; y <= maxTileY; y++) {
+                for (int x = minTileX; x <= maxTileX; x++) {
+                    allocateTile(x + (y * this.tilesPerLine));
+                }
+            }
+        }
+
+        @Override
+        public boolean allocated(int x, int y) {
+            return this.slots[tileIndex(x, y)] >= 0;
+        }
+
+        public boolean allocated(Rectanglei rectangle) {
+            if (rectangle.lengthX() <= 0 || rectangle.lengthY() <= 0) {
+                return false;
+            }
+            int minTileX = Math.max(rectangle.minX / this.tileSize, 0);
+            int minTileY = Math.max(rectangle.minY / this.tileSize, 0);
+            int maxTileX = Math.min((rectangle.maxX - 1) / this.tileSize, this.tilesPerLine - 1);
+            int maxTileY = Math.min((rectangle.maxY - 1) / this.tileSize, this.tilesPerLine - 1);
+            for (int y = minTileY; y <= maxTileY; y++) {
+                for (int x = minTileX; x <= maxTileX; x++) {
+                    if (this.slots[x + (y * this.tilesPerLine)] >= 0) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void write(Vector3f vec, int x, int y) {
+            int slot = this.slots[tileIndex(x, y)];
+            if (slot < 0) {
+                return;
+            }
+            LightmapperStorage.Block block = this.blocks[slot / this.tilesPerBlock];
+            long pixel = pixelIndex(slot, x, y);
+            block.setFloat(pixel + 0, vec.x());
+            block.setFloat(pixel + 1, vec.y());
+            block.setFloat(pixel + 2, vec.z());
+        }
+
+        @Override
+        public void read(Vector3f vec, int x, int y) {
+            int slot = this.slots[tileIndex(x, y)];
+            if (slot < 0) {
+                vec.zero();
+                return;
+            }
+            LightmapperStorage.Block block = this.blocks[slot / this.tilesPerBlock];
+            long pixel = pixelIndex(slot, x, y);
+            vec.set(
+                    block.getFloat(pixel + 0),
+                    block.getFloat(pixel + 1),
+                    block.getFloat(pixel + 2)
+            );
+        }
+
+        public synchronized void release() {
+            for (int i = 0; i < this.blocks.length; i++) {
+                if (this.blocks[i] != null) {
+                    this.storage.release(this.blocks[i]);
+                    this.blocks[i] = null;
+                }
+            }
+            Arrays.fill(this.slots, -1);
+            this.nextSlot = 0;
+        }
+
+    }
+
     private static class Float4ImageBuffer extends Float4Buffer {
 
         public Float4ImageBuffer(int size) {
@@ -332,43 +514,140 @@ public class Lightmapper {
 
     }
 
-    private static class IntegerBuffer {
+    private static class TiledLayout {
 
-        private final int lineSize;
-        private final int sampleSize;
-        private final int vectorSize;
-        private final int[] data;
+        private final int tileSize;
+        private final int tilesPerLine;
+        private final int samples;
+        private final int components;
+        private final long elements;
 
-        public IntegerBuffer(int size, int samples) {
-            this.sampleSize = 1;
-            this.vectorSize = this.sampleSize * samples;
-            this.lineSize = size * this.vectorSize;
-            this.data = new int[size * this.lineSize];
+        public TiledLayout(int size, int samples, int components, int tileSize) {
+            this.tileSize = tileSize;
+            this.tilesPerLine = (size + tileSize - 1) / tileSize;
+            this.samples = samples;
+            this.components = components;
+            this.elements = ((long) this.tilesPerLine) * this.tilesPerLine
+                    * tileSize * tileSize
+                    * samples * components;
+        }
+
+        public long getElements() {
+            return elements;
+        }
+
+        public long index(int x, int y, int sample) {
+            long tile = (x / this.tileSize) + ((y / this.tileSize) * this.tilesPerLine);
+            long pixel = (tile * this.tileSize * this.tileSize)
+                    + (x % this.tileSize) + ((y % this.tileSize) * this.tileSize);
+            return ((pixel * this.samples) + sample) * this.components;
+        }
+    }
+
+    private static class TiledFloat3Buffer {
+
+        private final TiledLayout layout;
+        private final LightmapperStorage.Block block;
+
+        public TiledFloat3Buffer(LightmapperStorage storage, int size, int samples, int tileSize) {
+            this.layout = new TiledLayout(size, samples, 3, tileSize);
+            this.block = storage.allocate(this.layout.getElements());
+        }
+
+        public LightmapperStorage.Block getBlock() {
+            return block;
+        }
+
+        public void write(Vector3f vec, int x, int y, int sample) {
+            long index = this.layout.index(x, y, sample);
+            this.block.setFloat(index + 0, vec.x());
+            this.block.setFloat(index + 1, vec.y());
+            this.block.setFloat(index + 2, vec.z());
+        }
+
+        public void read(Vector3f vec, int x, int y, int sample) {
+            long index = this.layout.index(x, y, sample);
+            vec.set(
+                    this.block.getFloat(index + 0),
+                    this.block.getFloat(index + 1),
+                    this.block.getFloat(index + 2)
+            );
+        }
+    }
+
+    private static class TiledFloat3ImageBuffer extends TiledFloat3Buffer implements Float3Image {
+
+        public TiledFloat3ImageBuffer(LightmapperStorage storage, int size, int tileSize) {
+            super(storage, size, 1, tileSize);
+        }
+
+        @Override
+        public boolean allocated(int x, int y) {
+            return true;
+        }
+
+        @Override
+        public void write(Vector3f vec, int x, int y) {
+            this.write(vec, x, y, 0);
+        }
+
+        @Override
+        public void read(Vector3f vec, int x, int y) {
+            this.read(vec, x, y, 0);
+        }
+
+    }
+
+    private static class TiledIntegerBuffer {
+
+        private final TiledLayout layout;
+        private final LightmapperStorage.Block block;
+
+        public TiledIntegerBuffer(LightmapperStorage storage, int size, int samples, int tileSize) {
+            this.layout = new TiledLayout(size, samples, 1, tileSize);
+            this.block = storage.allocate(this.layout.getElements());
+        }
+
+        public LightmapperStorage.Block getBlock() {
+            return block;
         }
 
         public void write(int data, int x, int y, int sample) {
-            this.data[0 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)] = data;
+            this.block.setInt(this.layout.index(x, y, sample), data);
         }
 
         public int read(int x, int y, int sample) {
-            return this.data[0 + (sample * this.sampleSize) + (x * this.vectorSize) + (y * this.lineSize)];
+            return this.block.getInt(this.layout.index(x, y, sample));
         }
     }
 
+    public static enum BufferStorage {
+        AUTO, HEAP, OFF_HEAP, MAPPED;
+    }
+
     public static volatile int NUMBER_OF_THREADS = Runtime.getRuntime().availableProcessors();
+    public static volatile int TILE_SIZE = TileScheduler.DEFAULT_TILE_SIZE;
+    public static volatile Path CHECKPOINT_DIRECTORY = null;
+    public static volatile long CHECKPOINT_INTERVAL = 60_000;
+    public static volatile BufferStorage BUFFER_STORAGE = BufferStorage.AUTO;
+    public static volatile Path BUFFER_DIRECTORY = null;
+    public static volatile boolean TELEMETRY_EVENTS_ENABLED = false;
+    public static volatile Path TELEMETRY_FILE = null;
     public static final int IGNORE_TRIGGER_SIZE = 32;
 
+    private static final float INDIRECT_CONFIDENCE_Z = 1.96f;
+    private static final float INDIRECT_MIN_LUMINANCE = 1f / 255f;
+
     private static final int EMPTY = 0;
     private static final int FILLED = 0b00000001;
     private static final int IGNORE_SHADOW = 0b00000010;
     private static final int IGNORE_AMBIENT = 0b00000100;
 
     //lightmapper status
-    private String status = "Idle";
-    private long progressCount = 0;
-    private long progressMax = 0;
-    private long raysCount = 0;
-    private long raysTime = System.currentTimeMillis();
+    private volatile String status = "Idle";
+    private final LongAdder progressCount = new LongAdder();
+    private volatile long progressMax = 0;
+    private final LightmapperTelemetry telemetry = new LightmapperTelemetry(TELEMETRY_EVENTS_ENABLED);
 
     //lightmapper geometry/scene state
     private final TextureInput textureInput;
@@ -381,6 +660,7 @@ public class Lightmapper {
     private final BVH opaqueBVH;
     private final BVH alphaBVH;
     private final float[] mesh;
+    private final float[] triangleFrames;
     private final LightGroup[] lightGroups;
 
     //total lightmaps
@@ -388,21 +668,48 @@ public class Lightmapper {
     private final float[][] totalLightmaps;
     private final float[][] totalLightmapsEmissive;
 
+    //bake buffers storage
+    private LightmapperStorage storage;
+
     //barycentric buffers
-    private final Float3Buffer weights;
-    private final IntegerBuffer triangles;
-    private final IntegerBuffer sampleStates;
+    private TiledFloat3Buffer weights;
+    private TiledIntegerBuffer triangles;
+    private TiledIntegerBuffer sampleStates;
 
     //texture buffers
     private final Float4ImageBuffer textureColors;
     private final Float3ImageBuffer textureEmissiveColors;
 
+    //tile bounds
+    private int tilesPerLine;
+    private float[] tileBounds;
+
     //ambient cubes
     private final List<LightmapAmbientCube> ambientCubes = new ArrayList<>();
 
+    //indirect statistics
+    private final LongAdder indirectRaysSpent = new LongAdder();
+    private final float[][] indirectVarianceMaps;
+
     //threads
+    private static final ThreadLocal<LightmapperContext> CONTEXTS = ThreadLocal.withInitial(LightmapperContext::new);
+    private LightmapperService.Job<?> job;
+    private LightmapperService.Job<?> currentJob;
     private int numberOfThreads;
-    private ExecutorService service;
+    private int tileSize;
+
+    //fingerprints
+    private String previousKey;
+    private LightmapperCheckpoint previousBake;
+    private boolean previousGeometry;
+    private List<LightmapAmbientCube> previousAmbientCubes;
+    private String geometryFingerprint;
+    private String[] groupsFingerprints;
+    private int[] previousGroups;
+
+    //checkpoint
+    private LightmapperCheckpoint checkpoint;
+    private long checkpointTime;
 
     //light group
     private LightGroup group;
@@ -410,14 +717,22 @@ public class Lightmapper {
 
     //lightmap
     private Float3ImageBuffer lightmap;
-    private Float3ImageBuffer lightmapIndirect;
+    private TiledFloat3ImageBuffer lightmapIndirect;
+    private TiledFloat3ImageBuffer indirectCache;
+    private BitSet indirectCacheValid;
     private Float3ImageBuffer lightmapEmissive;
 
     //light buffers
     private Scene.Light light;
     private int lightIndex;
-    private Float3ImageBuffer direct;
-    private Float3ImageBuffer shadow;
+    private TiledFloat3ImageBuffer direct;
+    private TiledFloat3ImageBuffer shadow;
+
+    //fused lights buffers
+    private List<Scene.Light> fusedLights;
+    private LightmapperLightGrid fusedLightGrid;
+    private SparseFloat3ImageBuffer[] fusedDirect;
+    private SparseFloat3ImageBuffer[] fusedShadow;
 
     public Lightmapper(
             TextureInput textureInput,
@@ -452,6 +767,7 @@ public class Lightmapper {
         this.mesh = new float[this.opaqueMesh.length + this.alphaMesh.length];
         System.arraycopy(this.opaqueMesh, 0, this.mesh, 0, this.opaqueMesh.length);
         System.arraycopy(this.alphaMesh, 0, this.mesh, this.opaqueMesh.length, this.alphaMesh.length);
+        this.triangleFrames = computeTriangleFrames(this.mesh);
 
         List<LightGroup> groups = new ArrayList<>();
         for (Scene.Light light : scene.getLights()) {
@@ -477,29 +793,127 @@ public class Lightmapper {
         }
         this.totalLightmaps = new float[this.lightmapsNames.length][];
         this.totalLightmapsEmissive = new float[this.lightmapsNames.length][];
-
-        this.weights = new Float3Buffer(lightmapSize, this.scene.getSamplingMode().numSamples());
-        this.triangles = new IntegerBuffer(lightmapSize, this.scene.getSamplingMode().numSamples());
-        this.sampleStates = new IntegerBuffer(lightmapSize, this.scene.getSamplingMode().numSamples());
+        this.indirectVarianceMaps = new float[this.lightmapsNames.length][];
 
         this.textureColors = new Float4ImageBuffer(lightmapSize);
         this.textureEmissiveColors = new Float3ImageBuffer(lightmapSize);
     }
 
     private void setStatus(String status, long progressMax) {
+        this.telemetry.beginPhase(
+                status,
+                (this.group != null ? this.groupIndex : -1),
+                (this.light != null ? this.lightIndex : -1),
+                (this.light != null ? this.light.getClass().getSimpleName() : null)
+        );
         this.status = status;
-        this.progressCount = 0;
+        this.progressCount.reset();
         this.progressMax = progressMax;
-        this.raysCount = 0;
-        this.raysTime = System.currentTimeMillis();
+    }
+
+    private BufferStorage resolveBufferStorage() {
+        BufferStorage bufferStorage = BUFFER_STORAGE;
+        if (bufferStorage != BufferStorage.AUTO) {
+            return bufferStorage;
+        }
+        long required = approximatedMemoryUsage(
+                this.lightmapSize,
+                this.scene.getSamplingMode().numSamples(),
+                this.lightGroups.length
+        );
+        if (required > (Runtime.getRuntime().maxMemory() / 2)) {
+            return BufferStorage.MAPPED;
+        }
+        return BufferStorage.HEAP;
+    }
+
+    private void openStorage() {
+        this.storage = new LightmapperStorage(resolveBufferStorage(), BUFFER_DIRECTORY);
+
+        int numSamples = this.scene.getSamplingMode().numSamples();
+        this.weights = new TiledFloat3Buffer(this.storage, this.lightmapSize, numSamples, this.tileSize);
+        this.triangles = new TiledIntegerBuffer(this.storage, this.lightmapSize, numSamples, this.tileSize);
+        this.sampleStates = new TiledIntegerBuffer(this.storage, this.lightmapSize, numSamples, this.tileSize);
+    }
+
+    private void releaseBuffer(TiledFloat3ImageBuffer buffer) {
+        if (buffer != null) {
+            this.storage.release(buffer.getBlock());
+        }
+    }
+
+    private void releaseBuffer(SparseFloat3ImageBuffer buffer) {
+        if (buffer != null) {
+            buffer.release();
+        }
+    }
+
+    private void closeStorage() {
+        this.weights = null;
+        this.triangles = null;
+        this.sampleStates = null;
+        this.direct = null;
+        this.shadow = null;
+        this.lightmapIndirect = null;
+        this.indirectCache = null;
+        this.indirectCacheValid = null;
+        this.fusedLights = null;
+        this.fusedLightGrid = null;
+        this.fusedDirect = null;
+        this.fusedShadow = null;
+        if (this.storage != null) {
+            this.storage.close();
+            this.storage = null;
+        }
     }
 
     private void addProgress(long progress) {
-        this.progressCount += progress;
+        this.progressCount.add(progress);
     }
 
     private void addRay() {
-        this.raysCount++;
+        this.telemetry.addRay();
+    }
+
+    private void addNodes(RayBatch batch) {
+        this.telemetry.addNodes(batch.getNodesVisited());
+        batch.resetNodesVisited();
+    }
+
+    private void addNodes(LocalRayHit hit) {
+        this.telemetry.addNodes(hit.getNodesVisited());
+        hit.resetNodesVisited();
+    }
+
+    private List<TileScheduler.Tile> createSampleTiles(int ignoreState) {
+        int numSamples = this.scene.getSamplingMode().numSamples();
+        return TileScheduler.createTiles(this.lightmapSize, this.lightmapSize, this.tileSize, (x, y) -> {
+            int samples = 0;
+            for (int s = 0; s < numSamples; s++) {
+                int sampleState = this.sampleStates.read(x, y, s);
+                if ((sampleState & FILLED) != 0 && (sampleState & ignoreState) == 0) {
+                    samples++;
+                }
+            }
+            return samples;
+        });
+    }
+
+    private void executeTiles(List<TileScheduler.Tile> tiles, TileScheduler.TileTask task) {
+        TileScheduler.execute(this.currentJob, tiles, (tile) -> {
+            this.telemetry.beginTile();
+            task.run(tile);
+            this.telemetry.endTile(tile.getCost());
+        }, () -> addProgress(1));
+    }
+
+    private static interface ContextTileTask {
+
+        public void run(TileScheduler.Tile tile, LightmapperContext context);
+    }
+
+    private void executeTiles(List<TileScheduler.Tile> tiles, ContextTileTask task) {
+        executeTiles(tiles, (tile) -> task.run(tile, CONTEXTS.get()));
     }
 
     private int clamp(int v, int min, int max) {
@@ -531,6 +945,7 @@ public class Lightmapper {
         Vector3f position = new Vector3f();
         Vector3f normal = new Vector3f();
         Vector3f otherNormal = new Vector3f();
+        OverlapQuery overlapQuery = new OverlapQuery();
 
         SamplingMode mode = this.scene.getSamplingMode();
 
@@ -623,12 +1038,15 @@ public class Lightmapper {
                                 normal.z() * this.scene.getRayOffset()
                         );
 
-                        Set<Integer> tri = this.opaqueBVH.testSphere(
+                        overlapQuery.clear();
+                        this.opaqueBVH.overlapSphere(
                                 position.x(), position.y(), position.z(),
-                                this.scene.getRayOffset()
+                                this.scene.getRayOffset(),
+                                overlapQuery
                         );
 
-                        for (Integer i : tri) {
+                        for (int j = 0; j < overlapQuery.size(); j++) {
+                            int i = overlapQuery.get(j);
                             otherNormal.set(
                                     this.mesh[(i * VERTEX_SIZE * 3) + OFFSET_TRIANGLE_NORMAL_XYZ + 0],
                                     this.mesh[(i * VERTEX_SIZE * 3) + OFFSET_TRIANGLE_NORMAL_XYZ + 1],
@@ -651,6 +1069,72 @@ public class Lightmapper {
         }
     }
 
+    private void computeTileBounds() {
+        this.tilesPerLine = (this.lightmapSize + this.tileSize - 1) / this.tileSize;
+        this.tileBounds = new float[this.tilesPerLine * this.tilesPerLine * 6];
+
+        List<TileScheduler.Tile> tiles = createSampleTiles(EMPTY);
+        setStatus("Computing Tile Bounds", tiles.size());
+        executeTiles(tiles, (tile) -> {
+            Vector3f sampleWeights = new Vector3f();
+
+            float minX = Float.POSITIVE_INFINITY;
+            float minY = Float.POSITIVE_INFINITY;
+            float minZ = Float.POSITIVE_INFINITY;
+            float maxX = Float.NEGATIVE_INFINITY;
+            float maxY = Float.NEGATIVE_INFINITY;
+            float maxZ = Float.NEGATIVE_INFINITY;
+
+            int numSamples = this.scene.getSamplingMode().numSamples();
+            for (int y = tile.getY(); y < (tile.getY() + tile.getHeight()); y++) {
+                for (int x = tile.getX(); x < (tile.getX() + tile.getWidth()); x++) {
+                    for (int s = 0; s < numSamples; s++) {
+                        if ((this.sampleStates.read(x, y, s) & FILLED) == 0) {
+                            continue;
+                        }
+
+                        this.weights.read(sampleWeights, x, y, s);
+                        int triangle = this.triangles.read(x, y, s);
+
+                        float px = lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 0);
+                        float py = lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 1);
+                        float pz = lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 2);
+
+                        minX = Math.min(minX, px);
+                        minY = Math.min(minY, py);
+                        minZ = Math.min(minZ, pz);
+                        maxX = Math.max(maxX, px);
+                        maxY = Math.max(maxY, py);
+                        maxZ = Math.max(maxZ, pz);
+                    }
+                }
+            }
+
+            float offset = Math.abs(this.scene.getRayOffset());
+            int index = tileBoundsOffset(tile);
+            this.tileBounds[index + 0] = minX - offset;
+            this.tileBounds[index + 1] = minY - offset;
+            this.tileBounds[index + 2] = minZ - offset;
+            this.tileBounds[index + 3] = maxX + offset;
+            this.tileBounds[index + 4] = maxY + offset;
+            this.tileBounds[index + 5] = maxZ + offset;
+        });
+    }
+
+    private int tileBoundsOffset(TileScheduler.Tile tile) {
+        return ((tile.getX() / this.tileSize) + ((tile.getY() / this.tileSize) * this.tilesPerLine)) * 6;
+    }
+
+    private List<TileScheduler.Tile> cullTiles(List<TileScheduler.Tile> tiles, Scene.Light light) {
+        List<TileScheduler.Tile> culled = new ArrayList<>(tiles.size());
+        for (TileScheduler.Tile tile : tiles) {
+            if (LightmapperLightGrid.intersects(light, this.tileBounds, tileBoundsOffset(tile))) {
+                culled.add(tile);
+            }
+        }
+        return culled;
+    }
+
     private void readTextureColors() {
         Vector4f textureColor = new Vector4f();
         Vector4f totalColor = new Vector4f();
@@ -799,7 +1283,7 @@ public class Lightmapper {
 
     private MarginAutomata.MarginAutomataIO createAutomataIO(
             final Rectanglei rectangle,
-            final Float3ImageBuffer buffer,
+            final Float3Image buffer,
             final int ignoreFlag
     ) {
         MarginAutomata.MarginAutomataIO marginIO = new MarginAutomata.MarginAutomataIO() {
@@ -818,6 +1302,10 @@ public class Lightmapper {
                 int absX = x + rectangle.minX;
                 int absY = y + rectangle.minY;
 
+                if (!buffer.allocated(absX, absY)) {
+                    return true;
+                }
+
                 boolean empty = true;
                 int numSamples = Lightmapper.this.scene.getSamplingMode().numSamples();
                 for (int s = 0; s < numSamples; s++) {
@@ -900,43 +1388,98 @@ public class Lightmapper {
             numberOfAmbientCubes = (int) (Math.ceil(width / radius) * Math.ceil(height / radius) * Math.ceil(depth / radius));
         } while (numberOfAmbientCubes > maxNumber);
         
-        Vector3f rayDirection = new Vector3f();
-        Vector3f rayPosition = new Vector3f();
-        
-        setStatus("Placing Ambient Cubes (" + numberOfAmbientCubes + ", "+radius+")", numberOfAmbientCubes);
-        for (float z = worldMin.z(); z < worldMax.z(); z += radius) {
-            for (float y = worldMin.y(); y < worldMax.y(); y += radius) {
-                loop:
-                for (float x = worldMin.x(); x < worldMax.x(); x += radius) {
-                    addProgress(1);
-                    
-                    if (this.alphaBVH.fastTestSphere(x, y, z, AMBIENT_CUBE_DISTANCE_FROM_WALLS)
-                            || this.opaqueBVH.fastTestSphere(x, y, z, AMBIENT_CUBE_DISTANCE_FROM_WALLS)) {
-                        continue;
-                    }
+        float[] xs = ambientCubeCoordinates(worldMin.x(), worldMax.x(), radius);
+        float[] ys = ambientCubeCoordinates(worldMin.y(), worldMax.y(), radius);
+        float[] zs = ambientCubeCoordinates(worldMin.z(), worldMax.z(), radius);
+
+        int blocksX = (xs.length + AMBIENT_CUBE_BLOCK_SIZE - 1) / AMBIENT_CUBE_BLOCK_SIZE;
+        int blocksY = (ys.length + AMBIENT_CUBE_BLOCK_SIZE - 1) / AMBIENT_CUBE_BLOCK_SIZE;
+        int blocksZ = (zs.length + AMBIENT_CUBE_BLOCK_SIZE - 1) / AMBIENT_CUBE_BLOCK_SIZE;
+
+        boolean[] placed = new boolean[xs.length * ys.length * zs.length];
+
+        int salt = LightmapperSampler.salt(LightmapperSampler.SALT_AMBIENT_CUBE_PLACEMENT, 0, 0);
+
+        List<TileScheduler.Tile> tiles = TileScheduler.createUnitTiles(blocksX * blocksY * blocksZ);
+        setStatus("Placing Ambient Cubes (" + numberOfAmbientCubes + ", " + radius + ")", tiles.size());
+        executeTiles(tiles, (tile) -> {
+            int block = tile.getX();
+            int minX = (block % blocksX) * AMBIENT_CUBE_BLOCK_SIZE;
+            int minY = ((block / blocksX) % blocksY) * AMBIENT_CUBE_BLOCK_SIZE;
+            int minZ = (block / (blocksX * blocksY)) * AMBIENT_CUBE_BLOCK_SIZE;
+            int maxX = Math.min(minX + AMBIENT_CUBE_BLOCK_SIZE, xs.length);
+            int maxY = Math.min(minY + AMBIENT_CUBE_BLOCK_SIZE, ys.length);
+            int maxZ = Math.min(minZ + AMBIENT_CUBE_BLOCK_SIZE, zs.length);
+
+            Vector3f rayDirection = new Vector3f();
+            Vector3f rayPosition = new Vector3f();
+            LocalRayHit hit = new LocalRayHit();
+            Vector3f closestPoint = new Vector3f();
+            OverlapQuery alphaTriangles = new OverlapQuery();
+            OverlapQuery opaqueTriangles = new OverlapQuery();
+
+            float minWorldX = xs[minX] - AMBIENT_CUBE_DISTANCE_FROM_WALLS;
+            float minWorldY = ys[minY] - AMBIENT_CUBE_DISTANCE_FROM_WALLS;
+            float minWorldZ = zs[minZ] - AMBIENT_CUBE_DISTANCE_FROM_WALLS;
+            float maxWorldX = xs[maxX - 1] + AMBIENT_CUBE_DISTANCE_FROM_WALLS;
+            float maxWorldY = ys[maxY - 1] + AMBIENT_CUBE_DISTANCE_FROM_WALLS;
+            float maxWorldZ = zs[maxZ - 1] + AMBIENT_CUBE_DISTANCE_FROM_WALLS;
+
+            //every cell sphere fits in the block bounds, so the triangles
+            //overlapping the block are the only ones a cell can touch
+            this.alphaBVH.overlapAab(
+                    minWorldX, minWorldY, minWorldZ,
+                    maxWorldX, maxWorldY, maxWorldZ,
+                    alphaTriangles
+            );
+            this.opaqueBVH.overlapAab(
+                    minWorldX, minWorldY, minWorldZ,
+                    maxWorldX, maxWorldY, maxWorldZ,
+                    opaqueTriangles
+            );
+            boolean empty = alphaTriangles.isEmpty() && opaqueTriangles.isEmpty();
 
-                    rayPosition.set(x, y, z);
-                    
-                    for (int side = 0; side < AmbientCube.SIDES; side++) {
-                        for (int j = 0; j < NUMBER_OF_AMBIENT_CUBE_OCCLUSION_RAYS_PER_SIDE; j++) {
-                            AmbientCube.randomSideDirection90(side, rayDirection);
+            int centerX = (minX + maxX - 1) / 2;
+            int centerY = (minY + maxY - 1) / 2;
+            int centerZ = (minZ + maxZ - 1) / 2;
+            int center = centerX + (centerY * xs.length) + (centerZ * xs.length * ys.length);
 
-                            List<LocalRayResult> rays = this.opaqueBVH.testRay(
-                                    rayPosition,
-                                    rayDirection
-                            );
-                            rays.addAll(this.alphaBVH.testRay(rayPosition, rayDirection));
+            if (empty) {
+                rayPosition.set(xs[centerX], ys[centerY], zs[centerZ]);
+                if (!isAmbientCubeVisible(rayPosition, center + 1, salt, rayDirection, hit)) {
+                    return;
+                }
+                placed[center] = true;
+            }
 
-                            rays.sort((o1, o2) -> Float.compare(o1.getLocalDistance(), o2.getLocalDistance()));
+            for (int z = minZ; z < maxZ; z++) {
+                for (int y = minY; y < maxY; y++) {
+                    for (int x = minX; x < maxX; x++) {
+                        int cell = x + (y * xs.length) + (z * xs.length * ys.length);
+                        if (empty && cell == center) {
+                            continue;
+                        }
 
-                            if (!rays.isEmpty() && !rays.get(0).frontFace()) {
-                                continue loop;
-                            }
+                        if (!empty && (testWallDistance(this.alphaBVH, alphaTriangles, xs[x], ys[y], zs[z], closestPoint)
+                                || testWallDistance(this.opaqueBVH, opaqueTriangles, xs[x], ys[y], zs[z], closestPoint))) {
+                            continue;
                         }
+
+                        rayPosition.set(xs[x], ys[y], zs[z]);
+                        placed[cell] = isAmbientCubeVisible(rayPosition, cell + 1, salt, rayDirection, hit);
                     }
+                }
+            }
+        });
 
+        for (int z = 0; z < zs.length; z++) {
+            for (int y = 0; y < ys.length; y++) {
+                for (int x = 0; x < xs.length; x++) {
+                    if (!placed[x + (y * xs.length) + (z * xs.length * ys.length)]) {
+                        continue;
+                    }
                     this.ambientCubes.add(new LightmapAmbientCube(
-                            x, y, z,
+                            xs[x], ys[y], zs[z],
                             radius,
                             this.lightGroups.length
                     ));
@@ -945,6 +1488,69 @@ public class Lightmapper {
         }
     }
 
+    private float[] ambientCubeCoordinates(float min, float max, float radius) {
+        int count = 0;
+        for (float v = min; v < max; v += radius) {
+            count++;
+        }
+        float[] coordinates = new float[count];
+        int index = 0;
+        for (float v = min; v < max; v += radius) {
+            coordinates[index++] = v;
+        }
+        return coordinates;
+    }
+
+    private static boolean testWallDistance(
+            BVH bvh, OverlapQuery triangles,
+            float x, float y, float z,
+            Vector3f closestPoint
+    ) {
+        float[] vertices = bvh.getVertices();
+        int[] indices = bvh.getIndices();
+        int vertexSize = bvh.getVertexSize();
+        int xyzOffset = bvh.getXYZOffset();
+        for (int i = 0; i < triangles.size(); i++) {
+            int triangle = triangles.get(i);
+            int v0 = (indices[(triangle * 3) + 0] * vertexSize) + xyzOffset;
+            int v1 = (indices[(triangle * 3) + 1] * vertexSize) + xyzOffset;
+            int v2 = (indices[(triangle * 3) + 2] * vertexSize) + xyzOffset;
+            if (Intersectionf.intersectSphereTriangle(
+                    x, y, z, AMBIENT_CUBE_DISTANCE_FROM_WALLS,
+                    vertices[v0 + 0], vertices[v0 + 1], vertices[v0 + 2],
+                    vertices[v1 + 0], vertices[v1 + 1], vertices[v1 + 2],
+                    vertices[v2 + 0], vertices[v2 + 1], vertices[v2 + 2],
+                    closestPoint
+            ) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isAmbientCubeVisible(
+            Vector3fc position, int cell, int salt,
+            Vector3f rayDirection, LocalRayHit hit
+    ) {
+        for (int side = 0; side < AmbientCube.SIDES; side++) {
+            int seed = LightmapperSampler.seed(cell, side, salt);
+            for (int j = 0; j < NUMBER_OF_AMBIENT_CUBE_OCCLUSION_RAYS_PER_SIDE; j++) {
+                AmbientCube.sampleSideDirection90(side,
+                        LightmapperSampler.sample(j, 0, seed),
+                        LightmapperSampler.sample(j, 1, seed),
+                        LightmapperSampler.sample(j, 2, seed),
+                        LightmapperSampler.sample(j, 3, seed),
+                        rayDirection
+                );
+
+                if (testClosest(position, rayDirection, hit) && !hit.frontFace()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     private String getGroupName() {
         if (this.group.groupName.isEmpty()) {
             return "(Unnamed)";
@@ -958,7 +1564,8 @@ public class Lightmapper {
 
         setStatus("Preparing Lightmap " + getGroupName(), 1);
         this.lightmap = new Float3ImageBuffer(this.lightmapSize);
-        this.lightmapIndirect = new Float3ImageBuffer(this.lightmapSize);
+        releaseBuffer(this.lightmapIndirect);
+        this.lightmapIndirect = new TiledFloat3ImageBuffer(this.storage, this.lightmapSize, this.tileSize);
         this.lightmapEmissive = new Float3ImageBuffer(this.lightmapSize);
         addProgress(1);
     }
@@ -968,90 +1575,72 @@ public class Lightmapper {
         this.lightIndex = index;
 
         setStatus(getGroupName() + " - Preparing Light - " + this.lightIndex + ", " + this.light.getClass().getSimpleName(), 1);
-        this.direct = new Float3ImageBuffer(this.lightmapSize);
-        this.shadow = new Float3ImageBuffer(this.lightmapSize);
+        this.direct = new TiledFloat3ImageBuffer(this.storage, this.lightmapSize, this.tileSize);
+        this.shadow = new TiledFloat3ImageBuffer(this.storage, this.lightmapSize, this.tileSize);
         addProgress(1);
     }
 
     private void bakeDirect() {
-        setStatus(getGroupName() + " - Baking Direct - " + this.lightIndex + ", " + this.light.getClass().getSimpleName(), this.lightmapSize);
-        for (int i = 0; i < this.lightmapSize; i += this.numberOfThreads) {
-            List<Future<?>> tasks = new ArrayList<>();
-
-            for (int j = 0; j < this.numberOfThreads; j++) {
-                final int y = i + j;
-                if (y >= this.lightmapSize) {
-                    break;
-                }
-                tasks.add(this.service.submit(() -> {
-                    Vector3f totalColor = new Vector3f();
-
-                    Vector3f sampleWeights = new Vector3f();
-                    Vector3f position = new Vector3f();
-                    Vector3f normal = new Vector3f();
-
-                    Vector3f outLightDirection = new Vector3f();
-                    Vector3f outLightDirectColor = new Vector3f();
-
-                    Vector3f emissiveColor = new Vector3f();
-
-                    int numSamples = this.scene.getSamplingMode().numSamples();
-                    for (int x = 0; x < this.lightmapSize; x++) {
-                        totalColor.zero();
-                        int samplesPassed = 0;
-                        for (int s = 0; s < numSamples; s++) {
-                            int sampleState = this.sampleStates.read(x, y, s);
-                            if ((sampleState & FILLED) == 0) {
-                                continue;
-                            }
-
-                            this.weights.read(sampleWeights, x, y, s);
-                            int triangle = this.triangles.read(x, y, s);
-
-                            position.set(
-                                    lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 0),
-                                    lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 1),
-                                    lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 2)
-                            );
-                            normal.set(
-                                    lerp(sampleWeights, triangle, OFFSET_NORMAL_XYZ + 0),
-                                    lerp(sampleWeights, triangle, OFFSET_NORMAL_XYZ + 1),
-                                    lerp(sampleWeights, triangle, OFFSET_NORMAL_XYZ + 2)
-                            ).normalize();
+        List<TileScheduler.Tile> tiles = cullTiles(createSampleTiles(EMPTY), this.light);
+        setStatus(getGroupName() + " - Baking Direct - " + this.lightIndex + ", " + this.light.getClass().getSimpleName(), tiles.size());
+        executeTiles(tiles, (tile, context) -> {
+            Vector3f totalColor = context.total;
+
+            Vector3f sampleWeights = context.sampleWeights;
+            Vector3f position = context.position;
+            Vector3f normal = context.normal;
+
+            Vector3f outLightDirection = context.lightDirection;
+            Vector3f outLightDirectColor = context.lightColor;
+
+            Vector3f emissiveColor = context.color;
+
+            int numSamples = this.scene.getSamplingMode().numSamples();
+            for (int y = tile.getY(); y < (tile.getY() + tile.getHeight()); y++) {
+                for (int x = tile.getX(); x < (tile.getX() + tile.getWidth()); x++) {
+                    totalColor.zero();
+                    int samplesPassed = 0;
+                    for (int s = 0; s < numSamples; s++) {
+                        int sampleState = this.sampleStates.read(x, y, s);
+                        if ((sampleState & FILLED) == 0) {
+                            continue;
+                        }
 
-                            this.light.calculateDirect(
-                                    position, normal,
-                                    outLightDirection, outLightDirectColor,
-                                    this.scene.getDirectLightingAttenuation()
-                            );
+                        this.weights.read(sampleWeights, x, y, s);
+                        int triangle = this.triangles.read(x, y, s);
 
-                            if (this.light instanceof Scene.EmissiveLight) {
-                                this.textureEmissiveColors.read(emissiveColor, x, y);
-                                outLightDirectColor.mul(emissiveColor);
-                            }
+                        position.set(
+                                lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 0),
+                                lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 1),
+                                lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 2)
+                        );
+                        normal.set(
+                                lerp(sampleWeights, triangle, OFFSET_NORMAL_XYZ + 0),
+                                lerp(sampleWeights, triangle, OFFSET_NORMAL_XYZ + 1),
+                                lerp(sampleWeights, triangle, OFFSET_NORMAL_XYZ + 2)
+                        ).normalize();
+
+                        this.light.calculateDirect(
+                                position, normal,
+                                outLightDirection, outLightDirectColor,
+                                this.scene.getDirectLightingAttenuation()
+                        );
 
-                            totalColor.add(outLightDirectColor);
-                            samplesPassed++;
-                        }
-                        if (samplesPassed != 0) {
-                            totalColor.div(samplesPassed);
+                        if (this.light instanceof Scene.EmissiveLight) {
+                            this.textureEmissiveColors.read(emissiveColor, x, y);
+                            outLightDirectColor.mul(emissiveColor);
                         }
-                        this.direct.write(totalColor, x, y);
-                    }
-                }));
-            }
 
-            for (Future<?> t : tasks) {
-                try {
-                    t.get();
-                } catch (InterruptedException | ExecutionException ex) {
-                    throw new RuntimeException(ex);
+                        totalColor.add(outLightDirectColor);
+                        samplesPassed++;
+                    }
+                    if (samplesPassed != 0) {
+                        totalColor.div(samplesPassed);
+                    }
+                    this.direct.write(totalColor, x, y);
                 }
             }
-
-            addProgress(tasks.size());
-            tasks.clear();
-        }
+        });
     }
 
     private void generateDirectMargins() {
@@ -1065,58 +1654,80 @@ public class Lightmapper {
         }
     }
 
-    private void randomDirection(
-            Vector3fc normal,
-            Vector3f outDirection
-    ) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
-
-        float x;
-        float y;
-        float z;
-        float dist;
-
-        do {
-            x = (random.nextFloat() * 2f) - 1f;
-            y = (random.nextFloat() * 2f) - 1f;
-            z = random.nextFloat();
-            dist = (x * x) + (y * y) + (z * z);
-        } while (dist > 1f);
+    private static float[] computeTriangleFrames(float[] mesh) {
+        float[] frames = new float[(mesh.length / (VERTEX_SIZE * 3)) * 6];
+        for (int triangle = 0, frame = 0; triangle < mesh.length; triangle += VERTEX_SIZE * 3, frame += 6) {
+            float nx = mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 0];
+            float ny = mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 1];
+            float nz = mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 2];
 
-        outDirection.set(
-                x,
-                y,
-                z
-        )
-                .normalize();
+            float sign = Math.copySign(1f, nz);
+            float a = -1f / (sign + nz);
+            float b = nx * ny * a;
 
-        Vector3f worldUp = new Vector3f(0f, 1f, 0f);
+            frames[frame + 0] = 1f + (sign * nx * nx * a);
+            frames[frame + 1] = sign * b;
+            frames[frame + 2] = -sign * nx;
 
-        if (Math.abs(normal.dot(worldUp)) >= (1f - EPSILON)) {
-            worldUp.set(1f, 0f, 0f);
+            frames[frame + 3] = b;
+            frames[frame + 4] = sign + (ny * ny * a);
+            frames[frame + 5] = -ny;
         }
+        return frames;
+    }
 
-        Vector3f tangent = new Vector3f();
-        Vector3f bitangent = new Vector3f();
-
-        normal.cross(worldUp, tangent).normalize();
-        normal.cross(tangent, bitangent).normalize();
+    private void sampleHemisphere(
+            int triangle,
+            float u, float v,
+            Vector3f outDirection
+    ) {
+        LightmapperSampler.cosineHemisphere(u, v, outDirection);
+
+        float lx = outDirection.x();
+        float ly = outDirection.y();
+        float lz = outDirection.z();
+
+        int frame = (triangle / (VERTEX_SIZE * 3)) * 6;
+        float tx = this.triangleFrames[frame + 0];
+        float ty = this.triangleFrames[frame + 1];
+        float tz = this.triangleFrames[frame + 2];
+        float bx = this.triangleFrames[frame + 3];
+        float by = this.triangleFrames[frame + 4];
+        float bz = this.triangleFrames[frame + 5];
+        float nx = this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 0];
+        float ny = this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 1];
+        float nz = this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 2];
 
-        new Matrix3f(tangent, bitangent, normal).transform(outDirection);
+        outDirection.set(
+                (tx * lx) + (bx * ly) + (nx * lz),
+                (ty * lx) + (by * ly) + (ny * lz),
+                (tz * lx) + (bz * ly) + (nz * lz)
+        );
     }
 
-    private Vector3f shadowBlend(Vector3fc position, Vector3fc direction, float length) {
-        List<LocalRayResult> alphaResults = this.alphaBVH.testRaySorted(position, direction, true);
+    private boolean shadowBlend(
+            LightmapperContext context,
+            Vector3fc position, Vector3fc direction, float length,
+            Vector3f outShadow
+    ) {
+        LocalRayHits alphaResults = context.hits;
+        alphaResults.clear();
+        this.alphaBVH.testRay(position, direction, alphaResults);
+        alphaResults.removeBackFaces();
+        alphaResults.sort();
         addRay();
 
         if (alphaResults.isEmpty()) {
-            return null;
+            return false;
         }
 
-        Vector3f rayWeights = new Vector3f();
+        Vector3f rayWeights = context.rayWeights;
+        Vector4f textureColor = context.rayColor;
+        Vector4f dest = context.blendColor;
 
-        List<Vector4fc> colors = new ArrayList<>();
-        for (LocalRayResult ray : alphaResults) {
+        boolean blended = false;
+        for (int i = 0; i < alphaResults.size(); i++) {
+            LocalRayHit ray = alphaResults.get(i);
             if (Float.isFinite(length) && ray.getLocalDistance() > length) {
                 break;
             }
@@ -1129,24 +1740,112 @@ public class Lightmapper {
             int tx = Math.min(Math.max((int) (lu * this.lightmapSize), 0), this.lightmapSize - 1);
             int ty = Math.min(Math.max((int) (lv * this.lightmapSize), 0), this.lightmapSize - 1);
 
-            Vector4f textureColor = new Vector4f();
             this.textureColors.read(textureColor, tx, ty);
-            colors.add(textureColor);
+            if (blended) {
+                ColorUtils.blend(textureColor, dest);
+            } else {
+                dest.set(textureColor);
+                blended = true;
+            }
         }
 
-        if (colors.isEmpty()) {
-            return null;
+        if (!blended) {
+            return false;
         }
 
-        Vector4f dest = new Vector4f();
-        ColorUtils.blend(colors, dest);
-
-        Vector3f outShadow = new Vector3f(dest.x(), dest.y(), dest.z())
+        outShadow.set(dest.x(), dest.y(), dest.z())
                 .mul(dest.w())
                 .add(1f - dest.w(), 1f - dest.w(), 1f - dest.w())
                 .mul(1f - dest.w());
 
-        return outShadow;
+        return true;
+    }
+
+    private void flushShadowBatch(LightmapperContext context, float[] tileShadow) {
+        RayBatch batch = context.batch;
+        int[] owners = context.owners;
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Vector3f origin = context.origin;
+        Vector3f direction = context.direction;
+
+        if (this.light instanceof Scene.EmissiveLight) {
+            Vector3f emissiveColor = context.result;
+            Vector3f blend = context.shadow;
+
+            this.opaqueBVH.testRaysClosest(batch, true);
+            addNodes(batch);
+            for (int ray = 0; ray < batch.size(); ray++) {
+                addRay();
+                if (!batch.hasHit(ray)) {
+                    continue;
+                }
+
+                float lu = batch.lerpHit(ray, OFFSET_LIGHTMAP_XY + 0);
+                float lv = batch.lerpHit(ray, OFFSET_LIGHTMAP_XY + 1);
+
+                int tx = Math.min(Math.max((int) (lu * this.lightmapSize), 0), this.lightmapSize - 1);
+                int ty = Math.min(Math.max((int) (lv * this.lightmapSize), 0), this.lightmapSize - 1);
+
+                this.direct.read(emissiveColor, tx, ty);
+
+                if (emissiveColor.x() != 0f || emissiveColor.y() != 0f || emissiveColor.z() != 0f) {
+                    batch.getOrigin(ray, origin);
+                    batch.getDirection(ray, direction);
+
+                    if (shadowBlend(context, origin, direction, batch.getHitDistance(ray), blend)) {
+                        emissiveColor.mul(blend);
+                    }
+
+                    int owner = owners[ray];
+                    tileShadow[(owner * 3) + 0] += emissiveColor.x();
+                    tileShadow[(owner * 3) + 1] += emissiveColor.y();
+                    tileShadow[(owner * 3) + 2] += emissiveColor.z();
+                }
+            }
+        } else {
+            traceOcclusionBatch(context, tileShadow);
+        }
+
+        batch.clear();
+    }
+
+    private void traceOcclusionBatch(LightmapperContext context, float[] tileShadow) {
+        RayBatch batch = context.batch;
+        int[] owners = context.owners;
+
+        Vector3f origin = context.origin;
+        Vector3f direction = context.direction;
+        Vector3f blend = context.shadow;
+
+        this.opaqueBVH.testRaysAny(batch);
+        addNodes(batch);
+        for (int ray = 0; ray < batch.size(); ray++) {
+            addRay();
+            if (batch.hasHit(ray)) {
+                continue;
+            }
+
+            batch.getOrigin(ray, origin);
+            batch.getDirection(ray, direction);
+
+            float r = 1f;
+            float g = 1f;
+            float b = 1f;
+
+            if (shadowBlend(context, origin, direction, batch.getMaxLength(ray), blend)) {
+                r = blend.x();
+                g = blend.y();
+                b = blend.z();
+            }
+
+            int owner = owners[ray];
+            tileShadow[(owner * 3) + 0] += r;
+            tileShadow[(owner * 3) + 1] += g;
+            tileShadow[(owner * 3) + 2] += b;
+        }
     }
 
     private void bakeShadow() {
@@ -1155,146 +1854,110 @@ public class Lightmapper {
             this.light.setLightSize(0f);
         }
 
-        setStatus(getGroupName() + " - Baking Shadow - " + this.lightIndex + ", " + this.light.getClass().getSimpleName(), this.lightmapSize);
-        for (int i = 0; i < this.lightmapSize; i += this.numberOfThreads) {
-            List<Future<?>> tasks = new ArrayList<>();
-
-            for (int j = 0; j < this.numberOfThreads; j++) {
-                final int y = i + j;
-                if (y >= this.lightmapSize) {
-                    break;
-                }
-                tasks.add(this.service.submit(() -> {
-                    Vector3f totalShadow = new Vector3f();
-
-                    Vector3f sampleWeights = new Vector3f();
-                    Vector3f position = new Vector3f();
-                    Vector3f normal = new Vector3f();
+        List<TileScheduler.Tile> tiles = cullTiles(createSampleTiles(IGNORE_SHADOW), this.light);
+        setStatus(getGroupName() + " - Baking Shadow - " + this.lightIndex + ", " + this.light.getClass().getSimpleName(), tiles.size());
+        executeTiles(tiles, (tile, context) -> {
+            Vector3f totalShadow = context.total;
 
-                    Vector3f outLightDirection = new Vector3f();
+            Vector3f sampleWeights = context.sampleWeights;
+            Vector3f position = context.position;
+            Vector3f normal = context.normal;
 
-                    Vector3f rayWeights = new Vector3f();
+            Vector3f outLightDirection = context.lightDirection;
 
-                    Vector3f emissiveColor = new Vector3f();
+            RayBatch batch = context.batch;
+            int[] owners = context.owners;
+            float[] tileShadow = context.floats(0, tile.getPixels() * 3);
+            int[] tileSamples = context.ints(0, tile.getPixels());
 
-                    int numSamples = this.scene.getSamplingMode().numSamples();
-                    for (int x = 0; x < this.lightmapSize; x++) {
-                        totalShadow.zero();
-                        int samplesPassed = 0;
-                        for (int s = 0; s < numSamples; s++) {
-                            int sampleState = this.sampleStates.read(x, y, s);
-                            if ((sampleState & FILLED) == 0 || (sampleState & IGNORE_SHADOW) != 0) {
-                                continue;
-                            }
+            int rays = this.scene.getShadowRaysPerSample();
+            if (this.light instanceof Scene.EmissiveLight emissiveLight) {
+                rays = emissiveLight.getEmissiveRays();
+            } else if (this.light instanceof Scene.AmbientLight ambient) {
+                rays = ambient.getAmbientRays();
+            }
+            if (this.scene.isFastModeEnabled() && !(this.light instanceof Scene.EmissiveLight)) {
+                rays = 1;
+            }
 
-                            this.weights.read(sampleWeights, x, y, s);
-                            int triangle = this.triangles.read(x, y, s);
+            int salt = LightmapperSampler.salt(LightmapperSampler.SALT_SHADOW, this.groupIndex, this.lightIndex);
 
-                            position.set(
-                                    lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 0),
-                                    lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 1),
-                                    lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 2)
-                            );
-                            normal.set(
-                                    this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 0],
-                                    this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 1],
-                                    this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 2]
-                            );
+            int numSamples = this.scene.getSamplingMode().numSamples();
+            for (int y = tile.getY(); y < (tile.getY() + tile.getHeight()); y++) {
+                for (int x = tile.getX(); x < (tile.getX() + tile.getWidth()); x++) {
+                    int pixel = tile.localIndex(x, y);
+                    int seed = LightmapperSampler.seed(x, y, salt);
+                    for (int s = 0; s < numSamples; s++) {
+                        int sampleState = this.sampleStates.read(x, y, s);
+                        if ((sampleState & FILLED) == 0 || (sampleState & IGNORE_SHADOW) != 0) {
+                            continue;
+                        }
 
-                            position.add(
-                                    normal.x() * this.scene.getRayOffset(),
-                                    normal.y() * this.scene.getRayOffset(),
-                                    normal.z() * this.scene.getRayOffset()
-                            );
+                        this.weights.read(sampleWeights, x, y, s);
+                        int triangle = this.triangles.read(x, y, s);
 
-                            if (this.light instanceof Scene.EmissiveLight emissiveLight) {
-                                for (int k = 0; k < emissiveLight.getEmissiveRays(); k++) {
-                                    randomDirection(normal, outLightDirection);
-
-                                    List<LocalRayResult> results = this.opaqueBVH.testRaySorted(position, outLightDirection, true);
-                                    addRay();
-                                    if (!results.isEmpty()) {
-                                        LocalRayResult closest = results.get(0);
-                                        closest.weights(rayWeights);
-
-                                        float lu = closest.lerp(rayWeights, OFFSET_LIGHTMAP_XY + 0);
-                                        float lv = closest.lerp(rayWeights, OFFSET_LIGHTMAP_XY + 1);
-
-                                        int tx = Math.min(Math.max((int) (lu * this.lightmapSize), 0), this.lightmapSize - 1);
-                                        int ty = Math.min(Math.max((int) (lv * this.lightmapSize), 0), this.lightmapSize - 1);
-
-                                        this.direct.read(emissiveColor, tx, ty);
-
-                                        if (emissiveColor.x() != 0f || emissiveColor.y() != 0f || emissiveColor.z() != 0f) {
-                                            Vector3f blend = shadowBlend(position, outLightDirection, closest.getLocalDistance());
-                                            if (blend != null) {
-                                                emissiveColor.mul(
-                                                        blend.x(),
-                                                        blend.y(),
-                                                        blend.z()
-                                                );
-                                            }
-                                            totalShadow.add(emissiveColor.x(), emissiveColor.y(), emissiveColor.z());
-                                        }
-                                    }
-                                }
-                                samplesPassed += emissiveLight.getEmissiveRays();
-                            } else {
-                                int rays = this.scene.getShadowRaysPerSample();
-                                if (this.light instanceof Scene.AmbientLight ambient) {
-                                    rays = ambient.getAmbientRays();
-                                }
+                        position.set(
+                                lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 0),
+                                lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 1),
+                                lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 2)
+                        );
+                        normal.set(
+                                this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 0],
+                                this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 1],
+                                this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 2]
+                        );
 
-                                if (this.scene.isFastModeEnabled()) {
-                                    rays = 1;
-                                }
+                        position.add(
+                                normal.x() * this.scene.getRayOffset(),
+                                normal.y() * this.scene.getRayOffset(),
+                                normal.z() * this.scene.getRayOffset()
+                        );
 
-                                for (int k = 0; k < rays; k++) {
-                                    float length = Float.POSITIVE_INFINITY;
+                        for (int k = 0; k < rays; k++) {
+                            float length = Float.POSITIVE_INFINITY;
 
-                                    if (this.light instanceof Scene.AmbientLight) {
-                                        randomDirection(normal, outLightDirection);
-                                    } else {
-                                        this.light.randomLightDirection(position, outLightDirection);
-                                        if (!(this.light instanceof Scene.DirectionalLight)) {
-                                            length = outLightDirection.length();
-                                            outLightDirection.div(length);
-                                        }
-                                    }
+                            int index = (s * rays) + k;
+                            float u = LightmapperSampler.sample(index, 0, seed);
+                            float v = LightmapperSampler.sample(index, 1, seed);
 
-                                    if (!this.opaqueBVH.fastTestRay(position, outLightDirection, length)) {
-                                        Vector3f blend = shadowBlend(position, outLightDirection, length);
-                                        if (blend != null) {
-                                            totalShadow.add(blend);
-                                        } else {
-                                            totalShadow.add(1f, 1f, 1f);
-                                        }
-                                    }
-                                    addRay();
+                            if (this.light instanceof Scene.EmissiveLight || this.light instanceof Scene.AmbientLight) {
+                                sampleHemisphere(triangle, u, v, outLightDirection);
+                            } else {
+                                float w = LightmapperSampler.sample(index, 2, seed);
+                                this.light.sampleLightDirection(position, u, v, w, outLightDirection);
+                                if (!(this.light instanceof Scene.DirectionalLight)) {
+                                    length = outLightDirection.length();
+                                    outLightDirection.div(length);
                                 }
+                            }
 
-                                samplesPassed += rays;
+                            owners[batch.add(position, outLightDirection, length)] = pixel;
+                            if (batch.isFull()) {
+                                flushShadowBatch(context, tileShadow);
                             }
                         }
-                        if (samplesPassed != 0) {
-                            totalShadow.div(samplesPassed);
-                        }
-                        this.shadow.write(totalShadow, x, y);
+
+                        tileSamples[pixel] += rays;
                     }
-                }));
+                }
             }
-
-            for (Future<?> t : tasks) {
-                try {
-                    t.get();
-                } catch (InterruptedException | ExecutionException ex) {
-                    throw new RuntimeException(ex);
+            flushShadowBatch(context, tileShadow);
+
+            for (int y = tile.getY(); y < (tile.getY() + tile.getHeight()); y++) {
+                for (int x = tile.getX(); x < (tile.getX() + tile.getWidth()); x++) {
+                    int pixel = tile.localIndex(x, y);
+                    totalShadow.set(
+                            tileShadow[(pixel * 3) + 0],
+                            tileShadow[(pixel * 3) + 1],
+                            tileShadow[(pixel * 3) + 2]
+                    );
+                    if (tileSamples[pixel] != 0) {
+                        totalShadow.div(tileSamples[pixel]);
+                    }
+                    this.shadow.write(totalShadow, x, y);
                 }
             }
-
-            addProgress(tasks.size());
-            tasks.clear();
-        }
+        });
 
         this.light.setLightSize(lightSize);
     }
@@ -1312,7 +1975,7 @@ public class Lightmapper {
 
     private GaussianBlur.GaussianIO createGaussianIO(
             final Rectanglei rectangle,
-            final Float3ImageBuffer buffer
+            final Float3Image buffer
     ) {
         GaussianBlur.GaussianIO gaussianIO = new GaussianBlur.GaussianIO() {
             @Override
@@ -1330,6 +1993,10 @@ public class Lightmapper {
                 int absX = x + rectangle.minX;
                 int absY = y + rectangle.minY;
 
+                if (!buffer.allocated(absX, absY)) {
+                    return true;
+                }
+
                 boolean ignore = true;
                 int numSamples = Lightmapper.this.scene.getSamplingMode().numSamples();
                 for (int s = 0; s < numSamples; s++) {
@@ -1426,192 +2093,101 @@ public class Lightmapper {
             addProgress(1);
         }
 
+        releaseBuffer(this.direct);
+        releaseBuffer(this.shadow);
         this.direct = null;
         this.shadow = null;
+        this.light = null;
     }
 
-    private void finishLightmapMargins() {
-        setStatus(getGroupName() + " - Finishing Lightmap Margins", this.lightmapRectangles.length);
-        for (int i = 0; i < this.lightmapRectangles.length; i++) {
-            MarginAutomata.MarginAutomataIO io = createAutomataIO(
-                    this.lightmapRectangles[i], this.lightmap, Lightmapper.EMPTY
-            );
-            MarginAutomata.generateMargin(io, this.lightmapMargin * 2);
-            addProgress(1);
-        }
-    }
-
-    private void finishEmissiveMargins() {
-        setStatus(getGroupName() + " - Finishing Emissive Margins", this.lightmapRectangles.length);
-        for (int i = 0; i < this.lightmapRectangles.length; i++) {
-            MarginAutomata.MarginAutomataIO io = createAutomataIO(
-                    this.lightmapRectangles[i], this.lightmapEmissive, Lightmapper.EMPTY
-            );
-            MarginAutomata.generateMargin(io, this.lightmapMargin * 2);
-            addProgress(1);
-        }
-    }
-
-    private class IndirectRay {
-
-        Vector4f color;
-        Vector3f light;
-
-        IndirectRay reflected;
-        IndirectRay refracted;
+    private boolean isFusedLight(Scene.Light light) {
+        return this.scene.isFusedLightingEnabled()
+                && !(light instanceof Scene.EmissiveLight)
+                && !(light instanceof Scene.AmbientLight);
     }
 
-    private IndirectRay testIndirect(Vector3f position, Vector3f direction, int depth) {
-        if (depth >= this.scene.getIndirectBounces()) {
-            return null;
-        }
-
-        List<LocalRayResult> opaqueRays = this.opaqueBVH.testRay(position, direction);
-        List<LocalRayResult> alphaRays = this.alphaBVH.testRay(position, direction);
-
-        addRay();
-        addRay();
-
-        List<LocalRayResult> rays = new ArrayList<>();
-
-        rays.addAll(opaqueRays);
-        rays.addAll(alphaRays);
-
-        rays.sort((o1, o2) -> Float.compare(o1.getLocalDistance(), o2.getLocalDistance()));
-
-        if (rays.isEmpty()) {
-            return null;
-        }
-
-        Vector3f rayWeights = new Vector3f();
-        Vector4f rayColor = new Vector4f();
-        Vector3f rayLight = new Vector3f();
-        Vector3f rayNormal = new Vector3f();
-
-        IndirectRay firstRay = new IndirectRay();
-
-        IndirectRay currentRay = firstRay;
-        for (int i = 0; i < rays.size(); i++) {
-            if (i != 0) {
-                currentRay.refracted = new IndirectRay();
-                currentRay = currentRay.refracted;
-            }
-
-            LocalRayResult ray = rays.get(i);
-            ray.weights(rayWeights);
-
-            float lu = ray.lerp(rayWeights, OFFSET_LIGHTMAP_XY + 0);
-            float lv = ray.lerp(rayWeights, OFFSET_LIGHTMAP_XY + 1);
-
-            int tx = Math.min(Math.max((int) (lu * this.lightmapSize), 0), this.lightmapSize - 1);
-            int ty = Math.min(Math.max((int) (lv * this.lightmapSize), 0), this.lightmapSize - 1);
-
-            this.textureColors.read(rayColor, tx, ty);
-            this.lightmap.read(rayLight, tx, ty);
-
-            rayNormal.set(
-                    ray.lerp(rayWeights, OFFSET_TRIANGLE_NORMAL_XYZ + 0),
-                    ray.lerp(rayWeights, OFFSET_TRIANGLE_NORMAL_XYZ + 1),
-                    ray.lerp(rayWeights, OFFSET_TRIANGLE_NORMAL_XYZ + 2)
-            );
-
-            if (!ray.frontFace()) {
-                rayNormal.negate();
-            }
-
-            currentRay.color = new Vector4f(rayColor);
-            currentRay.light = new Vector3f(rayLight);
-
-            if (currentRay.color.w() > 0f) {
-                currentRay.reflected = testIndirect(
-                        new Vector3f(ray.getLocalHitPosition())
-                                .add(
-                                        rayNormal.x() * this.scene.getRayOffset(),
-                                        rayNormal.y() * this.scene.getRayOffset(),
-                                        rayNormal.z() * this.scene.getRayOffset()
-                                ),
-                        new Vector3f(direction).reflect(rayNormal),
-                        depth + 1
-                );
+    private void prepareFusedLights() {
+        this.fusedLights = new ArrayList<>();
+        for (Scene.Light l : this.group.lights) {
+            if (isFusedLight(l)) {
+                this.fusedLights.add(l);
             }
+        }
 
-            if (currentRay.color.w() >= 1f) {
-                break;
+        setStatus(getGroupName() + " - Preparing Fused Lights (" + this.fusedLights.size() + ")", 1);
+        this.fusedLightGrid = new LightmapperLightGrid(this.fusedLights);
+        this.fusedDirect = new SparseFloat3ImageBuffer[this.fusedLights.size()];
+        this.fusedShadow = new SparseFloat3ImageBuffer[this.fusedLights.size()];
+        for (int i = 0; i < this.fusedLights.size(); i++) {
+            this.fusedDirect[i] = new SparseFloat3ImageBuffer(this.storage, this.lightmapSize, this.tileSize);
+            if (this.scene.isShadowsEnabled()) {
+                this.fusedShadow[i] = new SparseFloat3ImageBuffer(this.storage, this.lightmapSize, this.tileSize);
             }
         }
-
-        return firstRay;
+        addProgress(1);
     }
 
-    private Vector3f collapseIndirectRay(IndirectRay ray) {
-        List<IndirectRay> rays = new ArrayList<>();
+    private void bakeFusedLights() {
+        List<Scene.Light> lights = this.fusedLights;
+        int numLights = lights.size();
 
-        {
-            IndirectRay currentRay = ray;
-            do {
-                rays.add(currentRay);
-                currentRay = currentRay.refracted;
-            } while (currentRay != null);
+        float[] lightSizes = new float[numLights];
+        for (int i = 0; i < numLights; i++) {
+            lightSizes[i] = lights.get(i).getLightSize();
+            if (this.scene.isFastModeEnabled()) {
+                lights.get(i).setLightSize(0f);
+            }
         }
 
-        Vector3f totalLightColor = new Vector3f(0f);
-        Vector3f lightColor = new Vector3f();
-        for (int i = (rays.size() - 1); i >= 0; i--) {
-            IndirectRay currentRay = rays.get(i);
+        boolean shadows = this.scene.isShadowsEnabled();
+        int rays = this.scene.getShadowRaysPerSample();
+        if (this.scene.isFastModeEnabled()) {
+            rays = 1;
+        }
+        final int shadowRays = rays;
 
-            totalLightColor.mul(
-                    ((currentRay.color.x() * currentRay.color.w()) + (1f - currentRay.color.w())) * (1f - currentRay.color.w()),
-                    ((currentRay.color.y() * currentRay.color.w()) + (1f - currentRay.color.w())) * (1f - currentRay.color.w()),
-                    ((currentRay.color.z() * currentRay.color.w()) + (1f - currentRay.color.w())) * (1f - currentRay.color.w())
+        int[] salts = new int[numLights];
+        for (int i = 0; i < numLights; i++) {
+            salts[i] = LightmapperSampler.salt(
+                    LightmapperSampler.SALT_SHADOW,
+                    this.groupIndex,
+                    this.group.lights.indexOf(lights.get(i))
             );
+        }
 
-            lightColor
-                    .set(currentRay.light);
-
-            if (currentRay.reflected != null) {
-                lightColor.add(
-                        collapseIndirectRay(currentRay.reflected)
-                );
-            }
-
-            lightColor.mul(
-                    currentRay.color.x() * currentRay.color.w(),
-                    currentRay.color.y() * currentRay.color.w(),
-                    currentRay.color.z() * currentRay.color.w()
-            );
+        List<TileScheduler.Tile> tiles = createSampleTiles(EMPTY);
+        setStatus(getGroupName() + " - Baking Fused Lights (" + numLights + ")", tiles.size());
+        try {
+            executeTiles(tiles, (tile, context) -> {
+                Vector3f sampleWeights = context.sampleWeights;
+                Vector3f position = context.position;
+                Vector3f normal = context.normal;
+                Vector3f shadowPosition = context.shadowPosition;
 
-            totalLightColor.add(lightColor);
-        }
+                Vector3f outLightDirection = context.lightDirection;
+                Vector3f outLightDirectColor = context.lightColor;
 
-        return totalLightColor;
-    }
+                Vector3f color = context.color;
 
-    private void bakeIndirect() {
-        setStatus(getGroupName() + " - Baking Indirect", this.lightmapSize);
-        for (int i = 0; i < this.lightmapSize; i += this.numberOfThreads) {
-            List<Future<?>> tasks = new ArrayList<>();
+                int pixels = tile.getPixels();
+                int numSamples = this.scene.getSamplingMode().numSamples();
 
-            for (int j = 0; j < this.numberOfThreads; j++) {
-                final int y = i + j;
-                if (y >= this.lightmapSize) {
-                    break;
-                }
-                tasks.add(this.service.submit(() -> {
-                    Vector3f totalIndirect = new Vector3f();
+                int[] candidates = this.fusedLightGrid.query(this.tileBounds, tileBoundsOffset(tile));
+                int numCandidates = candidates.length;
 
-                    Vector3f sampleWeights = new Vector3f();
+                float[] tileDirect = context.floats(0, numCandidates * pixels * 3);
+                int[] tileSamples = context.ints(0, pixels);
+                boolean[] lit = context.booleans(0, numCandidates);
 
-                    Vector3f normal = new Vector3f();
-                    Vector3f position = new Vector3f();
-                    Vector3f direction = new Vector3f();
+                float[] shadowOrigins = context.floats(1, pixels * numSamples * 3);
+                boolean[] shadowTraced = context.booleans(1, pixels * numSamples);
 
-                    int numSamples = this.scene.getSamplingMode().numSamples();
-                    for (int x = 0; x < this.lightmapSize; x++) {
-                        totalIndirect.zero();
-                        int samplesPassed = 0;
+                for (int y = tile.getY(); y < (tile.getY() + tile.getHeight()); y++) {
+                    for (int x = tile.getX(); x < (tile.getX() + tile.getWidth()); x++) {
+                        int pixel = tile.localIndex(x, y);
                         for (int s = 0; s < numSamples; s++) {
                             int sampleState = this.sampleStates.read(x, y, s);
-                            if ((sampleState & FILLED) == 0 || (sampleState & IGNORE_AMBIENT) != 0) {
+                            if ((sampleState & FILLED) == 0) {
                                 continue;
                             }
 
@@ -1624,59 +2200,761 @@ public class Lightmapper {
                                     lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 2)
                             );
                             normal.set(
-                                    this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 0],
-                                    this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 1],
-                                    this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 2]
-                            );
+                                    lerp(sampleWeights, triangle, OFFSET_NORMAL_XYZ + 0),
+                                    lerp(sampleWeights, triangle, OFFSET_NORMAL_XYZ + 1),
+                                    lerp(sampleWeights, triangle, OFFSET_NORMAL_XYZ + 2)
+                            ).normalize();
 
-                            position.add(
-                                    normal.x() * this.scene.getRayOffset(),
-                                    normal.y() * this.scene.getRayOffset(),
-                                    normal.z() * this.scene.getRayOffset()
+                            for (int c = 0; c < numCandidates; c++) {
+                                lights.get(candidates[c]).calculateDirect(
+                                        position, normal,
+                                        outLightDirection, outLightDirectColor,
+                                        this.scene.getDirectLightingAttenuation()
+                                );
+
+                                if (outLightDirectColor.x() == 0f
+                                        && outLightDirectColor.y() == 0f
+                                        && outLightDirectColor.z() == 0f) {
+                                    continue;
+                                }
+
+                                int owner = (c * pixels) + pixel;
+                                tileDirect[(owner * 3) + 0] += outLightDirectColor.x();
+                                tileDirect[(owner * 3) + 1] += outLightDirectColor.y();
+                                tileDirect[(owner * 3) + 2] += outLightDirectColor.z();
+                                lit[c] = true;
+                            }
+                            tileSamples[pixel]++;
+
+                            if (!shadows || (sampleState & IGNORE_SHADOW) != 0) {
+                                continue;
+                            }
+
+                            int sample = (pixel * numSamples) + s;
+                            shadowOrigins[(sample * 3) + 0] = position.x() + (this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 0] * this.scene.getRayOffset());
+                            shadowOrigins[(sample * 3) + 1] = position.y() + (this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 1] * this.scene.getRayOffset());
+                            shadowOrigins[(sample * 3) + 2] = position.z() + (this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 2] * this.scene.getRayOffset());
+                            shadowTraced[sample] = true;
+                        }
+                    }
+                }
+
+                float[] tileShadow = null;
+                int[] tileShadowSamples = null;
+                if (shadows) {
+                    tileShadow = context.floats(2, numCandidates * pixels * 3);
+                    tileShadowSamples = context.ints(1, numCandidates * pixels);
+
+                    RayBatch batch = context.batch;
+                    int[] owners = context.owners;
+
+                    for (int c = 0; c < numCandidates; c++) {
+                        if (!lit[c]) {
+                            continue;
+                        }
+                        Scene.Light light = lights.get(candidates[c]);
+                        for (int pixel = 0; pixel < pixels; pixel++) {
+                            int owner = (c * pixels) + pixel;
+                            int seed = LightmapperSampler.seed(
+                                    tile.getX() + (pixel % tile.getWidth()),
+                                    tile.getY() + (pixel / tile.getWidth()),
+                                    salts[candidates[c]]
                             );
+                            for (int s = 0; s < numSamples; s++) {
+                                int sample = (pixel * numSamples) + s;
+                                if (!shadowTraced[sample]) {
+                                    continue;
+                                }
+
+                                shadowPosition.set(
+                                        shadowOrigins[(sample * 3) + 0],
+                                        shadowOrigins[(sample * 3) + 1],
+                                        shadowOrigins[(sample * 3) + 2]
+                                );
 
-                            for (int k = 0; k < this.scene.getIndirectRaysPerSample(); k++) {
-                                randomDirection(normal, direction);
-                                IndirectRay indirect = testIndirect(position, direction, 0);
-                                if (indirect != null) {
-                                    totalIndirect.add(collapseIndirectRay(indirect).mul(this.scene.getIndirectLightReflectionFactor()));
+                                for (int k = 0; k < shadowRays; k++) {
+                                    float length = Float.POSITIVE_INFINITY;
+
+                                    int index = (s * shadowRays) + k;
+                                    light.sampleLightDirection(
+                                            shadowPosition,
+                                            LightmapperSampler.sample(index, 0, seed),
+                                            LightmapperSampler.sample(index, 1, seed),
+                                            LightmapperSampler.sample(index, 2, seed),
+                                            outLightDirection
+                                    );
+                                    if (!(light instanceof Scene.DirectionalLight)) {
+                                        length = outLightDirection.length();
+                                        outLightDirection.div(length);
+                                    }
+
+                                    owners[batch.add(shadowPosition, outLightDirection, length)] = owner;
+                                    if (batch.isFull()) {
+                                        traceOcclusionBatch(context, tileShadow);
+                                        batch.clear();
+                                    }
                                 }
+
+                                tileShadowSamples[owner] += shadowRays;
                             }
-                            samplesPassed += this.scene.getIndirectRaysPerSample();
                         }
-                        if (samplesPassed != 0) {
-                            totalIndirect.div(samplesPassed);
+                    }
+                    if (!batch.isEmpty()) {
+                        traceOcclusionBatch(context, tileShadow);
+                        batch.clear();
+                    }
+                }
+
+                for (int c = 0; c < numCandidates; c++) {
+                    if (!lit[c]) {
+                        continue;
+                    }
+
+                    SparseFloat3ImageBuffer direct = this.fusedDirect[candidates[c]];
+                    SparseFloat3ImageBuffer shadow = this.fusedShadow[candidates[c]];
+
+                    direct.allocate(tile.getX(), tile.getY());
+                    if (shadow != null) {
+                        shadow.allocate(tile.getX(), tile.getY());
+                    }
+
+                    for (int y = tile.getY(); y < (tile.getY() + tile.getHeight()); y++) {
+                        for (int x = tile.getX(); x < (tile.getX() + tile.getWidth()); x++) {
+                            int pixel = tile.localIndex(x, y);
+                            int owner = (c * pixels) + pixel;
+
+                            color.set(
+                                    tileDirect[(owner * 3) + 0],
+                                    tileDirect[(owner * 3) + 1],
+                                    tileDirect[(owner * 3) + 2]
+                            );
+                            if (tileSamples[pixel] != 0) {
+                                color.div(tileSamples[pixel]);
+                            }
+                            direct.write(color, x, y);
+
+                            if (shadow != null) {
+                                color.set(
+                                        tileShadow[(owner * 3) + 0],
+                                        tileShadow[(owner * 3) + 1],
+                                        tileShadow[(owner * 3) + 2]
+                                );
+                                if (tileShadowSamples[owner] != 0) {
+                                    color.div(tileShadowSamples[owner]);
+                                }
+                                shadow.write(color, x, y);
+                            }
                         }
-                        this.lightmapIndirect.write(totalIndirect, x, y);
                     }
-                }));
+                }
+            });
+        } finally {
+            for (int i = 0; i < numLights; i++) {
+                lights.get(i).setLightSize(lightSizes[i]);
             }
+        }
+    }
 
-            for (Future<?> t : tasks) {
-                try {
-                    t.get();
-                } catch (InterruptedException | ExecutionException ex) {
-                    throw new RuntimeException(ex);
+    private void generateFusedDirectMargins() {
+        List<TileScheduler.Tile> lights = TileScheduler.createUnitTiles(this.fusedLights.size());
+        setStatus(getGroupName() + " - Generating Fused Direct Margins (" + this.fusedLights.size() + ")", lights.size());
+        executeTiles(lights, (light) -> {
+            SparseFloat3ImageBuffer direct = this.fusedDirect[light.getX()];
+            for (int i = 0; i < this.lightmapRectangles.length; i++) {
+                if (!direct.allocated(this.lightmapRectangles[i])) {
+                    continue;
                 }
+                //margins spill into tiles the light never reached
+                direct.allocate(this.lightmapRectangles[i]);
+                MarginAutomata.MarginAutomataIO io = createAutomataIO(
+                        this.lightmapRectangles[i], direct, Lightmapper.EMPTY
+                );
+                MarginAutomata.generateMargin(io, DEFAULT_MARGIN_ITERATIONS);
             }
-            addProgress(tasks.size());
-            tasks.clear();
-        }
+        });
     }
 
-    private void generateIndirectMargins() {
-        setStatus(getGroupName() + " - Generating Indirect Margins", this.lightmapRectangles.length);
-        for (int i = 0; i < this.lightmapRectangles.length; i++) {
-            MarginAutomata.MarginAutomataIO io = createAutomataIO(
-                    this.lightmapRectangles[i], this.lightmapIndirect, Lightmapper.IGNORE_AMBIENT
-            );
-            MarginAutomata.generateMargin(io, DEFAULT_MARGIN_ITERATIONS);
-            addProgress(1);
+    private void denoiseFusedShadows() {
+        float blurArea = this.scene.getShadowBlurArea();
+        if (this.scene.isFastModeEnabled()) {
+            blurArea = 0f;
         }
-    }
+        final float shadowBlurArea = blurArea;
 
-    private void denoiseIndirect() {
+        List<TileScheduler.Tile> lights = TileScheduler.createUnitTiles(this.fusedLights.size());
+        setStatus(getGroupName() + " - Denoising Fused Shadows (" + this.fusedLights.size() + ")", lights.size());
+        executeTiles(lights, (light) -> {
+            SparseFloat3ImageBuffer shadow = this.fusedShadow[light.getX()];
+            for (int i = 0; i < this.lightmapRectangles.length; i++) {
+                if (!shadow.allocated(this.lightmapRectangles[i])) {
+                    continue;
+                }
+                MarginAutomata.MarginAutomataIO io = createAutomataIO(
+                        this.lightmapRectangles[i], shadow, Lightmapper.IGNORE_SHADOW
+                );
+                MarginAutomata.generateMargin(io, DEFAULT_MARGIN_ITERATIONS);
+            }
+            if (shadowBlurArea == 0f) {
+                return;
+            }
+            for (int i = 0; i < this.lightmapRectangles.length; i++) {
+                if (!shadow.allocated(this.lightmapRectangles[i])) {
+                    continue;
+                }
+                GaussianBlur.GaussianIO io = createGaussianIO(this.lightmapRectangles[i], shadow);
+                GaussianBlur.blur(io, DEFAULT_GAUSSIAN_BLUR_KERNEL_SIZE, shadowBlurArea);
+            }
+        });
+    }
+
+    private void outputFusedLights() {
+        List<TileScheduler.Tile> tiles = TileScheduler.createTiles(
+                this.lightmapSize, this.lightmapSize, this.tileSize,
+                (x, y) -> 1
+        );
+        setStatus(getGroupName() + " - Writing Fused Lights to Lightmap (" + this.fusedLights.size() + ")", ((long) tiles.size()) * this.fusedLights.size());
+        for (int l = 0; l < this.fusedLights.size(); l++) {
+            SparseFloat3ImageBuffer direct = this.fusedDirect[l];
+            SparseFloat3ImageBuffer shadow = this.fusedShadow[l];
+
+            executeTiles(tiles, (tile) -> {
+                if (!direct.allocated(tile.getX(), tile.getY())) {
+                    return;
+                }
+
+                Vector3f directLight = new Vector3f();
+                Vector3f shadowLight = new Vector3f(1f, 1f, 1f);
+                Vector3f currentLight = new Vector3f();
+
+                for (int y = tile.getY(); y < (tile.getY() + tile.getHeight()); y++) {
+                    for (int x = tile.getX(); x < (tile.getX() + tile.getWidth()); x++) {
+                        direct.read(directLight, x, y);
+                        if (shadow != null) {
+                            shadow.read(shadowLight, x, y);
+                        }
+
+                        this.lightmap.read(currentLight, x, y);
+                        currentLight.add(
+                                directLight.x() * shadowLight.x(),
+                                directLight.y() * shadowLight.y(),
+                                directLight.z() * shadowLight.z()
+                        );
+                        this.lightmap.write(currentLight, x, y);
+                    }
+                }
+            });
+
+            releaseBuffer(direct);
+            releaseBuffer(shadow);
+            this.fusedDirect[l] = null;
+            this.fusedShadow[l] = null;
+        }
+
+        this.fusedLights = null;
+        this.fusedLightGrid = null;
+        this.fusedDirect = null;
+        this.fusedShadow = null;
+    }
+
+    private void finishLightmapMargins() {
+        setStatus(getGroupName() + " - Finishing Lightmap Margins", this.lightmapRectangles.length);
+        for (int i = 0; i < this.lightmapRectangles.length; i++) {
+            MarginAutomata.MarginAutomataIO io = createAutomataIO(
+                    this.lightmapRectangles[i], this.lightmap, Lightmapper.EMPTY
+            );
+            MarginAutomata.generateMargin(io, this.lightmapMargin * 2);
+            addProgress(1);
+        }
+    }
+
+    private void finishEmissiveMargins() {
+        setStatus(getGroupName() + " - Finishing Emissive Margins", this.lightmapRectangles.length);
+        for (int i = 0; i < this.lightmapRectangles.length; i++) {
+            MarginAutomata.MarginAutomataIO io = createAutomataIO(
+                    this.lightmapRectangles[i], this.lightmapEmissive, Lightmapper.EMPTY
+            );
+            MarginAutomata.generateMargin(io, this.lightmapMargin * 2);
+            addProgress(1);
+        }
+    }
+
+    private boolean testClosest(Vector3fc position, Vector3fc direction, LocalRayHit hit) {
+        boolean found = this.opaqueBVH.testRayClosest(position, direction, hit);
+        if (this.alphaBVH.testRayClosest(
+                position, direction,
+                (found ? hit.getLocalDistance() : Float.POSITIVE_INFINITY), false,
+                hit
+        )) {
+            found = true;
+        }
+        addNodes(hit);
+        return found;
+    }
+
+    private int indirectCacheSample(int x, int y) {
+        int numSamples = this.scene.getSamplingMode().numSamples();
+        for (int s = 0; s < numSamples; s++) {
+            int sampleState = this.sampleStates.read(x, y, s);
+            if ((sampleState & FILLED) != 0 && (sampleState & IGNORE_AMBIENT) == 0) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    private void traceIndirect(
+            LightmapperContext context,
+            Vector3fc position, Vector3fc direction, LocalRayHit ray,
+            TiledFloat3ImageBuffer cache,
+            Vector3f outLight
+    ) {
+        Vector3f rayWeights = context.rayWeights;
+        Vector4f rayColor = context.rayColor;
+        Vector3f rayLight = context.rayLight;
+        Vector3f cacheLight = context.cacheLight;
+        Vector3f throughput = context.throughput.set(1f);
+
+        outLight.zero();
+
+        LocalRayHits rays = null;
+
+        LocalRayHit current = ray;
+        for (int i = 0;; i++) {
+            if (i != 0) {
+                if (rays == null) {
+                    rays = context.hits;
+                    rays.clear();
+                    this.opaqueBVH.testRay(position, direction, rays);
+                    this.alphaBVH.testRay(position, direction, rays);
+                    rays.sort();
+                    addRay();
+                    addRay();
+                }
+                if (i >= rays.size()) {
+                    break;
+                }
+                current = rays.get(i);
+            }
+
+            current.weights(rayWeights);
+
+            float lu = current.lerp(rayWeights, OFFSET_LIGHTMAP_XY + 0);
+            float lv = current.lerp(rayWeights, OFFSET_LIGHTMAP_XY + 1);
+
+            int tx = Math.min(Math.max((int) (lu * this.lightmapSize), 0), this.lightmapSize - 1);
+            int ty = Math.min(Math.max((int) (lv * this.lightmapSize), 0), this.lightmapSize - 1);
+
+            this.textureColors.read(rayColor, tx, ty);
+            this.lightmap.read(rayLight, tx, ty);
+
+            float alpha = rayColor.w();
+
+            if (cache != null && alpha > 0f) {
+                cache.read(cacheLight, tx, ty);
+                rayLight.add(cacheLight);
+
+                this.telemetry.addIndirectCacheLookup(this.indirectCacheValid.get(tx + (ty * this.lightmapSize)));
+            }
+
+            outLight.add(
+                    throughput.x() * rayLight.x() * rayColor.x() * alpha,
+                    throughput.y() * rayLight.y() * rayColor.y() * alpha,
+                    throughput.z() * rayLight.z() * rayColor.z() * alpha
+            );
+
+            if (alpha >= 1f) {
+                break;
+            }
+
+            throughput.mul(
+                    ((rayColor.x() * alpha) + (1f - alpha)) * (1f - alpha),
+                    ((rayColor.y() * alpha) + (1f - alpha)) * (1f - alpha),
+                    ((rayColor.z() * alpha) + (1f - alpha)) * (1f - alpha)
+            );
+        }
+    }
+
+    private static float luminance(float r, float g, float b) {
+        return (r * 0.2126f) + (g * 0.7152f) + (b * 0.0722f);
+    }
+
+    private void flushIndirectBatch(
+            LightmapperContext context,
+            TiledFloat3ImageBuffer cache,
+            float[] tileIndirect, float[] tileSquares
+    ) {
+        RayBatch batch = context.batch;
+        int[] owners = context.owners;
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        if (this.scene.getIndirectBounces() > 0) {
+            this.opaqueBVH.testRaysClosest(batch);
+            this.alphaBVH.testRaysClosest(batch);
+            addNodes(batch);
+
+            Vector3f origin = context.origin;
+            Vector3f direction = context.direction;
+            Vector3f indirect = context.result;
+            LocalRayHit hit = context.hit;
+
+            for (int ray = 0; ray < batch.size(); ray++) {
+                addRay();
+                addRay();
+                if (!batch.hasHit(ray)) {
+                    continue;
+                }
+
+                batch.getOrigin(ray, origin);
+                batch.getDirection(ray, direction);
+                batch.getHit(ray, hit);
+
+                traceIndirect(context, origin, direction, hit, cache, indirect);
+                indirect.mul(this.scene.getIndirectLightReflectionFactor());
+
+                int owner = owners[ray];
+                tileIndirect[(owner * 3) + 0] += indirect.x();
+                tileIndirect[(owner * 3) + 1] += indirect.y();
+                tileIndirect[(owner * 3) + 2] += indirect.z();
+
+                float luminance = luminance(indirect.x(), indirect.y(), indirect.z());
+                tileSquares[owner] += luminance * luminance;
+            }
+        }
+
+        batch.clear();
+    }
+
+    private void buildIndirectCache() {
+        int passes = this.scene.getIndirectBounces() - 1;
+        if (passes <= 0) {
+            return;
+        }
+
+        BitSet valid = new BitSet(this.lightmapSize * this.lightmapSize);
+        for (int y = 0; y < this.lightmapSize; y++) {
+            for (int x = 0; x < this.lightmapSize; x++) {
+                if (indirectCacheSample(x, y) >= 0) {
+                    valid.set(x + (y * this.lightmapSize));
+                }
+            }
+        }
+        this.indirectCacheValid = valid;
+        this.telemetry.setIndirectCacheSize(valid.cardinality());
+
+        for (int pass = 0; pass < passes; pass++) {
+            TiledFloat3ImageBuffer output = new TiledFloat3ImageBuffer(this.storage, this.lightmapSize, this.tileSize);
+            bakeIndirectCache(pass, passes, output);
+
+            setStatus(getGroupName() + " - Generating Indirect Cache Margins (" + (pass + 1) + "/" + passes + ")", this.lightmapRectangles.length);
+            for (int i = 0; i < this.lightmapRectangles.length; i++) {
+                MarginAutomata.MarginAutomataIO io = createAutomataIO(
+                        this.lightmapRectangles[i], output, Lightmapper.IGNORE_AMBIENT
+                );
+                MarginAutomata.generateMargin(io, this.lightmapMargin * 2);
+                addProgress(1);
+            }
+
+            releaseBuffer(this.indirectCache);
+            this.indirectCache = output;
+        }
+    }
+
+    private void bakeIndirectCache(int pass, int passes, TiledFloat3ImageBuffer output) {
+        final int rays = this.scene.getIndirectRaysPerSample();
+        final TiledFloat3ImageBuffer cache = this.indirectCache;
+        final BitSet valid = this.indirectCacheValid;
+
+        List<TileScheduler.Tile> tiles = TileScheduler.createTiles(
+                this.lightmapSize, this.lightmapSize, this.tileSize,
+                (x, y) -> (valid.get(x + (y * this.lightmapSize)) ? rays : 0)
+        );
+        setStatus(getGroupName() + " - Building Indirect Cache (" + (pass + 1) + "/" + passes + ")", tiles.size());
+        executeTiles(tiles, (tile, context) -> {
+            Vector3f totalIndirect = context.total;
+
+            Vector3f sampleWeights = context.sampleWeights;
+
+            Vector3f normal = context.normal;
+            Vector3f position = context.position;
+            Vector3f direction = context.rayDirection;
+
+            RayBatch batch = context.batch;
+            int[] owners = context.owners;
+            float[] tileIndirect = context.floats(0, tile.getPixels() * 3);
+            float[] tileSquares = context.floats(1, tile.getPixels());
+            int[] tileSamples = context.ints(0, tile.getPixels());
+
+            int salt = LightmapperSampler.salt(LightmapperSampler.SALT_INDIRECT_CACHE, this.groupIndex, pass);
+
+            for (int y = tile.getY(); y < (tile.getY() + tile.getHeight()); y++) {
+                for (int x = tile.getX(); x < (tile.getX() + tile.getWidth()); x++) {
+                    int s = indirectCacheSample(x, y);
+                    if (s < 0) {
+                        continue;
+                    }
+                    int pixel = tile.localIndex(x, y);
+                    int seed = LightmapperSampler.seed(x, y, salt);
+
+                    this.weights.read(sampleWeights, x, y, s);
+                    int triangle = this.triangles.read(x, y, s);
+
+                    position.set(
+                            lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 0),
+                            lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 1),
+                            lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 2)
+                    );
+                    normal.set(
+                            this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 0],
+                            this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 1],
+                            this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 2]
+                    );
+
+                    position.add(
+                            normal.x() * this.scene.getRayOffset(),
+                            normal.y() * this.scene.getRayOffset(),
+                            normal.z() * this.scene.getRayOffset()
+                    );
+
+                    for (int k = 0; k < rays; k++) {
+                        sampleHemisphere(
+                                triangle,
+                                LightmapperSampler.sample(k, 0, seed),
+                                LightmapperSampler.sample(k, 1, seed),
+                                direction
+                        );
+                        owners[batch.add(position, direction, Float.POSITIVE_INFINITY)] = pixel;
+                        if (batch.isFull()) {
+                            flushIndirectBatch(context, cache, tileIndirect, tileSquares);
+                        }
+                    }
+                    tileSamples[pixel] += rays;
+                }
+            }
+            flushIndirectBatch(context, cache, tileIndirect, tileSquares);
+
+            for (int y = tile.getY(); y < (tile.getY() + tile.getHeight()); y++) {
+                for (int x = tile.getX(); x < (tile.getX() + tile.getWidth()); x++) {
+                    int pixel = tile.localIndex(x, y);
+                    if (tileSamples[pixel] == 0) {
+                        continue;
+                    }
+                    totalIndirect.set(
+                            tileIndirect[(pixel * 3) + 0],
+                            tileIndirect[(pixel * 3) + 1],
+                            tileIndirect[(pixel * 3) + 2]
+                    ).div(tileSamples[pixel]);
+                    output.write(totalIndirect, x, y);
+                }
+            }
+        });
+    }
+
+    private void bakeIndirect() {
+        boolean adaptive = this.scene.isAdaptiveIndirectEnabled();
+        int initialRays = this.scene.getIndirectRaysPerSample();
+        int maxRays = initialRays;
+        if (adaptive) {
+            initialRays = Math.min(this.scene.getIndirectMinRaysPerSample(), this.scene.getIndirectMaxRaysPerSample());
+            maxRays = this.scene.getIndirectMaxRaysPerSample();
+        }
+        final int rays = initialRays;
+        final int maxRaysPerSample = maxRays;
+        float threshold = this.scene.getIndirectAdaptiveThreshold();
+
+        float[] variance = new float[this.lightmapSize * this.lightmapSize];
+        this.indirectVarianceMaps[this.groupIndex] = variance;
+
+        TiledFloat3ImageBuffer cache = this.indirectCache;
+
+        List<TileScheduler.Tile> tiles = createSampleTiles(IGNORE_AMBIENT);
+        setStatus(getGroupName() + " - Baking Indirect", tiles.size());
+        executeTiles(tiles, (tile, context) -> {
+            Vector3f totalIndirect = context.total;
+
+            Vector3f sampleWeights = context.sampleWeights;
+
+            Vector3f normal = context.normal;
+            Vector3f position = context.position;
+            Vector3f direction = context.rayDirection;
+
+            RayBatch batch = context.batch;
+            int[] owners = context.owners;
+            float[] tileIndirect = context.floats(0, tile.getPixels() * 3);
+            float[] tileSquares = context.floats(1, tile.getPixels());
+            float[] tileVariance = context.floats(2, tile.getPixels());
+            int[] tileSamples = context.ints(0, tile.getPixels());
+            int[] tileRays = context.ints(1, tile.getPixels());
+            boolean[] active = context.booleans(0, tile.getPixels());
+            Arrays.fill(active, 0, tile.getPixels(), true);
+
+            int salt = LightmapperSampler.salt(LightmapperSampler.SALT_INDIRECT, this.groupIndex, 0);
+
+            int numSamples = this.scene.getSamplingMode().numSamples();
+            boolean pending = true;
+            while (pending) {
+                for (int y = tile.getY(); y < (tile.getY() + tile.getHeight()); y++) {
+                    for (int x = tile.getX(); x < (tile.getX() + tile.getWidth()); x++) {
+                        int pixel = tile.localIndex(x, y);
+                        if (!active[pixel]) {
+                            continue;
+                        }
+                        int seed = LightmapperSampler.seed(x, y, salt);
+                        int first = tileRays[pixel];
+                        int count = Math.min(Math.max(first, rays), maxRaysPerSample - first);
+                        for (int s = 0; s < numSamples; s++) {
+                            int sampleState = this.sampleStates.read(x, y, s);
+                            if ((sampleState & FILLED) == 0 || (sampleState & IGNORE_AMBIENT) != 0) {
+                                continue;
+                            }
+
+                            this.weights.read(sampleWeights, x, y, s);
+                            int triangle = this.triangles.read(x, y, s);
+
+                            position.set(
+                                    lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 0),
+                                    lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 1),
+                                    lerp(sampleWeights, triangle, OFFSET_POSITION_XYZ + 2)
+                            );
+                            normal.set(
+                                    this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 0],
+                                    this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 1],
+                                    this.mesh[triangle + OFFSET_TRIANGLE_NORMAL_XYZ + 2]
+                            );
+
+                            position.add(
+                                    normal.x() * this.scene.getRayOffset(),
+                                    normal.y() * this.scene.getRayOffset(),
+                                    normal.z() * this.scene.getRayOffset()
+                            );
+
+                            for (int k = first; k < (first + count); k++) {
+                                int index = (s * maxRaysPerSample) + k;
+                                sampleHemisphere(
+                                        triangle,
+                                        LightmapperSampler.sample(index, 0, seed),
+                                        LightmapperSampler.sample(index, 1, seed),
+                                        direction
+                                );
+                                owners[batch.add(position, direction, Float.POSITIVE_INFINITY)] = pixel;
+                                if (batch.isFull()) {
+                                    flushIndirectBatch(context, cache, tileIndirect, tileSquares);
+                                }
+                            }
+                            tileSamples[pixel] += count;
+                        }
+                        tileRays[pixel] += count;
+                    }
+                }
+                flushIndirectBatch(context, cache, tileIndirect, tileSquares);
+
+                float tileLuminance = 0f;
+                int tileCount = 0;
+                for (int pixel = 0; pixel < tile.getPixels(); pixel++) {
+                    if (tileSamples[pixel] != 0) {
+                        tileLuminance += luminance(
+                                tileIndirect[(pixel * 3) + 0],
+                                tileIndirect[(pixel * 3) + 1],
+                                tileIndirect[(pixel * 3) + 2]
+                        ) / tileSamples[pixel];
+                        tileCount++;
+                    }
+                }
+                if (tileCount != 0) {
+                    tileLuminance /= tileCount;
+                }
+
+                for (int pixel = 0; pixel < tile.getPixels(); pixel++) {
+                    tileVariance[pixel] = indirectVariance(tileIndirect, tileSquares, tileSamples, pixel);
+                }
+
+                float tolerance = Math.max(threshold * tileLuminance, INDIRECT_MIN_LUMINANCE) / INDIRECT_CONFIDENCE_Z;
+                tolerance *= tolerance;
+
+                pending = false;
+                for (int y = 0; y < tile.getHeight(); y++) {
+                    for (int x = 0; x < tile.getWidth(); x++) {
+                        int pixel = x + (y * tile.getWidth());
+                        if (!active[pixel]) {
+                            continue;
+                        }
+                        float neighborhoodVariance = 0f;
+                        for (int yOffset = -1; yOffset <= 1; yOffset++) {
+                            for (int xOffset = -1; xOffset <= 1; xOffset++) {
+                                int nx = x + xOffset;
+                                int ny = y + yOffset;
+                                if (nx < 0 || ny < 0 || nx >= tile.getWidth() || ny >= tile.getHeight()) {
+                                    continue;
+                                }
+                                neighborhoodVariance = Math.max(neighborhoodVariance, tileVariance[nx + (ny * tile.getWidth())]);
+                            }
+                        }
+                        active[pixel] = adaptive
+                                && tileSamples[pixel] != 0
+                                && tileRays[pixel] < maxRaysPerSample
+                                && neighborhoodVariance > tolerance;
+                        pending |= active[pixel];
+                    }
+                }
+            }
+
+            long raysSpent = 0;
+            for (int y = tile.getY(); y < (tile.getY() + tile.getHeight()); y++) {
+                for (int x = tile.getX(); x < (tile.getX() + tile.getWidth()); x++) {
+                    int pixel = tile.localIndex(x, y);
+                    totalIndirect.set(
+                            tileIndirect[(pixel * 3) + 0],
+                            tileIndirect[(pixel * 3) + 1],
+                            tileIndirect[(pixel * 3) + 2]
+                    );
+                    if (tileSamples[pixel] != 0) {
+                        totalIndirect.div(tileSamples[pixel]);
+                    }
+                    this.lightmapIndirect.write(totalIndirect, x, y);
+                    variance[x + (y * this.lightmapSize)] = tileVariance[pixel];
+                    raysSpent += tileSamples[pixel];
+                }
+            }
+            this.indirectRaysSpent.add(raysSpent);
+        });
+
+        releaseBuffer(this.indirectCache);
+        this.indirectCache = null;
+        this.indirectCacheValid = null;
+    }
+
+    private float indirectVariance(float[] tileIndirect, float[] tileSquares, int[] tileSamples, int pixel) {
+        int n = tileSamples[pixel];
+        if (n < 2) {
+            return 0f;
+        }
+        float sum = luminance(
+                tileIndirect[(pixel * 3) + 0],
+                tileIndirect[(pixel * 3) + 1],
+                tileIndirect[(pixel * 3) + 2]
+        );
+        float sampleVariance = (tileSquares[pixel] - ((sum * sum) / n)) / (n - 1);
+        return Math.max(sampleVariance, 0f) / n;
+    }
+
+
+    private void generateIndirectMargins() {
+        setStatus(getGroupName() + " - Generating Indirect Margins", this.lightmapRectangles.length);
+        for (int i = 0; i < this.lightmapRectangles.length; i++) {
+            MarginAutomata.MarginAutomataIO io = createAutomataIO(
+                    this.lightmapRectangles[i], this.lightmapIndirect, Lightmapper.IGNORE_AMBIENT
+            );
+            MarginAutomata.generateMargin(io, DEFAULT_MARGIN_ITERATIONS);
+            addProgress(1);
+        }
+    }
+
+    private void denoiseIndirect() {
         float blurArea = this.scene.getIndirectLightingBlurArea();
+        if (this.scene.isAdaptiveIndirectEnabled()) {
+            blurArea = this.scene.getIndirectAdaptiveBlurArea();
+        }
         if (blurArea == 0f) {
             return;
         }
@@ -1734,9 +3012,59 @@ public class Lightmapper {
             addProgress(1);
         }
 
+        releaseBuffer(this.lightmapIndirect);
         this.lightmapIndirect = null;
     }
 
+    private void sampleAmbientRay(
+            LightmapperContext context,
+            Vector3fc position, Vector3fc direction, Vector3fc ambient,
+            Vector3f outColor
+    ) {
+        LocalRayHits results = context.hits;
+        results.clear();
+        this.opaqueBVH.testRay(position, direction, results);
+        this.alphaBVH.testRay(position, direction, results);
+        results.sort();
+
+        Vector3f rayWeights = context.rayWeights;
+
+        Vector3f rayLight = context.rayLight;
+        Vector3f rayEmissive = context.rayEmissive;
+        Vector4f rayColor = context.rayColor;
+
+        outColor.set(ambient);
+
+        for (int i = (results.size() - 1); i >= 0; i--) {
+            LocalRayHit ray = results.get(i);
+
+            ray.weights(rayWeights);
+
+            float lu = ray.lerp(rayWeights, OFFSET_LIGHTMAP_XY + 0);
+            float lv = ray.lerp(rayWeights, OFFSET_LIGHTMAP_XY + 1);
+
+            int tx = Math.min(Math.max((int) (lu * this.lightmapSize), 0), this.lightmapSize - 1);
+            int ty = Math.min(Math.max((int) (lv * this.lightmapSize), 0), this.lightmapSize - 1);
+
+            this.lightmap.read(rayLight, tx, ty);
+            this.lightmapEmissive.read(rayEmissive, tx, ty);
+            this.textureColors.read(rayColor, tx, ty);
+
+            rayLight
+                    .mul(rayColor.x(), rayColor.y(), rayColor.z())
+                    .add(rayEmissive.x(), rayEmissive.y(), rayEmissive.z())
+                    .mul(rayColor.w());
+
+            outColor.mul(
+                    (rayColor.x() * rayColor.w()) + (1f - rayColor.w()),
+                    (rayColor.y() * rayColor.w()) + (1f - rayColor.w()),
+                    (rayColor.z() * rayColor.w()) + (1f - rayColor.w())
+            ).mul(1f - rayColor.w());
+
+            outColor.add(rayLight);
+        }
+    }
+
     private void sampleAmbientCubes() {
         Vector3f ambient = new Vector3f(0f, 0f, 0f);
         for (Scene.Light l : this.group.lights) {
@@ -1745,115 +3073,409 @@ public class Lightmapper {
             }
         }
 
-        setStatus(getGroupName() + " - Sampling Ambient Cubes ("+this.ambientCubes.size()+")", this.ambientCubes.size());
-        for (int i = 0; i < this.ambientCubes.size(); i += this.numberOfThreads) {
-            List<Future<?>> tasks = new ArrayList<>();
+        int salt = LightmapperSampler.salt(LightmapperSampler.SALT_AMBIENT_CUBE, this.groupIndex, 0);
 
-            for (int j = 0; j < this.numberOfThreads; j++) {
-                final int index = i + j;
-                if (index >= this.ambientCubes.size()) {
-                    break;
-                }
-                tasks.add(this.service.submit(() -> {
-                    LightmapAmbientCube cube = this.ambientCubes.get(index);
-                    AmbientCube currentCube = cube.getAmbientCube(this.groupIndex);
+        List<TileScheduler.Tile> tiles = TileScheduler.createUnitTiles(this.ambientCubes.size());
+        setStatus(getGroupName() + " - Sampling Ambient Cubes (" + this.ambientCubes.size() + ")", tiles.size());
+        executeTiles(tiles, (tile, context) -> {
+            LightmapAmbientCube cube = this.ambientCubes.get(tile.getX());
+            AmbientCube currentCube = cube.getAmbientCube(this.groupIndex);
 
-                    Vector3f sideColor = new Vector3f(0f, 0f, 0f);
-                    Vector3f rayDirection = new Vector3f(0f, 0f, 0f);
-                    Vector3f rayWeights = new Vector3f();
+            Vector3f sideColor = context.total;
+            Vector3f rayDirection = context.rayDirection;
 
-                    Vector3f rayLight = new Vector3f();
-                    Vector3f rayEmissive = new Vector3f();
-                    Vector4f rayColor = new Vector4f();
+            Vector3f rayLight = context.lightColor;
+            Vector3f rayEmissive = context.color;
+            Vector4f rayColor = context.textureColor;
 
-                    Vector3f finalColor = new Vector3f();
+            Vector3f finalColor = context.result;
 
-                    for (int side = 0; side < AmbientCube.SIDES; side++) {
-                        sideColor.zero();
-                        for (int k = 0; k < NUMBER_OF_AMBIENT_CUBE_RAYS_PER_SIDE; k++) {
-                            AmbientCube.randomSideDirection180(side, rayDirection);
+            int pairs = NUMBER_OF_AMBIENT_CUBE_RAYS_PER_SIDE;
+            RayBatch batch = context.ambientBatch(pairs * 2);
+            int seed = LightmapperSampler.seed(tile.getX(), 0, salt);
+            for (int k = 0; k < pairs; k++) {
+                LightmapperSampler.uniformSphere(
+                        LightmapperSampler.sample(k, 0, seed),
+                        LightmapperSampler.sample(k, 1, seed),
+                        rayDirection
+                );
+                batch.add(cube.getPosition(), rayDirection, Float.POSITIVE_INFINITY);
+                rayDirection.negate();
+                batch.add(cube.getPosition(), rayDirection, Float.POSITIVE_INFINITY);
+            }
+            this.opaqueBVH.testRaysClosest(batch);
+            this.alphaBVH.testRaysClosest(batch);
+            addNodes(batch);
+
+            float[] rayColors = context.ambientColors(batch.size() * 3);
+            for (int ray = 0; ray < batch.size(); ray++) {
+                finalColor.set(ambient);
+
+                if (batch.hasHit(ray)) {
+                    float lu = batch.lerpHit(ray, OFFSET_LIGHTMAP_XY + 0);
+                    float lv = batch.lerpHit(ray, OFFSET_LIGHTMAP_XY + 1);
+
+                    int tx = Math.min(Math.max((int) (lu * this.lightmapSize), 0), this.lightmapSize - 1);
+                    int ty = Math.min(Math.max((int) (lv * this.lightmapSize), 0), this.lightmapSize - 1);
+
+                    this.textureColors.read(rayColor, tx, ty);
+
+                    if (rayColor.w() >= 1f) {
+                        this.lightmap.read(rayLight, tx, ty);
+                        this.lightmapEmissive.read(rayEmissive, tx, ty);
+
+                        finalColor.set(rayLight)
+                                .mul(rayColor.x(), rayColor.y(), rayColor.z())
+                                .add(rayEmissive.x(), rayEmissive.y(), rayEmissive.z())
+                                .mul(rayColor.w());
+                    } else {
+                        batch.getDirection(ray, rayDirection);
+                        sampleAmbientRay(context, cube.getPosition(), rayDirection, ambient, finalColor);
+                    }
+                }
 
-                            List<LocalRayResult> results = this.opaqueBVH.testRay(
-                                    cube.getPosition(),
-                                    rayDirection
-                            );
-                            results.addAll(this.alphaBVH.testRay(cube.getPosition(), rayDirection));
-                            Comparator<LocalRayResult> comparator = ((o1, o2) -> Float.compare(o1.getLocalDistance(), o2.getLocalDistance()));
-                            results.sort(comparator.reversed());
+                rayColors[(ray * 3) + 0] = finalColor.x();
+                rayColors[(ray * 3) + 1] = finalColor.y();
+                rayColors[(ray * 3) + 2] = finalColor.z();
 
-                            finalColor.set(ambient);
+                addRay();
+            }
+
+            float[] directions = batch.getDirections();
+            for (int side = 0; side < AmbientCube.SIDES; side++) {
+                int axis = side / 2;
+                boolean positive = (side % 2) == 0;
 
-                            for (LocalRayResult ray : results) {
-                                ray.weights(rayWeights);
+                sideColor.zero();
+                for (int k = 0; k < pairs; k++) {
+                    int ray = k * 2;
+                    if ((directions[(ray * 3) + axis] >= 0f) != positive) {
+                        ray++;
+                    }
+                    sideColor.add(
+                            rayColors[(ray * 3) + 0],
+                            rayColors[(ray * 3) + 1],
+                            rayColors[(ray * 3) + 2]
+                    );
+                }
+                sideColor.div(pairs);
+                currentCube.setSide(side, sideColor);
+            }
+        });
+    }
 
-                                float lu = ray.lerp(rayWeights, OFFSET_LIGHTMAP_XY + 0);
-                                float lv = ray.lerp(rayWeights, OFFSET_LIGHTMAP_XY + 1);
+    private void outputLightmap() {
+        setStatus(getGroupName() + " - Finishing Lightmap", 1);
 
-                                int tx = Math.min(Math.max((int) (lu * this.lightmapSize), 0), this.lightmapSize - 1);
-                                int ty = Math.min(Math.max((int) (lv * this.lightmapSize), 0), this.lightmapSize - 1);
+        this.totalLightmaps[this.groupIndex] = this.lightmap.getData();
+        this.totalLightmapsEmissive[this.groupIndex] = this.lightmapEmissive.getData();
 
-                                this.lightmap.read(rayLight, tx, ty);
-                                this.lightmapEmissive.read(rayEmissive, tx, ty);
-                                this.textureColors.read(rayColor, tx, ty);
+        this.lightmap = null;
+        this.lightmapEmissive = null;
+        this.group = null;
 
-                                rayLight
-                                        .mul(rayColor.x(), rayColor.y(), rayColor.z())
-                                        .add(rayEmissive.x(), rayEmissive.y(), rayEmissive.z())
-                                        .mul(rayColor.w());
+        addProgress(1);
+    }
 
-                                finalColor.mul(
-                                        (rayColor.x() * rayColor.w()) + (1f - rayColor.w()),
-                                        (rayColor.y() * rayColor.w()) + (1f - rayColor.w()),
-                                        (rayColor.z() * rayColor.w()) + (1f - rayColor.w())
-                                ).mul(1f - rayColor.w());
+    private void computeFingerprints() {
+        setStatus("Computing Fingerprints", 1 + this.lightGroups.length);
+        this.geometryFingerprint = LightmapperFingerprints.geometry(
+                this.scene,
+                this.lightmapMargin, this.lightmapSize, this.lightmapRectangles,
+                this.opaqueMesh, this.alphaMesh,
+                this.textureColors.getData(), this.textureEmissiveColors.getData()
+        );
+        addProgress(1);
 
-                                finalColor.add(rayLight);
-                            }
+        this.groupsFingerprints = new String[this.lightGroups.length];
+        this.previousGroups = new int[this.lightGroups.length];
+        Arrays.fill(this.previousGroups, -1);
 
-                            sideColor.add(
-                                    finalColor.x(),
-                                    finalColor.y(),
-                                    finalColor.z()
-                            );
+        LightmapperCheckpoint.Fingerprints previous = openPreviousBake();
+        this.previousGeometry = previous != null
+                && previous.getSize() == this.lightmapSize
+                && this.geometryFingerprint.equals(previous.getGeometry());
 
-                            addRay();
-                        }
-                        sideColor.div(NUMBER_OF_AMBIENT_CUBE_RAYS_PER_SIDE);
-                        currentCube.setSide(side, sideColor);
+        for (int i = 0; i < this.lightGroups.length; i++) {
+            LightGroup g = this.lightGroups[i];
+            this.groupsFingerprints[i] = LightmapperFingerprints.group(g.groupName, g.lights);
+            if (this.previousGeometry) {
+                String[] previousFingerprints = previous.getGroups();
+                for (int j = 0; j < previousFingerprints.length; j++) {
+                    if (this.groupsFingerprints[i].equals(previousFingerprints[j])) {
+                        this.previousGroups[i] = j;
+                        break;
                     }
-                }));
+                }
             }
+            addProgress(1);
+        }
+    }
 
-            for (Future<?> t : tasks) {
-                try {
-                    t.get();
-                } catch (InterruptedException | ExecutionException ex) {
-                    throw new RuntimeException(ex);
-                }
+    private LightmapperCheckpoint.Fingerprints openPreviousBake() {
+        Path directory = CHECKPOINT_DIRECTORY;
+        if (directory == null || this.previousKey == null) {
+            return null;
+        }
+        this.previousBake = new LightmapperCheckpoint(directory, LightmapperFingerprints.previous(this.previousKey));
+        try {
+            return this.previousBake.readFingerprints();
+        } catch (IOException ex) {
+            ex.printStackTrace(System.out);
+            return null;
+        }
+    }
+
+    private List<LightmapAmbientCube> previousAmbientCubes() {
+        if (!this.previousGeometry) {
+            return null;
+        }
+        if (this.previousAmbientCubes == null) {
+            try {
+                this.previousAmbientCubes = this.previousBake.readAmbientCubes();
+            } catch (IOException ex) {
+                ex.printStackTrace(System.out);
+            }
+            if (this.previousAmbientCubes == null) {
+                this.previousGeometry = false;
             }
+        }
+        return this.previousAmbientCubes;
+    }
+
+    private boolean reusePreviousAmbientCubes() {
+        List<LightmapAmbientCube> previousCubes = previousAmbientCubes();
+        if (previousCubes == null) {
+            return false;
+        }
 
-            addProgress(tasks.size());
-            tasks.clear();
+        setStatus("Reusing Previous Ambient Cubes (" + previousCubes.size() + ")", previousCubes.size());
+        for (LightmapAmbientCube cube : previousCubes) {
+            this.ambientCubes.add(new LightmapAmbientCube(
+                    cube.getPosition().x(), cube.getPosition().y(), cube.getPosition().z(),
+                    cube.getRadius(),
+                    this.lightGroups.length
+            ));
+            addProgress(1);
         }
+        return true;
     }
 
-    private void outputLightmap() {
-        setStatus(getGroupName() + " - Finishing Lightmap", 1);
+    private boolean reusePreviousGroup() {
+        int previousGroup = this.previousGroups[this.groupIndex];
+        if (previousGroup < 0) {
+            return false;
+        }
 
-        this.totalLightmaps[this.groupIndex] = this.lightmap.getData();
-        this.totalLightmapsEmissive[this.groupIndex] = this.lightmapEmissive.getData();
+        List<LightmapAmbientCube> previousCubes = previousAmbientCubes();
+        if (previousCubes == null || previousCubes.size() != this.ambientCubes.size()) {
+            return false;
+        }
 
-        this.lightmap = null;
-        this.lightmapEmissive = null;
+        setStatus(getGroupName() + " - Reusing Previous Lightmap", 1 + this.ambientCubes.size());
+        try {
+            if (!this.previousBake.readGroup(
+                    previousGroup,
+                    this.lightmap.getData(), this.lightmapEmissive.getData()
+            )) {
+                return false;
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace(System.out);
+            Arrays.fill(this.lightmap.getData(), 0f);
+            Arrays.fill(this.lightmapEmissive.getData(), 0f);
+            return false;
+        }
+        addProgress(1);
+
+        for (int i = 0; i < this.ambientCubes.size(); i++) {
+            AmbientCube source = previousCubes.get(i).getAmbientCube(previousGroup);
+            AmbientCube destination = this.ambientCubes.get(i).getAmbientCube(this.groupIndex);
+            for (int side = 0; side < AmbientCube.SIDES; side++) {
+                destination.setSide(side, source.getSide(side));
+            }
+            addProgress(1);
+        }
+
+        return true;
+    }
+
+    private void checkpointFailed(IOException ex) {
+        ex.printStackTrace(System.out);
+        this.checkpoint = null;
+    }
+
+    private void openCheckpoint() {
+        Path directory = CHECKPOINT_DIRECTORY;
+        if (directory == null) {
+            return;
+        }
+
+        setStatus("Opening Checkpoint", 1);
+        String key = LightmapperFingerprints.combine(this.geometryFingerprint, this.groupsFingerprints);
+        this.checkpoint = new LightmapperCheckpoint(directory, key);
+        this.checkpointTime = System.currentTimeMillis();
+        addProgress(1);
+    }
+
+    private boolean restoreAmbientCubes() {
+        if (this.checkpoint == null) {
+            return false;
+        }
+        try {
+            List<LightmapAmbientCube> cubes = this.checkpoint.readAmbientCubes();
+            if (cubes == null) {
+                return false;
+            }
+            setStatus("Restoring Ambient Cubes From Checkpoint (" + cubes.size() + ")", 1);
+            this.ambientCubes.addAll(cubes);
+            addProgress(1);
+            return true;
+        } catch (IOException ex) {
+            checkpointFailed(ex);
+            return false;
+        }
+    }
+
+    private void saveAmbientCubes() {
+        if (this.checkpoint == null) {
+            return;
+        }
+        setStatus("Writing Ambient Cubes Checkpoint", 1);
+        try {
+            this.checkpoint.writeAmbientCubes(this.ambientCubes);
+        } catch (IOException ex) {
+            checkpointFailed(ex);
+        }
+        addProgress(1);
+    }
+
+    private boolean restoreGroup() {
+        if (this.checkpoint == null) {
+            return false;
+        }
+        try {
+            setStatus(getGroupName() + " - Restoring Lightmap From Checkpoint", 1);
+            boolean restored = this.checkpoint.readGroup(
+                    this.groupIndex,
+                    this.lightmap.getData(), this.lightmapEmissive.getData()
+            );
+            addProgress(1);
+            return restored;
+        } catch (IOException ex) {
+            checkpointFailed(ex);
+            Arrays.fill(this.lightmap.getData(), 0f);
+            Arrays.fill(this.lightmapEmissive.getData(), 0f);
+            return false;
+        }
+    }
 
+    private void saveGroup() {
+        if (this.checkpoint == null) {
+            return;
+        }
+        setStatus(getGroupName() + " - Writing Lightmap Checkpoint", 1);
+        try {
+            this.checkpoint.writeGroup(
+                    this.groupIndex,
+                    this.lightmap.getData(), this.lightmapEmissive.getData()
+            );
+            this.checkpointTime = System.currentTimeMillis();
+        } catch (IOException ex) {
+            checkpointFailed(ex);
+        }
         addProgress(1);
     }
 
+    private int restorePartialGroup() {
+        if (this.checkpoint == null) {
+            return 0;
+        }
+        try {
+            setStatus(getGroupName() + " - Restoring Partial Lightmap From Checkpoint", 1);
+            int step = this.checkpoint.readPartial(
+                    this.groupIndex,
+                    this.lightmap.getData(), this.lightmapEmissive.getData()
+            );
+            addProgress(1);
+            return step;
+        } catch (IOException ex) {
+            checkpointFailed(ex);
+            Arrays.fill(this.lightmap.getData(), 0f);
+            Arrays.fill(this.lightmapEmissive.getData(), 0f);
+            return 0;
+        }
+    }
+
+    private void savePartialGroup(int step) {
+        if (this.checkpoint == null) {
+            return;
+        }
+        if ((System.currentTimeMillis() - this.checkpointTime) < CHECKPOINT_INTERVAL) {
+            return;
+        }
+        setStatus(getGroupName() + " - Writing Partial Lightmap Checkpoint", 1);
+        try {
+            this.checkpoint.writePartial(
+                    this.groupIndex, step,
+                    this.lightmap.getData(), this.lightmapEmissive.getData()
+            );
+            this.checkpointTime = System.currentTimeMillis();
+        } catch (IOException ex) {
+            checkpointFailed(ex);
+        }
+        addProgress(1);
+    }
+
+    private void finishCheckpoint() {
+        if (this.checkpoint == null) {
+            return;
+        }
+        try {
+            if (this.previousBake == null) {
+                this.checkpoint.delete();
+                return;
+            }
+            setStatus("Keeping Checkpoint for the Next Bake", 1);
+            this.checkpoint.writeFingerprints(new LightmapperCheckpoint.Fingerprints(
+                    this.lightmapSize, this.geometryFingerprint, this.groupsFingerprints
+            ));
+            this.checkpoint.moveTo(this.previousBake);
+            addProgress(1);
+        } catch (IOException ex) {
+            checkpointFailed(ex);
+        }
+    }
+
+    private void writeTelemetry() {
+        Path file = TELEMETRY_FILE;
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.writeString(file, getTelemetry().toXML(), StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            ex.printStackTrace(System.out);
+        }
+    }
+
     public LightmapperOutput bake() {
-        this.numberOfThreads = NUMBER_OF_THREADS;
-        this.service = Executors.newFixedThreadPool(this.numberOfThreads);
+        LightmapperService.Job<Void> attached = null;
+        if (this.job == null) {
+            attached = LightmapperService.getShared().attach("Lightmapper");
+            this.currentJob = attached;
+        } else {
+            this.currentJob = this.job;
+        }
+        this.currentJob.setLightmapper(this);
+        this.numberOfThreads = this.currentJob.getService().getNumberOfThreads();
+        this.tileSize = TILE_SIZE;
+        this.telemetry.begin(this.numberOfThreads);
         try {
+            openStorage();
+
             rasterizeBarycentricBuffers();
+            computeTileBounds();
 
             readTextureColors();
             readTextureEmissiveColors();
@@ -1861,15 +3483,58 @@ public class Lightmapper {
             generateTextureColorsMargins();
             generateTextureEmissiveColorsMargins();
 
-            placeAmbientCubes();
+            computeFingerprints();
+            openCheckpoint();
+
+            if (!restoreAmbientCubes()) {
+                if (!reusePreviousAmbientCubes()) {
+                    placeAmbientCubes();
+                }
+                saveAmbientCubes();
+            }
 
             for (int i = 0; i < this.lightGroups.length; i++) {
                 prepareLightmap(i);
 
+                if (restoreGroup()) {
+                    outputLightmap();
+                    continue;
+                }
+
+                if (reusePreviousGroup()) {
+                    saveAmbientCubes();
+                    saveGroup();
+                    outputLightmap();
+                    continue;
+                }
+
+                int step = restorePartialGroup();
+
+                if (step < 1) {
+                    if (this.scene.isFusedLightingEnabled()) {
+                        prepareFusedLights();
+                        if (!this.fusedLights.isEmpty()) {
+                            bakeFusedLights();
+                            generateFusedDirectMargins();
+                            if (this.scene.isShadowsEnabled()) {
+                                denoiseFusedShadows();
+                            }
+                        }
+                        outputFusedLights();
+                    }
+                    savePartialGroup(1);
+                }
+
                 for (int j = 0; j < this.group.lights.size(); j++) {
+                    if (step >= (2 + j)) {
+                        continue;
+                    }
                     if (this.scene.isFastModeEnabled() && (this.group.lights.get(j) instanceof Scene.EmissiveLight || this.group.lights.get(j) instanceof Scene.AmbientLight)) {
                         continue;
                     }
+                    if (isFusedLight(this.group.lights.get(j))) {
+                        continue;
+                    }
 
                     prepareLight(j);
 
@@ -1883,24 +3548,35 @@ public class Lightmapper {
                     }
 
                     outputLight();
+                    savePartialGroup(2 + j);
                 }
 
-                finishLightmapMargins();
-                finishEmissiveMargins();
+                int indirectStep = 2 + this.group.lights.size();
+                if (step < indirectStep) {
+                    finishLightmapMargins();
+                    finishEmissiveMargins();
 
-                if (this.scene.isIndirectLightingEnabled()) {
-                    bakeIndirect();
-                    generateIndirectMargins();
-                    denoiseIndirect();
+                    if (this.scene.isIndirectLightingEnabled()) {
+                        buildIndirectCache();
+                        bakeIndirect();
+                        generateIndirectMargins();
+                        denoiseIndirect();
 
-                    finishIndirectMargins();
+                        finishIndirectMargins();
+                    }
+
+                    outputIndirect();
+                    savePartialGroup(indirectStep);
                 }
 
-                outputIndirect();
                 sampleAmbientCubes();
+                saveAmbientCubes();
+                saveGroup();
                 outputLightmap();
             }
 
+            finishCheckpoint();
+
             setStatus("Generating Ambient Cube BVH", 1);
             LightmapAmbientCubeBVH ambientCubeBVH = LightmapAmbientCubeBVH.create(this.ambientCubes);
             addProgress(1);
@@ -1908,32 +3584,73 @@ public class Lightmapper {
             setStatus("Done", 1);
             addProgress(1);
 
+            this.telemetry.end();
+            writeTelemetry();
+
             return new LightmapperOutput(
                     this.lightmapSize,
                     this.lightmapsNames,
                     this.totalLightmaps,
                     this.totalLightmapsEmissive,
                     this.textureColors.getData(),
-                    ambientCubeBVH
+                    ambientCubeBVH,
+                    this.geometryFingerprint,
+                    this.groupsFingerprints
             );
         } finally {
-            this.service.shutdownNow();
+            this.currentJob = null;
+            this.previousBake = null;
+            this.previousAmbientCubes = null;
+            closeStorage();
+            if (attached != null) {
+                attached.getService().detach(attached);
+            }
         }
     }
 
+    public String getPreviousKey() {
+        return previousKey;
+    }
+
+    //when checkpoints are enabled, the finished checkpoint is kept under this key
+    //and groups with unchanged fingerprints are reused by the next bake with the same key
+    public void setPreviousKey(String previousKey) {
+        this.previousKey = previousKey;
+    }
+
+    public LightmapperService.Job<?> getJob() {
+        return job;
+    }
+
+    public void setJob(LightmapperService.Job<?> job) {
+        this.job = job;
+    }
+
     public String getStatus() {
         return status;
     }
 
+    public long getIndirectRaysSpent() {
+        return this.indirectRaysSpent.sum();
+    }
+
+    public float[] getIndirectVarianceMap(int group) {
+        return this.indirectVarianceMaps[group];
+    }
+
     public double getRaysPerSecond() {
-        return (((double) this.raysCount) / (System.currentTimeMillis() - this.raysTime)) * 1000.0;
+        return this.telemetry.getRaysPerSecond();
+    }
+
+    public LightmapperTelemetry.Snapshot getTelemetry() {
+        return this.telemetry.snapshot(this.status, getProgress());
     }
 
     public double getProgress() {
         if (this.progressMax == 0) {
             return 0.0;
         }
-        return ((double) this.progressCount) / this.progressMax;
+        return ((double) this.progressCount.sum()) / this.progressMax;
     }
 
 }
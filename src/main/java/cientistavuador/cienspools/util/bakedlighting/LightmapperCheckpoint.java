@@ -0,0 +1,305 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.bakedlighting;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ *
+ * @author Cien
+ */
+class LightmapperCheckpoint {
+
+    public static final long MAGIC_NUMBER = 6120593148213866459L;
+    public static final int VERSION = 1;
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    public static class Fingerprints {
+
+        private final int size;
+        private final String geometry;
+        private final String[] groups;
+
+        public Fingerprints(int size, String geometry, String[] groups) {
+            this.size = size;
+            this.geometry = geometry;
+            this.groups = groups;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public String getGeometry() {
+            return geometry;
+        }
+
+        public String[] getGroups() {
+            return groups;
+        }
+
+    }
+
+    private final Path directory;
+
+    public LightmapperCheckpoint(Path root, String key) {
+        this.directory = root.resolve(key);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private Path fingerprintsFile() {
+        return this.directory.resolve("fingerprints.bin");
+    }
+
+    private Path ambientCubesFile() {
+        return this.directory.resolve("ambient-cubes.bin");
+    }
+
+    private Path groupFile(int group) {
+        return this.directory.resolve("group-" + group + ".bin");
+    }
+
+    private Path partialFile(int group) {
+        return this.directory.resolve("group-" + group + "-partial.bin");
+    }
+
+    private ObjectInputStream open(Path file) throws IOException {
+        InputStream in;
+        try {
+            in = new BufferedInputStream(Files.newInputStream(file));
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+        ObjectInputStream objectIn = new ObjectInputStream(in);
+        if (objectIn.readLong() != MAGIC_NUMBER || objectIn.readInt() != VERSION) {
+            objectIn.close();
+            throw new IOException("Invalid lightmapper checkpoint: " + file);
+        }
+        return objectIn;
+    }
+
+    @FunctionalInterface
+    private static interface CheckpointWriter {
+
+        public void write(ObjectOutputStream out) throws IOException;
+    }
+
+    private Path temporaryFile(Path file) throws IOException {
+        Files.createDirectories(this.directory);
+        return this.directory.resolve(file.getFileName() + ".tmp");
+    }
+
+    private void write(Path file, CheckpointWriter writer) throws IOException {
+        Path temporary = temporaryFile(file);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+            ObjectOutputStream objectOut = new ObjectOutputStream(out);
+            objectOut.writeLong(MAGIC_NUMBER);
+            objectOut.writeInt(VERSION);
+            writer.write(objectOut);
+            objectOut.flush();
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated lightmapper checkpoint.");
+            }
+        }
+        buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFloats(FileChannel channel, ByteBuffer buffer, float[] data) throws IOException {
+        int floatsPerChunk = buffer.capacity() / Float.BYTES;
+        for (int i = 0; i < data.length; i += floatsPerChunk) {
+            int length = Math.min(floatsPerChunk, data.length - i);
+            buffer.clear().limit(length * Float.BYTES);
+            readFully(channel, buffer);
+            buffer.asFloatBuffer().get(data, i, length);
+        }
+    }
+
+    private static void writeFloats(FileChannel channel, ByteBuffer buffer, float[] data) throws IOException {
+        int floatsPerChunk = buffer.capacity() / Float.BYTES;
+        for (int i = 0; i < data.length; i += floatsPerChunk) {
+            int length = Math.min(floatsPerChunk, data.length - i);
+            buffer.clear();
+            buffer.asFloatBuffer().put(data, i, length);
+            buffer.limit(length * Float.BYTES);
+            writeFully(channel, buffer);
+        }
+    }
+
+    private int readBuffers(Path file, float[] lightmap, float[] lightmapEmissive) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+        } catch (NoSuchFileException ex) {
+            return -1;
+        }
+        try (channel) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.limit(Long.BYTES + (Integer.BYTES * 4));
+            readFully(channel, buffer);
+            if (buffer.getLong() != MAGIC_NUMBER || buffer.getInt() != VERSION) {
+                throw new IOException("Invalid lightmapper checkpoint: " + file);
+            }
+            int step = buffer.getInt();
+            if (buffer.getInt() != lightmap.length || buffer.getInt() != lightmapEmissive.length) {
+                throw new IOException("Checkpoint buffer size mismatch.");
+            }
+            readFloats(channel, buffer, lightmap);
+            readFloats(channel, buffer, lightmapEmissive);
+            return step;
+        }
+    }
+
+    private void writeBuffers(Path file, int step, float[] lightmap, float[] lightmapEmissive) throws IOException {
+        Path temporary = temporaryFile(file);
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer
+                    .putLong(MAGIC_NUMBER)
+                    .putInt(VERSION)
+                    .putInt(step)
+                    .putInt(lightmap.length)
+                    .putInt(lightmapEmissive.length)
+                    .flip();
+            writeFully(channel, buffer);
+            writeFloats(channel, buffer, lightmap);
+            writeFloats(channel, buffer, lightmapEmissive);
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Fingerprints readFingerprints() throws IOException {
+        ObjectInputStream in = open(fingerprintsFile());
+        if (in == null) {
+            return null;
+        }
+        try (in) {
+            int size = in.readInt();
+            String geometry = in.readUTF();
+            String[] groups = new String[in.readInt()];
+            for (int i = 0; i < groups.length; i++) {
+                groups[i] = in.readUTF();
+            }
+            return new Fingerprints(size, geometry, groups);
+        }
+    }
+
+    public void writeFingerprints(Fingerprints fingerprints) throws IOException {
+        write(fingerprintsFile(), (out) -> {
+            out.writeInt(fingerprints.getSize());
+            out.writeUTF(fingerprints.getGeometry());
+            out.writeInt(fingerprints.getGroups().length);
+            for (String group : fingerprints.getGroups()) {
+                out.writeUTF(group);
+            }
+        });
+    }
+
+    public List<LightmapAmbientCube> readAmbientCubes() throws IOException {
+        ObjectInputStream in = open(ambientCubesFile());
+        if (in == null) {
+            return null;
+        }
+        try (in) {
+            return LightmapAmbientCubeBVHStore.readAmbientCubes(in);
+        }
+    }
+
+    public void writeAmbientCubes(List<LightmapAmbientCube> cubes) throws IOException {
+        write(ambientCubesFile(), (out) -> {
+            LightmapAmbientCubeBVHStore.writeAmbientCubes(cubes, out);
+        });
+    }
+
+    public boolean readGroup(int group, float[] lightmap, float[] lightmapEmissive) throws IOException {
+        return readBuffers(groupFile(group), lightmap, lightmapEmissive) >= 0;
+    }
+
+    public void writeGroup(int group, float[] lightmap, float[] lightmapEmissive) throws IOException {
+        writeBuffers(groupFile(group), 0, lightmap, lightmapEmissive);
+        Files.deleteIfExists(partialFile(group));
+    }
+
+    public int readPartial(int group, float[] lightmap, float[] lightmapEmissive) throws IOException {
+        return Math.max(readBuffers(partialFile(group), lightmap, lightmapEmissive), 0);
+    }
+
+    public void writePartial(int group, int step, float[] lightmap, float[] lightmapEmissive) throws IOException {
+        writeBuffers(partialFile(group), step, lightmap, lightmapEmissive);
+    }
+
+    public void delete() throws IOException {
+        if (!Files.isDirectory(this.directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(this.directory);
+    }
+
+    public void moveTo(LightmapperCheckpoint other) throws IOException {
+        other.delete();
+        Files.move(this.directory, other.directory, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.bakedlighting;
+
+import cientistavuador.cienspools.util.raycast.LocalRayHit;
+import cientistavuador.cienspools.util.raycast.LocalRayHits;
+import cientistavuador.cienspools.util.raycast.RayBatch;
+import java.util.Arrays;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+/**
+ *
+ * @author Cien
+ */
+class LightmapperContext {
+
+    public static final int TILE_ARRAYS = 3;
+
+    //tile loop
+    final Vector3f sampleWeights = new Vector3f();
+    final Vector3f position = new Vector3f();
+    final Vector3f normal = new Vector3f();
+    final Vector3f shadowPosition = new Vector3f();
+    final Vector3f rayDirection = new Vector3f();
+    final Vector3f lightDirection = new Vector3f();
+    final Vector3f lightColor = new Vector3f();
+    final Vector3f total = new Vector3f();
+    final Vector3f color = new Vector3f();
+
+    //batch flush
+    final RayBatch batch = new RayBatch();
+    final int[] owners = new int[this.batch.getCapacity()];
+    final LocalRayHit hit = new LocalRayHit();
+    final Vector3f origin = new Vector3f();
+    final Vector3f direction = new Vector3f();
+    final Vector3f result = new Vector3f();
+    final Vector3f shadow = new Vector3f();
+    final Vector4f textureColor = new Vector4f();
+
+    //ray tracing
+    final LocalRayHits hits = new LocalRayHits();
+    final Vector3f rayWeights = new Vector3f();
+    final Vector4f rayColor = new Vector4f();
+    final Vector3f rayLight = new Vector3f();
+    final Vector3f rayEmissive = new Vector3f();
+    final Vector3f cacheLight = new Vector3f();
+    final Vector3f throughput = new Vector3f();
+    final Vector4f blendColor = new Vector4f();
+
+    //ambient cubes
+    private RayBatch ambientBatch = null;
+    private float[] ambientColors = null;
+
+    //tile arrays
+    private final float[][] floats = new float[TILE_ARRAYS][0];
+    private final int[][] ints = new int[TILE_ARRAYS][0];
+    private final boolean[][] booleans = new boolean[TILE_ARRAYS][0];
+
+    public LightmapperContext() {
+
+    }
+
+    public RayBatch ambientBatch(int capacity) {
+        if (this.ambientBatch == null || this.ambientBatch.getCapacity() < capacity) {
+            this.ambientBatch = new RayBatch(capacity);
+        }
+        this.ambientBatch.clear();
+        return this.ambientBatch;
+    }
+
+    public float[] ambientColors(int length) {
+        if (this.ambientColors == null || this.ambientColors.length < length) {
+            this.ambientColors = new float[length];
+        }
+        return this.ambientColors;
+    }
+
+    public float[] floats(int index, int length) {
+        float[] array = this.floats[index];
+        if (array.length < length) {
+            array = new float[length];
+            this.floats[index] = array;
+        } else {
+            Arrays.fill(array, 0, length, 0f);
+        }
+        return array;
+    }
+
+    public int[] ints(int index, int length) {
+        int[] array = this.ints[index];
+        if (array.length < length) {
+            array = new int[length];
+            this.ints[index] = array;
+        } else {
+            Arrays.fill(array, 0, length, 0);
+        }
+        return array;
+    }
+
+    public boolean[] booleans(int index, int length) {
+        boolean[] array = this.booleans[index];
+        if (array.length < length) {
+            array = new boolean[length];
+            this.booleans[index] = array;
+        } else {
+            Arrays.fill(array, 0, length, false);
+        }
+        return array;
+    }
+
+}
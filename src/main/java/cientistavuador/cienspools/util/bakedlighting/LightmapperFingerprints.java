@@ -0,0 +1,257 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.bakedlighting;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import org.joml.Vector3fc;
+import org.joml.primitives.Rectanglei;
+
+/**
+ *
+ * @author Cien
+ */
+public class LightmapperFingerprints {
+
+    public static final int VERSION = 2;
+
+    private static class KeyDigest {
+
+        private final MessageDigest digest;
+        private final ByteBuffer buffer = ByteBuffer.allocate(8192).order(ByteOrder.LITTLE_ENDIAN);
+
+        public KeyDigest() {
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        private void ensure(int bytes) {
+            if (this.buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            this.buffer.flip();
+            this.digest.update(this.buffer);
+            this.buffer.clear();
+        }
+
+        public void putInt(int value) {
+            ensure(Integer.BYTES);
+            this.buffer.putInt(value);
+        }
+
+        public void putFloat(float value) {
+            ensure(Float.BYTES);
+            this.buffer.putFloat(value);
+        }
+
+        public void putBoolean(boolean value) {
+            putInt(value ? 1 : 0);
+        }
+
+        public void putVector(Vector3fc vector) {
+            putFloat(vector.x());
+            putFloat(vector.y());
+            putFloat(vector.z());
+        }
+
+        public void putString(String value) {
+            byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            flush();
+            this.digest.update(bytes);
+        }
+
+        public void putFloats(float[] values) {
+            putInt(values.length);
+            for (float f : values) {
+                putFloat(f);
+            }
+        }
+
+        public String finish() {
+            flush();
+            byte[] hash = this.digest.digest();
+            StringBuilder b = new StringBuilder();
+            for (byte e : hash) {
+                b.append(Character.forDigit((e >> 4) & 0xF, 16));
+                b.append(Character.forDigit(e & 0xF, 16));
+            }
+            return b.toString();
+        }
+    }
+
+    private static void putLight(KeyDigest key, Scene.Light light) {
+        key.putString(light.getClass().getName());
+        key.putString(light.getGroupName());
+        key.putVector(light.getDiffuse());
+        key.putFloat(light.getLightSize());
+
+        if (light instanceof Scene.DirectionalLight directional) {
+            key.putVector(directional.getDirection());
+            key.putVector(directional.getAmbient());
+        } else if (light instanceof Scene.PointLight point) {
+            key.putVector(point.getPosition());
+            key.putFloat(point.getRange());
+        } else if (light instanceof Scene.SpotLight spot) {
+            key.putVector(spot.getPosition());
+            key.putVector(spot.getDirection());
+            key.putFloat(spot.getRange());
+            key.putFloat(spot.getInnerCutoff());
+            key.putFloat(spot.getOuterCutoff());
+        } else if (light instanceof Scene.EmissiveLight emissive) {
+            key.putInt(emissive.getEmissiveRays());
+            key.putFloat(emissive.getEmissiveBlurArea());
+        } else if (light instanceof Scene.AmbientLight ambient) {
+            key.putInt(ambient.getAmbientRays());
+            key.putFloat(ambient.getAmbientBlurArea());
+        }
+    }
+
+    private static void putSettings(KeyDigest key, Scene scene) {
+        key.putString(scene.getSamplingMode().name());
+        key.putFloat(scene.getPixelToWorldRatio());
+        key.putBoolean(scene.isDirectLightingEnabled());
+        key.putFloat(scene.getDirectLightingAttenuation());
+        key.putBoolean(scene.isShadowsEnabled());
+        key.putInt(scene.getShadowRaysPerSample());
+        key.putFloat(scene.getShadowBlurArea());
+        key.putBoolean(scene.isIndirectLightingEnabled());
+        key.putInt(scene.getIndirectRaysPerSample());
+        key.putInt(scene.getIndirectBounces());
+        key.putFloat(scene.getIndirectLightingBlurArea());
+        key.putFloat(scene.getIndirectLightReflectionFactor());
+        key.putBoolean(scene.isAdaptiveIndirectEnabled());
+        key.putInt(scene.getIndirectMinRaysPerSample());
+        key.putInt(scene.getIndirectMaxRaysPerSample());
+        key.putFloat(scene.getIndirectAdaptiveThreshold());
+        key.putFloat(scene.getIndirectAdaptiveBlurArea());
+        key.putFloat(scene.getRayOffset());
+        key.putBoolean(scene.fillEmptyValuesWithLightColors());
+        key.putBoolean(scene.isFastModeEnabled());
+        key.putBoolean(scene.isFusedLightingEnabled());
+    }
+
+    public static String scene(Scene scene) {
+        KeyDigest key = new KeyDigest();
+
+        key.putInt(VERSION);
+
+        putSettings(key, scene);
+
+        key.putInt(scene.getLights().size());
+        for (Scene.Light light : scene.getLights()) {
+            putLight(key, light);
+        }
+
+        return key.finish();
+    }
+
+    public static String geometry(
+            Scene scene,
+            int lightmapMargin,
+            int lightmapSize,
+            Rectanglei[] lightmapRectangles,
+            float[] opaqueMesh,
+            float[] alphaMesh,
+            float[] textureColors,
+            float[] textureEmissiveColors
+    ) {
+        KeyDigest key = new KeyDigest();
+
+        key.putInt(VERSION);
+
+        putSettings(key, scene);
+
+        key.putInt(lightmapMargin);
+        key.putInt(lightmapSize);
+        key.putInt(lightmapRectangles.length);
+        for (Rectanglei r : lightmapRectangles) {
+            key.putInt(r.minX);
+            key.putInt(r.minY);
+            key.putInt(r.maxX);
+            key.putInt(r.maxY);
+        }
+
+        key.putFloats(opaqueMesh);
+        key.putFloats(alphaMesh);
+        key.putFloats(textureColors);
+        key.putFloats(textureEmissiveColors);
+
+        return key.finish();
+    }
+
+    public static String group(String groupName, List<Scene.Light> lights) {
+        KeyDigest key = new KeyDigest();
+
+        key.putInt(VERSION);
+        key.putString(groupName);
+        key.putInt(lights.size());
+        for (Scene.Light light : lights) {
+            putLight(key, light);
+        }
+
+        return key.finish();
+    }
+
+    public static String previous(String name) {
+        KeyDigest key = new KeyDigest();
+
+        key.putInt(VERSION);
+        key.putString("previous");
+        key.putString(name);
+
+        return key.finish();
+    }
+
+    public static String combine(String geometry, String[] groups) {
+        KeyDigest key = new KeyDigest();
+
+        key.putInt(VERSION);
+        key.putString(geometry);
+        key.putInt(groups.length);
+        for (String group : groups) {
+            key.putString(group);
+        }
+
+        return key.finish();
+    }
+
+    private LightmapperFingerprints() {
+
+    }
+
+}
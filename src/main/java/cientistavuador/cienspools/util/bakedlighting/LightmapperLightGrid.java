@@ -0,0 +1,272 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.bakedlighting;
+
+import java.util.BitSet;
+import java.util.List;
+import org.joml.Vector3fc;
+import org.joml.Vector4f;
+
+/**
+ *
+ * @author Cien
+ */
+class LightmapperLightGrid {
+
+    public static final int MAX_CELLS_PER_AXIS = 32;
+
+    public static boolean influenceSphere(Scene.Light light, Vector4f outSphere) {
+        Vector3fc position;
+        float range;
+        if (light instanceof Scene.PointLight point) {
+            position = point.getPosition();
+            range = point.getRange();
+        } else if (light instanceof Scene.SpotLight spot) {
+            position = spot.getPosition();
+            range = spot.getRange();
+        } else {
+            return false;
+        }
+        outSphere.set(position.x(), position.y(), position.z(), range);
+        return true;
+    }
+
+    public static boolean intersects(
+            float x, float y, float z, float radius,
+            float[] bounds, int offset
+    ) {
+        float minX = bounds[offset + 0];
+        float minY = bounds[offset + 1];
+        float minZ = bounds[offset + 2];
+        float maxX = bounds[offset + 3];
+        float maxY = bounds[offset + 4];
+        float maxZ = bounds[offset + 5];
+        if (minX > maxX || minY > maxY || minZ > maxZ) {
+            return false;
+        }
+
+        float dx = Math.max(Math.max(minX - x, x - maxX), 0f);
+        float dy = Math.max(Math.max(minY - y, y - maxY), 0f);
+        float dz = Math.max(Math.max(minZ - z, z - maxZ), 0f);
+
+        return ((dx * dx) + (dy * dy) + (dz * dz)) < (radius * radius);
+    }
+
+    public static boolean intersects(Scene.Light light, float[] bounds, int offset) {
+        Vector4f sphere = new Vector4f();
+        if (!influenceSphere(light, sphere)) {
+            return true;
+        }
+        return intersects(sphere.x(), sphere.y(), sphere.z(), sphere.w(), bounds, offset);
+    }
+
+    private final int numberOfLights;
+    private final int[] globalLights;
+    private final float[] spheres;
+
+    private final float minX;
+    private final float minY;
+    private final float minZ;
+    private final float cellWidth;
+    private final float cellHeight;
+    private final float cellDepth;
+    private final int cellsPerAxis;
+    private final int[][] cells;
+
+    public LightmapperLightGrid(List<Scene.Light> lights) {
+        this.numberOfLights = lights.size();
+        this.spheres = new float[this.numberOfLights * 4];
+
+        Vector4f sphere = new Vector4f();
+        int numberOfGlobalLights = 0;
+        int numberOfLocalLights = 0;
+
+        float gridMinX = Float.POSITIVE_INFINITY;
+        float gridMinY = Float.POSITIVE_INFINITY;
+        float gridMinZ = Float.POSITIVE_INFINITY;
+        float gridMaxX = Float.NEGATIVE_INFINITY;
+        float gridMaxY = Float.NEGATIVE_INFINITY;
+        float gridMaxZ = Float.NEGATIVE_INFINITY;
+
+        for (int i = 0; i < this.numberOfLights; i++) {
+            if (!influenceSphere(lights.get(i), sphere)) {
+                this.spheres[(i * 4) + 3] = Float.POSITIVE_INFINITY;
+                numberOfGlobalLights++;
+                continue;
+            }
+            this.spheres[(i * 4) + 0] = sphere.x();
+            this.spheres[(i * 4) + 1] = sphere.y();
+            this.spheres[(i * 4) + 2] = sphere.z();
+            this.spheres[(i * 4) + 3] = sphere.w();
+            numberOfLocalLights++;
+
+            gridMinX = Math.min(gridMinX, sphere.x() - sphere.w());
+            gridMinY = Math.min(gridMinY, sphere.y() - sphere.w());
+            gridMinZ = Math.min(gridMinZ, sphere.z() - sphere.w());
+            gridMaxX = Math.max(gridMaxX, sphere.x() + sphere.w());
+            gridMaxY = Math.max(gridMaxY, sphere.y() + sphere.w());
+            gridMaxZ = Math.max(gridMaxZ, sphere.z() + sphere.w());
+        }
+
+        this.globalLights = new int[numberOfGlobalLights];
+        for (int i = 0, j = 0; i < this.numberOfLights; i++) {
+            if (this.spheres[(i * 4) + 3] == Float.POSITIVE_INFINITY) {
+                this.globalLights[j++] = i;
+            }
+        }
+
+        if (numberOfLocalLights == 0) {
+            this.minX = 0f;
+            this.minY = 0f;
+            this.minZ = 0f;
+            this.cellWidth = 1f;
+            this.cellHeight = 1f;
+            this.cellDepth = 1f;
+            this.cellsPerAxis = 0;
+            this.cells = new int[0][];
+            return;
+        }
+
+        this.cellsPerAxis = Math.min(Math.max(
+                (int) Math.ceil(Math.cbrt(numberOfLocalLights)), 1), MAX_CELLS_PER_AXIS);
+        this.minX = gridMinX;
+        this.minY = gridMinY;
+        this.minZ = gridMinZ;
+        this.cellWidth = Math.max((gridMaxX - gridMinX) / this.cellsPerAxis, Float.MIN_NORMAL);
+        this.cellHeight = Math.max((gridMaxY - gridMinY) / this.cellsPerAxis, Float.MIN_NORMAL);
+        this.cellDepth = Math.max((gridMaxZ - gridMinZ) / this.cellsPerAxis, Float.MIN_NORMAL);
+
+        int numberOfCells = this.cellsPerAxis * this.cellsPerAxis * this.cellsPerAxis;
+        int[] counts = new int[numberOfCells];
+        int[][] grid = null;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < this.numberOfLights; i++) {
+                float radius = this.spheres[(i * 4) + 3];
+                if (radius == Float.POSITIVE_INFINITY) {
+                    continue;
+                }
+                float x = this.spheres[(i * 4) + 0];
+                float y = this.spheres[(i * 4) + 1];
+                float z = this.spheres[(i * 4) + 2];
+
+                int cx0 = cellX(x - radius);
+                int cy0 = cellY(y - radius);
+                int cz0 = cellZ(z - radius);
+                int cx1 = cellX(x + radius);
+                int cy1 = cellY(y + radius);
+                int cz1 = cellZ(z + radius);
+
+                for (int cz = cz0; cz <= cz1; cz++) {
+                    for (int cy = cy0; cy <= cy1; cy++) {
+                        for (int cx = cx0; cx <= cx1; cx++) {
+                            int cell = cellIndex(cx, cy, cz);
+                            if (pass == 0) {
+                                counts[cell]++;
+                            } else {
+                                grid[cell][--counts[cell]] = i;
+                            }
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                grid = new int[numberOfCells][];
+                for (int i = 0; i < numberOfCells; i++) {
+                    grid[i] = new int[counts[i]];
+                }
+            }
+        }
+        this.cells = grid;
+    }
+
+    private int cell(float value, float min, float size) {
+        return Math.min(Math.max((int) Math.floor((value - min) / size), 0), this.cellsPerAxis - 1);
+    }
+
+    private int cellX(float x) {
+        return cell(x, this.minX, this.cellWidth);
+    }
+
+    private int cellY(float y) {
+        return cell(y, this.minY, this.cellHeight);
+    }
+
+    private int cellZ(float z) {
+        return cell(z, this.minZ, this.cellDepth);
+    }
+
+    private int cellIndex(int cx, int cy, int cz) {
+        return cx + (cy * this.cellsPerAxis) + (cz * this.cellsPerAxis * this.cellsPerAxis);
+    }
+
+    public int getNumberOfLights() {
+        return numberOfLights;
+    }
+
+    public int[] query(float[] bounds, int offset) {
+        BitSet found = new BitSet(this.numberOfLights);
+        for (int light : this.globalLights) {
+            found.set(light);
+        }
+
+        if (this.cellsPerAxis != 0
+                && bounds[offset + 0] <= bounds[offset + 3]
+                && bounds[offset + 1] <= bounds[offset + 4]
+                && bounds[offset + 2] <= bounds[offset + 5]) {
+            int cx0 = cellX(bounds[offset + 0]);
+            int cy0 = cellY(bounds[offset + 1]);
+            int cz0 = cellZ(bounds[offset + 2]);
+            int cx1 = cellX(bounds[offset + 3]);
+            int cy1 = cellY(bounds[offset + 4]);
+            int cz1 = cellZ(bounds[offset + 5]);
+
+            for (int cz = cz0; cz <= cz1; cz++) {
+                for (int cy = cy0; cy <= cy1; cy++) {
+                    for (int cx = cx0; cx <= cx1; cx++) {
+                        for (int light : this.cells[cellIndex(cx, cy, cz)]) {
+                            if (found.get(light)) {
+                                continue;
+                            }
+                            if (intersects(
+                                    this.spheres[(light * 4) + 0],
+                                    this.spheres[(light * 4) + 1],
+                                    this.spheres[(light * 4) + 2],
+                                    this.spheres[(light * 4) + 3],
+                                    bounds, offset
+                            )) {
+                                found.set(light);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        return found.stream().toArray();
+    }
+
+}
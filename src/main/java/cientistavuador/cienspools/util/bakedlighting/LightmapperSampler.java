@@ -0,0 +1,173 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.bakedlighting;
+
+import org.joml.Vector3f;
+
+/**
+ *
+ * @author Cien
+ */
+class LightmapperSampler {
+
+    public static final int DIMENSIONS = 4;
+
+    public static final int SALT_SHADOW = 1;
+    public static final int SALT_INDIRECT = 2;
+    public static final int SALT_AMBIENT_CUBE = 3;
+    public static final int SALT_AMBIENT_CUBE_PLACEMENT = 4;
+    public static final int SALT_INDIRECT_CACHE = 5;
+
+    private static final int[][] DIRECTIONS = new int[DIMENSIONS][32];
+
+    static {
+        for (int i = 0; i < 32; i++) {
+            DIRECTIONS[0][i] = 1 << (31 - i);
+        }
+
+        int[] degrees = {1, 2, 3};
+        int[] coefficients = {0, 1, 1};
+        int[][] initial = {{1}, {1, 3}, {1, 3, 1}};
+
+        for (int d = 1; d < DIMENSIONS; d++) {
+            int s = degrees[d - 1];
+            int a = coefficients[d - 1];
+            int[] m = initial[d - 1];
+            int[] v = DIRECTIONS[d];
+
+            for (int i = 0; i < s; i++) {
+                v[i] = m[i] << (31 - i);
+            }
+            for (int i = s; i < 32; i++) {
+                v[i] = v[i - s] ^ (v[i - s] >>> s);
+                for (int k = 1; k < s; k++) {
+                    if (((a >>> (s - 1 - k)) & 1) != 0) {
+                        v[i] ^= v[i - k];
+                    }
+                }
+            }
+        }
+    }
+
+    public static int hash(int x) {
+        x ^= x >>> 16;
+        x *= 0x7feb352d;
+        x ^= x >>> 15;
+        x *= 0x846ca68b;
+        x ^= x >>> 16;
+        return x;
+    }
+
+    public static int hash(int seed, int value) {
+        return hash(seed ^ (value + 0x9e3779b9 + (seed << 6) + (seed >>> 2)));
+    }
+
+    public static int salt(int phase, int group, int index) {
+        return hash(hash(hash(phase), group), index);
+    }
+
+    public static int seed(int x, int y, int salt) {
+        return hash(hash(salt, x), y);
+    }
+
+    private static int sobol(int index, int dimension) {
+        int[] v = DIRECTIONS[dimension];
+        int result = 0;
+        for (int i = 0; index != 0; index >>>= 1, i++) {
+            if ((index & 1) != 0) {
+                result ^= v[i];
+            }
+        }
+        return result;
+    }
+
+    private static int laineKarrasPermutation(int x, int seed) {
+        x ^= x * 0x3d20adea;
+        x += seed;
+        x *= (seed >>> 16) | 1;
+        x ^= x * 0x05526c56;
+        x ^= x * 0x53a22864;
+        return x;
+    }
+
+    private static int nestedUniformScramble(int x, int seed) {
+        x = Integer.reverse(x);
+        x = laineKarrasPermutation(x, seed);
+        x = Integer.reverse(x);
+        return x;
+    }
+
+    public static float sample(int index, int dimension, int seed) {
+        int shuffled = nestedUniformScramble(index, seed);
+        int value = nestedUniformScramble(
+                sobol(shuffled, dimension),
+                hash(seed, dimension)
+        );
+        return (value >>> 8) * 0x1p-24f;
+    }
+
+    public static void cosineHemisphere(float u, float v, Vector3f outDirection) {
+        float r = (float) Math.sqrt(u);
+        double phi = 2.0 * Math.PI * v;
+        float x = (float) (r * StrictMath.cos(phi));
+        float y = (float) (r * StrictMath.sin(phi));
+        float z = (float) Math.sqrt(Math.max(1f - u, 0f));
+        outDirection.set(x, y, z);
+    }
+
+    public static void uniformHemisphere(float u, float v, Vector3f outDirection) {
+        float z = u;
+        float r = (float) Math.sqrt(Math.max(1f - (z * z), 0f));
+        double phi = 2.0 * Math.PI * v;
+        outDirection.set(
+                (float) (r * StrictMath.cos(phi)),
+                (float) (r * StrictMath.sin(phi)),
+                z
+        );
+    }
+
+    public static void uniformSphere(float u, float v, Vector3f outDirection) {
+        float z = 1f - (2f * u);
+        float r = (float) Math.sqrt(Math.max(1f - (z * z), 0f));
+        double phi = 2.0 * Math.PI * v;
+        outDirection.set(
+                (float) (r * StrictMath.cos(phi)),
+                (float) (r * StrictMath.sin(phi)),
+                z
+        );
+    }
+
+    public static void uniformBall(float u, float v, float w, Vector3f outPosition) {
+        uniformSphere(u, v, outPosition);
+        outPosition.mul((float) StrictMath.cbrt(w));
+    }
+
+    private LightmapperSampler() {
+
+    }
+
+}
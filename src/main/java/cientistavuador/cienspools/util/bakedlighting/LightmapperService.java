@@ -0,0 +1,492 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.bakedlighting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * @author Cien
+ */
+public class LightmapperService {
+
+    public static final int DEFAULT_PRIORITY = 0;
+
+    //only read when the shared service is created, set it before the first bake
+    //or use configureShared
+    public static volatile int MAX_CONCURRENT_BAKES = 2;
+
+    private static LightmapperService shared = null;
+
+    public static synchronized LightmapperService getShared() {
+        if (shared == null) {
+            shared = new LightmapperService(Lightmapper.NUMBER_OF_THREADS, MAX_CONCURRENT_BAKES);
+        }
+        return shared;
+    }
+
+    public static synchronized LightmapperService configureShared(int numberOfThreads, int maxConcurrentBakes) {
+        if (shared != null) {
+            throw new IllegalStateException("The shared lightmapper service was already created with "
+                    + shared.getNumberOfThreads() + " threads and "
+                    + shared.getMaxConcurrentBakes() + " concurrent bakes.");
+        }
+        shared = new LightmapperService(numberOfThreads, maxConcurrentBakes);
+        return shared;
+    }
+
+    @FunctionalInterface
+    public static interface BakeTask<T> {
+
+        public T run(Job<T> job) throws Exception;
+    }
+
+    public class Job<T> implements Executor {
+
+        private final String name;
+        private final int priority;
+        private final long sequence;
+        private final BakeTask<T> task;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+
+        private boolean counted = true;
+        private Thread attachedThread = null;
+
+        private volatile boolean started = false;
+        private volatile Thread thread = null;
+        private volatile boolean cancelled = false;
+        private volatile Throwable failure = null;
+        private volatile Lightmapper lightmapper = null;
+
+        private Job(String name, int priority, long sequence, BakeTask<T> task) {
+            this.name = name;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        public LightmapperService getService() {
+            return LightmapperService.this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public Future<T> getFuture() {
+            return future;
+        }
+
+        public boolean isQueued() {
+            return !this.started && !this.future.isDone();
+        }
+
+        public boolean isRunning() {
+            return this.started && !this.future.isDone();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public Lightmapper getLightmapper() {
+            return lightmapper;
+        }
+
+        void setLightmapper(Lightmapper lightmapper) {
+            this.lightmapper = lightmapper;
+        }
+
+        public String getStatus() {
+            if (this.cancelled || this.future.isCancelled()) {
+                return "Cancelled";
+            }
+            if (this.failure != null || this.future.isCompletedExceptionally()) {
+                return "Failed";
+            }
+            if (this.future.isDone()) {
+                return "Done";
+            }
+            if (isQueued()) {
+                return "Queued";
+            }
+            Lightmapper l = this.lightmapper;
+            if (l == null) {
+                return "Waiting for Lightmapper Creation";
+            }
+            return l.getStatus();
+        }
+
+        public double getProgress() {
+            if (this.future.isDone()) {
+                return 1.0;
+            }
+            Lightmapper l = this.lightmapper;
+            if (l == null) {
+                return 0.0;
+            }
+            return l.getProgress();
+        }
+
+        public void cancel() {
+            LightmapperService.this.lock.lock();
+            try {
+                if (this.cancelled || this.future.isDone()) {
+                    return;
+                }
+                this.cancelled = true;
+                if (LightmapperService.this.queued.remove(this)) {
+                    this.future.cancel(false);
+                    LightmapperService.this.jobStarted.signalAll();
+                    return;
+                }
+                //interrupt under the lock, a driver thread clears its job under it before moving on
+                Thread t = this.thread;
+                if (t != null) {
+                    t.interrupt();
+                }
+            } finally {
+                LightmapperService.this.lock.unlock();
+            }
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            LightmapperService.this.lock.lock();
+            try {
+                if (this.cancelled) {
+                    throw new CancellationException("Bake " + this.name + " was cancelled.");
+                }
+                if (this.failure != null) {
+                    throw new RejectedExecutionException("Bake " + this.name + " has failed.", this.failure);
+                }
+                if (LightmapperService.this.shutdown) {
+                    throw new RejectedExecutionException("Lightmapper service is shut down.");
+                }
+            } finally {
+                LightmapperService.this.lock.unlock();
+            }
+            LightmapperService.this.pool.execute(() -> {
+                //the owner is interrupted on failure or cancellation, it stops waiting for skipped work
+                if (this.cancelled || this.failure != null) {
+                    return;
+                }
+                try {
+                    command.run();
+                } catch (Throwable t) {
+                    fail(t);
+                }
+            });
+        }
+
+        private void fail(Throwable t) {
+            LightmapperService.this.lock.lock();
+            try {
+                if (this.failure != null || this.cancelled || this.future.isDone()) {
+                    return;
+                }
+                this.failure = t;
+                Thread owner = this.thread;
+                if (owner != null) {
+                    owner.interrupt();
+                }
+            } finally {
+                LightmapperService.this.lock.unlock();
+            }
+        }
+
+        private void complete(T result, Throwable thrown) {
+            Throwable f = this.failure;
+            if (f != null) {
+                if (thrown != null && thrown != f) {
+                    f.addSuppressed(thrown);
+                }
+                this.future.completeExceptionally(f);
+            } else if (this.cancelled) {
+                this.future.cancel(false);
+            } else if (thrown != null) {
+                this.future.completeExceptionally(thrown);
+            } else {
+                this.future.complete(result);
+            }
+        }
+
+        private void run() {
+            Thread current = Thread.currentThread();
+            String threadName = current.getName();
+            LightmapperService.this.lock.lock();
+            try {
+                this.thread = current;
+            } finally {
+                LightmapperService.this.lock.unlock();
+            }
+            current.setName("Lightmapper-" + this.name);
+            try {
+                if (this.cancelled) {
+                    complete(null, null);
+                } else {
+                    T result = this.task.run(this);
+                    complete(result, null);
+                }
+            } catch (Throwable t) {
+                complete(null, t);
+            } finally {
+                LightmapperService.this.lock.lock();
+                try {
+                    this.thread = null;
+                    Thread.interrupted();
+                } finally {
+                    LightmapperService.this.lock.unlock();
+                }
+                current.setName(threadName);
+                finish(this);
+            }
+        }
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition jobStarted = this.lock.newCondition();
+    private final int numberOfThreads;
+    private final int maxConcurrentBakes;
+    private final ForkJoinPool pool;
+    private final ExecutorService drivers;
+
+    private final PriorityQueue<Job<?>> queued = new PriorityQueue<>((o1, o2) -> {
+        int c = Integer.compare(o2.getPriority(), o1.getPriority());
+        if (c != 0) {
+            return c;
+        }
+        return Long.compare(o1.sequence, o2.sequence);
+    });
+    private final List<Job<?>> running = new ArrayList<>();
+    private int runningBakes = 0;
+    private long sequence = 0;
+    private boolean shutdown = false;
+
+    public LightmapperService(int numberOfThreads, int maxConcurrentBakes) {
+        if (numberOfThreads <= 0) {
+            throw new IllegalArgumentException("Number of threads must be larger than zero.");
+        }
+        if (maxConcurrentBakes <= 0) {
+            throw new IllegalArgumentException("Max concurrent bakes must be larger than zero.");
+        }
+        this.numberOfThreads = numberOfThreads;
+        this.maxConcurrentBakes = maxConcurrentBakes;
+        this.pool = new ForkJoinPool(numberOfThreads, (p) -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("Lightmapper-worker-" + t.getPoolIndex());
+            return t;
+        }, null, false);
+        AtomicInteger driverIndex = new AtomicInteger();
+        this.drivers = Executors.newFixedThreadPool(maxConcurrentBakes, (r) -> {
+            Thread t = new Thread(r, "Lightmapper-driver-" + driverIndex.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public int getNumberOfThreads() {
+        return numberOfThreads;
+    }
+
+    public int getMaxConcurrentBakes() {
+        return maxConcurrentBakes;
+    }
+
+    public <T> Job<T> submit(String name, int priority, BakeTask<T> task) {
+        this.lock.lock();
+        try {
+            if (this.shutdown) {
+                throw new RejectedExecutionException("Lightmapper service is shut down.");
+            }
+            Job<T> job = new Job<>(name, priority, this.sequence++, task);
+            this.queued.add(job);
+            schedule();
+            return job;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    Job<Void> attach(String name) {
+        Thread current = Thread.currentThread();
+        this.lock.lock();
+        try {
+            if (this.shutdown) {
+                throw new RejectedExecutionException("Lightmapper service is shut down.");
+            }
+            Job<Void> job = new Job<>(name, DEFAULT_PRIORITY, this.sequence++, null);
+
+            //the calling thread already holds a bake slot, waiting for another one could deadlock
+            for (Job<?> other : this.running) {
+                if (other.thread == current) {
+                    job.counted = false;
+                    job.started = true;
+                    job.thread = current;
+                    this.running.add(job);
+                    return job;
+                }
+            }
+
+            job.attachedThread = current;
+            this.queued.add(job);
+            schedule();
+            while (job.thread == null) {
+                if (job.future.isCancelled()) {
+                    throw new CancellationException("Bake " + job.name + " was cancelled.");
+                }
+                if (this.shutdown) {
+                    this.queued.remove(job);
+                    job.future.cancel(false);
+                    throw new RejectedExecutionException("Lightmapper service is shut down.");
+                }
+                try {
+                    this.jobStarted.await();
+                } catch (InterruptedException ex) {
+                    if (!this.queued.remove(job)) {
+                        finish(job);
+                    }
+                    job.cancelled = true;
+                    job.future.cancel(false);
+                    current.interrupt();
+                    CancellationException cancelled = new CancellationException(
+                            "Interrupted while waiting for a bake slot.");
+                    cancelled.initCause(ex);
+                    throw cancelled;
+                }
+            }
+            return job;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    void detach(Job<Void> job) {
+        finish(job);
+        if (job.failure != null || job.cancelled) {
+            Thread.interrupted();
+        }
+        job.complete(null, null);
+        Throwable f = job.failure;
+        if (f instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (f instanceof Error error) {
+            throw error;
+        }
+        if (f != null) {
+            throw new RuntimeException(f);
+        }
+    }
+
+    public List<Job<?>> getJobs() {
+        this.lock.lock();
+        try {
+            List<Job<?>> jobs = new ArrayList<>(this.running);
+            List<Job<?>> waiting = new ArrayList<>(this.queued);
+            waiting.sort(this.queued.comparator());
+            jobs.addAll(waiting);
+            return jobs;
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    public void shutdown() {
+        List<Job<?>> jobs;
+        this.lock.lock();
+        try {
+            if (this.shutdown) {
+                return;
+            }
+            this.shutdown = true;
+            jobs = new ArrayList<>(this.queued);
+            jobs.addAll(this.running);
+            this.jobStarted.signalAll();
+        } finally {
+            this.lock.unlock();
+        }
+        for (Job<?> job : jobs) {
+            job.cancel();
+        }
+        this.drivers.shutdown();
+        this.pool.shutdown();
+    }
+
+    private void schedule() {
+        while (this.runningBakes < this.maxConcurrentBakes && !this.queued.isEmpty()) {
+            Job<?> job = this.queued.poll();
+            this.running.add(job);
+            this.runningBakes++;
+            job.started = true;
+            if (job.task == null) {
+                job.thread = job.attachedThread;
+                this.jobStarted.signalAll();
+                continue;
+            }
+            //attached bakes drive themselves, so the drivers never need more than the bake slots
+            this.drivers.execute(job::run);
+        }
+    }
+
+    private void finish(Job<?> job) {
+        this.lock.lock();
+        try {
+            job.lightmapper = null;
+            if (!this.running.remove(job)) {
+                return;
+            }
+            if (job.counted) {
+                this.runningBakes--;
+            }
+            if (!this.shutdown) {
+                schedule();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.bakedlighting;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author Cien
+ */
+class LightmapperStorage implements Closeable {
+
+    private static final int CHUNK_SHIFT = 28;
+    private static final long CHUNK_ELEMENTS = 1L << CHUNK_SHIFT;
+    private static final long CHUNK_MASK = CHUNK_ELEMENTS - 1;
+
+    public static abstract class Block {
+
+        private final long elements;
+
+        protected Block(long elements) {
+            this.elements = elements;
+        }
+
+        public long getElements() {
+            return elements;
+        }
+
+        public abstract int getInt(long index);
+
+        public abstract void setInt(long index, int value);
+
+        public float getFloat(long index) {
+            return Float.intBitsToFloat(getInt(index));
+        }
+
+        public void setFloat(long index, float value) {
+            setInt(index, Float.floatToRawIntBits(value));
+        }
+    }
+
+    private static int chunks(long elements) {
+        return (int) ((elements + CHUNK_MASK) >>> CHUNK_SHIFT);
+    }
+
+    private static int chunkLength(long elements, int chunk) {
+        return (int) Math.min(CHUNK_ELEMENTS, elements - (chunk * CHUNK_ELEMENTS));
+    }
+
+    private static class HeapBlock extends Block {
+
+        private final int[][] chunks;
+
+        public HeapBlock(long elements) {
+            super(elements);
+            this.chunks = new int[chunks(elements)][];
+            for (int i = 0; i < this.chunks.length; i++) {
+                this.chunks[i] = new int[chunkLength(elements, i)];
+            }
+        }
+
+        @Override
+        public int getInt(long index) {
+            return this.chunks[(int) (index >>> CHUNK_SHIFT)][(int) (index & CHUNK_MASK)];
+        }
+
+        @Override
+        public void setInt(long index, int value) {
+            this.chunks[(int) (index >>> CHUNK_SHIFT)][(int) (index & CHUNK_MASK)] = value;
+        }
+    }
+
+    private static class ByteBufferBlock extends Block {
+
+        private final ByteBuffer[] chunks;
+        private final Path file;
+
+        public ByteBufferBlock(long elements, ByteBuffer[] chunks, Path file) {
+            super(elements);
+            this.chunks = chunks;
+            this.file = file;
+        }
+
+        @Override
+        public int getInt(long index) {
+            return this.chunks[(int) (index >>> CHUNK_SHIFT)].getInt(((int) (index & CHUNK_MASK)) * Integer.BYTES);
+        }
+
+        @Override
+        public void setInt(long index, int value) {
+            this.chunks[(int) (index >>> CHUNK_SHIFT)].putInt(((int) (index & CHUNK_MASK)) * Integer.BYTES, value);
+        }
+    }
+
+    private final Lightmapper.BufferStorage storage;
+    private final Path directory;
+    private final List<ByteBufferBlock> mappedBlocks = new ArrayList<>();
+
+    public LightmapperStorage(Lightmapper.BufferStorage storage, Path directory) {
+        this.storage = storage;
+        this.directory = directory;
+    }
+
+    public Lightmapper.BufferStorage getStorage() {
+        return storage;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private Block allocateDirect(long elements) {
+        ByteBuffer[] chunks = new ByteBuffer[chunks(elements)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer
+                    .allocateDirect(chunkLength(elements, i) * Integer.BYTES)
+                    .order(ByteOrder.nativeOrder());
+        }
+        return new ByteBufferBlock(elements, chunks, null);
+    }
+
+    private Block allocateMapped(long elements) throws IOException {
+        Path file;
+        if (this.directory == null) {
+            file = Files.createTempFile("lightmapper", ".bin");
+        } else {
+            Files.createDirectories(this.directory);
+            file = Files.createTempFile(this.directory, "lightmapper", ".bin");
+        }
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.SPARSE
+        )) {
+            ByteBuffer[] chunks = new ByteBuffer[chunks(elements)];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = channel
+                        .map(FileChannel.MapMode.READ_WRITE,
+                                i * CHUNK_ELEMENTS * Integer.BYTES,
+                                chunkLength(elements, i) * ((long) Integer.BYTES)
+                        )
+                        .order(ByteOrder.nativeOrder());
+            }
+            ByteBufferBlock block = new ByteBufferBlock(elements, chunks, file);
+            synchronized (this.mappedBlocks) {
+                this.mappedBlocks.add(block);
+            }
+            return block;
+        } catch (IOException | RuntimeException ex) {
+            deleteFile(file);
+            throw ex;
+        }
+    }
+
+    public Block allocate(long elements) {
+        try {
+            return switch (this.storage) {
+                case OFF_HEAP ->
+                    allocateDirect(elements);
+                case MAPPED ->
+                    allocateMapped(elements);
+                default ->
+                    new HeapBlock(elements);
+            };
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ex) {
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    public void release(Block block) {
+        if (block instanceof ByteBufferBlock b && b.file != null) {
+            synchronized (this.mappedBlocks) {
+                this.mappedBlocks.remove(b);
+            }
+            deleteFile(b.file);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this.mappedBlocks) {
+            for (ByteBufferBlock b : this.mappedBlocks) {
+                deleteFile(b.file);
+            }
+            this.mappedBlocks.clear();
+        }
+    }
+
+}
@@ -0,0 +1,658 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.bakedlighting;
+
+import cientistavuador.cienspools.util.XMLUtils;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ *
+ * @author Cien
+ */
+public class LightmapperTelemetry {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED = isCpuTimeSupported();
+
+    private static boolean isCpuTimeSupported() {
+        try {
+            return THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+        } catch (UnsupportedOperationException ex) {
+            return false;
+        }
+    }
+
+    private static long cpuTime() {
+        if (!CPU_TIME_SUPPORTED) {
+            return 0;
+        }
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
+    private static double perSecond(long count, long nanos) {
+        if (nanos <= 0) {
+            return 0.0;
+        }
+        return (count / (nanos / 1E9));
+    }
+
+    @Name("cientistavuador.cienspools.LightmapperPhase")
+    @Label("Lightmapper Phase")
+    @Category({"CiensPools", "Lightmapper"})
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+
+        @Label("Name")
+        String name;
+
+        @Label("Group")
+        int group;
+
+        @Label("Light")
+        int light;
+
+        @Label("Light Type")
+        String lightType;
+
+        @Label("CPU Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long cpuTime;
+
+        @Label("Rays")
+        long rays;
+
+        @Label("Samples")
+        long samples;
+
+        @Label("BVH Nodes")
+        long nodes;
+    }
+
+    public static class Phase {
+
+        private final String name;
+        private final int group;
+        private final int light;
+        private final String lightType;
+        private final long startTime;
+        private final long wallTime;
+        private final long cpuTime;
+        private final long rays;
+        private final long samples;
+        private final long nodes;
+        private final boolean finished;
+
+        public Phase(
+                String name, int group, int light, String lightType,
+                long startTime, long wallTime, long cpuTime,
+                long rays, long samples, long nodes,
+                boolean finished
+        ) {
+            this.name = name;
+            this.group = group;
+            this.light = light;
+            this.lightType = lightType;
+            this.startTime = startTime;
+            this.wallTime = wallTime;
+            this.cpuTime = cpuTime;
+            this.rays = rays;
+            this.samples = samples;
+            this.nodes = nodes;
+            this.finished = finished;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getGroup() {
+            return group;
+        }
+
+        public int getLight() {
+            return light;
+        }
+
+        public String getLightType() {
+            return lightType;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        public long getCpuTime() {
+            return cpuTime;
+        }
+
+        public long getRays() {
+            return rays;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        public double getRaysPerSecond() {
+            return perSecond(this.rays, this.wallTime);
+        }
+    }
+
+    public static class Worker {
+
+        private final String name;
+        private final long cpuTime;
+        private final long rays;
+        private final long samples;
+        private final long nodes;
+
+        public Worker(String name, long cpuTime, long rays, long samples, long nodes) {
+            this.name = name;
+            this.cpuTime = cpuTime;
+            this.rays = rays;
+            this.samples = samples;
+            this.nodes = nodes;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCpuTime() {
+            return cpuTime;
+        }
+
+        public long getRays() {
+            return rays;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public double getRaysPerCpuSecond() {
+            return perSecond(this.rays, this.cpuTime);
+        }
+    }
+
+    public static class Snapshot {
+
+        private final String status;
+        private final double progress;
+        private final int numberOfThreads;
+        private final long wallTime;
+        private final List<Phase> phases;
+        private final List<Worker> workers;
+        private final long indirectCacheSize;
+        private final long indirectCacheLookups;
+        private final long indirectCacheHits;
+
+        private long cpuTime = 0;
+        private long rays = 0;
+        private long samples = 0;
+        private long nodes = 0;
+
+        public Snapshot(
+                String status, double progress,
+                int numberOfThreads, long wallTime,
+                List<Phase> phases, List<Worker> workers,
+                long indirectCacheSize, long indirectCacheLookups, long indirectCacheHits
+        ) {
+            this.status = status;
+            this.progress = progress;
+            this.numberOfThreads = numberOfThreads;
+            this.wallTime = wallTime;
+            this.phases = Collections.unmodifiableList(phases);
+            this.workers = Collections.unmodifiableList(workers);
+            this.indirectCacheSize = indirectCacheSize;
+            this.indirectCacheLookups = indirectCacheLookups;
+            this.indirectCacheHits = indirectCacheHits;
+            for (Phase p : phases) {
+                this.cpuTime += p.getCpuTime();
+                this.rays += p.getRays();
+                this.samples += p.getSamples();
+                this.nodes += p.getNodes();
+            }
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        public double getProgress() {
+            return progress;
+        }
+
+        public int getNumberOfThreads() {
+            return numberOfThreads;
+        }
+
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        public long getCpuTime() {
+            return cpuTime;
+        }
+
+        public long getRays() {
+            return rays;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public List<Phase> getPhases() {
+            return phases;
+        }
+
+        public List<Worker> getWorkers() {
+            return workers;
+        }
+
+        public long getIndirectCacheSize() {
+            return indirectCacheSize;
+        }
+
+        public long getIndirectCacheLookups() {
+            return indirectCacheLookups;
+        }
+
+        public long getIndirectCacheHits() {
+            return indirectCacheHits;
+        }
+
+        public double getIndirectCacheHitRate() {
+            if (this.indirectCacheLookups == 0) {
+                return 0.0;
+            }
+            return ((double) this.indirectCacheHits) / this.indirectCacheLookups;
+        }
+
+        public Phase getCurrentPhase() {
+            if (this.phases.isEmpty()) {
+                return null;
+            }
+            return this.phases.get(this.phases.size() - 1);
+        }
+
+        public double getRaysPerSecond() {
+            return perSecond(this.rays, this.wallTime);
+        }
+
+        public List<Phase> getLights() {
+            Map<String, long[]> totals = new LinkedHashMap<>();
+            Map<String, Phase> firsts = new LinkedHashMap<>();
+            for (Phase p : this.phases) {
+                if (p.getLight() < 0) {
+                    continue;
+                }
+                String key = p.getGroup() + "/" + p.getLight();
+                long[] total = totals.computeIfAbsent(key, (k) -> new long[5]);
+                total[0] += p.getWallTime();
+                total[1] += p.getCpuTime();
+                total[2] += p.getRays();
+                total[3] += p.getSamples();
+                total[4] += p.getNodes();
+                firsts.putIfAbsent(key, p);
+            }
+            List<Phase> lights = new ArrayList<>(totals.size());
+            for (Map.Entry<String, long[]> e : totals.entrySet()) {
+                Phase first = firsts.get(e.getKey());
+                long[] total = e.getValue();
+                lights.add(new Phase(
+                        first.getLightType(), first.getGroup(), first.getLight(), first.getLightType(),
+                        first.getStartTime(), total[0], total[1],
+                        total[2], total[3], total[4],
+                        true
+                ));
+            }
+            return lights;
+        }
+
+        private static void appendCounters(
+                StringBuilder b,
+                long wallTime, long cpuTime,
+                long rays, long samples, long nodes
+        ) {
+            b.append(" wallTime=").append(XMLUtils.quoteAttribute(Long.toString(wallTime)));
+            b.append(" cpuTime=").append(XMLUtils.quoteAttribute(Long.toString(cpuTime)));
+            b.append(" rays=").append(XMLUtils.quoteAttribute(Long.toString(rays)));
+            b.append(" samples=").append(XMLUtils.quoteAttribute(Long.toString(samples)));
+            b.append(" nodes=").append(XMLUtils.quoteAttribute(Long.toString(nodes)));
+        }
+
+        private static void appendPhase(StringBuilder b, String tag, Phase p) {
+            b.append("    <").append(tag);
+            if (!tag.equals("light")) {
+                b.append(" name=").append(XMLUtils.quoteAttribute(p.getName()));
+            }
+            b.append(" group=").append(XMLUtils.quoteAttribute(Integer.toString(p.getGroup())));
+            b.append(" light=").append(XMLUtils.quoteAttribute(Integer.toString(p.getLight())));
+            if (p.getLightType() != null) {
+                b.append(" lightType=").append(XMLUtils.quoteAttribute(p.getLightType()));
+            }
+            b.append(" startTime=").append(XMLUtils.quoteAttribute(Long.toString(p.getStartTime())));
+            appendCounters(b, p.getWallTime(), p.getCpuTime(), p.getRays(), p.getSamples(), p.getNodes());
+            b.append("/>\n");
+        }
+
+        public String toXML() {
+            StringBuilder b = new StringBuilder();
+            b.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            b.append("<lightmapperTelemetry");
+            b.append(" timeUnit=\"ns\"");
+            b.append(" threads=").append(XMLUtils.quoteAttribute(Integer.toString(this.numberOfThreads)));
+            b.append(" cpuTimeSupported=").append(XMLUtils.quoteAttribute(Boolean.toString(CPU_TIME_SUPPORTED)));
+            appendCounters(b, this.wallTime, this.cpuTime, this.rays, this.samples, this.nodes);
+            b.append(">\n");
+            b.append("    <indirectCache");
+            b.append(" size=").append(XMLUtils.quoteAttribute(Long.toString(this.indirectCacheSize)));
+            b.append(" lookups=").append(XMLUtils.quoteAttribute(Long.toString(this.indirectCacheLookups)));
+            b.append(" hits=").append(XMLUtils.quoteAttribute(Long.toString(this.indirectCacheHits)));
+            b.append("/>\n");
+            for (Phase p : this.phases) {
+                appendPhase(b, "phase", p);
+            }
+            for (Phase p : getLights()) {
+                appendPhase(b, "light", p);
+            }
+            for (Worker w : this.workers) {
+                b.append("    <thread name=").append(XMLUtils.quoteAttribute(w.getName()));
+                b.append(" cpuTime=").append(XMLUtils.quoteAttribute(Long.toString(w.getCpuTime())));
+                b.append(" rays=").append(XMLUtils.quoteAttribute(Long.toString(w.getRays())));
+                b.append(" samples=").append(XMLUtils.quoteAttribute(Long.toString(w.getSamples())));
+                b.append(" nodes=").append(XMLUtils.quoteAttribute(Long.toString(w.getNodes())));
+                b.append("/>\n");
+            }
+            b.append("</lightmapperTelemetry>\n");
+            return b.toString();
+        }
+    }
+
+    private static class PhaseCounters {
+
+        final String name;
+        final int group;
+        final int light;
+        final String lightType;
+        final long start;
+        volatile long end = -1;
+
+        final LongAdder cpuTime = new LongAdder();
+        final LongAdder rays = new LongAdder();
+        final LongAdder samples = new LongAdder();
+        final LongAdder nodes = new LongAdder();
+
+        PhaseEvent event;
+
+        PhaseCounters(String name, int group, int light, String lightType, long start) {
+            this.name = name;
+            this.group = group;
+            this.light = light;
+            this.lightType = lightType;
+            this.start = start;
+        }
+
+        Phase snapshot(long origin, long now) {
+            long phaseEnd = this.end;
+            boolean finished = phaseEnd >= 0;
+            if (!finished) {
+                phaseEnd = now;
+            }
+            return new Phase(
+                    this.name, this.group, this.light, this.lightType,
+                    this.start - origin, phaseEnd - this.start, this.cpuTime.sum(),
+                    this.rays.sum(), this.samples.sum(), this.nodes.sum(),
+                    finished
+            );
+        }
+    }
+
+    private static class ThreadCounters {
+
+        final String name;
+
+        long cpuMark = cpuTime();
+        long rays = 0;
+        long samples = 0;
+        long nodes = 0;
+
+        volatile long totalCpuTime = 0;
+        volatile long totalRays = 0;
+        volatile long totalSamples = 0;
+        volatile long totalNodes = 0;
+
+        ThreadCounters(String name) {
+            this.name = name;
+        }
+    }
+
+    private final boolean eventsEnabled;
+    private final List<ThreadCounters> threads = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ThreadCounters> counters = ThreadLocal.withInitial(() -> {
+        ThreadCounters c = new ThreadCounters(Thread.currentThread().getName());
+        this.threads.add(c);
+        return c;
+    });
+    private final List<PhaseCounters> phases = new ArrayList<>();
+    private final LongAdder indirectCacheLookups = new LongAdder();
+    private final LongAdder indirectCacheHits = new LongAdder();
+
+    private volatile int numberOfThreads = 0;
+    private volatile long indirectCacheSize = 0;
+    private volatile long startTime = -1;
+    private volatile long endTime = -1;
+    private volatile PhaseCounters current = null;
+
+    public LightmapperTelemetry(boolean eventsEnabled) {
+        this.eventsEnabled = eventsEnabled;
+    }
+
+    private void flush(ThreadCounters c) {
+        long cpu = cpuTime();
+        long cpuDelta = cpu - c.cpuMark;
+        c.cpuMark = cpu;
+
+        PhaseCounters phase = this.current;
+        if (phase != null) {
+            phase.cpuTime.add(cpuDelta);
+            phase.rays.add(c.rays);
+            phase.samples.add(c.samples);
+            phase.nodes.add(c.nodes);
+        }
+
+        c.totalCpuTime += cpuDelta;
+        c.totalRays += c.rays;
+        c.totalSamples += c.samples;
+        c.totalNodes += c.nodes;
+
+        c.rays = 0;
+        c.samples = 0;
+        c.nodes = 0;
+    }
+
+    private void endPhase(long now) {
+        PhaseCounters phase = this.current;
+        if (phase == null) {
+            return;
+        }
+        flush(this.counters.get());
+        phase.end = now;
+        if (phase.event != null) {
+            PhaseEvent e = phase.event;
+            e.end();
+            if (e.shouldCommit()) {
+                e.name = phase.name;
+                e.group = phase.group;
+                e.light = phase.light;
+                e.lightType = phase.lightType;
+                e.cpuTime = phase.cpuTime.sum();
+                e.rays = phase.rays.sum();
+                e.samples = phase.samples.sum();
+                e.nodes = phase.nodes.sum();
+                e.commit();
+            }
+            phase.event = null;
+        }
+    }
+
+    void begin(int numberOfThreads) {
+        this.numberOfThreads = numberOfThreads;
+        this.startTime = System.nanoTime();
+        this.counters.get().cpuMark = cpuTime();
+    }
+
+    void beginPhase(String name, int group, int light, String lightType) {
+        long now = System.nanoTime();
+        endPhase(now);
+        PhaseCounters phase = new PhaseCounters(name, group, light, lightType, now);
+        if (this.eventsEnabled) {
+            phase.event = new PhaseEvent();
+            phase.event.begin();
+        }
+        synchronized (this.phases) {
+            this.phases.add(phase);
+        }
+        this.current = phase;
+    }
+
+    void end() {
+        long now = System.nanoTime();
+        endPhase(now);
+        this.endTime = now;
+    }
+
+    void beginTile() {
+        this.counters.get().cpuMark = cpuTime();
+    }
+
+    void endTile(long samples) {
+        ThreadCounters c = this.counters.get();
+        c.samples += samples;
+        flush(c);
+    }
+
+    void addRay() {
+        this.counters.get().rays++;
+    }
+
+    void addNodes(long nodes) {
+        this.counters.get().nodes += nodes;
+    }
+
+    void setIndirectCacheSize(long size) {
+        this.indirectCacheSize = size;
+    }
+
+    void addIndirectCacheLookup(boolean hit) {
+        this.indirectCacheLookups.increment();
+        if (hit) {
+            this.indirectCacheHits.increment();
+        }
+    }
+
+    public double getRaysPerSecond() {
+        PhaseCounters phase = this.current;
+        if (phase == null) {
+            return 0.0;
+        }
+        long phaseEnd = phase.end;
+        if (phaseEnd < 0) {
+            phaseEnd = System.nanoTime();
+        }
+        return perSecond(phase.rays.sum(), phaseEnd - phase.start);
+    }
+
+    public Snapshot snapshot(String status, double progress) {
+        long now = System.nanoTime();
+        long origin = this.startTime;
+        long finish = this.endTime;
+        if (origin < 0) {
+            origin = now;
+        }
+        if (finish < 0) {
+            finish = now;
+        }
+
+        List<Phase> phaseList;
+        synchronized (this.phases) {
+            phaseList = new ArrayList<>(this.phases.size());
+            for (PhaseCounters p : this.phases) {
+                phaseList.add(p.snapshot(origin, now));
+            }
+        }
+
+        List<Worker> workerList = new ArrayList<>(this.threads.size());
+        for (ThreadCounters c : this.threads) {
+            workerList.add(new Worker(c.name, c.totalCpuTime, c.totalRays, c.totalSamples, c.totalNodes));
+        }
+
+        return new Snapshot(
+                status, progress,
+                this.numberOfThreads, finish - origin,
+                phaseList, workerList,
+                this.indirectCacheSize, this.indirectCacheLookups.sum(), this.indirectCacheHits.sum()
+        );
+    }
+
+}
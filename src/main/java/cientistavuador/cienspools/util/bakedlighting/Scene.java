@@ -97,6 +97,19 @@ public class Scene {
 
         public void randomLightDirection(
                 Vector3fc position, Vector3f outDirection
+        ) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            sampleLightDirection(
+                    position,
+                    random.nextFloat(), random.nextFloat(), random.nextFloat(),
+                    outDirection
+            );
+        }
+
+        public void sampleLightDirection(
+                Vector3fc position,
+                float u, float v, float w,
+                Vector3f outDirection
         ) {
             outDirection.set(0f, 1f, 0f);
         }
@@ -154,28 +167,13 @@ public class Scene {
         }
 
         @Override
-        public void randomLightDirection(
-                Vector3fc position, Vector3f outDirection
+        public void sampleLightDirection(
+                Vector3fc position,
+                float u, float v, float w,
+                Vector3f outDirection
         ) {
-            ThreadLocalRandom random = ThreadLocalRandom.current();
-
-            float x;
-            float y;
-            float z;
-            float dist;
-
-            do {
-                x = (random.nextFloat() * 2f) - 1f;
-                y = (random.nextFloat() * 2f) - 1f;
-                z = (random.nextFloat() * 2f) - 1f;
-                dist = (x * x) + (y * y) + (z * z);
-            } while (dist > 1f);
-
-            outDirection.set(
-                    x,
-                    y,
-                    z
-            )
+            LightmapperSampler.uniformBall(u, v, w, outDirection);
+            outDirection
                     .mul(getLightSize())
                     .add(getDirectionNegated())
                     .normalize();
@@ -184,33 +182,17 @@ public class Scene {
 
     private static void pointSpotLightDirection(
             Vector3fc lightPosition, float lightSize,
-            Vector3fc position, Vector3f outDirection
+            Vector3fc position,
+            float u, float v,
+            Vector3f outDirection
     ) {
-        ThreadLocalRandom random = ThreadLocalRandom.current();
-
-        float dirX = lightPosition.x() - position.x();
-        float dirY = lightPosition.y() - position.y();
-        float dirZ = lightPosition.z() - position.z();
-        float invlength = (float) (1f / Math.sqrt((dirX * dirX) + (dirY * dirY) + (dirZ * dirZ)));
-        dirX *= invlength;
-        dirY *= invlength;
-        dirZ *= invlength;
-
-        float x;
-        float y;
-        float z;
-        float dist;
-
-        do {
-            x = (random.nextFloat() * 2f) - 1f;
-            y = (random.nextFloat() * 2f) - 1f;
-            z = (random.nextFloat() * 2f) - 1f;
-            dist = (x * x) + (y * y) + (z * z);
-        } while (dist > 1f);
-
-        outDirection.set(x, y, z).normalize();
-        
-        if (outDirection.dot(-dirX, -dirY, -dirZ) < 0f) {
+        LightmapperSampler.uniformSphere(u, v, outDirection);
+
+        float dirX = position.x() - lightPosition.x();
+        float dirY = position.y() - lightPosition.y();
+        float dirZ = position.z() - lightPosition.z();
+
+        if (outDirection.dot(dirX, dirY, dirZ) < 0f) {
             outDirection.negate();
         }
 
@@ -280,10 +262,12 @@ public class Scene {
         }
 
         @Override
-        public void randomLightDirection(
-                Vector3fc position, Vector3f outDirection
+        public void sampleLightDirection(
+                Vector3fc position,
+                float u, float v, float w,
+                Vector3f outDirection
         ) {
-            pointSpotLightDirection(getPosition(), getLightSize(), position, outDirection);
+            pointSpotLightDirection(getPosition(), getLightSize(), position, u, v, outDirection);
         }
     }
 
@@ -404,10 +388,12 @@ public class Scene {
         }
 
         @Override
-        public void randomLightDirection(
-                Vector3fc position, Vector3f outDirection
+        public void sampleLightDirection(
+                Vector3fc position,
+                float u, float v, float w,
+                Vector3f outDirection
         ) {
-            pointSpotLightDirection(getPosition(), getLightSize(), position, outDirection);
+            pointSpotLightDirection(getPosition(), getLightSize(), position, u, v, outDirection);
         }
     }
 
@@ -441,11 +427,6 @@ public class Scene {
             outputColor.set(getDiffuse());
             outputDirection.set(0f, 1f, 0f);
         }
-
-        @Override
-        public void randomLightDirection(Vector3fc position, Vector3f outDirection) {
-            outDirection.set(0f, 1f, 0f);
-        }
     }
     
     public static class AmbientLight extends Light {
@@ -478,11 +459,6 @@ public class Scene {
             outputColor.set(getDiffuse());
             outputDirection.set(0f, 1f, 0f);
         }
-
-        @Override
-        public void randomLightDirection(Vector3fc position, Vector3f outDirection) {
-            outDirection.set(0f, 1f, 0f);
-        }
         
     }
 
@@ -506,10 +482,17 @@ public class Scene {
     private float indirectLightingBlurArea = 4f;
     private float indirectLightReflectionFactor = 1f;
 
+    private boolean adaptiveIndirectEnabled = false;
+    private int indirectMinRaysPerSample = 8;
+    private int indirectMaxRaysPerSample = 128;
+    private float indirectAdaptiveThreshold = 0.2f;
+    private float indirectAdaptiveBlurArea = 1f;
+
     private float rayOffset = 0.005f;
     private boolean fillDisabledValuesWithLightColors = false;
 
     private boolean fastModeEnabled = false;
+    private boolean fusedLightingEnabled = false;
 
     public Scene() {
 
@@ -611,6 +594,46 @@ public class Scene {
         this.indirectLightReflectionFactor = indirectLightReflectionFactor;
     }
 
+    public boolean isAdaptiveIndirectEnabled() {
+        return adaptiveIndirectEnabled;
+    }
+
+    public void setAdaptiveIndirectEnabled(boolean adaptiveIndirectEnabled) {
+        this.adaptiveIndirectEnabled = adaptiveIndirectEnabled;
+    }
+
+    public int getIndirectMinRaysPerSample() {
+        return indirectMinRaysPerSample;
+    }
+
+    public void setIndirectMinRaysPerSample(int indirectMinRaysPerSample) {
+        this.indirectMinRaysPerSample = indirectMinRaysPerSample;
+    }
+
+    public int getIndirectMaxRaysPerSample() {
+        return indirectMaxRaysPerSample;
+    }
+
+    public void setIndirectMaxRaysPerSample(int indirectMaxRaysPerSample) {
+        this.indirectMaxRaysPerSample = indirectMaxRaysPerSample;
+    }
+
+    public float getIndirectAdaptiveThreshold() {
+        return indirectAdaptiveThreshold;
+    }
+
+    public void setIndirectAdaptiveThreshold(float indirectAdaptiveThreshold) {
+        this.indirectAdaptiveThreshold = indirectAdaptiveThreshold;
+    }
+
+    public float getIndirectAdaptiveBlurArea() {
+        return indirectAdaptiveBlurArea;
+    }
+
+    public void setIndirectAdaptiveBlurArea(float indirectAdaptiveBlurArea) {
+        this.indirectAdaptiveBlurArea = indirectAdaptiveBlurArea;
+    }
+
     public float getRayOffset() {
         return rayOffset;
     }
@@ -627,6 +650,14 @@ public class Scene {
         this.fastModeEnabled = fastModeEnabled;
     }
 
+    public boolean isFusedLightingEnabled() {
+        return fusedLightingEnabled;
+    }
+
+    public void setFusedLightingEnabled(boolean fusedLightingEnabled) {
+        this.fusedLightingEnabled = fusedLightingEnabled;
+    }
+
     public void setFillDisabledValuesWithLightColors(boolean fillDisabledValuesWithLightColors) {
         this.fillDisabledValuesWithLightColors = fillDisabledValuesWithLightColors;
     }
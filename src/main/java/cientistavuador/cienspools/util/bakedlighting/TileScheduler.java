@@ -0,0 +1,189 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.bakedlighting;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ *
+ * @author Cien
+ */
+class TileScheduler {
+
+    public static final int DEFAULT_TILE_SIZE = 16;
+
+    public static class Tile {
+
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int height;
+        private final long cost;
+
+        public Tile(int x, int y, int width, int height, long cost) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.cost = cost;
+        }
+
+        public int getX() {
+            return x;
+        }
+
+        public int getY() {
+            return y;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public long getCost() {
+            return cost;
+        }
+
+        public int getPixels() {
+            return this.width * this.height;
+        }
+
+        public int localIndex(int x, int y) {
+            return (x - this.x) + ((y - this.y) * this.width);
+        }
+    }
+
+    @FunctionalInterface
+    public static interface PixelCost {
+
+        public int cost(int x, int y);
+    }
+
+    @FunctionalInterface
+    public static interface TileTask {
+
+        public void run(Tile tile);
+    }
+
+    public static List<Tile> createTiles(int width, int height, int tileSize, PixelCost pixelCost) {
+        if (tileSize <= 0) {
+            throw new IllegalArgumentException("Tile size must be larger than zero.");
+        }
+
+        List<Tile> tiles = new ArrayList<>();
+        for (int tileY = 0; tileY < height; tileY += tileSize) {
+            for (int tileX = 0; tileX < width; tileX += tileSize) {
+                int tileWidth = Math.min(tileSize, width - tileX);
+                int tileHeight = Math.min(tileSize, height - tileY);
+
+                long cost = 0;
+                for (int y = tileY; y < (tileY + tileHeight); y++) {
+                    for (int x = tileX; x < (tileX + tileWidth); x++) {
+                        cost += pixelCost.cost(x, y);
+                    }
+                }
+
+                if (cost == 0) {
+                    continue;
+                }
+
+                tiles.add(new Tile(tileX, tileY, tileWidth, tileHeight, cost));
+            }
+        }
+
+        tiles.sort((o1, o2) -> Long.compare(o2.getCost(), o1.getCost()));
+
+        return tiles;
+    }
+
+    public static List<Tile> createUnitTiles(int amount) {
+        List<Tile> tiles = new ArrayList<>(amount);
+        for (int i = 0; i < amount; i++) {
+            tiles.add(new Tile(i, 0, 1, 1, 1));
+        }
+        return tiles;
+    }
+
+    public static void execute(Executor executor, List<Tile> tiles, TileTask task, Runnable onTileFinished) {
+        List<CompletableFuture<?>> tasks = new ArrayList<>(tiles.size());
+        try {
+            for (Tile tile : tiles) {
+                tasks.add(CompletableFuture.runAsync(() -> {
+                    task.run(tile);
+                    if (onTileFinished != null) {
+                        onTileFinished.run();
+                    }
+                }, executor));
+            }
+        } catch (RuntimeException ex) {
+            for (CompletableFuture<?> t : tasks) {
+                t.cancel(false);
+            }
+            throw ex;
+        }
+
+        try {
+            for (CompletableFuture<?> t : tasks) {
+                try {
+                    t.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    CancellationException cancelled = new CancellationException("Interrupted while waiting for tiles.");
+                    cancelled.initCause(ex);
+                    throw cancelled;
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException runtime) {
+                        throw runtime;
+                    }
+                    if (cause instanceof Error error) {
+                        throw error;
+                    }
+                    throw new RuntimeException(cause);
+                }
+            }
+        } finally {
+            for (CompletableFuture<?> t : tasks) {
+                t.cancel(false);
+            }
+        }
+    }
+
+    private TileScheduler() {
+
+    }
+
+}
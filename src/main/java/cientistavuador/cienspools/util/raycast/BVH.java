@@ -28,8 +28,10 @@ package cientistavuador.cienspools.util.raycast;
 
 import cientistavuador.cienspools.util.Aab;
 import cientistavuador.cienspools.util.MeshUtils;
+import cientistavuador.cienspools.util.RasterUtils;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -37,6 +39,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import org.joml.Intersectionf;
 import org.joml.Vector3f;
 import org.joml.Vector3fc;
@@ -47,16 +50,133 @@ import org.joml.Vector3fc;
  */
 public class BVH implements Aab {
 
+    public static enum BuildMode {
+        PAIR_MERGE, SAH_BINNED;
+    }
+
+    public static final int NODE_BOUNDS_SIZE = 6;
+
+    public static final int OFFSET_MIN_X = 0;
+    public static final int OFFSET_MIN_Y = OFFSET_MIN_X + 1;
+    public static final int OFFSET_MIN_Z = OFFSET_MIN_Y + 1;
+    public static final int OFFSET_MAX_X = OFFSET_MIN_Z + 1;
+    public static final int OFFSET_MAX_Y = OFFSET_MAX_X + 1;
+    public static final int OFFSET_MAX_Z = OFFSET_MAX_Y + 1;
+
+    public static final int NODE_DATA_SIZE = 4;
+
+    public static final int OFFSET_LEFT = 0;
+    public static final int OFFSET_RIGHT = OFFSET_LEFT + 1;
+    public static final int OFFSET_FIRST_TRIANGLE = OFFSET_RIGHT + 1;
+    public static final int OFFSET_AMOUNT_OF_TRIANGLES = OFFSET_FIRST_TRIANGLE + 1;
+
+    private static final class MergeNode {
+
+        final float minX;
+        final float minY;
+        final float minZ;
+        final float maxX;
+        final float maxY;
+        final float maxZ;
+        final MergeNode left;
+        final MergeNode right;
+        final int amountOfTriangles;
+        final int[] triangles;
+
+        MergeNode(
+                float minX, float minY, float minZ,
+                float maxX, float maxY, float maxZ,
+                MergeNode left, MergeNode right,
+                int amountOfTriangles, int[] triangles
+        ) {
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+            this.left = left;
+            this.right = right;
+            this.amountOfTriangles = amountOfTriangles;
+            this.triangles = triangles;
+        }
+    }
+
     private static final float AABB_OFFSET = 0.001f;
     private static final float EPSILON = 0.001f;
+    private static final float TRIANGLE_EPSILON = 1f / 100000f;
     private static final int PLANAR_BVH_MAX_AMOUNT_OF_TRIANGLES = 8;
 
+    private static final int SHAPE_SPHERE = 0;
+    private static final int SHAPE_AAB = 1;
+    private static final int SHAPE_CAPSULE = 2;
+
+    private static final ThreadLocal<int[]> STACKS = ThreadLocal.withInitial(() -> new int[64]);
+    private static final ThreadLocal<OverlapQuery> QUERIES = ThreadLocal.withInitial(() -> new OverlapQuery(1));
+
+    public static final int LEAF_WIDTH = 8;
+
+    public static volatile BuildMode DEFAULT_BUILD_MODE = BuildMode.SAH_BINNED;
+    public static volatile ForkJoinPool DEFAULT_BUILD_POOL = ForkJoinPool.commonPool();
+    public static volatile float DEFAULT_REFIT_ROTATION_THRESHOLD = 1.25f;
+
+    static final BVHLeafKernel VECTOR_KERNEL = loadVectorKernel();
+
+    public static volatile boolean VECTOR_KERNELS_ENABLED = isVectorKernelsSupported();
+
+    private static BVHLeafKernel loadVectorKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            Class<?> kernels = Class.forName(BVH.class.getPackageName() + ".BVHVectorKernels");
+            if (!((Boolean) kernels.getMethod("isSupported").invoke(null))) {
+                return null;
+            }
+            return (BVHLeafKernel) kernels.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return null;
+        }
+    }
+
+    public static boolean isVectorKernelsSupported() {
+        return VECTOR_KERNEL != null;
+    }
+
     public static BVH create(float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
         return create(null, vertices, indices, vertexSize, xyzOffset);
     }
 
-    private static List<BVH> createPlanarBVHs(
-            Object userObject,
+    public static BVH create(Object userObject, float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
+        return create(userObject, vertices, indices, vertexSize, xyzOffset, DEFAULT_BUILD_MODE);
+    }
+
+    public static BVH create(Object userObject, float[] vertices, int[] indices, int vertexSize, int xyzOffset, BuildMode mode) {
+        return create(userObject, vertices, indices, vertexSize, xyzOffset, mode, DEFAULT_BUILD_POOL);
+    }
+
+    public static BVH create(Object userObject, float[] vertices, int[] indices, int vertexSize, int xyzOffset, BuildMode mode, ForkJoinPool pool) {
+        if (mode == null) {
+            mode = DEFAULT_BUILD_MODE;
+        }
+        switch (mode) {
+            case PAIR_MERGE -> {
+                return createPairMerge(userObject, vertices, indices, vertexSize, xyzOffset);
+            }
+            case SAH_BINNED -> {
+                return new SAHBVHBuilder(
+                        userObject, vertices, indices, vertexSize, xyzOffset,
+                        AABB_OFFSET, pool,
+                        LEAF_WIDTH
+                ).build();
+            }
+            default -> {
+                throw new IllegalArgumentException("Unknown build mode: " + mode);
+            }
+        }
+    }
+
+    private static List<MergeNode> createPlanarNodes(
             float[] vertices,
             int[] indices,
             int vertexSize,
@@ -114,7 +234,7 @@ public class BVH implements Aab {
             }
         }
 
-        List<BVH> planarBVHs = new ArrayList<>();
+        List<MergeNode> planarNodes = new ArrayList<>();
         BitSet processedTriangles = new BitSet(indices.length / 3);
 
         for (int i = 0; i < indices.length; i += 3) {
@@ -239,58 +359,51 @@ public class BVH implements Aab {
                 maxZ = Math.max(maxZ, triangleMaxZ);
             }
 
-            BVH bvh = new BVH(
-                    userObject,
-                    vertices,
-                    indices,
-                    vertexSize,
-                    xyzOffset,
+            planarNodes.add(new MergeNode(
                     minX, minY, minZ,
                     maxX, maxY, maxZ,
                     null, null,
                     trianglesArray.length, trianglesArray
-            );
-
-            planarBVHs.add(bvh);
+            ));
         }
 
-        return planarBVHs;
+        return planarNodes;
     }
 
-    public static BVH create(Object userObject, float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
-        if (vertices.length == 0) {
-            return new BVH(userObject, vertices, indices, vertexSize, xyzOffset, 0f, 0f, 0f, 0f, 0f, 0f, null, null, 0, null);
+    private static BVH createPairMerge(Object userObject, float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
+        if (vertices.length == 0 || indices.length == 0) {
+            return new BVHNodeBuffer(1).build(userObject, vertices, indices, vertexSize, xyzOffset);
         }
 
-        List<BVH> planarBVHs = createPlanarBVHs(userObject, vertices, indices, vertexSize, xyzOffset);
+        List<MergeNode> planarNodes = createPlanarNodes(vertices, indices, vertexSize, xyzOffset);
 
-        BVH[] currentArray = planarBVHs.toArray(BVH[]::new);
-        BVH[] nextArray = new BVH[currentArray.length];
+        MergeNode[] currentArray = planarNodes.toArray(MergeNode[]::new);
+        MergeNode[] nextArray = new MergeNode[currentArray.length];
 
         int currentLength = nextArray.length;
         int nextIndex = 0;
 
         while (currentLength != 1) {
             for (int i = 0; i < currentLength; i++) {
-                BVH current = currentArray[i];
+                MergeNode current = currentArray[i];
 
                 if (current == null) {
                     continue;
                 }
 
-                float minX = current.getMin().x();
-                float minY = current.getMin().y();
-                float minZ = current.getMin().z();
+                float minX = current.minX;
+                float minY = current.minY;
+                float minZ = current.minZ;
 
-                float maxX = current.getMax().x();
-                float maxY = current.getMax().y();
-                float maxZ = current.getMax().z();
+                float maxX = current.maxX;
+                float maxY = current.maxY;
+                float maxZ = current.maxZ;
 
                 float centerX = (minX * 0.5f) + (maxX * 0.5f);
                 float centerY = (minY * 0.5f) + (maxY * 0.5f);
                 float centerZ = (minZ * 0.5f) + (maxZ * 0.5f);
 
-                BVH closest = null;
+                MergeNode closest = null;
                 float closestDistanceSquared = Float.POSITIVE_INFINITY;
                 int closestIndex = -1;
 
@@ -303,19 +416,19 @@ public class BVH implements Aab {
                 float closestMaxZ = 0f;
 
                 for (int j = (i + 1); j < currentLength; j++) {
-                    BVH other = currentArray[j];
+                    MergeNode other = currentArray[j];
 
                     if (other == null) {
                         continue;
                     }
 
-                    float otherMinX = other.getMin().x();
-                    float otherMinY = other.getMin().y();
-                    float otherMinZ = other.getMin().z();
+                    float otherMinX = other.minX;
+                    float otherMinY = other.minY;
+                    float otherMinZ = other.minZ;
 
-                    float otherMaxX = other.getMax().x();
-                    float otherMaxY = other.getMax().y();
-                    float otherMaxZ = other.getMax().z();
+                    float otherMaxX = other.maxX;
+                    float otherMaxY = other.maxY;
+                    float otherMaxZ = other.maxZ;
 
                     float otherCenterX = (otherMinX * 0.5f) + (otherMaxX * 0.5f);
                     float otherCenterY = (otherMinY * 0.5f) + (otherMaxY * 0.5f);
@@ -358,19 +471,12 @@ public class BVH implements Aab {
                 float newMaxY = Math.max(Math.max(minY, closestMinY), Math.max(maxY, closestMaxY));
                 float newMaxZ = Math.max(Math.max(minZ, closestMinZ), Math.max(maxZ, closestMaxZ));
 
-                BVH merge = new BVH(
-                        userObject,
-                        vertices,
-                        indices,
-                        vertexSize,
-                        xyzOffset,
+                MergeNode merge = new MergeNode(
                         newMinX, newMinY, newMinZ,
                         newMaxX, newMaxY, newMaxZ,
                         current, closest,
                         current.amountOfTriangles + closest.amountOfTriangles, null
                 );
-                current.parent = merge;
-                closest.parent = merge;
 
                 nextArray[nextIndex++] = merge;
             }
@@ -378,12 +484,29 @@ public class BVH implements Aab {
             currentLength = nextIndex;
             nextIndex = 0;
 
-            BVH[] currentStore = currentArray;
+            MergeNode[] currentStore = currentArray;
             currentArray = nextArray;
             nextArray = currentStore;
         }
 
-        return currentArray[0];
+        BVHNodeBuffer buffer = new BVHNodeBuffer(planarNodes.size() * 2);
+        flatten(buffer, currentArray[0], 0);
+        return buffer.build(userObject, vertices, indices, vertexSize, xyzOffset);
+    }
+
+    private static int flatten(BVHNodeBuffer buffer, MergeNode e, int depth) {
+        int node = buffer.addNode(depth);
+        buffer.setBounds(node, e.minX, e.minY, e.minZ, e.maxX, e.maxY, e.maxZ);
+        if (e.left == null && e.right == null) {
+            int first = buffer.appendTriangles(e.triangles, 0, e.triangles.length);
+            buffer.setLeaf(node, first, e.triangles.length);
+            return node;
+        }
+        int first = buffer.getAmountOfTriangles();
+        int left = flatten(buffer, e.left, depth + 1);
+        int right = flatten(buffer, e.right, depth + 1);
+        buffer.setInternal(node, left, right, first, e.amountOfTriangles);
+        return node;
     }
 
     private final Object userObject;
@@ -393,19 +516,23 @@ public class BVH implements Aab {
     private final int vertexSize;
     private final int xyzOffset;
 
+    private final float[] nodeBounds;
+    private final int[] nodeData;
+    private final int[] nodeTriangles;
+    private int maxDepth;
+
+    private final int node;
+    private final BVH parent;
+
     private final Vector3f min = new Vector3f();
     private final Vector3f max = new Vector3f();
 
-    protected BVH parent;
+    private boolean planarOptimizationEnabled;
+    private Vector3f planarNormal;
+    private Vector3f planarPosition;
 
-    private final BVH left;
-    private final BVH right;
-    private final int amountOfTriangles;
-    private final int[] triangles;
-
-    private final boolean planarOptimizationEnabled;
-    private final Vector3f planarNormal;
-    private final Vector3f planarPosition;
+    private float referenceCost = Float.NaN;
+    private volatile BVHPackedTriangles packedTriangles = null;
 
     protected BVH(
             Object userObject,
@@ -413,60 +540,100 @@ public class BVH implements Aab {
             int[] indices,
             int vertexSize,
             int xyzOffset,
-            float minX, float minY, float minZ,
-            float maxX, float maxY, float maxZ,
-            BVH left, BVH right,
-            int amountOfTriangles, int[] triangles
+            float[] nodeBounds,
+            int[] nodeData,
+            int[] nodeTriangles,
+            int maxDepth
+    ) {
+        this(userObject,
+                vertices, indices, vertexSize, xyzOffset,
+                nodeBounds, nodeData, nodeTriangles, maxDepth,
+                0, null
+        );
+    }
+
+    private BVH(
+            Object userObject,
+            float[] vertices,
+            int[] indices,
+            int vertexSize,
+            int xyzOffset,
+            float[] nodeBounds,
+            int[] nodeData,
+            int[] nodeTriangles,
+            int maxDepth,
+            int node,
+            BVH parent
     ) {
         this.userObject = userObject;
         this.vertices = vertices;
         this.indices = indices;
         this.vertexSize = vertexSize;
         this.xyzOffset = xyzOffset;
-        this.min.set(minX, minY, minZ);
-        this.max.set(maxX, maxY, maxZ);
-        this.left = left;
-        this.right = right;
-        this.amountOfTriangles = amountOfTriangles;
-        this.triangles = triangles;
+        this.nodeBounds = nodeBounds;
+        this.nodeData = nodeData;
+        this.nodeTriangles = nodeTriangles;
+        this.maxDepth = maxDepth;
+        this.node = node;
+        this.parent = parent;
+
+        updateNodeState();
+    }
+
+    private void updateNodeState() {
+        int b = this.node * NODE_BOUNDS_SIZE;
+        this.min.set(
+                this.nodeBounds[b + OFFSET_MIN_X],
+                this.nodeBounds[b + OFFSET_MIN_Y],
+                this.nodeBounds[b + OFFSET_MIN_Z]
+        );
+        this.max.set(
+                this.nodeBounds[b + OFFSET_MAX_X],
+                this.nodeBounds[b + OFFSET_MAX_Y],
+                this.nodeBounds[b + OFFSET_MAX_Z]
+        );
+
+        int d = this.node * NODE_DATA_SIZE;
+        int first = this.nodeData[d + OFFSET_FIRST_TRIANGLE];
+        int count = this.nodeData[d + OFFSET_AMOUNT_OF_TRIANGLES];
 
         boolean pEnabled = false;
         Vector3f pNormal = null;
         Vector3f pPosition = null;
         enablePlanarOptimization:
         {
-            if (this.triangles == null || this.triangles.length <= 1) {
+            if (this.nodeData[d + OFFSET_LEFT] >= 0 || count <= 1) {
                 break enablePlanarOptimization;
             }
-            
+
             Vector3f normal = new Vector3f();
             MeshUtils.calculateTriangleNormal(
                     this.vertices,
                     this.vertexSize,
                     this.xyzOffset,
-                    this.indices[(this.triangles[0] * 3) + 0],
-                    this.indices[(this.triangles[0] * 3) + 1],
-                    this.indices[(this.triangles[0] * 3) + 2],
+                    this.indices[(this.nodeTriangles[first] * 3) + 0],
+                    this.indices[(this.nodeTriangles[first] * 3) + 1],
+                    this.indices[(this.nodeTriangles[first] * 3) + 2],
                     normal
             );
-            
+
             Vector3f otherNormal = new Vector3f();
-            for (int i = 1; i < triangles.length; i++) {
+            for (int i = 1; i < count; i++) {
                 MeshUtils.calculateTriangleNormal(
                         this.vertices,
                         this.vertexSize,
                         this.xyzOffset,
-                        this.indices[(this.triangles[i] * 3) + 0],
-                        this.indices[(this.triangles[i] * 3) + 1],
-                        this.indices[(this.triangles[i] * 3) + 2],
+                        this.indices[(this.nodeTriangles[first + i] * 3) + 0],
+                        this.indices[(this.nodeTriangles[first + i] * 3) + 1],
+                        this.indices[(this.nodeTriangles[first + i] * 3) + 2],
                         otherNormal
                 );
                 if (otherNormal.dot(normal) < (1f - EPSILON)) {
                     break enablePlanarOptimization;
                 }
             }
-            
-            int v0 = (this.indices[(this.triangles[0] * 3) + 0] * this.vertexSize) + this.xyzOffset;
+
+            int v0 = (this.indices[(this.nodeTriangles[first] * 3) + 0] * this.vertexSize) + this.xyzOffset;
             pEnabled = true;
             pNormal = normal;
             pPosition = new Vector3f(
@@ -480,6 +647,64 @@ public class BVH implements Aab {
         this.planarPosition = pPosition;
     }
 
+    public BVH copy(float[] vertices, int vertexSize, int xyzOffset) {
+        if (this.parent != null) {
+            throw new IllegalStateException("Only the root node of a bvh can be copied.");
+        }
+        BVH copy = new BVH(
+                this.userObject,
+                vertices, this.indices, vertexSize, xyzOffset,
+                this.nodeBounds.clone(), this.nodeData.clone(), this.nodeTriangles.clone(),
+                this.maxDepth
+        );
+        copy.referenceCost = this.referenceCost;
+        copy.refit(Float.POSITIVE_INFINITY);
+        return copy;
+    }
+
+    public float calculateCost() {
+        return new BVHRefitter(
+                this.vertices, this.indices, this.vertexSize, this.xyzOffset,
+                AABB_OFFSET,
+                this.nodeBounds, this.nodeData, this.nodeTriangles
+        ).calculateCost();
+    }
+
+    public boolean refit() {
+        return refit(DEFAULT_REFIT_ROTATION_THRESHOLD);
+    }
+
+    public boolean refit(float rotationThreshold) {
+        if (this.parent != null) {
+            throw new IllegalStateException("Only the root node of a bvh can be refitted.");
+        }
+        BVHRefitter refitter = new BVHRefitter(
+                this.vertices, this.indices, this.vertexSize, this.xyzOffset,
+                AABB_OFFSET,
+                this.nodeBounds, this.nodeData, this.nodeTriangles
+        );
+        if (Float.isNaN(this.referenceCost)) {
+            this.referenceCost = refitter.calculateCost();
+        }
+
+        refitter.refitNodes();
+
+        boolean rotated = false;
+        if (refitter.calculateCost() > this.referenceCost * rotationThreshold
+                && refitter.rotateNodes() != 0) {
+            this.maxDepth = refitter.relayout();
+            rotated = true;
+        }
+
+        BVHPackedTriangles packed = this.packedTriangles;
+        if (packed != null) {
+            packed.update(this);
+        }
+
+        updateNodeState();
+        return rotated;
+    }
+
     public Object getUserObject() {
         return userObject;
     }
@@ -500,24 +725,89 @@ public class BVH implements Aab {
         return xyzOffset;
     }
 
+    public float[] getNodeBounds() {
+        return nodeBounds;
+    }
+
+    public int[] getNodeData() {
+        return nodeData;
+    }
+
+    public int[] getNodeTriangles() {
+        return nodeTriangles;
+    }
+
+    public int getAmountOfNodes() {
+        return this.nodeData.length / NODE_DATA_SIZE;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public int getNode() {
+        return node;
+    }
+
     public BVH getParent() {
         return parent;
     }
 
+    BVHPackedTriangles packedTriangles() {
+        if (!VECTOR_KERNELS_ENABLED || VECTOR_KERNEL == null) {
+            return null;
+        }
+        BVH root = this;
+        while (root.parent != null) {
+            root = root.parent;
+        }
+        BVHPackedTriangles packed = root.packedTriangles;
+        if (packed == null) {
+            packed = new BVHPackedTriangles(root);
+            root.packedTriangles = packed;
+        }
+        return packed;
+    }
+
+    private BVH child(int offset) {
+        int child = this.nodeData[(this.node * NODE_DATA_SIZE) + offset];
+        if (child < 0) {
+            return null;
+        }
+        return new BVH(
+                this.userObject,
+                this.vertices, this.indices, this.vertexSize, this.xyzOffset,
+                this.nodeBounds, this.nodeData, this.nodeTriangles, this.maxDepth,
+                child, this
+        );
+    }
+
     public BVH getLeft() {
-        return left;
+        return child(OFFSET_LEFT);
     }
 
     public BVH getRight() {
-        return right;
+        return child(OFFSET_RIGHT);
+    }
+
+    public boolean isLeaf() {
+        return this.nodeData[(this.node * NODE_DATA_SIZE) + OFFSET_LEFT] < 0;
+    }
+
+    public int getFirstTriangle() {
+        return this.nodeData[(this.node * NODE_DATA_SIZE) + OFFSET_FIRST_TRIANGLE];
     }
 
     public int getAmountOfTriangles() {
-        return amountOfTriangles;
+        return this.nodeData[(this.node * NODE_DATA_SIZE) + OFFSET_AMOUNT_OF_TRIANGLES];
     }
 
     public int[] getTriangles() {
-        return triangles;
+        if (!isLeaf()) {
+            return null;
+        }
+        int first = getFirstTriangle();
+        return Arrays.copyOfRange(this.nodeTriangles, first, first + getAmountOfTriangles());
     }
 
     public Vector3fc getMin() {
@@ -538,165 +828,439 @@ public class BVH implements Aab {
         max.set(this.max);
     }
 
-    private boolean fastTestRay(
-            Vector3f a, Vector3f b, Vector3f c,
-            BVH e,
-            Vector3fc localOrigin, Vector3fc localDirection,
-            float maxLength, Vector3f rayMin, Vector3f rayMax
+    public float lerp(int triangle, Vector3fc weights, int componentOffset) {
+        int v0 = this.indices[(triangle * 3) + 0] * this.vertexSize;
+        int v1 = this.indices[(triangle * 3) + 1] * this.vertexSize;
+        int v2 = this.indices[(triangle * 3) + 2] * this.vertexSize;
+
+        float a = this.vertices[v0 + componentOffset];
+        float b = this.vertices[v1 + componentOffset];
+        float c = this.vertices[v2 + componentOffset];
+
+        return (a * weights.x()) + (b * weights.y()) + (c * weights.z());
+    }
+
+    public void weights(int triangle, float x, float y, float z, Vector3f weights) {
+        int v0 = (this.indices[(triangle * 3) + 0] * this.vertexSize) + this.xyzOffset;
+        int v1 = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
+        int v2 = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
+
+        RasterUtils.barycentricWeights(
+                x, y, z,
+                this.vertices[v0 + 0], this.vertices[v0 + 1], this.vertices[v0 + 2],
+                this.vertices[v1 + 0], this.vertices[v1 + 1], this.vertices[v1 + 2],
+                this.vertices[v2 + 0], this.vertices[v2 + 1], this.vertices[v2 + 2],
+                weights
+        );
+    }
+
+    private int[] threadStack() {
+        int[] stack = STACKS.get();
+        if (stack.length < this.maxDepth + 2) {
+            stack = new int[this.maxDepth + 2];
+            STACKS.set(stack);
+        }
+        return stack;
+    }
+
+    static float intersectRayNode(
+            float[] nodeBounds, int node,
+            float oX, float oY, float oZ,
+            float invDirX, float invDirY, float invDirZ,
+            float maxLength
     ) {
-        if (rayMin != null && rayMax != null) {
-            if (!IntersectionUtils.testAabAab(rayMin, rayMax, e.getMin(), e.getMax())) {
-                return false;
-            }
+        int b = node * NODE_BOUNDS_SIZE;
+
+        float tNear, tFar, tyNear, tyFar, tzNear, tzFar;
+        if (invDirX >= 0f) {
+            tNear = (nodeBounds[b + OFFSET_MIN_X] - oX) * invDirX;
+            tFar = (nodeBounds[b + OFFSET_MAX_X] - oX) * invDirX;
+        } else {
+            tNear = (nodeBounds[b + OFFSET_MAX_X] - oX) * invDirX;
+            tFar = (nodeBounds[b + OFFSET_MIN_X] - oX) * invDirX;
         }
-        if (this.planarOptimizationEnabled) {
-            float planeIntersection = Intersectionf.intersectRayPlane(localOrigin, localDirection, this.planarPosition, this.planarNormal, 1f / 100000f);
-            if (planeIntersection < 0f) {
-                return false;
-            }
-            float pX = localOrigin.x() + (localDirection.x() * planeIntersection);
-            float pY = localOrigin.y() + (localDirection.y() * planeIntersection);
-            float pZ = localOrigin.z() + (localDirection.z() * planeIntersection);
-            if (!IntersectionUtils.testAabPoint(e.getMin(), e.getMax(), pX, pY, pZ)) {
-                return false;
-            }
+        if (invDirY >= 0f) {
+            tyNear = (nodeBounds[b + OFFSET_MIN_Y] - oY) * invDirY;
+            tyFar = (nodeBounds[b + OFFSET_MAX_Y] - oY) * invDirY;
+        } else {
+            tyNear = (nodeBounds[b + OFFSET_MAX_Y] - oY) * invDirY;
+            tyFar = (nodeBounds[b + OFFSET_MIN_Y] - oY) * invDirY;
+        }
+        if (tNear > tyFar || tyNear > tFar) {
+            return -1f;
+        }
+        if (tyNear > tNear || Float.isNaN(tNear)) {
+            tNear = tyNear;
+        }
+        if (tyFar < tFar || Float.isNaN(tFar)) {
+            tFar = tyFar;
+        }
+        if (invDirZ >= 0f) {
+            tzNear = (nodeBounds[b + OFFSET_MIN_Z] - oZ) * invDirZ;
+            tzFar = (nodeBounds[b + OFFSET_MAX_Z] - oZ) * invDirZ;
+        } else {
+            tzNear = (nodeBounds[b + OFFSET_MAX_Z] - oZ) * invDirZ;
+            tzFar = (nodeBounds[b + OFFSET_MIN_Z] - oZ) * invDirZ;
+        }
+        if (tNear > tzFar || tzNear > tFar) {
+            return -1f;
+        }
+        if (tzNear > tNear || Float.isNaN(tNear)) {
+            tNear = tzNear;
+        }
+        if (tzFar < tFar || Float.isNaN(tFar)) {
+            tFar = tzFar;
+        }
+        if (tNear < tFar && tFar >= 0f && tNear <= maxLength) {
+            return Math.max(tNear, 0f);
+        }
+        return -1f;
+    }
+
+    private float intersectRayNode(
+            int node,
+            float oX, float oY, float oZ,
+            float invDirX, float invDirY, float invDirZ,
+            float maxLength
+    ) {
+        return intersectRayNode(
+                this.nodeBounds, node,
+                oX, oY, oZ,
+                invDirX, invDirY, invDirZ,
+                maxLength
+        );
+    }
+
+    private float intersectRayTriangle(
+            int triangle,
+            float oX, float oY, float oZ,
+            float dX, float dY, float dZ
+    ) {
+        int v0xyz = (this.indices[(triangle * 3) + 0] * this.vertexSize) + this.xyzOffset;
+        int v1xyz = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
+        int v2xyz = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
+
+        return IntersectionUtils.intersectRayTriangle(
+                oX, oY, oZ,
+                dX, dY, dZ,
+                this.vertices[v0xyz + 0], this.vertices[v0xyz + 1], this.vertices[v0xyz + 2],
+                this.vertices[v1xyz + 0], this.vertices[v1xyz + 1], this.vertices[v1xyz + 2],
+                this.vertices[v2xyz + 0], this.vertices[v2xyz + 1], this.vertices[v2xyz + 2]
+        );
+    }
+
+    private boolean testPlanar(Vector3fc localOrigin, Vector3fc localDirection) {
+        float planeIntersection = Intersectionf.intersectRayPlane(localOrigin, localDirection, this.planarPosition, this.planarNormal, 1f / 100000f);
+        if (planeIntersection < 0f) {
+            return false;
+        }
+        float pX = localOrigin.x() + (localDirection.x() * planeIntersection);
+        float pY = localOrigin.y() + (localDirection.y() * planeIntersection);
+        float pZ = localOrigin.z() + (localDirection.z() * planeIntersection);
+        return IntersectionUtils.testAabPoint(this.min, this.max, pX, pY, pZ);
+    }
+
+    public boolean fastTestRay(Vector3fc localOrigin, Vector3fc localDirection, float maxLength) {
+        if (this.planarOptimizationEnabled && !testPlanar(localOrigin, localDirection)) {
+            return false;
         }
-        if (IntersectionUtils.testRayAab(localOrigin, localDirection, e.getMin(), e.getMax())) {
-            if (e.getLeft() == null && e.getRight() == null) {
-                int[] nodeTriangles = e.getTriangles();
-                for (int i = 0; i < nodeTriangles.length; i++) {
-                    int triangle = nodeTriangles[i];
 
-                    int v0xyz = (this.indices[(triangle * 3) + 0] * this.vertexSize) + this.xyzOffset;
-                    int v1xyz = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
-                    int v2xyz = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
+        if (!Float.isFinite(maxLength)) {
+            maxLength = Float.POSITIVE_INFINITY;
+        }
 
-                    a.set(
-                            this.vertices[v0xyz + 0],
-                            this.vertices[v0xyz + 1],
-                            this.vertices[v0xyz + 2]
-                    );
-                    b.set(
-                            this.vertices[v1xyz + 0],
-                            this.vertices[v1xyz + 1],
-                            this.vertices[v1xyz + 2]
-                    );
-                    c.set(
-                            this.vertices[v2xyz + 0],
-                            this.vertices[v2xyz + 1],
-                            this.vertices[v2xyz + 2]
-                    );
+        float oX = localOrigin.x();
+        float oY = localOrigin.y();
+        float oZ = localOrigin.z();
+
+        float dX = localDirection.x();
+        float dY = localDirection.y();
+        float dZ = localDirection.z();
+
+        float invDirX = 1f / dX;
+        float invDirY = 1f / dY;
+        float invDirZ = 1f / dZ;
+
+        if (intersectRayNode(this.node, oX, oY, oZ, invDirX, invDirY, invDirZ, maxLength) < 0f) {
+            return false;
+        }
 
-                    float hit = IntersectionUtils.intersectRayTriangle(localOrigin, localDirection, a, b, c);
-                    if (hit >= 0f && (!Float.isFinite(maxLength) || hit <= maxLength)) {
+        BVHPackedTriangles packed = packedTriangles();
+
+        int[] stack = threadStack();
+        int stackSize = 0;
+        stack[stackSize++] = this.node;
+
+        while (stackSize != 0) {
+            int current = stack[--stackSize];
+            int d = current * NODE_DATA_SIZE;
+
+            int left = this.nodeData[d + OFFSET_LEFT];
+            if (left < 0) {
+                int first = this.nodeData[d + OFFSET_FIRST_TRIANGLE];
+                int end = first + this.nodeData[d + OFFSET_AMOUNT_OF_TRIANGLES];
+                if (packed != null) {
+                    if (VECTOR_KERNEL.intersectRayTriangles(
+                            packed, first, end - first,
+                            oX, oY, oZ,
+                            dX, dY, dZ,
+                            TRIANGLE_EPSILON, maxLength,
+                            false, true,
+                            null
+                    ) >= 0) {
                         return true;
                     }
+                    continue;
                 }
-            }
-
-            if (e.getLeft() != null) {
-                if (fastTestRay(a, b, c, e.getLeft(), localOrigin, localDirection, maxLength, rayMin, rayMax)) {
-                    return true;
+                for (int i = first; i < end; i++) {
+                    float hit = intersectRayTriangle(this.nodeTriangles[i], oX, oY, oZ, dX, dY, dZ);
+                    if (hit >= 0f && hit <= maxLength) {
+                        return true;
+                    }
                 }
+                continue;
             }
-            if (e.getRight() != null) {
-                if (fastTestRay(a, b, c, e.getRight(), localOrigin, localDirection, maxLength, rayMin, rayMax)) {
-                    return true;
+
+            int right = this.nodeData[d + OFFSET_RIGHT];
+
+            float leftHit = intersectRayNode(left, oX, oY, oZ, invDirX, invDirY, invDirZ, maxLength);
+            float rightHit = intersectRayNode(right, oX, oY, oZ, invDirX, invDirY, invDirZ, maxLength);
+
+            if (leftHit >= 0f && rightHit >= 0f) {
+                if (leftHit <= rightHit) {
+                    stack[stackSize++] = right;
+                    stack[stackSize++] = left;
+                } else {
+                    stack[stackSize++] = left;
+                    stack[stackSize++] = right;
                 }
+            } else if (leftHit >= 0f) {
+                stack[stackSize++] = left;
+            } else if (rightHit >= 0f) {
+                stack[stackSize++] = right;
             }
         }
+
         return false;
     }
 
-    public boolean fastTestRay(Vector3fc localOrigin, Vector3fc localDirection, float maxLength) {
-        Vector3f a = new Vector3f();
-        Vector3f b = new Vector3f();
-        Vector3f c = new Vector3f();
-
-        Vector3f rayMin = null;
-        Vector3f rayMax = null;
+    private boolean isFrontFace(int triangle, float dX, float dY, float dZ) {
+        int v0xyz = (this.indices[(triangle * 3) + 0] * this.vertexSize) + this.xyzOffset;
+        int v1xyz = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
+        int v2xyz = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
 
-        if (Float.isFinite(maxLength)) {
-            rayMin = new Vector3f(localOrigin);
-            rayMax = new Vector3f(localDirection).mul(maxLength).add(localOrigin);
+        float baX = this.vertices[v1xyz + 0] - this.vertices[v0xyz + 0];
+        float baY = this.vertices[v1xyz + 1] - this.vertices[v0xyz + 1];
+        float baZ = this.vertices[v1xyz + 2] - this.vertices[v0xyz + 2];
 
-            float minX = Math.min(rayMin.x(), rayMax.x());
-            float minY = Math.min(rayMin.y(), rayMax.y());
-            float minZ = Math.min(rayMin.z(), rayMax.z());
+        float caX = this.vertices[v2xyz + 0] - this.vertices[v0xyz + 0];
+        float caY = this.vertices[v2xyz + 1] - this.vertices[v0xyz + 1];
+        float caZ = this.vertices[v2xyz + 2] - this.vertices[v0xyz + 2];
 
-            float maxX = Math.max(rayMin.x(), rayMax.x());
-            float maxY = Math.max(rayMin.y(), rayMax.y());
-            float maxZ = Math.max(rayMin.z(), rayMax.z());
+        float nX = (baY * caZ) - (baZ * caY);
+        float nY = (baZ * caX) - (baX * caZ);
+        float nZ = (baX * caY) - (baY * caX);
 
-            rayMin.set(minX, minY, minZ);
-            rayMax.set(maxX, maxY, maxZ);
-        }
+        return ((nX * dX) + (nY * dY) + (nZ * dZ)) < 0f;
+    }
 
-        return fastTestRay(a, b, c, this, localOrigin, localDirection, maxLength, rayMin, rayMax);
+    public boolean testRayClosest(Vector3fc localOrigin, Vector3fc localDirection, LocalRayHit hit) {
+        return testRayClosest(localOrigin, localDirection, Float.POSITIVE_INFINITY, false, hit);
     }
 
-    private void testRay(
+    public boolean testRayClosest(
             Vector3fc localOrigin, Vector3fc localDirection,
-            List<LocalRayResult> resultsOutput, BVH bvh, BitSet tested,
-            Vector3f normal, Vector3f hitposition, Vector3f a, Vector3f b, Vector3f c
+            float maxLength, boolean frontFaceOnly,
+            LocalRayHit hit
     ) {
-        if (this.planarOptimizationEnabled) {
-            float planeIntersection = Intersectionf.intersectRayPlane(localOrigin, localDirection, this.planarPosition, this.planarNormal, 1f / 100000f);
-            if (planeIntersection < 0f) {
-                return;
-            }
-            float pX = localOrigin.x() + (localDirection.x() * planeIntersection);
-            float pY = localOrigin.y() + (localDirection.y() * planeIntersection);
-            float pZ = localOrigin.z() + (localDirection.z() * planeIntersection);
-            if (!IntersectionUtils.testAabPoint(bvh.getMin(), bvh.getMax(), pX, pY, pZ)) {
-                return;
-            }
-        }
-        
-        if (IntersectionUtils.testRayAab(localOrigin, localDirection, bvh.getMin(), bvh.getMax())) {
-            if (bvh.getLeft() == null && bvh.getRight() == null) {
-                int[] nodeTriangles = bvh.getTriangles();
-                for (int i = 0; i < nodeTriangles.length; i++) {
-                    int triangle = nodeTriangles[i];
-
-                    if (tested.get(triangle)) {
+        if (this.planarOptimizationEnabled && !testPlanar(localOrigin, localDirection)) {
+            return false;
+        }
+
+        if (!Float.isFinite(maxLength)) {
+            maxLength = Float.POSITIVE_INFINITY;
+        }
+
+        float oX = localOrigin.x();
+        float oY = localOrigin.y();
+        float oZ = localOrigin.z();
+
+        float dX = localDirection.x();
+        float dY = localDirection.y();
+        float dZ = localDirection.z();
+
+        float invDirX = 1f / dX;
+        float invDirY = 1f / dY;
+        float invDirZ = 1f / dZ;
+
+        float rootHit = intersectRayNode(this.node, oX, oY, oZ, invDirX, invDirY, invDirZ, maxLength);
+        if (rootHit < 0f) {
+            return false;
+        }
+
+        int[] stack = hit.nodeStack(this.maxDepth + 2);
+        float[] distances = hit.distanceStack(this.maxDepth + 2);
+        int stackSize = 0;
+        stack[stackSize] = this.node;
+        distances[stackSize] = rootHit;
+        stackSize++;
+
+        float closest = maxLength;
+        int closestTriangle = -1;
+
+        BVHPackedTriangles packed = packedTriangles();
+        float[] kernelOutput = hit.kernelOutput;
+
+        long nodesVisited = 0;
+        while (stackSize != 0) {
+            stackSize--;
+            int current = stack[stackSize];
+            if (distances[stackSize] > closest) {
+                continue;
+            }
+            nodesVisited++;
+            int d = current * NODE_DATA_SIZE;
+
+            int left = this.nodeData[d + OFFSET_LEFT];
+            if (left < 0) {
+                int first = this.nodeData[d + OFFSET_FIRST_TRIANGLE];
+                int end = first + this.nodeData[d + OFFSET_AMOUNT_OF_TRIANGLES];
+                if (packed != null) {
+                    int slot = VECTOR_KERNEL.intersectRayTriangles(
+                            packed, first, end - first,
+                            oX, oY, oZ,
+                            dX, dY, dZ,
+                            TRIANGLE_EPSILON, closest,
+                            frontFaceOnly, false,
+                            kernelOutput
+                    );
+                    if (slot >= 0) {
+                        closest = kernelOutput[BVHLeafKernel.OUT_DISTANCE];
+                        closestTriangle = this.nodeTriangles[slot];
+                    }
+                    continue;
+                }
+                for (int i = first; i < end; i++) {
+                    int triangle = this.nodeTriangles[i];
+                    float t = intersectRayTriangle(triangle, oX, oY, oZ, dX, dY, dZ);
+                    if (t < 0f || t > closest) {
                         continue;
                     }
-                    tested.set(triangle);
+                    if (frontFaceOnly && !isFrontFace(triangle, dX, dY, dZ)) {
+                        continue;
+                    }
+                    closest = t;
+                    closestTriangle = triangle;
+                    if (this.planarOptimizationEnabled) {
+                        break;
+                    }
+                }
+                continue;
+            }
 
-                    int i0 = this.indices[(triangle * 3) + 0];
-                    int i1 = this.indices[(triangle * 3) + 1];
-                    int i2 = this.indices[(triangle * 3) + 2];
+            int right = this.nodeData[d + OFFSET_RIGHT];
+
+            float leftHit = intersectRayNode(left, oX, oY, oZ, invDirX, invDirY, invDirZ, closest);
+            float rightHit = intersectRayNode(right, oX, oY, oZ, invDirX, invDirY, invDirZ, closest);
+
+            if (leftHit >= 0f && rightHit >= 0f) {
+                if (leftHit <= rightHit) {
+                    stack[stackSize] = right;
+                    distances[stackSize] = rightHit;
+                    stackSize++;
+                    stack[stackSize] = left;
+                    distances[stackSize] = leftHit;
+                    stackSize++;
+                } else {
+                    stack[stackSize] = left;
+                    distances[stackSize] = leftHit;
+                    stackSize++;
+                    stack[stackSize] = right;
+                    distances[stackSize] = rightHit;
+                    stackSize++;
+                }
+            } else if (leftHit >= 0f) {
+                stack[stackSize] = left;
+                distances[stackSize] = leftHit;
+                stackSize++;
+            } else if (rightHit >= 0f) {
+                stack[stackSize] = right;
+                distances[stackSize] = rightHit;
+                stackSize++;
+            }
+        }
+        hit.nodesVisited += nodesVisited;
 
-                    int v0xyz = (i0 * this.vertexSize) + this.xyzOffset;
-                    int v1xyz = (i1 * this.vertexSize) + this.xyzOffset;
-                    int v2xyz = (i2 * this.vertexSize) + this.xyzOffset;
+        if (closestTriangle == -1) {
+            return false;
+        }
 
-                    a.set(
-                            this.vertices[v0xyz + 0],
-                            this.vertices[v0xyz + 1],
-                            this.vertices[v0xyz + 2]
-                    );
-                    b.set(
-                            this.vertices[v1xyz + 0],
-                            this.vertices[v1xyz + 1],
-                            this.vertices[v1xyz + 2]
-                    );
-                    c.set(
-                            this.vertices[v2xyz + 0],
-                            this.vertices[v2xyz + 1],
-                            this.vertices[v2xyz + 2]
-                    );
+        hit.set(this, localOrigin, localDirection, closest, closestTriangle);
+        return true;
+    }
+
+    public void testRaysAny(RayBatch batch) {
+        new BVHRayStream(this, batch, true, false).trace();
+    }
+
+    public void testRaysClosest(RayBatch batch) {
+        testRaysClosest(batch, false);
+    }
+
+    public void testRaysClosest(RayBatch batch, boolean frontFaceOnly) {
+        new BVHRayStream(this, batch, false, frontFaceOnly).trace();
+    }
+
+    public List<LocalRayResult> testRay(Vector3fc localOrigin, Vector3fc localDirection) {
+        List<LocalRayResult> resultsOutput = new ArrayList<>();
+
+        if (this.planarOptimizationEnabled && !testPlanar(localOrigin, localDirection)) {
+            return resultsOutput;
+        }
+
+        float oX = localOrigin.x();
+        float oY = localOrigin.y();
+        float oZ = localOrigin.z();
+
+        float dX = localDirection.x();
+        float dY = localDirection.y();
+        float dZ = localDirection.z();
+
+        float invDirX = 1f / dX;
+        float invDirY = 1f / dY;
+        float invDirZ = 1f / dZ;
+
+        if (intersectRayNode(this.node, oX, oY, oZ, invDirX, invDirY, invDirZ, Float.POSITIVE_INFINITY) < 0f) {
+            return resultsOutput;
+        }
+
+        Vector3f normal = new Vector3f();
+        Vector3f hitposition = new Vector3f();
+
+        int[] stack = threadStack();
+        int stackSize = 0;
+        stack[stackSize++] = this.node;
 
-                    float hit = IntersectionUtils.intersectRayTriangle(localOrigin, localDirection, a, b, c);
+        while (stackSize != 0) {
+            int current = stack[--stackSize];
+            int d = current * NODE_DATA_SIZE;
+
+            int left = this.nodeData[d + OFFSET_LEFT];
+            if (left < 0) {
+                int first = this.nodeData[d + OFFSET_FIRST_TRIANGLE];
+                int end = first + this.nodeData[d + OFFSET_AMOUNT_OF_TRIANGLES];
+                for (int i = first; i < end; i++) {
+                    int triangle = this.nodeTriangles[i];
+
+                    float hit = intersectRayTriangle(triangle, oX, oY, oZ, dX, dY, dZ);
                     if (hit >= 0f) {
                         MeshUtils.calculateTriangleNormal(
                                 this.vertices,
                                 this.vertexSize,
                                 this.xyzOffset,
-                                i0,
-                                i1,
-                                i2,
+                                this.indices[(triangle * 3) + 0],
+                                this.indices[(triangle * 3) + 1],
+                                this.indices[(triangle * 3) + 2],
                                 normal
                         );
                         boolean frontFace = normal.dot(localDirection) < 0f;
@@ -704,38 +1268,85 @@ public class BVH implements Aab {
                         hitposition.set(localDirection).mul(hit).add(localOrigin);
 
                         resultsOutput.add(new LocalRayResult(this, localOrigin, localDirection, hitposition, normal, triangle, frontFace));
-                        
+
                         if (this.planarOptimizationEnabled) {
                             break;
                         }
                     }
                 }
+                continue;
             }
 
-            if (bvh.getLeft() != null) {
-                testRay(localOrigin, localDirection, resultsOutput, bvh.getLeft(), tested, normal, hitposition, a, b, c);
+            int right = this.nodeData[d + OFFSET_RIGHT];
+
+            if (intersectRayNode(right, oX, oY, oZ, invDirX, invDirY, invDirZ, Float.POSITIVE_INFINITY) >= 0f) {
+                stack[stackSize++] = right;
             }
-            if (bvh.getRight() != null) {
-                testRay(localOrigin, localDirection, resultsOutput, bvh.getRight(), tested, normal, hitposition, a, b, c);
+            if (intersectRayNode(left, oX, oY, oZ, invDirX, invDirY, invDirZ, Float.POSITIVE_INFINITY) >= 0f) {
+                stack[stackSize++] = left;
             }
         }
+
+        return resultsOutput;
     }
 
-    public List<LocalRayResult> testRay(Vector3fc localOrigin, Vector3fc localDirection) {
-        List<LocalRayResult> resultsOutput = new ArrayList<>();
+    public void testRay(Vector3fc localOrigin, Vector3fc localDirection, LocalRayHits output) {
+        if (this.planarOptimizationEnabled && !testPlanar(localOrigin, localDirection)) {
+            return;
+        }
 
-        Vector3f normal = new Vector3f();
-        Vector3f hitposition = new Vector3f();
+        float oX = localOrigin.x();
+        float oY = localOrigin.y();
+        float oZ = localOrigin.z();
+
+        float dX = localDirection.x();
+        float dY = localDirection.y();
+        float dZ = localDirection.z();
+
+        float invDirX = 1f / dX;
+        float invDirY = 1f / dY;
+        float invDirZ = 1f / dZ;
 
-        BitSet tested = new BitSet(this.indices.length / 3);
+        if (intersectRayNode(this.node, oX, oY, oZ, invDirX, invDirY, invDirZ, Float.POSITIVE_INFINITY) < 0f) {
+            return;
+        }
 
-        Vector3f a = new Vector3f();
-        Vector3f b = new Vector3f();
-        Vector3f c = new Vector3f();
+        int[] stack = output.stack(this.maxDepth + 2);
+        int stackSize = 0;
+        stack[stackSize++] = this.node;
 
-        testRay(localOrigin, localDirection, resultsOutput, this, tested, normal, hitposition, a, b, c);
+        while (stackSize != 0) {
+            int current = stack[--stackSize];
+            int d = current * NODE_DATA_SIZE;
 
-        return resultsOutput;
+            int left = this.nodeData[d + OFFSET_LEFT];
+            if (left < 0) {
+                int first = this.nodeData[d + OFFSET_FIRST_TRIANGLE];
+                int end = first + this.nodeData[d + OFFSET_AMOUNT_OF_TRIANGLES];
+                for (int i = first; i < end; i++) {
+                    int triangle = this.nodeTriangles[i];
+
+                    float hit = intersectRayTriangle(triangle, oX, oY, oZ, dX, dY, dZ);
+                    if (hit >= 0f) {
+                        output.next().set(this, localOrigin, localDirection, hit, triangle);
+
+                        if (this.planarOptimizationEnabled) {
+                            break;
+                        }
+                    }
+                }
+                continue;
+            }
+
+            int right = this.nodeData[d + OFFSET_RIGHT];
+
+            if (intersectRayNode(right, oX, oY, oZ, invDirX, invDirY, invDirZ, Float.POSITIVE_INFINITY) >= 0f) {
+                stack[stackSize++] = right;
+            }
+            if (intersectRayNode(left, oX, oY, oZ, invDirX, invDirY, invDirZ, Float.POSITIVE_INFINITY) >= 0f) {
+                stack[stackSize++] = left;
+            }
+        }
     }
 
     public List<LocalRayResult> testRaySorted(Vector3fc localOrigin, Vector3fc localDirection, boolean frontFaceOnly) {
@@ -753,122 +1364,266 @@ public class BVH implements Aab {
         return results;
     }
 
-    private boolean fastTestSphere(BVH bvh, float x, float y, float z, float radius) {
-        if (bvh == null) {
-            return false;
+    private boolean testNodeShape(
+            int node, int shape,
+            float p0, float p1, float p2, float p3, float p4, float p5, float p6
+    ) {
+        int b = node * NODE_BOUNDS_SIZE;
+        float minX = this.nodeBounds[b + OFFSET_MIN_X];
+        float minY = this.nodeBounds[b + OFFSET_MIN_Y];
+        float minZ = this.nodeBounds[b + OFFSET_MIN_Z];
+        float maxX = this.nodeBounds[b + OFFSET_MAX_X];
+        float maxY = this.nodeBounds[b + OFFSET_MAX_Y];
+        float maxZ = this.nodeBounds[b + OFFSET_MAX_Z];
+        switch (shape) {
+            case SHAPE_SPHERE -> {
+                return Intersectionf.testAabSphere(
+                        minX, minY, minZ,
+                        maxX, maxY, maxZ,
+                        p0, p1, p2, p3 * p3
+                );
+            }
+            case SHAPE_AAB -> {
+                return minX <= p3 && maxX >= p0
+                        && minY <= p4 && maxY >= p1
+                        && minZ <= p5 && maxZ >= p2;
+            }
+            case SHAPE_CAPSULE -> {
+                return minX <= Math.max(p0, p3) + p6 && maxX >= Math.min(p0, p3) - p6
+                        && minY <= Math.max(p1, p4) + p6 && maxY >= Math.min(p1, p4) - p6
+                        && minZ <= Math.max(p2, p5) + p6 && maxZ >= Math.min(p2, p5) - p6;
+            }
+            default -> {
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+            }
         }
+    }
 
-        if (!Intersectionf.testAabSphere(
-                bvh.getMin().x(), bvh.getMin().y(), bvh.getMin().z(),
-                bvh.getMax().x(), bvh.getMax().y(), bvh.getMax().z(),
-                x, y, z, radius * radius
-        )) {
-            return false;
+    private boolean testTriangleShape(
+            int triangle, int shape,
+            float p0, float p1, float p2, float p3, float p4, float p5, float p6,
+            OverlapQuery query
+    ) {
+        int v0xyz = (this.indices[(triangle * 3) + 0] * this.vertexSize) + this.xyzOffset;
+        int v1xyz = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
+        int v2xyz = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
+
+        float aX = this.vertices[v0xyz + 0];
+        float aY = this.vertices[v0xyz + 1];
+        float aZ = this.vertices[v0xyz + 2];
+        float bX = this.vertices[v1xyz + 0];
+        float bY = this.vertices[v1xyz + 1];
+        float bZ = this.vertices[v1xyz + 2];
+        float cX = this.vertices[v2xyz + 0];
+        float cY = this.vertices[v2xyz + 1];
+        float cZ = this.vertices[v2xyz + 2];
+
+        switch (shape) {
+            case SHAPE_SPHERE -> {
+                return Intersectionf.intersectSphereTriangle(
+                        p0, p1, p2, p3,
+                        aX, aY, aZ,
+                        bX, bY, bZ,
+                        cX, cY, cZ,
+                        query.resultA
+                ) != 0;
+            }
+            case SHAPE_AAB -> {
+                return IntersectionUtils.testAabTriangle(
+                        p0, p1, p2,
+                        p3, p4, p5,
+                        aX, aY, aZ,
+                        bX, bY, bZ,
+                        cX, cY, cZ
+                );
+            }
+            case SHAPE_CAPSULE -> {
+                return testTriangleCapsule(
+                        aX, aY, aZ,
+                        bX, bY, bZ,
+                        cX, cY, cZ,
+                        p0, p1, p2, p3, p4, p5, p6,
+                        query
+                );
+            }
+            default -> {
+                throw new IllegalArgumentException("Unknown shape: " + shape);
+            }
         }
+    }
 
-        if (bvh.getLeft() == null && bvh.getRight() == null) {
-            Vector3f resultVector = new Vector3f();
-            for (int triangle : bvh.getTriangles()) {
-                int i0 = this.indices[(triangle * 3) + 0];
-                int i1 = this.indices[(triangle * 3) + 1];
-                int i2 = this.indices[(triangle * 3) + 2];
-
-                int v0xyz = (i0 * this.vertexSize) + this.xyzOffset;
-                int v1xyz = (i1 * this.vertexSize) + this.xyzOffset;
-                int v2xyz = (i2 * this.vertexSize) + this.xyzOffset;
+    private static boolean testTriangleCapsule(
+            float aX, float aY, float aZ,
+            float bX, float bY, float bZ,
+            float cX, float cY, float cZ,
+            float sX, float sY, float sZ,
+            float eX, float eY, float eZ,
+            float radius,
+            OverlapQuery query
+    ) {
+        float radiusSquared = radius * radius;
+        Vector3f pointA = query.resultA;
+        Vector3f pointB = query.resultB;
+
+        if (Intersectionf.intersectLineSegmentTriangle(
+                sX, sY, sZ, eX, eY, eZ,
+                aX, aY, aZ, bX, bY, bZ, cX, cY, cZ,
+                EPSILON * EPSILON, pointA
+        )) {
+            return true;
+        }
 
-                float v0x = this.vertices[v0xyz + 0];
-                float v0y = this.vertices[v0xyz + 1];
-                float v0z = this.vertices[v0xyz + 2];
+        Intersectionf.findClosestPointOnTriangle(aX, aY, aZ, bX, bY, bZ, cX, cY, cZ, sX, sY, sZ, pointA);
+        if (pointA.distanceSquared(sX, sY, sZ) <= radiusSquared) {
+            return true;
+        }
+        Intersectionf.findClosestPointOnTriangle(aX, aY, aZ, bX, bY, bZ, cX, cY, cZ, eX, eY, eZ, pointA);
+        if (pointA.distanceSquared(eX, eY, eZ) <= radiusSquared) {
+            return true;
+        }
 
-                float v1x = this.vertices[v1xyz + 0];
-                float v1y = this.vertices[v1xyz + 1];
-                float v1z = this.vertices[v1xyz + 2];
+        return Intersectionf.findClosestPointsLineSegments(
+                sX, sY, sZ, eX, eY, eZ,
+                aX, aY, aZ, bX, bY, bZ,
+                pointA, pointB) <= radiusSquared
+                || Intersectionf.findClosestPointsLineSegments(
+                        sX, sY, sZ, eX, eY, eZ,
+                        bX, bY, bZ, cX, cY, cZ,
+                        pointA, pointB) <= radiusSquared
+                || Intersectionf.findClosestPointsLineSegments(
+                        sX, sY, sZ, eX, eY, eZ,
+                        cX, cY, cZ, aX, aY, aZ,
+                        pointA, pointB) <= radiusSquared;
+    }
 
-                float v2x = this.vertices[v2xyz + 0];
-                float v2y = this.vertices[v2xyz + 1];
-                float v2z = this.vertices[v2xyz + 2];
+    private boolean overlap(
+            int shape,
+            float p0, float p1, float p2, float p3, float p4, float p5, float p6,
+            OverlapQuery query, TriangleVisitor visitor, boolean any
+    ) {
+        int[] stack = query.nodeStack(this.maxDepth + 2);
+        int stackSize = 0;
+        stack[stackSize++] = this.node;
 
-                int result = Intersectionf.intersectSphereTriangle(
-                        x, y, z, radius,
-                        v0x, v0y, v0z,
-                        v1x, v1y, v1z,
-                        v2x, v2y, v2z,
-                        resultVector
-                );
+        while (stackSize != 0) {
+            int current = stack[--stackSize];
+            if (!testNodeShape(current, shape, p0, p1, p2, p3, p4, p5, p6)) {
+                continue;
+            }
 
-                if (result != 0) {
-                    return true;
+            int d = current * NODE_DATA_SIZE;
+            int left = this.nodeData[d + OFFSET_LEFT];
+            if (left < 0) {
+                int first = this.nodeData[d + OFFSET_FIRST_TRIANGLE];
+                int end = first + this.nodeData[d + OFFSET_AMOUNT_OF_TRIANGLES];
+                for (int i = first; i < end; i++) {
+                    int triangle = this.nodeTriangles[i];
+                    if (!testTriangleShape(triangle, shape, p0, p1, p2, p3, p4, p5, p6, query)) {
+                        continue;
+                    }
+                    if (any) {
+                        return true;
+                    }
+                    if (visitor == null) {
+                        query.add(triangle);
+                    } else if (!visitor.visit(this, triangle)) {
+                        return true;
+                    }
                 }
+                continue;
             }
-            return false;
+
+            stack[stackSize++] = this.nodeData[d + OFFSET_RIGHT];
+            stack[stackSize++] = left;
         }
 
-        return fastTestSphere(bvh.getLeft(), x, y, z, radius) || fastTestSphere(bvh.getRight(), x, y, z, radius);
+        return false;
     }
 
-    public boolean fastTestSphere(float x, float y, float z, float radius) {
-        return fastTestSphere(this, x, y, z, radius);
+    public int overlapSphere(float x, float y, float z, float radius, OverlapQuery query) {
+        int start = query.size();
+        overlap(SHAPE_SPHERE, x, y, z, radius, 0f, 0f, 0f, query, null, false);
+        return query.size() - start;
     }
 
-    private void testSphere(Set<Integer> triangles, BVH bvh, float x, float y, float z, float radius) {
-        if (bvh == null) {
-            return;
-        }
+    public boolean overlapSphere(float x, float y, float z, float radius, OverlapQuery query, TriangleVisitor visitor) {
+        return overlap(SHAPE_SPHERE, x, y, z, radius, 0f, 0f, 0f, query, visitor, false);
+    }
 
-        if (!Intersectionf.testAabSphere(
-                bvh.getMin().x(), bvh.getMin().y(), bvh.getMin().z(),
-                bvh.getMax().x(), bvh.getMax().y(), bvh.getMax().z(),
-                x, y, z, radius * radius
-        )) {
-            return;
-        }
+    public boolean fastTestSphere(float x, float y, float z, float radius, OverlapQuery query) {
+        return overlap(SHAPE_SPHERE, x, y, z, radius, 0f, 0f, 0f, query, null, true);
+    }
 
-        if (bvh.getLeft() == null && bvh.getRight() == null) {
-            Vector3f resultVector = new Vector3f();
-            for (int triangle : bvh.getTriangles()) {
-                int i0 = this.indices[(triangle * 3) + 0];
-                int i1 = this.indices[(triangle * 3) + 1];
-                int i2 = this.indices[(triangle * 3) + 2];
+    public boolean fastTestSphere(float x, float y, float z, float radius) {
+        OverlapQuery query = QUERIES.get();
+        query.clear();
+        return fastTestSphere(x, y, z, radius, query);
+    }
 
-                int v0xyz = (i0 * this.vertexSize) + this.xyzOffset;
-                int v1xyz = (i1 * this.vertexSize) + this.xyzOffset;
-                int v2xyz = (i2 * this.vertexSize) + this.xyzOffset;
+    public Set<Integer> testSphere(float x, float y, float z, float radius) {
+        OverlapQuery query = new OverlapQuery();
+        overlapSphere(x, y, z, radius, query);
 
-                float v0x = this.vertices[v0xyz + 0];
-                float v0y = this.vertices[v0xyz + 1];
-                float v0z = this.vertices[v0xyz + 2];
+        Set<Integer> set = new HashSet<>();
+        for (int i = 0; i < query.size(); i++) {
+            set.add(query.get(i));
+        }
+        return set;
+    }
 
-                float v1x = this.vertices[v1xyz + 0];
-                float v1y = this.vertices[v1xyz + 1];
-                float v1z = this.vertices[v1xyz + 2];
+    public int overlapAab(
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ,
+            OverlapQuery query
+    ) {
+        int start = query.size();
+        overlap(SHAPE_AAB, minX, minY, minZ, maxX, maxY, maxZ, 0f, query, null, false);
+        return query.size() - start;
+    }
 
-                float v2x = this.vertices[v2xyz + 0];
-                float v2y = this.vertices[v2xyz + 1];
-                float v2z = this.vertices[v2xyz + 2];
+    public boolean overlapAab(
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ,
+            OverlapQuery query, TriangleVisitor visitor
+    ) {
+        return overlap(SHAPE_AAB, minX, minY, minZ, maxX, maxY, maxZ, 0f, query, visitor, false);
+    }
 
-                int result = Intersectionf.intersectSphereTriangle(
-                        x, y, z, radius,
-                        v0x, v0y, v0z,
-                        v1x, v1y, v1z,
-                        v2x, v2y, v2z,
-                        resultVector
-                );
+    public boolean fastTestAab(
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ,
+            OverlapQuery query
+    ) {
+        return overlap(SHAPE_AAB, minX, minY, minZ, maxX, maxY, maxZ, 0f, query, null, true);
+    }
 
-                if (result != 0 && !triangles.contains(triangle)) {
-                    triangles.add(triangle);
-                }
-            }
-        }
+    public int overlapCapsule(
+            float aX, float aY, float aZ,
+            float bX, float bY, float bZ,
+            float radius,
+            OverlapQuery query
+    ) {
+        int start = query.size();
+        overlap(SHAPE_CAPSULE, aX, aY, aZ, bX, bY, bZ, radius, query, null, false);
+        return query.size() - start;
+    }
 
-        testSphere(triangles, bvh.getLeft(), x, y, z, radius);
-        testSphere(triangles, bvh.getRight(), x, y, z, radius);
+    public boolean overlapCapsule(
+            float aX, float aY, float aZ,
+            float bX, float bY, float bZ,
+            float radius,
+            OverlapQuery query, TriangleVisitor visitor
+    ) {
+        return overlap(SHAPE_CAPSULE, aX, aY, aZ, bX, bY, bZ, radius, query, visitor, false);
     }
 
-    public Set<Integer> testSphere(float x, float y, float z, float radius) {
-        Set<Integer> set = new HashSet<>();
-        testSphere(set, this, x, y, z, radius);
-        return set;
+    public boolean fastTestCapsule(
+            float aX, float aY, float aZ,
+            float bX, float bY, float bZ,
+            float radius,
+            OverlapQuery query
+    ) {
+        return overlap(SHAPE_CAPSULE, aX, aY, aZ, bX, bY, bZ, radius, query, null, true);
     }
 
 }
@@ -0,0 +1,296 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import java.util.Random;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ *
+ * @author Cien
+ */
+public class BVHKernelBenchmark {
+
+    public static BVHKernelBenchmark run(BVH bvh, int numberOfRays, long seed) {
+        return new BVHKernelBenchmark(bvh, numberOfRays, seed);
+    }
+
+    private final BVH bvh;
+    private final int numberOfRays;
+    private final boolean vectorSupported;
+
+    private long triangleTests = 0;
+    private long scalarLeafTime = -1;
+    private long vectorLeafTime = -1;
+    private long scalarTraversalTime = -1;
+    private long vectorTraversalTime = -1;
+    private int mismatches = 0;
+
+    private BVHKernelBenchmark(BVH bvh, int numberOfRays, long seed) {
+        this.bvh = bvh;
+        this.numberOfRays = numberOfRays;
+        this.vectorSupported = BVH.isVectorKernelsSupported();
+
+        Random random = new Random(seed);
+        float[] rays = new float[numberOfRays * 6];
+        Vector3fc min = bvh.getMin();
+        Vector3fc max = bvh.getMax();
+        Vector3f direction = new Vector3f();
+        for (int i = 0; i < numberOfRays; i++) {
+            rays[(i * 6) + 0] = min.x() + (random.nextFloat() * (max.x() - min.x()));
+            rays[(i * 6) + 1] = min.y() + (random.nextFloat() * (max.y() - min.y()));
+            rays[(i * 6) + 2] = min.z() + (random.nextFloat() * (max.z() - min.z()));
+            direction.set(
+                    (random.nextFloat() * 2f) - 1f,
+                    (random.nextFloat() * 2f) - 1f,
+                    (random.nextFloat() * 2f) - 1f
+            ).normalize();
+            rays[(i * 6) + 3] = direction.x();
+            rays[(i * 6) + 4] = direction.y();
+            rays[(i * 6) + 5] = direction.z();
+        }
+
+        int[] nodeData = bvh.getNodeData();
+        int amountOfNodes = bvh.getAmountOfNodes();
+        for (int node = 0; node < amountOfNodes; node++) {
+            if (nodeData[(node * BVH.NODE_DATA_SIZE) + BVH.OFFSET_LEFT] < 0) {
+                this.triangleTests += nodeData[(node * BVH.NODE_DATA_SIZE) + BVH.OFFSET_AMOUNT_OF_TRIANGLES];
+            }
+        }
+        this.triangleTests *= numberOfRays;
+
+        float[] scalarResults = new float[numberOfRays];
+        float[] vectorResults = new float[numberOfRays];
+
+        long start = System.nanoTime();
+        scalarLeaves(rays, scalarResults);
+        this.scalarLeafTime = System.nanoTime() - start;
+
+        if (this.vectorSupported) {
+            BVHPackedTriangles packed = new BVHPackedTriangles(bvh);
+            start = System.nanoTime();
+            vectorLeaves(packed, rays, vectorResults);
+            this.vectorLeafTime = System.nanoTime() - start;
+
+            for (int i = 0; i < numberOfRays; i++) {
+                if (Math.abs(scalarResults[i] - vectorResults[i]) > 1e-3f
+                        && !(Float.isInfinite(scalarResults[i]) && Float.isInfinite(vectorResults[i]))) {
+                    this.mismatches++;
+                }
+            }
+        }
+
+        boolean enabled = BVH.VECTOR_KERNELS_ENABLED;
+        try {
+            BVH.VECTOR_KERNELS_ENABLED = false;
+            this.scalarTraversalTime = traverse(rays);
+            if (this.vectorSupported) {
+                BVH.VECTOR_KERNELS_ENABLED = true;
+                this.vectorTraversalTime = traverse(rays);
+            }
+        } finally {
+            BVH.VECTOR_KERNELS_ENABLED = enabled;
+        }
+    }
+
+    private void scalarLeaves(float[] rays, float[] results) {
+        float[] vertices = this.bvh.getVertices();
+        int[] indices = this.bvh.getIndices();
+        int vertexSize = this.bvh.getVertexSize();
+        int xyzOffset = this.bvh.getXYZOffset();
+        int[] nodeData = this.bvh.getNodeData();
+        int[] nodeTriangles = this.bvh.getNodeTriangles();
+        int amountOfNodes = this.bvh.getAmountOfNodes();
+
+        for (int ray = 0; ray < this.numberOfRays; ray++) {
+            float oX = rays[(ray * 6) + 0];
+            float oY = rays[(ray * 6) + 1];
+            float oZ = rays[(ray * 6) + 2];
+            float dX = rays[(ray * 6) + 3];
+            float dY = rays[(ray * 6) + 4];
+            float dZ = rays[(ray * 6) + 5];
+
+            float closest = Float.POSITIVE_INFINITY;
+            for (int node = 0; node < amountOfNodes; node++) {
+                int d = node * BVH.NODE_DATA_SIZE;
+                if (nodeData[d + BVH.OFFSET_LEFT] >= 0) {
+                    continue;
+                }
+                int first = nodeData[d + BVH.OFFSET_FIRST_TRIANGLE];
+                int end = first + nodeData[d + BVH.OFFSET_AMOUNT_OF_TRIANGLES];
+                for (int i = first; i < end; i++) {
+                    int triangle = nodeTriangles[i];
+                    int v0 = (indices[(triangle * 3) + 0] * vertexSize) + xyzOffset;
+                    int v1 = (indices[(triangle * 3) + 1] * vertexSize) + xyzOffset;
+                    int v2 = (indices[(triangle * 3) + 2] * vertexSize) + xyzOffset;
+                    float t = IntersectionUtils.intersectRayTriangle(
+                            oX, oY, oZ,
+                            dX, dY, dZ,
+                            vertices[v0 + 0], vertices[v0 + 1], vertices[v0 + 2],
+                            vertices[v1 + 0], vertices[v1 + 1], vertices[v1 + 2],
+                            vertices[v2 + 0], vertices[v2 + 1], vertices[v2 + 2]
+                    );
+                    if (t >= 0f && t < closest) {
+                        closest = t;
+                    }
+                }
+            }
+            results[ray] = closest;
+        }
+    }
+
+    private void vectorLeaves(BVHPackedTriangles packed, float[] rays, float[] results) {
+        int[] nodeData = this.bvh.getNodeData();
+        int amountOfNodes = this.bvh.getAmountOfNodes();
+        float[] output = new float[BVHLeafKernel.OUT_SIZE];
+
+        for (int ray = 0; ray < this.numberOfRays; ray++) {
+            float oX = rays[(ray * 6) + 0];
+            float oY = rays[(ray * 6) + 1];
+            float oZ = rays[(ray * 6) + 2];
+            float dX = rays[(ray * 6) + 3];
+            float dY = rays[(ray * 6) + 4];
+            float dZ = rays[(ray * 6) + 5];
+
+            float closest = Float.POSITIVE_INFINITY;
+            for (int node = 0; node < amountOfNodes; node++) {
+                int d = node * BVH.NODE_DATA_SIZE;
+                if (nodeData[d + BVH.OFFSET_LEFT] >= 0) {
+                    continue;
+                }
+                if (BVH.VECTOR_KERNEL.intersectRayTriangles(
+                        packed,
+                        nodeData[d + BVH.OFFSET_FIRST_TRIANGLE],
+                        nodeData[d + BVH.OFFSET_AMOUNT_OF_TRIANGLES],
+                        oX, oY, oZ,
+                        dX, dY, dZ,
+                        1f / 100000f, closest,
+                        false, false,
+                        output
+                ) >= 0) {
+                    closest = output[BVHLeafKernel.OUT_DISTANCE];
+                }
+            }
+            results[ray] = closest;
+        }
+    }
+
+    private long traverse(float[] rays) {
+        LocalRayHit hit = new LocalRayHit();
+        Vector3f origin = new Vector3f();
+        Vector3f direction = new Vector3f();
+        long start = System.nanoTime();
+        for (int ray = 0; ray < this.numberOfRays; ray++) {
+            origin.set(rays[(ray * 6) + 0], rays[(ray * 6) + 1], rays[(ray * 6) + 2]);
+            direction.set(rays[(ray * 6) + 3], rays[(ray * 6) + 4], rays[(ray * 6) + 5]);
+            this.bvh.testRayClosest(origin, direction, hit);
+        }
+        return System.nanoTime() - start;
+    }
+
+    public BVH getBVH() {
+        return bvh;
+    }
+
+    public int getNumberOfRays() {
+        return numberOfRays;
+    }
+
+    public boolean isVectorSupported() {
+        return vectorSupported;
+    }
+
+    public long getTriangleTests() {
+        return triangleTests;
+    }
+
+    public long getScalarLeafTime() {
+        return scalarLeafTime;
+    }
+
+    public long getVectorLeafTime() {
+        return vectorLeafTime;
+    }
+
+    public long getScalarTraversalTime() {
+        return scalarTraversalTime;
+    }
+
+    public long getVectorTraversalTime() {
+        return vectorTraversalTime;
+    }
+
+    public int getMismatches() {
+        return mismatches;
+    }
+
+    public double getLeafSpeedup() {
+        if (this.vectorLeafTime <= 0) {
+            return 0.0;
+        }
+        return ((double) this.scalarLeafTime) / this.vectorLeafTime;
+    }
+
+    public double getTraversalSpeedup() {
+        if (this.vectorTraversalTime <= 0) {
+            return 0.0;
+        }
+        return ((double) this.scalarTraversalTime) / this.vectorTraversalTime;
+    }
+
+    private double trianglesPerSecond(long time) {
+        return this.triangleTests / (time / 1E9);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append("BVH Kernel Benchmark\n");
+        b.append("Rays: ").append(this.numberOfRays).append('\n');
+        b.append("Triangle Tests: ").append(this.triangleTests).append('\n');
+        b.append("Vector Kernels: ").append(this.vectorSupported ? "supported" : "unsupported").append('\n');
+        b.append("Scalar Leaves: ")
+                .append(String.format("%.3f", this.scalarLeafTime / 1E6)).append("ms (")
+                .append(String.format("%.1f", trianglesPerSecond(this.scalarLeafTime) / 1E6)).append("M tris/s)\n");
+        if (this.vectorSupported) {
+            b.append("Vector Leaves: ")
+                    .append(String.format("%.3f", this.vectorLeafTime / 1E6)).append("ms (")
+                    .append(String.format("%.1f", trianglesPerSecond(this.vectorLeafTime) / 1E6)).append("M tris/s, ")
+                    .append(String.format("%.2f", getLeafSpeedup())).append("x)\n");
+            b.append("Mismatches: ").append(this.mismatches).append('\n');
+        }
+        b.append("Scalar Traversal: ").append(String.format("%.3f", this.scalarTraversalTime / 1E6)).append("ms\n");
+        if (this.vectorSupported) {
+            b.append("Vector Traversal: ")
+                    .append(String.format("%.3f", this.vectorTraversalTime / 1E6)).append("ms (")
+                    .append(String.format("%.2f", getTraversalSpeedup())).append("x)\n");
+        }
+        return b.toString();
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author Cien
+ */
+class BVHNodeBuffer {
+
+    private float[] nodeBounds;
+    private int[] nodeData;
+    private int amountOfNodes = 0;
+    private int maxDepth = 0;
+
+    private int[] triangles;
+    private int amountOfTriangles = 0;
+
+    public BVHNodeBuffer(int expectedNodes) {
+        expectedNodes = Math.max(expectedNodes, 1);
+        this.nodeBounds = new float[expectedNodes * BVH.NODE_BOUNDS_SIZE];
+        this.nodeData = new int[expectedNodes * BVH.NODE_DATA_SIZE];
+        this.triangles = new int[expectedNodes];
+    }
+
+    private void ensureNodes(int nodes) {
+        if (nodes * BVH.NODE_DATA_SIZE > this.nodeData.length) {
+            int newSize = Math.max((this.amountOfNodes * 2) + 1, nodes);
+            this.nodeBounds = Arrays.copyOf(this.nodeBounds, newSize * BVH.NODE_BOUNDS_SIZE);
+            this.nodeData = Arrays.copyOf(this.nodeData, newSize * BVH.NODE_DATA_SIZE);
+        }
+    }
+
+    public int addNode(int depth) {
+        ensureNodes(this.amountOfNodes + 1);
+        this.maxDepth = Math.max(this.maxDepth, depth);
+        return this.amountOfNodes++;
+    }
+
+    public int appendNodes(BVHNodeBuffer other) {
+        int offset = this.amountOfNodes;
+        ensureNodes(this.amountOfNodes + other.amountOfNodes);
+
+        System.arraycopy(
+                other.nodeBounds, 0,
+                this.nodeBounds, offset * BVH.NODE_BOUNDS_SIZE,
+                other.amountOfNodes * BVH.NODE_BOUNDS_SIZE
+        );
+        System.arraycopy(
+                other.nodeData, 0,
+                this.nodeData, offset * BVH.NODE_DATA_SIZE,
+                other.amountOfNodes * BVH.NODE_DATA_SIZE
+        );
+        for (int node = offset; node < offset + other.amountOfNodes; node++) {
+            int d = node * BVH.NODE_DATA_SIZE;
+            if (this.nodeData[d + BVH.OFFSET_LEFT] >= 0) {
+                this.nodeData[d + BVH.OFFSET_LEFT] += offset;
+                this.nodeData[d + BVH.OFFSET_RIGHT] += offset;
+            }
+        }
+
+        this.amountOfNodes += other.amountOfNodes;
+        this.maxDepth = Math.max(this.maxDepth, other.maxDepth);
+        return offset;
+    }
+
+    public void setBounds(
+            int node,
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ
+    ) {
+        int b = node * BVH.NODE_BOUNDS_SIZE;
+        this.nodeBounds[b + BVH.OFFSET_MIN_X] = minX;
+        this.nodeBounds[b + BVH.OFFSET_MIN_Y] = minY;
+        this.nodeBounds[b + BVH.OFFSET_MIN_Z] = minZ;
+        this.nodeBounds[b + BVH.OFFSET_MAX_X] = maxX;
+        this.nodeBounds[b + BVH.OFFSET_MAX_Y] = maxY;
+        this.nodeBounds[b + BVH.OFFSET_MAX_Z] = maxZ;
+    }
+
+    public void setLeaf(int node, int firstTriangle, int amountOfTriangles) {
+        int d = node * BVH.NODE_DATA_SIZE;
+        this.nodeData[d + BVH.OFFSET_LEFT] = -1;
+        this.nodeData[d + BVH.OFFSET_RIGHT] = -1;
+        this.nodeData[d + BVH.OFFSET_FIRST_TRIANGLE] = firstTriangle;
+        this.nodeData[d + BVH.OFFSET_AMOUNT_OF_TRIANGLES] = amountOfTriangles;
+    }
+
+    public void setInternal(int node, int left, int right, int firstTriangle, int amountOfTriangles) {
+        int d = node * BVH.NODE_DATA_SIZE;
+        this.nodeData[d + BVH.OFFSET_LEFT] = left;
+        this.nodeData[d + BVH.OFFSET_RIGHT] = right;
+        this.nodeData[d + BVH.OFFSET_FIRST_TRIANGLE] = firstTriangle;
+        this.nodeData[d + BVH.OFFSET_AMOUNT_OF_TRIANGLES] = amountOfTriangles;
+    }
+
+    public int getAmountOfNodes() {
+        return amountOfNodes;
+    }
+
+    public int getAmountOfTriangles() {
+        return amountOfTriangles;
+    }
+
+    public int appendTriangles(int[] triangles, int offset, int length) {
+        if (this.amountOfTriangles + length > this.triangles.length) {
+            this.triangles = Arrays.copyOf(this.triangles, (this.triangles.length * 2) + length);
+        }
+        System.arraycopy(triangles, offset, this.triangles, this.amountOfTriangles, length);
+        int first = this.amountOfTriangles;
+        this.amountOfTriangles += length;
+        return first;
+    }
+
+    public void setTriangles(int[] triangles) {
+        this.triangles = triangles;
+        this.amountOfTriangles = triangles.length;
+    }
+
+    public BVH build(Object userObject, float[] vertices, int[] indices, int vertexSize, int xyzOffset) {
+        if (this.amountOfNodes == 0) {
+            int root = addNode(0);
+            setBounds(root, 0f, 0f, 0f, 0f, 0f, 0f);
+            setLeaf(root, 0, 0);
+        }
+        return new BVH(
+                userObject,
+                vertices, indices, vertexSize, xyzOffset,
+                Arrays.copyOf(this.nodeBounds, this.amountOfNodes * BVH.NODE_BOUNDS_SIZE),
+                Arrays.copyOf(this.nodeData, this.amountOfNodes * BVH.NODE_DATA_SIZE),
+                (this.triangles.length == this.amountOfTriangles
+                ? this.triangles : Arrays.copyOf(this.triangles, this.amountOfTriangles)),
+                this.maxDepth
+        );
+    }
+
+}
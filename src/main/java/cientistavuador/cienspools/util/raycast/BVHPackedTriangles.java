@@ -0,0 +1,95 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+/**
+ *
+ * @author Cien
+ */
+class BVHPackedTriangles {
+
+    public static final int PADDING = 16;
+
+    public static final int V0_X = 0;
+    public static final int V0_Y = V0_X + 1;
+    public static final int V0_Z = V0_Y + 1;
+    public static final int EDGE1_X = V0_Z + 1;
+    public static final int EDGE1_Y = EDGE1_X + 1;
+    public static final int EDGE1_Z = EDGE1_Y + 1;
+    public static final int EDGE2_X = EDGE1_Z + 1;
+    public static final int EDGE2_Y = EDGE2_X + 1;
+    public static final int EDGE2_Z = EDGE2_Y + 1;
+    public static final int COMPONENTS = EDGE2_Z + 1;
+
+    private final int stride;
+    private final float[] data;
+
+    public BVHPackedTriangles(BVH bvh) {
+        this.stride = bvh.getNodeTriangles().length + PADDING;
+        this.data = new float[this.stride * COMPONENTS];
+        update(bvh);
+    }
+
+    public final void update(BVH bvh) {
+        float[] vertices = bvh.getVertices();
+        int[] indices = bvh.getIndices();
+        int vertexSize = bvh.getVertexSize();
+        int xyzOffset = bvh.getXYZOffset();
+        int[] nodeTriangles = bvh.getNodeTriangles();
+
+        for (int slot = 0; slot < nodeTriangles.length; slot++) {
+            int triangle = nodeTriangles[slot];
+
+            int v0 = (indices[(triangle * 3) + 0] * vertexSize) + xyzOffset;
+            int v1 = (indices[(triangle * 3) + 1] * vertexSize) + xyzOffset;
+            int v2 = (indices[(triangle * 3) + 2] * vertexSize) + xyzOffset;
+
+            float v0X = vertices[v0 + 0];
+            float v0Y = vertices[v0 + 1];
+            float v0Z = vertices[v0 + 2];
+
+            this.data[(V0_X * this.stride) + slot] = v0X;
+            this.data[(V0_Y * this.stride) + slot] = v0Y;
+            this.data[(V0_Z * this.stride) + slot] = v0Z;
+            this.data[(EDGE1_X * this.stride) + slot] = vertices[v1 + 0] - v0X;
+            this.data[(EDGE1_Y * this.stride) + slot] = vertices[v1 + 1] - v0Y;
+            this.data[(EDGE1_Z * this.stride) + slot] = vertices[v1 + 2] - v0Z;
+            this.data[(EDGE2_X * this.stride) + slot] = vertices[v2 + 0] - v0X;
+            this.data[(EDGE2_Y * this.stride) + slot] = vertices[v2 + 1] - v0Y;
+            this.data[(EDGE2_Z * this.stride) + slot] = vertices[v2 + 2] - v0Z;
+        }
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    public float[] getData() {
+        return data;
+    }
+
+}
@@ -0,0 +1,428 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author Cien
+ */
+class BVHRayStream {
+
+    public static final int NUMBER_OF_OCTANTS = 8;
+    public static final int STREAM_DATA_SIZE = 10;
+
+    private static final float LARGE_INVERSE = 1e30f;
+
+    private static int octant(float dX, float dY, float dZ) {
+        return (dX < 0f ? 1 : 0) | (dY < 0f ? 2 : 0) | (dZ < 0f ? 4 : 0);
+    }
+
+    private static float inverse(float d, boolean negative) {
+        float inv = 1f / d;
+        if (!Float.isFinite(inv)) {
+            inv = (negative ? -LARGE_INVERSE : LARGE_INVERSE);
+        }
+        return inv;
+    }
+
+    private final BVH bvh;
+    private final RayBatch batch;
+    private final boolean anyHit;
+    private final boolean frontFaceOnly;
+
+    private final float[] vertices;
+    private final int[] indices;
+    private final int vertexSize;
+    private final int xyzOffset;
+
+    private final float[] nodeBounds;
+    private final int[] nodeData;
+    private final int[] nodeTriangles;
+    private final BVHPackedTriangles packed;
+    private final float[] kernelOutput;
+
+    private final float[] data;
+    private final int originX;
+    private final int originY;
+    private final int originZ;
+    private final int directionX;
+    private final int directionY;
+    private final int directionZ;
+    private final int inverseX;
+    private final int inverseY;
+    private final int inverseZ;
+    private final int maxLength;
+
+    private int[] rays;
+    private final int[] frames;
+
+    BVHRayStream(BVH bvh, RayBatch batch, boolean anyHit, boolean frontFaceOnly) {
+        this.bvh = bvh;
+        this.batch = batch;
+        this.anyHit = anyHit;
+        this.frontFaceOnly = frontFaceOnly;
+
+        this.vertices = bvh.getVertices();
+        this.indices = bvh.getIndices();
+        this.vertexSize = bvh.getVertexSize();
+        this.xyzOffset = bvh.getXYZOffset();
+
+        this.nodeBounds = bvh.getNodeBounds();
+        this.nodeData = bvh.getNodeData();
+        this.nodeTriangles = bvh.getNodeTriangles();
+        this.packed = bvh.packedTriangles();
+
+        int size = batch.size();
+        if (batch.order.length < size) {
+            batch.order = new int[size];
+        }
+        if (batch.streamData.length < size * STREAM_DATA_SIZE) {
+            batch.streamData = new float[size * STREAM_DATA_SIZE];
+        }
+        if (batch.streamRays.length < size * 2) {
+            batch.streamRays = new int[size * 2];
+        }
+        int framesSize = (bvh.getMaxDepth() + 2) * 2 * 3;
+        if (batch.streamFrames.length < framesSize) {
+            batch.streamFrames = new int[framesSize];
+        }
+
+        this.data = batch.streamData;
+        this.originX = 0;
+        this.originY = this.originX + size;
+        this.originZ = this.originY + size;
+        this.directionX = this.originZ + size;
+        this.directionY = this.directionX + size;
+        this.directionZ = this.directionY + size;
+        this.inverseX = this.directionZ + size;
+        this.inverseY = this.inverseX + size;
+        this.inverseZ = this.inverseY + size;
+        this.maxLength = this.inverseZ + size;
+
+        this.rays = batch.streamRays;
+        this.frames = batch.streamFrames;
+        this.kernelOutput = batch.streamKernelOutput;
+    }
+
+    private void ensureRays(int capacity) {
+        if (this.rays.length < capacity) {
+            int[] newRays = new int[Math.max(capacity, this.rays.length * 2)];
+            System.arraycopy(this.rays, 0, newRays, 0, this.rays.length);
+            this.rays = newRays;
+            this.batch.streamRays = newRays;
+        }
+    }
+
+    public void trace() {
+        int size = this.batch.size();
+        int[] order = this.batch.order;
+
+        float[] origins = this.batch.getOrigins();
+        float[] directions = this.batch.getDirections();
+        float[] maxLengths = this.batch.getMaxLengths();
+        float[] hitDistances = this.batch.getHitDistances();
+        int[] hitTriangles = this.batch.getHitTriangles();
+
+        int[] octantOffsets = this.batch.streamOctantOffsets;
+        Arrays.fill(octantOffsets, 0);
+        for (int ray = 0; ray < size; ray++) {
+            float dX = directions[(ray * 3) + 0];
+            float dY = directions[(ray * 3) + 1];
+            float dZ = directions[(ray * 3) + 2];
+
+            this.data[this.originX + ray] = origins[(ray * 3) + 0];
+            this.data[this.originY + ray] = origins[(ray * 3) + 1];
+            this.data[this.originZ + ray] = origins[(ray * 3) + 2];
+            this.data[this.directionX + ray] = dX;
+            this.data[this.directionY + ray] = dY;
+            this.data[this.directionZ + ray] = dZ;
+            this.data[this.inverseX + ray] = inverse(dX, dX < 0f);
+            this.data[this.inverseY + ray] = inverse(dY, dY < 0f);
+            this.data[this.inverseZ + ray] = inverse(dZ, dZ < 0f);
+            this.data[this.maxLength + ray] = Math.min(maxLengths[ray], hitDistances[ray]);
+
+            if (this.anyHit && hitTriangles[ray] >= 0) {
+                continue;
+            }
+
+            octantOffsets[octant(dX, dY, dZ) + 1]++;
+        }
+        for (int i = 0; i < NUMBER_OF_OCTANTS; i++) {
+            octantOffsets[i + 1] += octantOffsets[i];
+        }
+        int[] octantFill = this.batch.streamOctantFill;
+        Arrays.fill(octantFill, 0);
+        for (int ray = 0; ray < size; ray++) {
+            if (this.anyHit && hitTriangles[ray] >= 0) {
+                continue;
+            }
+            int octant = octant(
+                    this.data[this.directionX + ray],
+                    this.data[this.directionY + ray],
+                    this.data[this.directionZ + ray]
+            );
+            order[octantOffsets[octant] + octantFill[octant]++] = ray;
+        }
+
+        for (int octant = 0; octant < NUMBER_OF_OCTANTS; octant++) {
+            int start = octantOffsets[octant];
+            int end = octantOffsets[octant + 1];
+            if (start != end) {
+                traceOctant(octant, start, end);
+            }
+        }
+    }
+
+    private int filter(int node, boolean negativeX, boolean negativeY, boolean negativeZ, int parentStart, int parentEnd) {
+        int b = node * BVH.NODE_BOUNDS_SIZE;
+
+        float nearX = this.nodeBounds[b + (negativeX ? BVH.OFFSET_MAX_X : BVH.OFFSET_MIN_X)];
+        float nearY = this.nodeBounds[b + (negativeY ? BVH.OFFSET_MAX_Y : BVH.OFFSET_MIN_Y)];
+        float nearZ = this.nodeBounds[b + (negativeZ ? BVH.OFFSET_MAX_Z : BVH.OFFSET_MIN_Z)];
+        float farX = this.nodeBounds[b + (negativeX ? BVH.OFFSET_MIN_X : BVH.OFFSET_MAX_X)];
+        float farY = this.nodeBounds[b + (negativeY ? BVH.OFFSET_MIN_Y : BVH.OFFSET_MAX_Y)];
+        float farZ = this.nodeBounds[b + (negativeZ ? BVH.OFFSET_MIN_Z : BVH.OFFSET_MAX_Z)];
+
+        float[] d = this.data;
+        int[] r = this.rays;
+        int top = parentEnd;
+        for (int i = parentStart; i < parentEnd; i++) {
+            int ray = r[i];
+
+            float oX = d[this.originX + ray];
+            float oY = d[this.originY + ray];
+            float oZ = d[this.originZ + ray];
+            float iX = d[this.inverseX + ray];
+            float iY = d[this.inverseY + ray];
+            float iZ = d[this.inverseZ + ray];
+
+            float tNear = Math.max(
+                    Math.max((nearX - oX) * iX, (nearY - oY) * iY),
+                    Math.max((nearZ - oZ) * iZ, 0f)
+            );
+            float tFar = Math.min(
+                    Math.min((farX - oX) * iX, (farY - oY) * iY),
+                    Math.min((farZ - oZ) * iZ, d[this.maxLength + ray])
+            );
+
+            if (tNear <= tFar) {
+                r[top++] = ray;
+            }
+        }
+        return top;
+    }
+
+    private void traceOctant(int octant, int start, int end) {
+        boolean negativeX = (octant & 1) != 0;
+        boolean negativeY = (octant & 2) != 0;
+        boolean negativeZ = (octant & 4) != 0;
+
+        float signX = (negativeX ? -1f : 1f);
+        float signY = (negativeY ? -1f : 1f);
+        float signZ = (negativeZ ? -1f : 1f);
+
+        ensureRays(end - start);
+        System.arraycopy(this.batch.order, start, this.rays, 0, end - start);
+
+        int framesSize = 0;
+        this.frames[framesSize++] = this.bvh.getNode();
+        this.frames[framesSize++] = 0;
+        this.frames[framesSize++] = end - start;
+
+        long nodesVisited = 0;
+        while (framesSize != 0) {
+            int parentEnd = this.frames[--framesSize];
+            int parentStart = this.frames[--framesSize];
+            int node = this.frames[--framesSize];
+            nodesVisited += parentEnd - parentStart;
+
+            ensureRays(parentEnd + (parentEnd - parentStart));
+
+            int rayStart = parentEnd;
+            int rayEnd = filter(node, negativeX, negativeY, negativeZ, parentStart, parentEnd);
+            if (rayEnd == rayStart) {
+                continue;
+            }
+
+            int d = node * BVH.NODE_DATA_SIZE;
+            int left = this.nodeData[d + BVH.OFFSET_LEFT];
+            if (left < 0) {
+                int first = this.nodeData[d + BVH.OFFSET_FIRST_TRIANGLE];
+                int amount = this.nodeData[d + BVH.OFFSET_AMOUNT_OF_TRIANGLES];
+                traceLeaf(first, first + amount, rayStart, rayEnd);
+                continue;
+            }
+            int right = this.nodeData[d + BVH.OFFSET_RIGHT];
+
+            int near = left;
+            int far = right;
+            if (childDistance(left, right, signX, signY, signZ) > 0f) {
+                near = right;
+                far = left;
+            }
+
+            this.frames[framesSize++] = far;
+            this.frames[framesSize++] = rayStart;
+            this.frames[framesSize++] = rayEnd;
+
+            this.frames[framesSize++] = near;
+            this.frames[framesSize++] = rayStart;
+            this.frames[framesSize++] = rayEnd;
+        }
+        this.batch.nodesVisited += nodesVisited;
+    }
+
+    private float childDistance(int left, int right, float signX, float signY, float signZ) {
+        int l = left * BVH.NODE_BOUNDS_SIZE;
+        int r = right * BVH.NODE_BOUNDS_SIZE;
+
+        float dX = (this.nodeBounds[l + BVH.OFFSET_MIN_X] + this.nodeBounds[l + BVH.OFFSET_MAX_X])
+                - (this.nodeBounds[r + BVH.OFFSET_MIN_X] + this.nodeBounds[r + BVH.OFFSET_MAX_X]);
+        float dY = (this.nodeBounds[l + BVH.OFFSET_MIN_Y] + this.nodeBounds[l + BVH.OFFSET_MAX_Y])
+                - (this.nodeBounds[r + BVH.OFFSET_MIN_Y] + this.nodeBounds[r + BVH.OFFSET_MAX_Y]);
+        float dZ = (this.nodeBounds[l + BVH.OFFSET_MIN_Z] + this.nodeBounds[l + BVH.OFFSET_MAX_Z])
+                - (this.nodeBounds[r + BVH.OFFSET_MIN_Z] + this.nodeBounds[r + BVH.OFFSET_MAX_Z]);
+
+        return (dX * signX) + (dY * signY) + (dZ * signZ);
+    }
+
+    private void traceLeaf(int firstTriangle, int endTriangle, int rayStart, int rayEnd) {
+        final float epsilon = 1f / 100000f;
+
+        float[] d = this.data;
+        int[] r = this.rays;
+
+        if (this.packed != null) {
+            for (int j = rayStart; j < rayEnd; j++) {
+                int ray = r[j];
+
+                float tMax = d[this.maxLength + ray];
+                if (tMax < 0f) {
+                    continue;
+                }
+
+                int slot = BVH.VECTOR_KERNEL.intersectRayTriangles(
+                        this.packed, firstTriangle, endTriangle - firstTriangle,
+                        d[this.originX + ray], d[this.originY + ray], d[this.originZ + ray],
+                        d[this.directionX + ray], d[this.directionY + ray], d[this.directionZ + ray],
+                        0f, tMax,
+                        this.frontFaceOnly, this.anyHit,
+                        this.kernelOutput
+                );
+                if (slot < 0) {
+                    continue;
+                }
+
+                float t = this.kernelOutput[BVHLeafKernel.OUT_DISTANCE];
+                this.batch.setHit(
+                        ray, this.bvh, t, this.nodeTriangles[slot],
+                        this.kernelOutput[BVHLeafKernel.OUT_U],
+                        this.kernelOutput[BVHLeafKernel.OUT_V]
+                );
+                d[this.maxLength + ray] = (this.anyHit ? -1f : t);
+            }
+            return;
+        }
+
+        for (int i = firstTriangle; i < endTriangle; i++) {
+            int triangle = this.nodeTriangles[i];
+
+            int v0 = (this.indices[(triangle * 3) + 0] * this.vertexSize) + this.xyzOffset;
+            int v1 = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
+            int v2 = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
+
+            float v0X = this.vertices[v0 + 0];
+            float v0Y = this.vertices[v0 + 1];
+            float v0Z = this.vertices[v0 + 2];
+
+            float edge1X = this.vertices[v1 + 0] - v0X;
+            float edge1Y = this.vertices[v1 + 1] - v0Y;
+            float edge1Z = this.vertices[v1 + 2] - v0Z;
+
+            float edge2X = this.vertices[v2 + 0] - v0X;
+            float edge2Y = this.vertices[v2 + 1] - v0Y;
+            float edge2Z = this.vertices[v2 + 2] - v0Z;
+
+            float normalX = (edge1Y * edge2Z) - (edge1Z * edge2Y);
+            float normalY = (edge1Z * edge2X) - (edge1X * edge2Z);
+            float normalZ = (edge1X * edge2Y) - (edge1Y * edge2X);
+
+            for (int j = rayStart; j < rayEnd; j++) {
+                int ray = r[j];
+
+                float tMax = d[this.maxLength + ray];
+                if (tMax < 0f) {
+                    continue;
+                }
+
+                float dirX = d[this.directionX + ray];
+                float dirY = d[this.directionY + ray];
+                float dirZ = d[this.directionZ + ray];
+
+                if (this.frontFaceOnly && ((normalX * dirX) + (normalY * dirY) + (normalZ * dirZ)) >= 0f) {
+                    continue;
+                }
+
+                float pvecX = (dirY * edge2Z) - (dirZ * edge2Y);
+                float pvecY = (dirZ * edge2X) - (dirX * edge2Z);
+                float pvecZ = (dirX * edge2Y) - (dirY * edge2X);
+                float det = (edge1X * pvecX) + (edge1Y * pvecY) + (edge1Z * pvecZ);
+                if (det > -epsilon && det < epsilon) {
+                    continue;
+                }
+                float invDet = 1f / det;
+
+                float tvecX = d[this.originX + ray] - v0X;
+                float tvecY = d[this.originY + ray] - v0Y;
+                float tvecZ = d[this.originZ + ray] - v0Z;
+                float u = ((tvecX * pvecX) + (tvecY * pvecY) + (tvecZ * pvecZ)) * invDet;
+                if (u < 0f || u > 1f) {
+                    continue;
+                }
+
+                float qvecX = (tvecY * edge1Z) - (tvecZ * edge1Y);
+                float qvecY = (tvecZ * edge1X) - (tvecX * edge1Z);
+                float qvecZ = (tvecX * edge1Y) - (tvecY * edge1X);
+                float v = ((dirX * qvecX) + (dirY * qvecY) + (dirZ * qvecZ)) * invDet;
+                if (v < 0f || (u + v) > 1f) {
+                    continue;
+                }
+
+                float t = ((edge2X * qvecX) + (edge2Y * qvecY) + (edge2Z * qvecZ)) * invDet;
+                if (t < 0f || t > tMax) {
+                    continue;
+                }
+
+                this.batch.setHit(ray, this.bvh, t, triangle, u, v);
+                d[this.maxLength + ray] = (this.anyHit ? -1f : t);
+            }
+        }
+    }
+
+}
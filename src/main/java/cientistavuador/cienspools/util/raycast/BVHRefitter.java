@@ -0,0 +1,329 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+/**
+ *
+ * @author Cien
+ */
+class BVHRefitter {
+
+    private static final int NO_ROTATION = 0;
+    private static final int ROTATE_LEFT_RIGHT_LEFT = 1;
+    private static final int ROTATE_LEFT_RIGHT_RIGHT = 2;
+    private static final int ROTATE_RIGHT_LEFT_LEFT = 3;
+    private static final int ROTATE_RIGHT_LEFT_RIGHT = 4;
+
+    private final float[] vertices;
+    private final int[] indices;
+    private final int vertexSize;
+    private final int xyzOffset;
+    private final float aabbOffset;
+
+    private final float[] nodeBounds;
+    private final int[] nodeData;
+    private final int[] nodeTriangles;
+    private final int amountOfNodes;
+
+    private float[] layoutBounds;
+    private int[] layoutData;
+    private int[] layoutTriangles;
+    private int layoutNodes;
+    private int layoutTrianglesSize;
+    private int layoutMaxDepth;
+
+    public BVHRefitter(
+            float[] vertices, int[] indices, int vertexSize, int xyzOffset,
+            float aabbOffset,
+            float[] nodeBounds, int[] nodeData, int[] nodeTriangles
+    ) {
+        this.vertices = vertices;
+        this.indices = indices;
+        this.vertexSize = vertexSize;
+        this.xyzOffset = xyzOffset;
+        this.aabbOffset = aabbOffset;
+        this.nodeBounds = nodeBounds;
+        this.nodeData = nodeData;
+        this.nodeTriangles = nodeTriangles;
+        this.amountOfNodes = nodeData.length / BVH.NODE_DATA_SIZE;
+    }
+
+    private float area(int node) {
+        int b = node * BVH.NODE_BOUNDS_SIZE;
+        return SAHBVHBuilder.surfaceArea(
+                this.nodeBounds[b + BVH.OFFSET_MIN_X],
+                this.nodeBounds[b + BVH.OFFSET_MIN_Y],
+                this.nodeBounds[b + BVH.OFFSET_MIN_Z],
+                this.nodeBounds[b + BVH.OFFSET_MAX_X],
+                this.nodeBounds[b + BVH.OFFSET_MAX_Y],
+                this.nodeBounds[b + BVH.OFFSET_MAX_Z]
+        );
+    }
+
+    private float unionArea(int a, int b) {
+        int ab = a * BVH.NODE_BOUNDS_SIZE;
+        int bb = b * BVH.NODE_BOUNDS_SIZE;
+        return SAHBVHBuilder.surfaceArea(
+                Math.min(this.nodeBounds[ab + BVH.OFFSET_MIN_X], this.nodeBounds[bb + BVH.OFFSET_MIN_X]),
+                Math.min(this.nodeBounds[ab + BVH.OFFSET_MIN_Y], this.nodeBounds[bb + BVH.OFFSET_MIN_Y]),
+                Math.min(this.nodeBounds[ab + BVH.OFFSET_MIN_Z], this.nodeBounds[bb + BVH.OFFSET_MIN_Z]),
+                Math.max(this.nodeBounds[ab + BVH.OFFSET_MAX_X], this.nodeBounds[bb + BVH.OFFSET_MAX_X]),
+                Math.max(this.nodeBounds[ab + BVH.OFFSET_MAX_Y], this.nodeBounds[bb + BVH.OFFSET_MAX_Y]),
+                Math.max(this.nodeBounds[ab + BVH.OFFSET_MAX_Z], this.nodeBounds[bb + BVH.OFFSET_MAX_Z])
+        );
+    }
+
+    private void union(int node, int a, int b) {
+        int nb = node * BVH.NODE_BOUNDS_SIZE;
+        int ab = a * BVH.NODE_BOUNDS_SIZE;
+        int bb = b * BVH.NODE_BOUNDS_SIZE;
+        this.nodeBounds[nb + BVH.OFFSET_MIN_X] = Math.min(this.nodeBounds[ab + BVH.OFFSET_MIN_X], this.nodeBounds[bb + BVH.OFFSET_MIN_X]);
+        this.nodeBounds[nb + BVH.OFFSET_MIN_Y] = Math.min(this.nodeBounds[ab + BVH.OFFSET_MIN_Y], this.nodeBounds[bb + BVH.OFFSET_MIN_Y]);
+        this.nodeBounds[nb + BVH.OFFSET_MIN_Z] = Math.min(this.nodeBounds[ab + BVH.OFFSET_MIN_Z], this.nodeBounds[bb + BVH.OFFSET_MIN_Z]);
+        this.nodeBounds[nb + BVH.OFFSET_MAX_X] = Math.max(this.nodeBounds[ab + BVH.OFFSET_MAX_X], this.nodeBounds[bb + BVH.OFFSET_MAX_X]);
+        this.nodeBounds[nb + BVH.OFFSET_MAX_Y] = Math.max(this.nodeBounds[ab + BVH.OFFSET_MAX_Y], this.nodeBounds[bb + BVH.OFFSET_MAX_Y]);
+        this.nodeBounds[nb + BVH.OFFSET_MAX_Z] = Math.max(this.nodeBounds[ab + BVH.OFFSET_MAX_Z], this.nodeBounds[bb + BVH.OFFSET_MAX_Z]);
+    }
+
+    private void refitLeaf(int node) {
+        int d = node * BVH.NODE_DATA_SIZE;
+        int first = this.nodeData[d + BVH.OFFSET_FIRST_TRIANGLE];
+        int amount = this.nodeData[d + BVH.OFFSET_AMOUNT_OF_TRIANGLES];
+
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        float maxZ = Float.NEGATIVE_INFINITY;
+
+        for (int i = first; i < first + amount; i++) {
+            int triangle = this.nodeTriangles[i];
+            for (int j = 0; j < 3; j++) {
+                int v = (this.indices[(triangle * 3) + j] * this.vertexSize) + this.xyzOffset;
+                float x = this.vertices[v + 0];
+                float y = this.vertices[v + 1];
+                float z = this.vertices[v + 2];
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                minZ = Math.min(minZ, z);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+                maxZ = Math.max(maxZ, z);
+            }
+        }
+
+        int b = node * BVH.NODE_BOUNDS_SIZE;
+        if (amount == 0) {
+            for (int i = 0; i < BVH.NODE_BOUNDS_SIZE; i++) {
+                this.nodeBounds[b + i] = 0f;
+            }
+            return;
+        }
+        this.nodeBounds[b + BVH.OFFSET_MIN_X] = minX - this.aabbOffset;
+        this.nodeBounds[b + BVH.OFFSET_MIN_Y] = minY - this.aabbOffset;
+        this.nodeBounds[b + BVH.OFFSET_MIN_Z] = minZ - this.aabbOffset;
+        this.nodeBounds[b + BVH.OFFSET_MAX_X] = maxX + this.aabbOffset;
+        this.nodeBounds[b + BVH.OFFSET_MAX_Y] = maxY + this.aabbOffset;
+        this.nodeBounds[b + BVH.OFFSET_MAX_Z] = maxZ + this.aabbOffset;
+    }
+
+    public void refitNodes() {
+        for (int node = this.amountOfNodes - 1; node >= 0; node--) {
+            int d = node * BVH.NODE_DATA_SIZE;
+            int left = this.nodeData[d + BVH.OFFSET_LEFT];
+            if (left < 0) {
+                refitLeaf(node);
+            } else {
+                union(node, left, this.nodeData[d + BVH.OFFSET_RIGHT]);
+            }
+        }
+    }
+
+    public float calculateCost() {
+        float rootArea = area(0);
+        if (rootArea <= 0f) {
+            return 0f;
+        }
+        float cost = 0f;
+        for (int node = 0; node < this.amountOfNodes; node++) {
+            int d = node * BVH.NODE_DATA_SIZE;
+            if (this.nodeData[d + BVH.OFFSET_LEFT] < 0) {
+                cost += area(node) * this.nodeData[d + BVH.OFFSET_AMOUNT_OF_TRIANGLES] * SAHBVHBuilder.INTERSECTION_COST;
+            } else {
+                cost += area(node) * SAHBVHBuilder.TRAVERSAL_COST;
+            }
+        }
+        return cost / rootArea;
+    }
+
+    private boolean rotate(int node) {
+        int d = node * BVH.NODE_DATA_SIZE;
+        int left = this.nodeData[d + BVH.OFFSET_LEFT];
+        int right = this.nodeData[d + BVH.OFFSET_RIGHT];
+
+        int ld = left * BVH.NODE_DATA_SIZE;
+        int rd = right * BVH.NODE_DATA_SIZE;
+        int leftLeft = this.nodeData[ld + BVH.OFFSET_LEFT];
+        int leftRight = this.nodeData[ld + BVH.OFFSET_RIGHT];
+        int rightLeft = this.nodeData[rd + BVH.OFFSET_LEFT];
+        int rightRight = this.nodeData[rd + BVH.OFFSET_RIGHT];
+
+        int rotation = NO_ROTATION;
+        float bestGain = 0f;
+
+        if (rightLeft >= 0) {
+            float rightArea = area(right);
+            float gain = rightArea - unionArea(left, rightRight);
+            if (gain > bestGain) {
+                bestGain = gain;
+                rotation = ROTATE_LEFT_RIGHT_LEFT;
+            }
+            gain = rightArea - unionArea(rightLeft, left);
+            if (gain > bestGain) {
+                bestGain = gain;
+                rotation = ROTATE_LEFT_RIGHT_RIGHT;
+            }
+        }
+        if (leftLeft >= 0) {
+            float leftArea = area(left);
+            float gain = leftArea - unionArea(right, leftRight);
+            if (gain > bestGain) {
+                bestGain = gain;
+                rotation = ROTATE_RIGHT_LEFT_LEFT;
+            }
+            gain = leftArea - unionArea(leftLeft, right);
+            if (gain > bestGain) {
+                bestGain = gain;
+                rotation = ROTATE_RIGHT_LEFT_RIGHT;
+            }
+        }
+
+        switch (rotation) {
+            case ROTATE_LEFT_RIGHT_LEFT -> {
+                this.nodeData[d + BVH.OFFSET_LEFT] = rightLeft;
+                this.nodeData[rd + BVH.OFFSET_LEFT] = left;
+                union(right, left, rightRight);
+            }
+            case ROTATE_LEFT_RIGHT_RIGHT -> {
+                this.nodeData[d + BVH.OFFSET_LEFT] = rightRight;
+                this.nodeData[rd + BVH.OFFSET_RIGHT] = left;
+                union(right, rightLeft, left);
+            }
+            case ROTATE_RIGHT_LEFT_LEFT -> {
+                this.nodeData[d + BVH.OFFSET_RIGHT] = leftLeft;
+                this.nodeData[ld + BVH.OFFSET_LEFT] = right;
+                union(left, right, leftRight);
+            }
+            case ROTATE_RIGHT_LEFT_RIGHT -> {
+                this.nodeData[d + BVH.OFFSET_RIGHT] = leftRight;
+                this.nodeData[ld + BVH.OFFSET_RIGHT] = right;
+                union(left, leftLeft, right);
+            }
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int rotateNodes() {
+        int rotations = 0;
+        for (int node = this.amountOfNodes - 1; node >= 0; node--) {
+            if (this.nodeData[(node * BVH.NODE_DATA_SIZE) + BVH.OFFSET_LEFT] < 0) {
+                continue;
+            }
+            if (rotate(node)) {
+                rotations++;
+            }
+        }
+        return rotations;
+    }
+
+    private int layout(int node, int depth) {
+        int newNode = this.layoutNodes++;
+        this.layoutMaxDepth = Math.max(this.layoutMaxDepth, depth);
+
+        System.arraycopy(
+                this.nodeBounds, node * BVH.NODE_BOUNDS_SIZE,
+                this.layoutBounds, newNode * BVH.NODE_BOUNDS_SIZE,
+                BVH.NODE_BOUNDS_SIZE
+        );
+
+        int d = node * BVH.NODE_DATA_SIZE;
+        int nd = newNode * BVH.NODE_DATA_SIZE;
+        int first = this.layoutTrianglesSize;
+
+        int left = this.nodeData[d + BVH.OFFSET_LEFT];
+        if (left < 0) {
+            int amount = this.nodeData[d + BVH.OFFSET_AMOUNT_OF_TRIANGLES];
+            System.arraycopy(
+                    this.nodeTriangles, this.nodeData[d + BVH.OFFSET_FIRST_TRIANGLE],
+                    this.layoutTriangles, first,
+                    amount
+            );
+            this.layoutTrianglesSize += amount;
+            this.layoutData[nd + BVH.OFFSET_LEFT] = -1;
+            this.layoutData[nd + BVH.OFFSET_RIGHT] = -1;
+            this.layoutData[nd + BVH.OFFSET_FIRST_TRIANGLE] = first;
+            this.layoutData[nd + BVH.OFFSET_AMOUNT_OF_TRIANGLES] = amount;
+            return newNode;
+        }
+
+        int right = this.nodeData[d + BVH.OFFSET_RIGHT];
+        int newLeft = layout(left, depth + 1);
+        int newRight = layout(right, depth + 1);
+
+        this.layoutData[nd + BVH.OFFSET_LEFT] = newLeft;
+        this.layoutData[nd + BVH.OFFSET_RIGHT] = newRight;
+        this.layoutData[nd + BVH.OFFSET_FIRST_TRIANGLE] = first;
+        this.layoutData[nd + BVH.OFFSET_AMOUNT_OF_TRIANGLES] = this.layoutTrianglesSize - first;
+        return newNode;
+    }
+
+    public int relayout() {
+        this.layoutBounds = new float[this.nodeBounds.length];
+        this.layoutData = new int[this.nodeData.length];
+        this.layoutTriangles = new int[this.nodeTriangles.length];
+        this.layoutNodes = 0;
+        this.layoutTrianglesSize = 0;
+        this.layoutMaxDepth = 0;
+
+        layout(0, 0);
+
+        System.arraycopy(this.layoutBounds, 0, this.nodeBounds, 0, this.layoutBounds.length);
+        System.arraycopy(this.layoutData, 0, this.nodeData, 0, this.layoutData.length);
+        System.arraycopy(this.layoutTriangles, 0, this.nodeTriangles, 0, this.layoutTrianglesSize);
+
+        this.layoutBounds = null;
+        this.layoutData = null;
+        this.layoutTriangles = null;
+
+        return this.layoutMaxDepth;
+    }
+
+}
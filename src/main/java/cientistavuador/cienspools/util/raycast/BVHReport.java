@@ -0,0 +1,206 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import org.joml.Vector3fc;
+
+/**
+ *
+ * @author Cien
+ */
+public class BVHReport {
+
+    public static BVHReport build(
+            BVH.BuildMode mode,
+            Object userObject,
+            float[] vertices, int[] indices,
+            int vertexSize, int xyzOffset
+    ) {
+        long start = System.nanoTime();
+        BVH bvh = BVH.create(userObject, vertices, indices, vertexSize, xyzOffset, mode);
+        long buildTime = System.nanoTime() - start;
+        return new BVHReport(bvh, mode, buildTime);
+    }
+
+    public static BVHReport create(BVH bvh) {
+        return new BVHReport(bvh, null, -1);
+    }
+
+    private static float surfaceArea(BVH node) {
+        Vector3fc min = node.getMin();
+        Vector3fc max = node.getMax();
+        return SAHBVHBuilder.surfaceArea(min.x(), min.y(), min.z(), max.x(), max.y(), max.z());
+    }
+
+    private final BVH bvh;
+    private final BVH.BuildMode buildMode;
+    private final long buildTime;
+
+    private int amountOfNodes = 0;
+    private int amountOfLeaves = 0;
+    private int maxDepth = 0;
+    private double averageLeafDepth = 0.0;
+    private int minLeafSize = Integer.MAX_VALUE;
+    private int maxLeafSize = 0;
+    private double averageLeafSize = 0.0;
+    private double sahCost = 0.0;
+
+    private BVHReport(BVH bvh, BVH.BuildMode buildMode, long buildTime) {
+        this.bvh = bvh;
+        this.buildMode = buildMode;
+        this.buildTime = buildTime;
+
+        float rootArea = surfaceArea(bvh);
+
+        Deque<BVH> nodes = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        nodes.push(bvh);
+        depths.push(0);
+
+        long totalLeafDepth = 0;
+        long totalLeafSize = 0;
+
+        while (!nodes.isEmpty()) {
+            BVH node = nodes.pop();
+            int depth = depths.pop();
+
+            this.amountOfNodes++;
+            this.maxDepth = Math.max(this.maxDepth, depth);
+
+            double relativeArea = (rootArea > 0f ? surfaceArea(node) / rootArea : 1.0);
+
+            if (node.getLeft() == null && node.getRight() == null) {
+                int size = (node.getTriangles() == null ? 0 : node.getTriangles().length);
+
+                this.amountOfLeaves++;
+                this.minLeafSize = Math.min(this.minLeafSize, size);
+                this.maxLeafSize = Math.max(this.maxLeafSize, size);
+                totalLeafDepth += depth;
+                totalLeafSize += size;
+
+                this.sahCost += relativeArea * size * SAHBVHBuilder.INTERSECTION_COST;
+                continue;
+            }
+
+            this.sahCost += relativeArea * SAHBVHBuilder.TRAVERSAL_COST;
+
+            if (node.getLeft() != null) {
+                nodes.push(node.getLeft());
+                depths.push(depth + 1);
+            }
+            if (node.getRight() != null) {
+                nodes.push(node.getRight());
+                depths.push(depth + 1);
+            }
+        }
+
+        if (this.amountOfLeaves != 0) {
+            this.averageLeafDepth = ((double) totalLeafDepth) / this.amountOfLeaves;
+            this.averageLeafSize = ((double) totalLeafSize) / this.amountOfLeaves;
+        } else {
+            this.minLeafSize = 0;
+        }
+    }
+
+    public BVH getBVH() {
+        return bvh;
+    }
+
+    public BVH.BuildMode getBuildMode() {
+        return buildMode;
+    }
+
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    public double getBuildTimeMilliseconds() {
+        return this.buildTime / 1E6;
+    }
+
+    public int getAmountOfTriangles() {
+        return this.bvh.getAmountOfTriangles();
+    }
+
+    public int getAmountOfNodes() {
+        return amountOfNodes;
+    }
+
+    public int getAmountOfLeaves() {
+        return amountOfLeaves;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    public double getAverageLeafDepth() {
+        return averageLeafDepth;
+    }
+
+    public int getMinLeafSize() {
+        return minLeafSize;
+    }
+
+    public int getMaxLeafSize() {
+        return maxLeafSize;
+    }
+
+    public double getAverageLeafSize() {
+        return averageLeafSize;
+    }
+
+    public double getSAHCost() {
+        return sahCost;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder();
+        b.append("BVH Report\n");
+        if (this.buildMode != null) {
+            b.append("Build Mode: ").append(this.buildMode).append('\n');
+        }
+        if (this.buildTime >= 0) {
+            b.append("Build Time: ").append(String.format("%.3f", getBuildTimeMilliseconds())).append("ms\n");
+        }
+        b.append("Triangles: ").append(getAmountOfTriangles()).append('\n');
+        b.append("Nodes: ").append(this.amountOfNodes).append('\n');
+        b.append("Leaves: ").append(this.amountOfLeaves).append('\n');
+        b.append("Max Depth: ").append(this.maxDepth).append('\n');
+        b.append("Average Leaf Depth: ").append(String.format("%.2f", this.averageLeafDepth)).append('\n');
+        b.append("Leaf Size (min/avg/max): ")
+                .append(this.minLeafSize).append('/')
+                .append(String.format("%.2f", this.averageLeafSize)).append('/')
+                .append(this.maxLeafSize).append('\n');
+        b.append("SAH Cost: ").append(String.format("%.3f", this.sahCost)).append('\n');
+        return b.toString();
+    }
+
+}
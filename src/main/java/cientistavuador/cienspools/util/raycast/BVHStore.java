@@ -26,16 +26,23 @@
  */
 package cientistavuador.cienspools.util.raycast;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
-import org.joml.Vector3fc;
+import static org.lwjgl.system.MemoryUtil.*;
+import static org.lwjgl.util.zstd.Zstd.*;
 
 /**
  *
@@ -45,72 +52,264 @@ public class BVHStore {
     
     public static final long MAGIC_NUMBER = 953602573048789926L;
     
-    private static void recursiveWriteBVH(ObjectOutputStream out, BVH bvh) throws IOException {
-        Vector3fc min = bvh.getMin();
-        Vector3fc max = bvh.getMax();
+    public static final long FLAT_MAGIC_NUMBER = -2760841186410513939L;
+    public static final int FLAT_VERSION = 1;
+    public static final int ALIGNMENT = 64;
+    public static final int HEADER_SIZE = 64;
+    
+    public static final int FLAG_ZSTD = 1;
+    
+    public static final int MAGIC_NUMBER_OFFSET = 0;
+    public static final int VERSION_OFFSET = 8;
+    public static final int FLAGS_OFFSET = 12;
+    public static final int AMOUNT_OF_NODES_OFFSET = 16;
+    public static final int AMOUNT_OF_TRIANGLES_OFFSET = 20;
+    public static final int MAX_DEPTH_OFFSET = 24;
+    public static final int PAYLOAD_SIZE_OFFSET = 28;
+    public static final int STORED_SIZE_OFFSET = 32;
+    
+    private static int align(long size) throws IOException {
+        long aligned = (size + ALIGNMENT - 1) & -((long) ALIGNMENT);
+        if (aligned > Integer.MAX_VALUE) {
+            throw new IOException("BVH is too large: " + size + " bytes");
+        }
+        return (int) aligned;
+    }
+    
+    private static int nodeDataOffset(int amountOfNodes) throws IOException {
+        return align(((long) amountOfNodes) * BVH.NODE_BOUNDS_SIZE * Float.BYTES);
+    }
+    
+    private static int trianglesOffset(int amountOfNodes) throws IOException {
+        return align(nodeDataOffset(amountOfNodes) + (((long) amountOfNodes) * BVH.NODE_DATA_SIZE * Integer.BYTES));
+    }
+    
+    private static int payloadSize(int amountOfNodes, int amountOfTriangles) throws IOException {
+        return align(trianglesOffset(amountOfNodes) + (((long) amountOfTriangles) * Integer.BYTES));
+    }
+    
+    private static int subtreeEnd(int[] nodeData, int node) {
+        int end = node;
+        while (true) {
+            int right = nodeData[(end * BVH.NODE_DATA_SIZE) + BVH.OFFSET_RIGHT];
+            if (nodeData[(end * BVH.NODE_DATA_SIZE) + BVH.OFFSET_LEFT] < 0) {
+                return end + 1;
+            }
+            end = right;
+        }
+    }
+    
+    public static void writeBVH(OutputStream output, BVH bvh, boolean compressed) throws IOException {
+        float[] nodeBounds = bvh.getNodeBounds();
+        int[] nodeData = bvh.getNodeData();
+        int[] nodeTriangles = bvh.getNodeTriangles();
         
-        out.writeFloat(min.x());
-        out.writeFloat(min.y());
-        out.writeFloat(min.z());
+        int firstNode = bvh.getNode();
+        int amountOfNodes = subtreeEnd(nodeData, firstNode) - firstNode;
+        int firstTriangle = bvh.getFirstTriangle();
+        int amountOfTriangles = bvh.getAmountOfTriangles();
         
-        out.writeFloat(max.x());
-        out.writeFloat(max.y());
-        out.writeFloat(max.z());
+        int maxDepth = 0;
+        {
+            int[] depths = new int[amountOfNodes];
+            for (int i = 0; i < amountOfNodes; i++) {
+                int d = (firstNode + i) * BVH.NODE_DATA_SIZE;
+                maxDepth = Math.max(maxDepth, depths[i]);
+                if (nodeData[d + BVH.OFFSET_LEFT] >= 0) {
+                    depths[nodeData[d + BVH.OFFSET_LEFT] - firstNode] = depths[i] + 1;
+                    depths[nodeData[d + BVH.OFFSET_RIGHT] - firstNode] = depths[i] + 1;
+                }
+            }
+        }
         
-        out.writeInt(bvh.getAmountOfTriangles());
+        int payloadSize = payloadSize(amountOfNodes, amountOfTriangles);
+        ByteBuffer payload = ByteBuffer.allocate(payloadSize).order(ByteOrder.LITTLE_ENDIAN);
         
-        int[] triangles = bvh.getTriangles();
+        payload
+                .asFloatBuffer()
+                .put(nodeBounds, firstNode * BVH.NODE_BOUNDS_SIZE, amountOfNodes * BVH.NODE_BOUNDS_SIZE);
         
-        if (triangles != null) {
-            out.writeBoolean(true);
-            out.writeInt(triangles.length);
-            for (int triangle:triangles) {
-                out.writeInt(triangle);
+        int nodeDataOffset = nodeDataOffset(amountOfNodes);
+        for (int i = 0; i < amountOfNodes; i++) {
+            int d = (firstNode + i) * BVH.NODE_DATA_SIZE;
+            int o = nodeDataOffset + (i * BVH.NODE_DATA_SIZE * Integer.BYTES);
+            
+            int left = nodeData[d + BVH.OFFSET_LEFT];
+            int right = nodeData[d + BVH.OFFSET_RIGHT];
+            if (left >= 0) {
+                left -= firstNode;
+                right -= firstNode;
             }
-        } else {
-            out.writeBoolean(false);
+            
+            payload.putInt(o + (BVH.OFFSET_LEFT * Integer.BYTES), left);
+            payload.putInt(o + (BVH.OFFSET_RIGHT * Integer.BYTES), right);
+            payload.putInt(o + (BVH.OFFSET_FIRST_TRIANGLE * Integer.BYTES),
+                    nodeData[d + BVH.OFFSET_FIRST_TRIANGLE] - firstTriangle);
+            payload.putInt(o + (BVH.OFFSET_AMOUNT_OF_TRIANGLES * Integer.BYTES),
+                    nodeData[d + BVH.OFFSET_AMOUNT_OF_TRIANGLES]);
         }
         
-        BVH left = bvh.getLeft();
-        BVH right = bvh.getRight();
+        payload
+                .position(trianglesOffset(amountOfNodes))
+                .slice()
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer()
+                .put(nodeTriangles, firstTriangle, amountOfTriangles);
         
-        if (left != null) {
-            out.writeBoolean(true);
-            recursiveWriteBVH(out, left);
-        } else {
-            out.writeBoolean(false);
+        byte[] stored = payload.array();
+        int storedSize = stored.length;
+        if (compressed) {
+            ByteBuffer toCompress = memAlloc(payloadSize);
+            try {
+                toCompress.put(0, stored);
+                ByteBuffer compressedData = memAlloc((int) ZSTD_compressBound(payloadSize));
+                try {
+                    long size = ZSTD_compress(compressedData, toCompress, Math.min(19, ZSTD_maxCLevel()));
+                    if (ZSTD_isError(size)) {
+                        throw new IOException("ZSTD Error: " + ZSTD_getErrorName(size));
+                    }
+                    stored = new byte[(int) size];
+                    storedSize = stored.length;
+                    compressedData.get(0, stored);
+                } finally {
+                    memFree(compressedData);
+                }
+            } finally {
+                memFree(toCompress);
+            }
         }
         
-        if (right != null) {
-            out.writeBoolean(true);
-            recursiveWriteBVH(out, right);
-        } else {
-            out.writeBoolean(false);
-        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putLong(MAGIC_NUMBER_OFFSET, FLAT_MAGIC_NUMBER);
+        header.putInt(VERSION_OFFSET, FLAT_VERSION);
+        header.putInt(FLAGS_OFFSET, (compressed ? FLAG_ZSTD : 0));
+        header.putInt(AMOUNT_OF_NODES_OFFSET, amountOfNodes);
+        header.putInt(AMOUNT_OF_TRIANGLES_OFFSET, amountOfTriangles);
+        header.putInt(MAX_DEPTH_OFFSET, maxDepth);
+        header.putInt(PAYLOAD_SIZE_OFFSET, payloadSize);
+        header.putInt(STORED_SIZE_OFFSET, storedSize);
+        
+        output.write(header.array());
+        output.write(stored, 0, storedSize);
+        output.flush();
     }
     
     public static void writeBVH(OutputStream output, BVH bvh) throws IOException {
-        GZIPOutputStream zipOut = new GZIPOutputStream(output);
-        ObjectOutputStream out = new ObjectOutputStream(zipOut);
-        
-        out.writeLong(MAGIC_NUMBER);
-        recursiveWriteBVH(out, bvh);
-        
-        out.flush();
-        zipOut.finish();
+        writeBVH(output, bvh, false);
     }
     
-    public static byte[] writeBVH(BVH bvh) {
+    public static byte[] writeBVH(BVH bvh, boolean compressed) {
         try {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
-            writeBVH(out, bvh);
+            writeBVH(out, bvh, compressed);
             return out.toByteArray();
         } catch (IOException ex) {
             throw new UncheckedIOException(ex);
         }
     }
     
-    private static BVH recursiveReadBVH(ObjectInputStream in, float[] vertices, int[] indices, int vertexSize, int xyzOffset, Object userObject) throws IOException {
+    public static byte[] writeBVH(BVH bvh) {
+        return writeBVH(bvh, false);
+    }
+    
+    private static BVH readFlatBVH(ByteBuffer data, float[] vertices, int[] indices, int vertexSize, int xyzOffset, Object userObject) throws IOException {
+        data = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (data.capacity() < HEADER_SIZE) {
+            throw new IOException("Invalid BVH Data.");
+        }
+        
+        int version = data.getInt(VERSION_OFFSET);
+        if (version != FLAT_VERSION) {
+            throw new IOException("Unsupported BVH version: " + version);
+        }
+        int flags = data.getInt(FLAGS_OFFSET);
+        int amountOfNodes = data.getInt(AMOUNT_OF_NODES_OFFSET);
+        int amountOfTriangles = data.getInt(AMOUNT_OF_TRIANGLES_OFFSET);
+        int maxDepth = data.getInt(MAX_DEPTH_OFFSET);
+        int payloadSize = data.getInt(PAYLOAD_SIZE_OFFSET);
+        int storedSize = data.getInt(STORED_SIZE_OFFSET);
+        
+        if (amountOfNodes <= 0 || amountOfTriangles < 0 || maxDepth < 0
+                || payloadSize != payloadSize(amountOfNodes, amountOfTriangles)
+                || storedSize < 0 || storedSize > data.capacity() - HEADER_SIZE) {
+            throw new IOException("Invalid BVH Data.");
+        }
+        
+        ByteBuffer stored = data.slice(HEADER_SIZE, storedSize).order(ByteOrder.LITTLE_ENDIAN);
+        
+        float[] nodeBounds = new float[amountOfNodes * BVH.NODE_BOUNDS_SIZE];
+        int[] nodeData = new int[amountOfNodes * BVH.NODE_DATA_SIZE];
+        int[] nodeTriangles = new int[amountOfTriangles];
+        
+        if ((flags & FLAG_ZSTD) != 0) {
+            ByteBuffer toDecompress = null;
+            ByteBuffer decompressed = memAlloc(payloadSize);
+            try {
+                if (stored.isDirect()) {
+                    toDecompress = stored;
+                } else {
+                    toDecompress = memAlloc(storedSize);
+                    toDecompress.put(0, stored, 0, storedSize);
+                }
+                long size = ZSTD_decompress(decompressed, toDecompress);
+                if (ZSTD_isError(size)) {
+                    throw new IOException("ZSTD Error: " + ZSTD_getErrorName(size));
+                }
+                if (size != payloadSize) {
+                    throw new IOException("Output size is not the same as decompressed size!");
+                }
+                readPayload(decompressed.order(ByteOrder.LITTLE_ENDIAN), amountOfNodes, nodeBounds, nodeData, nodeTriangles);
+            } finally {
+                if (toDecompress != null && toDecompress != stored) {
+                    memFree(toDecompress);
+                }
+                memFree(decompressed);
+            }
+        } else {
+            if (storedSize != payloadSize) {
+                throw new IOException("Invalid BVH Data.");
+            }
+            readPayload(stored, amountOfNodes, nodeBounds, nodeData, nodeTriangles);
+        }
+        
+        for (int node = 0; node < amountOfNodes; node++) {
+            int d = node * BVH.NODE_DATA_SIZE;
+            int left = nodeData[d + BVH.OFFSET_LEFT];
+            int right = nodeData[d + BVH.OFFSET_RIGHT];
+            int first = nodeData[d + BVH.OFFSET_FIRST_TRIANGLE];
+            int count = nodeData[d + BVH.OFFSET_AMOUNT_OF_TRIANGLES];
+            if ((left >= 0 && (left <= node || left >= amountOfNodes || right <= node || right >= amountOfNodes))
+                    || first < 0 || count < 0 || first > amountOfTriangles - count) {
+                throw new IOException("Invalid BVH Data.");
+            }
+        }
+        
+        return new BVH(
+                userObject,
+                vertices, indices, vertexSize, xyzOffset,
+                nodeBounds, nodeData, nodeTriangles, maxDepth
+        );
+    }
+    
+    private static void readPayload(ByteBuffer payload, int amountOfNodes, float[] nodeBounds, int[] nodeData, int[] nodeTriangles) throws IOException {
+        payload
+                .slice(0, nodeBounds.length * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asFloatBuffer()
+                .get(nodeBounds);
+        payload
+                .slice(nodeDataOffset(amountOfNodes), nodeData.length * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer()
+                .get(nodeData);
+        payload
+                .slice(trianglesOffset(amountOfNodes), nodeTriangles.length * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer()
+                .get(nodeTriangles);
+    }
+    
+    private static int recursiveReadBVH(ObjectInputStream in, BVHNodeBuffer buffer, int depth) throws IOException {
         float minX = in.readFloat();
         float minY = in.readFloat();
         float minZ = in.readFloat();
@@ -119,46 +318,42 @@ public class BVHStore {
         float maxY = in.readFloat();
         float maxZ = in.readFloat();
         
-        int amountOfTriangles = in.readInt();
-        int[] triangles = null;
+        in.readInt();
+        
+        int node = buffer.addNode(depth);
+        buffer.setBounds(node, minX, minY, minZ, maxX, maxY, maxZ);
+        
+        int first = buffer.getAmountOfTriangles();
         
         if (in.readBoolean()) {
-            triangles = new int[in.readInt()];
+            int[] triangles = new int[in.readInt()];
             for (int i = 0; i < triangles.length; i++) {
                 triangles[i] = in.readInt();
             }
+            buffer.appendTriangles(triangles, 0, triangles.length);
         }
         
-        BVH left = null;
+        int left = -1;
         if (in.readBoolean()) {
-            left = recursiveReadBVH(in, vertices, indices, vertexSize, xyzOffset, userObject);
+            left = recursiveReadBVH(in, buffer, depth + 1);
         }
         
-        BVH right = null;
+        int right = -1;
         if (in.readBoolean()) {
-            right = recursiveReadBVH(in, vertices, indices, vertexSize, xyzOffset, userObject);
+            right = recursiveReadBVH(in, buffer, depth + 1);
         }
         
-        BVH bvh = new BVH(
-                userObject,
-                vertices, indices, vertexSize, xyzOffset,
-                minX, minY, minZ,
-                maxX, maxY, maxZ,
-                left, right,
-                amountOfTriangles, triangles
-        );
-        
-        if (left != null) {
-            left.parent = bvh;
-        }
-        if (right != null) {
-            right.parent = bvh;
+        int amountOfTriangles = buffer.getAmountOfTriangles() - first;
+        if (left != -1 && right != -1) {
+            buffer.setInternal(node, left, right, first, amountOfTriangles);
+        } else {
+            buffer.setLeaf(node, first, amountOfTriangles);
         }
         
-        return bvh;
+        return node;
     }
     
-    public static BVH readBVH(InputStream input, float[] vertices, int[] indices, int vertexSize, int xyzOffset, Object userObject) throws IOException {
+    private static BVH readLegacyBVH(InputStream input, float[] vertices, int[] indices, int vertexSize, int xyzOffset, Object userObject) throws IOException {
         GZIPInputStream zipIn = new GZIPInputStream(input);
         ObjectInputStream in = new ObjectInputStream(zipIn);
         
@@ -167,7 +362,33 @@ public class BVHStore {
             throw new IllegalArgumentException("Invalid BVH Data.");
         }
         
-        return recursiveReadBVH(in, vertices, indices, vertexSize, xyzOffset, userObject);
+        BVHNodeBuffer buffer = new BVHNodeBuffer(indices.length / 3);
+        recursiveReadBVH(in, buffer, 0);
+        return buffer.build(userObject, vertices, indices, vertexSize, xyzOffset);
+    }
+    
+    public static BVH readBVH(ByteBuffer data, float[] vertices, int[] indices, int vertexSize, int xyzOffset, Object userObject) throws IOException {
+        if (data.remaining() >= Long.BYTES
+                && data.duplicate().order(ByteOrder.LITTLE_ENDIAN).getLong(data.position()) == FLAT_MAGIC_NUMBER) {
+            return readFlatBVH(data, vertices, indices, vertexSize, xyzOffset, userObject);
+        }
+        byte[] legacy = new byte[data.remaining()];
+        data.get(data.position(), legacy);
+        return readLegacyBVH(new ByteArrayInputStream(legacy), vertices, indices, vertexSize, xyzOffset, userObject);
+    }
+    
+    public static BVH readBVH(InputStream input, float[] vertices, int[] indices, int vertexSize, int xyzOffset, Object userObject) throws IOException {
+        return readBVH(ByteBuffer.wrap(input.readAllBytes()), vertices, indices, vertexSize, xyzOffset, userObject);
+    }
+    
+    public static BVH readBVH(Path path, float[] vertices, int[] indices, int vertexSize, int xyzOffset, Object userObject) throws IOException {
+        if (path.getFileSystem() == FileSystems.getDefault()) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return readBVH(mapped, vertices, indices, vertexSize, xyzOffset, userObject);
+            }
+        }
+        return readBVH(ByteBuffer.wrap(Files.readAllBytes(path)), vertices, indices, vertexSize, xyzOffset, userObject);
     }
     
     private BVHStore() {
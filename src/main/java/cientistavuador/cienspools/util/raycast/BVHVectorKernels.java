@@ -0,0 +1,143 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import static cientistavuador.cienspools.util.raycast.BVHPackedTriangles.*;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ *
+ * @author Cien
+ */
+class BVHVectorKernels implements BVHLeafKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_256;
+    private static final FloatVector ONE = FloatVector.broadcast(SPECIES, 1f);
+
+    public static final int LANES = SPECIES.length();
+
+    public static boolean isSupported() {
+        return FloatVector.SPECIES_PREFERRED.vectorBitSize() >= SPECIES.vectorBitSize()
+                && LANES <= PADDING;
+    }
+
+    @Override
+    public int intersectRayTriangles(
+            BVHPackedTriangles packed, int first, int amount,
+            float oX, float oY, float oZ,
+            float dX, float dY, float dZ,
+            float minDistance, float maxDistance,
+            boolean frontFaceOnly, boolean anyHit,
+            float[] out
+    ) {
+        final float epsilon = 1f / 100000f;
+
+        float[] data = packed.getData();
+        int stride = packed.getStride();
+
+        FloatVector originX = FloatVector.broadcast(SPECIES, oX);
+        FloatVector originY = FloatVector.broadcast(SPECIES, oY);
+        FloatVector originZ = FloatVector.broadcast(SPECIES, oZ);
+
+        int closestSlot = -1;
+        float closest = maxDistance;
+
+        for (int offset = 0; offset < amount; offset += LANES) {
+            int slot = first + offset;
+
+            FloatVector v0X = FloatVector.fromArray(SPECIES, data, (V0_X * stride) + slot);
+            FloatVector v0Y = FloatVector.fromArray(SPECIES, data, (V0_Y * stride) + slot);
+            FloatVector v0Z = FloatVector.fromArray(SPECIES, data, (V0_Z * stride) + slot);
+            FloatVector edge1X = FloatVector.fromArray(SPECIES, data, (EDGE1_X * stride) + slot);
+            FloatVector edge1Y = FloatVector.fromArray(SPECIES, data, (EDGE1_Y * stride) + slot);
+            FloatVector edge1Z = FloatVector.fromArray(SPECIES, data, (EDGE1_Z * stride) + slot);
+            FloatVector edge2X = FloatVector.fromArray(SPECIES, data, (EDGE2_X * stride) + slot);
+            FloatVector edge2Y = FloatVector.fromArray(SPECIES, data, (EDGE2_Y * stride) + slot);
+            FloatVector edge2Z = FloatVector.fromArray(SPECIES, data, (EDGE2_Z * stride) + slot);
+
+            FloatVector pvecX = edge2Z.mul(dY).sub(edge2Y.mul(dZ));
+            FloatVector pvecY = edge2X.mul(dZ).sub(edge2Z.mul(dX));
+            FloatVector pvecZ = edge2Y.mul(dX).sub(edge2X.mul(dY));
+            FloatVector det = edge1X.mul(pvecX).add(edge1Y.mul(pvecY)).add(edge1Z.mul(pvecZ));
+            FloatVector invDet = ONE.div(det);
+
+            FloatVector tvecX = originX.sub(v0X);
+            FloatVector tvecY = originY.sub(v0Y);
+            FloatVector tvecZ = originZ.sub(v0Z);
+            FloatVector u = tvecX.mul(pvecX).add(tvecY.mul(pvecY)).add(tvecZ.mul(pvecZ)).mul(invDet);
+
+            FloatVector qvecX = tvecY.mul(edge1Z).sub(tvecZ.mul(edge1Y));
+            FloatVector qvecY = tvecZ.mul(edge1X).sub(tvecX.mul(edge1Z));
+            FloatVector qvecZ = tvecX.mul(edge1Y).sub(tvecY.mul(edge1X));
+            FloatVector v = qvecX.mul(dX).add(qvecY.mul(dY)).add(qvecZ.mul(dZ)).mul(invDet);
+            FloatVector t = edge2X.mul(qvecX).add(edge2Y.mul(qvecY)).add(edge2Z.mul(qvecZ)).mul(invDet);
+
+            VectorMask<Float> mask = det.abs().compare(VectorOperators.GE, epsilon)
+                    .and(u.compare(VectorOperators.GE, 0f))
+                    .and(u.compare(VectorOperators.LE, 1f))
+                    .and(v.compare(VectorOperators.GE, 0f))
+                    .and(u.add(v).compare(VectorOperators.LE, 1f))
+                    .and(t.compare(VectorOperators.GE, minDistance))
+                    .and(t.compare(VectorOperators.LE, closest));
+            if (frontFaceOnly) {
+                mask = mask.and(det.compare(VectorOperators.GT, 0f));
+            }
+            if (amount - offset < LANES) {
+                mask = mask.and(SPECIES.indexInRange(offset, amount));
+            }
+            if (!mask.anyTrue()) {
+                continue;
+            }
+
+            int lane;
+            if (anyHit) {
+                lane = mask.firstTrue();
+            } else {
+                FloatVector candidates = t.blend(Float.POSITIVE_INFINITY, mask.not());
+                float nearest = candidates.reduceLanes(VectorOperators.MIN);
+                lane = candidates.compare(VectorOperators.EQ, nearest).firstTrue();
+            }
+
+            closestSlot = slot + lane;
+            closest = t.lane(lane);
+            if (out != null) {
+                out[OUT_DISTANCE] = closest;
+                out[OUT_U] = u.lane(lane);
+                out[OUT_V] = v.lane(lane);
+            }
+            if (anyHit) {
+                break;
+            }
+        }
+
+        return closestSlot;
+    }
+
+}
@@ -47,6 +47,23 @@ public class IntersectionUtils {
     public static float intersectRayTriangle(Vector3fc origin, Vector3fc dir, Vector3fc a, Vector3fc b, Vector3fc c) {
         return Intersectionf.intersectRayTriangle(origin, dir, a, b, c, 1f / 100000f);
     }
+
+    public static float intersectRayTriangle(
+            float originX, float originY, float originZ,
+            float dirX, float dirY, float dirZ,
+            float aX, float aY, float aZ,
+            float bX, float bY, float bZ,
+            float cX, float cY, float cZ
+    ) {
+        return Intersectionf.intersectRayTriangle(
+                originX, originY, originZ,
+                dirX, dirY, dirZ,
+                aX, aY, aZ,
+                bX, bY, bZ,
+                cX, cY, cZ,
+                1f / 100000f
+        );
+    }
     
     public static boolean testAabPoint(Vector3fc min, Vector3fc max, float x, float y, float z) {
         return (x >= min.x() && x <= max.x()) 
@@ -54,6 +71,78 @@ public class IntersectionUtils {
                 && (z >= min.z() && z <= max.z());
     }
     
+    private static boolean separatedOnAxis(
+            float axisX, float axisY, float axisZ,
+            float halfX, float halfY, float halfZ,
+            float aX, float aY, float aZ,
+            float bX, float bY, float bZ,
+            float cX, float cY, float cZ
+    ) {
+        float pA = (aX * axisX) + (aY * axisY) + (aZ * axisZ);
+        float pB = (bX * axisX) + (bY * axisY) + (bZ * axisZ);
+        float pC = (cX * axisX) + (cY * axisY) + (cZ * axisZ);
+        float r = (halfX * Math.abs(axisX)) + (halfY * Math.abs(axisY)) + (halfZ * Math.abs(axisZ));
+        return Math.min(pA, Math.min(pB, pC)) > r || Math.max(pA, Math.max(pB, pC)) < -r;
+    }
+
+    public static boolean testAabTriangle(
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ,
+            float aX, float aY, float aZ,
+            float bX, float bY, float bZ,
+            float cX, float cY, float cZ
+    ) {
+        float centerX = (minX + maxX) * 0.5f;
+        float centerY = (minY + maxY) * 0.5f;
+        float centerZ = (minZ + maxZ) * 0.5f;
+        float halfX = (maxX - minX) * 0.5f;
+        float halfY = (maxY - minY) * 0.5f;
+        float halfZ = (maxZ - minZ) * 0.5f;
+
+        aX -= centerX;
+        aY -= centerY;
+        aZ -= centerZ;
+        bX -= centerX;
+        bY -= centerY;
+        bZ -= centerZ;
+        cX -= centerX;
+        cY -= centerY;
+        cZ -= centerZ;
+
+        if (Math.min(aX, Math.min(bX, cX)) > halfX || Math.max(aX, Math.max(bX, cX)) < -halfX
+                || Math.min(aY, Math.min(bY, cY)) > halfY || Math.max(aY, Math.max(bY, cY)) < -halfY
+                || Math.min(aZ, Math.min(bZ, cZ)) > halfZ || Math.max(aZ, Math.max(bZ, cZ)) < -halfZ) {
+            return false;
+        }
+
+        float e0X = bX - aX;
+        float e0Y = bY - aY;
+        float e0Z = bZ - aZ;
+        float e1X = cX - bX;
+        float e1Y = cY - bY;
+        float e1Z = cZ - bZ;
+        float e2X = aX - cX;
+        float e2Y = aY - cY;
+        float e2Z = aZ - cZ;
+
+        float nX = (e0Y * e1Z) - (e0Z * e1Y);
+        float nY = (e0Z * e1X) - (e0X * e1Z);
+        float nZ = (e0X * e1Y) - (e0Y * e1X);
+        if (separatedOnAxis(nX, nY, nZ, halfX, halfY, halfZ, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ)) {
+            return false;
+        }
+
+        return !(separatedOnAxis(0f, -e0Z, e0Y, halfX, halfY, halfZ, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ)
+                || separatedOnAxis(0f, -e1Z, e1Y, halfX, halfY, halfZ, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ)
+                || separatedOnAxis(0f, -e2Z, e2Y, halfX, halfY, halfZ, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ)
+                || separatedOnAxis(e0Z, 0f, -e0X, halfX, halfY, halfZ, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ)
+                || separatedOnAxis(e1Z, 0f, -e1X, halfX, halfY, halfZ, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ)
+                || separatedOnAxis(e2Z, 0f, -e2X, halfX, halfY, halfZ, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ)
+                || separatedOnAxis(-e0Y, e0X, 0f, halfX, halfY, halfZ, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ)
+                || separatedOnAxis(-e1Y, e1X, 0f, halfX, halfY, halfZ, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ)
+                || separatedOnAxis(-e2Y, e2X, 0f, halfX, halfY, halfZ, aX, aY, aZ, bX, bY, bZ, cX, cY, cZ));
+    }
+
     public static boolean lineSegmentLineSegment(float x1, float y1, float x2, float y2, float x3, float y3, float x4, float y4, Vector2f p) {
         float denom = 1f / ((x1 - x2) * (y3 - y4) - (y1 - y2) * (x3 - x4));
         float t = ((x1 - x3) * (y3 - y4) - (y1 - y3) * (x3 - x4)) * denom;
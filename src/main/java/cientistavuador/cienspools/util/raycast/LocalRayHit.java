@@ -0,0 +1,182 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import cientistavuador.cienspools.util.MeshUtils;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ *
+ * @author Cien
+ */
+public class LocalRayHit {
+
+    private BVH originBVH = null;
+    private final Vector3f localOrigin = new Vector3f();
+    private final Vector3f localDirection = new Vector3f();
+    private final Vector3f localHitPosition = new Vector3f();
+    private final Vector3f localTriangleNormal = new Vector3f();
+    private float localDistance = Float.POSITIVE_INFINITY;
+    private int triangle = -1;
+    private boolean frontFace = false;
+
+    private int[] nodeStack = new int[64];
+    private float[] distanceStack = new float[64];
+    final float[] kernelOutput = new float[BVHLeafKernel.OUT_SIZE];
+    long nodesVisited = 0;
+
+    public LocalRayHit() {
+
+    }
+
+    int[] nodeStack(int size) {
+        if (this.nodeStack.length < size) {
+            this.nodeStack = new int[size];
+        }
+        return this.nodeStack;
+    }
+
+    float[] distanceStack(int size) {
+        if (this.distanceStack.length < size) {
+            this.distanceStack = new float[size];
+        }
+        return this.distanceStack;
+    }
+
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    public void resetNodesVisited() {
+        this.nodesVisited = 0;
+    }
+
+    public void reset() {
+        this.originBVH = null;
+        this.localOrigin.zero();
+        this.localDirection.zero();
+        this.localHitPosition.zero();
+        this.localTriangleNormal.zero();
+        this.localDistance = Float.POSITIVE_INFINITY;
+        this.triangle = -1;
+        this.frontFace = false;
+    }
+
+    public void set(BVH originBVH, Vector3fc localOrigin, Vector3fc localDirection, float t, int triangle) {
+        set(originBVH,
+                localOrigin.x(), localOrigin.y(), localOrigin.z(),
+                localDirection.x(), localDirection.y(), localDirection.z(),
+                t, triangle
+        );
+    }
+
+    public void set(
+            BVH originBVH,
+            float originX, float originY, float originZ,
+            float directionX, float directionY, float directionZ,
+            float t, int triangle
+    ) {
+        this.originBVH = originBVH;
+        this.localOrigin.set(originX, originY, originZ);
+        this.localDirection.set(directionX, directionY, directionZ);
+        this.localHitPosition.set(this.localDirection).mul(t).add(this.localOrigin);
+        int[] indices = originBVH.getIndices();
+        MeshUtils.calculateTriangleNormal(
+                originBVH.getVertices(),
+                originBVH.getVertexSize(),
+                originBVH.getXYZOffset(),
+                indices[(triangle * 3) + 0],
+                indices[(triangle * 3) + 1],
+                indices[(triangle * 3) + 2],
+                this.localTriangleNormal
+        );
+        this.triangle = triangle;
+        this.frontFace = this.localTriangleNormal.dot(this.localDirection) < 0f;
+        this.localDistance = this.localOrigin.distance(this.localHitPosition);
+    }
+
+    public void set(LocalRayResult result) {
+        this.originBVH = result.getOriginBVH();
+        this.localOrigin.set(result.getLocalOrigin());
+        this.localDirection.set(result.getLocalDirection());
+        this.localHitPosition.set(result.getLocalHitPosition());
+        this.localTriangleNormal.set(result.getLocalTriangleNormal());
+        this.triangle = result.triangle();
+        this.frontFace = result.frontFace();
+        this.localDistance = result.getLocalDistance();
+    }
+
+    public boolean hasHit() {
+        return this.originBVH != null;
+    }
+
+    public BVH getOriginBVH() {
+        return originBVH;
+    }
+
+    public Vector3fc getLocalOrigin() {
+        return localOrigin;
+    }
+
+    public Vector3fc getLocalDirection() {
+        return localDirection;
+    }
+
+    public Vector3fc getLocalHitPosition() {
+        return localHitPosition;
+    }
+
+    public Vector3fc getLocalTriangleNormal() {
+        return localTriangleNormal;
+    }
+
+    public float getLocalDistance() {
+        return localDistance;
+    }
+
+    public int triangle() {
+        return this.triangle;
+    }
+
+    public boolean frontFace() {
+        return frontFace;
+    }
+
+    public float lerp(Vector3fc weights, int componentOffset) {
+        return this.originBVH.lerp(this.triangle, weights, componentOffset);
+    }
+
+    public void weights(Vector3f weights) {
+        this.originBVH.weights(
+                this.triangle,
+                this.localHitPosition.x(), this.localHitPosition.y(), this.localHitPosition.z(),
+                weights
+        );
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ *
+ * @author Cien
+ */
+public class LocalRayHits {
+
+    private LocalRayHit[] hits = new LocalRayHit[8];
+    private int size = 0;
+    private int[] stack = new int[64];
+
+    public LocalRayHits() {
+
+    }
+
+    int[] stack(int size) {
+        if (this.stack.length < size) {
+            this.stack = new int[size];
+        }
+        return this.stack;
+    }
+
+    LocalRayHit next() {
+        if (this.size == this.hits.length) {
+            this.hits = Arrays.copyOf(this.hits, this.hits.length * 2);
+        }
+        LocalRayHit hit = this.hits[this.size];
+        if (hit == null) {
+            hit = new LocalRayHit();
+            this.hits[this.size] = hit;
+        }
+        this.size++;
+        return hit;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public LocalRayHit get(int index) {
+        Objects.checkIndex(index, this.size);
+        return this.hits[index];
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    public void removeBackFaces() {
+        int kept = 0;
+        for (int i = 0; i < this.size; i++) {
+            LocalRayHit hit = this.hits[i];
+            if (!hit.frontFace()) {
+                continue;
+            }
+            this.hits[i] = this.hits[kept];
+            this.hits[kept] = hit;
+            kept++;
+        }
+        this.size = kept;
+    }
+
+    public void sort() {
+        for (int i = 1; i < this.size; i++) {
+            LocalRayHit hit = this.hits[i];
+            float distance = hit.getLocalDistance();
+            int j = i - 1;
+            while (j >= 0 && this.hits[j].getLocalDistance() > distance) {
+                this.hits[j + 1] = this.hits[j];
+                j--;
+            }
+            this.hits[j + 1] = hit;
+        }
+    }
+
+}
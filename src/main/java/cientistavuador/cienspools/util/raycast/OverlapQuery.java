@@ -0,0 +1,94 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import java.util.Arrays;
+import org.joml.Vector3f;
+
+/**
+ *
+ * @author Cien
+ */
+public class OverlapQuery {
+
+    private int[] triangles;
+    private int size = 0;
+
+    private int[] nodeStack = new int[64];
+    final Vector3f resultA = new Vector3f();
+    final Vector3f resultB = new Vector3f();
+
+    public OverlapQuery() {
+        this(64);
+    }
+
+    public OverlapQuery(int initialCapacity) {
+        this.triangles = new int[Math.max(initialCapacity, 1)];
+    }
+
+    int[] nodeStack(int size) {
+        if (this.nodeStack.length < size) {
+            this.nodeStack = new int[size];
+        }
+        return this.nodeStack;
+    }
+
+    void add(int triangle) {
+        if (this.size == this.triangles.length) {
+            this.triangles = Arrays.copyOf(this.triangles, this.triangles.length * 2);
+        }
+        this.triangles[this.size++] = triangle;
+    }
+
+    public void clear() {
+        this.size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public int get(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return this.triangles[index];
+    }
+
+    public int[] getTriangles() {
+        return triangles;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(this.triangles, this.size);
+    }
+
+}
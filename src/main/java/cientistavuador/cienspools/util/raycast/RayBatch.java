@@ -0,0 +1,278 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import java.util.Arrays;
+import org.joml.Vector3f;
+import org.joml.Vector3fc;
+
+/**
+ *
+ * @author Cien
+ */
+public class RayBatch {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private int capacity;
+    private int size = 0;
+
+    private float[] origins;
+    private float[] directions;
+    private float[] maxLengths;
+
+    private float[] hitDistances;
+    private int[] hitTriangles;
+    private float[] hitWeights;
+    private BVH[] hitBVHs;
+
+    int[] order = new int[0];
+    float[] streamData = new float[0];
+    int[] streamRays = new int[0];
+    int[] streamFrames = new int[0];
+    final int[] streamOctantOffsets = new int[BVHRayStream.NUMBER_OF_OCTANTS + 1];
+    final int[] streamOctantFill = new int[BVHRayStream.NUMBER_OF_OCTANTS];
+    final float[] streamKernelOutput = new float[BVHLeafKernel.OUT_SIZE];
+    long nodesVisited = 0;
+
+    public RayBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public RayBatch(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        this.origins = new float[this.capacity * 3];
+        this.directions = new float[this.capacity * 3];
+        this.maxLengths = new float[this.capacity];
+        this.hitDistances = new float[this.capacity];
+        this.hitTriangles = new int[this.capacity];
+        this.hitWeights = new float[this.capacity * 3];
+        this.hitBVHs = new BVH[this.capacity];
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= this.capacity) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, this.capacity * 2);
+        this.origins = Arrays.copyOf(this.origins, newCapacity * 3);
+        this.directions = Arrays.copyOf(this.directions, newCapacity * 3);
+        this.maxLengths = Arrays.copyOf(this.maxLengths, newCapacity);
+        this.hitDistances = Arrays.copyOf(this.hitDistances, newCapacity);
+        this.hitTriangles = Arrays.copyOf(this.hitTriangles, newCapacity);
+        this.hitWeights = Arrays.copyOf(this.hitWeights, newCapacity * 3);
+        this.hitBVHs = Arrays.copyOf(this.hitBVHs, newCapacity);
+        this.capacity = newCapacity;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public boolean isFull() {
+        return this.size >= this.capacity;
+    }
+
+    public long getNodesVisited() {
+        return nodesVisited;
+    }
+
+    public void resetNodesVisited() {
+        this.nodesVisited = 0;
+    }
+
+    public void clear() {
+        Arrays.fill(this.hitBVHs, 0, this.size, null);
+        this.size = 0;
+    }
+
+    public int add(
+            float originX, float originY, float originZ,
+            float directionX, float directionY, float directionZ,
+            float maxLength
+    ) {
+        ensureCapacity(this.size + 1);
+        int ray = this.size++;
+
+        this.origins[(ray * 3) + 0] = originX;
+        this.origins[(ray * 3) + 1] = originY;
+        this.origins[(ray * 3) + 2] = originZ;
+
+        this.directions[(ray * 3) + 0] = directionX;
+        this.directions[(ray * 3) + 1] = directionY;
+        this.directions[(ray * 3) + 2] = directionZ;
+
+        this.maxLengths[ray] = (Float.isFinite(maxLength) ? maxLength : Float.POSITIVE_INFINITY);
+
+        resetHit(ray);
+
+        return ray;
+    }
+
+    public int add(Vector3fc origin, Vector3fc direction, float maxLength) {
+        return add(
+                origin.x(), origin.y(), origin.z(),
+                direction.x(), direction.y(), direction.z(),
+                maxLength
+        );
+    }
+
+    public void resetHit(int ray) {
+        this.hitDistances[ray] = Float.POSITIVE_INFINITY;
+        this.hitTriangles[ray] = -1;
+        this.hitWeights[(ray * 3) + 0] = 0f;
+        this.hitWeights[(ray * 3) + 1] = 0f;
+        this.hitWeights[(ray * 3) + 2] = 0f;
+        this.hitBVHs[ray] = null;
+    }
+
+    public void resetHits() {
+        for (int i = 0; i < this.size; i++) {
+            resetHit(i);
+        }
+    }
+
+    void setHit(int ray, BVH bvh, float distance, int triangle, float u, float v) {
+        this.hitDistances[ray] = distance;
+        this.hitTriangles[ray] = triangle;
+        this.hitWeights[(ray * 3) + 0] = 1f - u - v;
+        this.hitWeights[(ray * 3) + 1] = u;
+        this.hitWeights[(ray * 3) + 2] = v;
+        this.hitBVHs[ray] = bvh;
+    }
+
+    public float[] getOrigins() {
+        return origins;
+    }
+
+    public float[] getDirections() {
+        return directions;
+    }
+
+    public float[] getMaxLengths() {
+        return maxLengths;
+    }
+
+    public float[] getHitDistances() {
+        return hitDistances;
+    }
+
+    public int[] getHitTriangles() {
+        return hitTriangles;
+    }
+
+    public float[] getHitWeights() {
+        return hitWeights;
+    }
+
+    public void getOrigin(int ray, Vector3f outOrigin) {
+        outOrigin.set(
+                this.origins[(ray * 3) + 0],
+                this.origins[(ray * 3) + 1],
+                this.origins[(ray * 3) + 2]
+        );
+    }
+
+    public void getDirection(int ray, Vector3f outDirection) {
+        outDirection.set(
+                this.directions[(ray * 3) + 0],
+                this.directions[(ray * 3) + 1],
+                this.directions[(ray * 3) + 2]
+        );
+    }
+
+    public float getMaxLength(int ray) {
+        return this.maxLengths[ray];
+    }
+
+    public boolean hasHit(int ray) {
+        return this.hitTriangles[ray] >= 0;
+    }
+
+    public float getHitDistance(int ray) {
+        return this.hitDistances[ray];
+    }
+
+    public int getHitTriangle(int ray) {
+        return this.hitTriangles[ray];
+    }
+
+    public BVH getHitBVH(int ray) {
+        return this.hitBVHs[ray];
+    }
+
+    public void getHitWeights(int ray, Vector3f outWeights) {
+        outWeights.set(
+                this.hitWeights[(ray * 3) + 0],
+                this.hitWeights[(ray * 3) + 1],
+                this.hitWeights[(ray * 3) + 2]
+        );
+    }
+
+    public float lerpHit(int ray, int componentOffset) {
+        BVH bvh = this.hitBVHs[ray];
+        int triangle = this.hitTriangles[ray];
+        int[] indices = bvh.getIndices();
+        float[] vertices = bvh.getVertices();
+        int vertexSize = bvh.getVertexSize();
+
+        float a = vertices[(indices[(triangle * 3) + 0] * vertexSize) + componentOffset];
+        float b = vertices[(indices[(triangle * 3) + 1] * vertexSize) + componentOffset];
+        float c = vertices[(indices[(triangle * 3) + 2] * vertexSize) + componentOffset];
+
+        return (a * this.hitWeights[(ray * 3) + 0])
+                + (b * this.hitWeights[(ray * 3) + 1])
+                + (c * this.hitWeights[(ray * 3) + 2]);
+    }
+
+    public void getHit(int ray, LocalRayHit outHit) {
+        if (!hasHit(ray)) {
+            outHit.reset();
+            return;
+        }
+        outHit.set(
+                this.hitBVHs[ray],
+                this.origins[(ray * 3) + 0],
+                this.origins[(ray * 3) + 1],
+                this.origins[(ray * 3) + 2],
+                this.directions[(ray * 3) + 0],
+                this.directions[(ray * 3) + 1],
+                this.directions[(ray * 3) + 2],
+                this.hitDistances[ray],
+                this.hitTriangles[ray]
+        );
+    }
+
+}
@@ -0,0 +1,650 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.IntConsumer;
+
+/**
+ *
+ * @author Cien
+ */
+class SAHBVHBuilder {
+
+    public static final int NUMBER_OF_BINS = 16;
+    public static final int MAX_LEAF_SIZE = 8;
+    public static final int MAX_DEPTH = 64;
+
+    public static final float TRAVERSAL_COST = 1f;
+    public static final float INTERSECTION_COST = 1f;
+
+    public static final int PARALLEL_SUBTREE_THRESHOLD = 4096;
+    public static final int PARALLEL_CHUNK_SIZE = 8192;
+
+    public static float surfaceArea(
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ
+    ) {
+        float dX = Math.max(maxX - minX, 0f);
+        float dY = Math.max(maxY - minY, 0f);
+        float dZ = Math.max(maxZ - minZ, 0f);
+        return 2f * ((dX * dY) + (dY * dZ) + (dZ * dX));
+    }
+
+    private static int chunks(int count) {
+        return (count + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+    }
+
+    private static void resetBounds(float[] bounds, int offset) {
+        bounds[offset + 0] = Float.POSITIVE_INFINITY;
+        bounds[offset + 1] = Float.POSITIVE_INFINITY;
+        bounds[offset + 2] = Float.POSITIVE_INFINITY;
+        bounds[offset + 3] = Float.NEGATIVE_INFINITY;
+        bounds[offset + 4] = Float.NEGATIVE_INFINITY;
+        bounds[offset + 5] = Float.NEGATIVE_INFINITY;
+    }
+
+    private static void mergeBounds(float[] bounds, int offset, float[] other, int otherOffset) {
+        bounds[offset + 0] = Math.min(bounds[offset + 0], other[otherOffset + 0]);
+        bounds[offset + 1] = Math.min(bounds[offset + 1], other[otherOffset + 1]);
+        bounds[offset + 2] = Math.min(bounds[offset + 2], other[otherOffset + 2]);
+        bounds[offset + 3] = Math.max(bounds[offset + 3], other[otherOffset + 3]);
+        bounds[offset + 4] = Math.max(bounds[offset + 4], other[otherOffset + 4]);
+        bounds[offset + 5] = Math.max(bounds[offset + 5], other[otherOffset + 5]);
+    }
+
+    private static class Scratch {
+
+        final float[] bounds = new float[6];
+        final float[] centerBounds = new float[6];
+
+        final int[] binCount = new int[NUMBER_OF_BINS];
+        final float[] binBounds = new float[NUMBER_OF_BINS * 6];
+        final float[] rightArea = new float[NUMBER_OF_BINS];
+        final int[] rightCount = new int[NUMBER_OF_BINS];
+    }
+
+    private static class Subtree {
+
+        BVHNodeBuffer buffer;
+
+        Subtree left;
+        Subtree right;
+        float[] bounds;
+        int start;
+        int count;
+        int depth;
+    }
+
+    private static class SubtreeTask extends RecursiveTask<Subtree> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final SAHBVHBuilder builder;
+        private final int start;
+        private final int end;
+        private final int depth;
+
+        SubtreeTask(SAHBVHBuilder builder, int start, int end, int depth) {
+            this.builder = builder;
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Subtree compute() {
+            int count = this.end - this.start;
+
+            Subtree subtree = new Subtree();
+            Scratch scratch = new Scratch();
+
+            if (count < PARALLEL_SUBTREE_THRESHOLD) {
+                subtree.buffer = new BVHNodeBuffer(count);
+                this.builder.buildSequential(subtree.buffer, scratch, this.start, this.end, this.depth);
+                return subtree;
+            }
+
+            int middle = this.builder.split(scratch, this.start, this.end, this.depth);
+            if (middle < 0) {
+                subtree.buffer = new BVHNodeBuffer(1);
+                this.builder.leaf(subtree.buffer, scratch.bounds, this.start, this.end, this.depth);
+                return subtree;
+            }
+
+            subtree.bounds = scratch.bounds.clone();
+            subtree.start = this.start;
+            subtree.count = count;
+            subtree.depth = this.depth;
+
+            SubtreeTask leftTask = new SubtreeTask(this.builder, this.start, middle, this.depth + 1);
+            SubtreeTask rightTask = new SubtreeTask(this.builder, middle, this.end, this.depth + 1);
+
+            if (this.builder.pool == null) {
+                subtree.left = leftTask.compute();
+                subtree.right = rightTask.compute();
+            } else {
+                leftTask.fork();
+                subtree.right = rightTask.compute();
+                subtree.left = leftTask.join();
+            }
+
+            return subtree;
+        }
+    }
+
+    private final Object userObject;
+    private final float[] vertices;
+    private final int[] indices;
+    private final int vertexSize;
+    private final int xyzOffset;
+    private final float aabbOffset;
+    private final ForkJoinPool pool;
+    private final int leafWidth;
+
+    private final int amountOfTriangles;
+    private final float[] triangleBounds;
+    private final float[] triangleCenters;
+    private final int[] triangles;
+
+    public SAHBVHBuilder(
+            Object userObject,
+            float[] vertices,
+            int[] indices,
+            int vertexSize,
+            int xyzOffset,
+            float aabbOffset
+    ) {
+        this(userObject, vertices, indices, vertexSize, xyzOffset, aabbOffset, null);
+    }
+
+    public SAHBVHBuilder(
+            Object userObject,
+            float[] vertices,
+            int[] indices,
+            int vertexSize,
+            int xyzOffset,
+            float aabbOffset,
+            ForkJoinPool pool
+    ) {
+        this(userObject, vertices, indices, vertexSize, xyzOffset, aabbOffset, pool, 1);
+    }
+
+    public SAHBVHBuilder(
+            Object userObject,
+            float[] vertices,
+            int[] indices,
+            int vertexSize,
+            int xyzOffset,
+            float aabbOffset,
+            ForkJoinPool pool,
+            int leafWidth
+    ) {
+        this.userObject = userObject;
+        this.vertices = vertices;
+        this.indices = indices;
+        this.vertexSize = vertexSize;
+        this.xyzOffset = xyzOffset;
+        this.aabbOffset = aabbOffset;
+        this.pool = pool;
+        this.leafWidth = Math.max(leafWidth, 1);
+
+        this.amountOfTriangles = indices.length / 3;
+        this.triangleBounds = new float[this.amountOfTriangles * 6];
+        this.triangleCenters = new float[this.amountOfTriangles * 3];
+        this.triangles = new int[this.amountOfTriangles];
+    }
+
+    private void runChunks(int chunks, IntConsumer chunk) {
+        if (this.pool == null || chunks <= 1) {
+            for (int i = 0; i < chunks; i++) {
+                chunk.accept(i);
+            }
+            return;
+        }
+        List<RecursiveAction> tasks = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            final int index = i;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    chunk.accept(index);
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    private void calculateTriangleBounds(int start, int end) {
+        for (int triangle = start; triangle < end; triangle++) {
+            int v0 = (this.indices[(triangle * 3) + 0] * this.vertexSize) + this.xyzOffset;
+            int v1 = (this.indices[(triangle * 3) + 1] * this.vertexSize) + this.xyzOffset;
+            int v2 = (this.indices[(triangle * 3) + 2] * this.vertexSize) + this.xyzOffset;
+
+            for (int axis = 0; axis < 3; axis++) {
+                float a = this.vertices[v0 + axis];
+                float b = this.vertices[v1 + axis];
+                float c = this.vertices[v2 + axis];
+
+                float min = Math.min(a, Math.min(b, c)) - this.aabbOffset;
+                float max = Math.max(a, Math.max(b, c)) + this.aabbOffset;
+
+                this.triangleBounds[(triangle * 6) + axis] = min;
+                this.triangleBounds[(triangle * 6) + 3 + axis] = max;
+                this.triangleCenters[(triangle * 3) + axis] = (min * 0.5f) + (max * 0.5f);
+            }
+
+            this.triangles[triangle] = triangle;
+        }
+    }
+
+    private Subtree buildSubtrees() {
+        runChunks(chunks(this.amountOfTriangles), (chunk) -> {
+            int start = chunk * PARALLEL_CHUNK_SIZE;
+            int end = Math.min(start + PARALLEL_CHUNK_SIZE, this.amountOfTriangles);
+            calculateTriangleBounds(start, end);
+        });
+        if (this.amountOfTriangles == 0) {
+            return null;
+        }
+        return new SubtreeTask(this, 0, this.amountOfTriangles, 0).invoke();
+    }
+
+    private int assemble(BVHNodeBuffer buffer, Subtree subtree) {
+        if (subtree.buffer != null) {
+            return buffer.appendNodes(subtree.buffer);
+        }
+
+        int node = buffer.addNode(subtree.depth);
+        int left = assemble(buffer, subtree.left);
+        int right = assemble(buffer, subtree.right);
+
+        float[] b = subtree.bounds;
+        buffer.setBounds(node, b[0], b[1], b[2], b[3], b[4], b[5]);
+        buffer.setInternal(node, left, right, subtree.start, subtree.count);
+
+        return node;
+    }
+
+    public BVH build() {
+        Subtree root;
+        if (this.pool == null) {
+            root = buildSubtrees();
+        } else {
+            root = this.pool.invoke(ForkJoinTask.adapt(this::buildSubtrees));
+        }
+
+        BVHNodeBuffer buffer = new BVHNodeBuffer(this.amountOfTriangles);
+        if (root != null) {
+            assemble(buffer, root);
+        }
+        buffer.setTriangles(this.triangles);
+        return buffer.build(this.userObject, this.vertices, this.indices, this.vertexSize, this.xyzOffset);
+    }
+
+    private int buildSequential(BVHNodeBuffer buffer, Scratch scratch, int start, int end, int depth) {
+        int middle = split(scratch, start, end, depth);
+
+        float[] b = scratch.bounds;
+        float minX = b[0];
+        float minY = b[1];
+        float minZ = b[2];
+        float maxX = b[3];
+        float maxY = b[4];
+        float maxZ = b[5];
+
+        if (middle < 0) {
+            return leaf(buffer, b, start, end, depth);
+        }
+
+        int node = buffer.addNode(depth);
+        int left = buildSequential(buffer, scratch, start, middle, depth + 1);
+        int right = buildSequential(buffer, scratch, middle, end, depth + 1);
+
+        buffer.setBounds(node, minX, minY, minZ, maxX, maxY, maxZ);
+        buffer.setInternal(node, left, right, start, end - start);
+
+        return node;
+    }
+
+    private void calculateBounds(int start, int end, float[] bounds, float[] centerBounds, int offset) {
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float minZ = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        float maxZ = Float.NEGATIVE_INFINITY;
+
+        float centerMinX = Float.POSITIVE_INFINITY;
+        float centerMinY = Float.POSITIVE_INFINITY;
+        float centerMinZ = Float.POSITIVE_INFINITY;
+        float centerMaxX = Float.NEGATIVE_INFINITY;
+        float centerMaxY = Float.NEGATIVE_INFINITY;
+        float centerMaxZ = Float.NEGATIVE_INFINITY;
+
+        for (int i = start; i < end; i++) {
+            int b = this.triangles[i] * 6;
+            int c = this.triangles[i] * 3;
+
+            minX = Math.min(minX, this.triangleBounds[b + 0]);
+            minY = Math.min(minY, this.triangleBounds[b + 1]);
+            minZ = Math.min(minZ, this.triangleBounds[b + 2]);
+            maxX = Math.max(maxX, this.triangleBounds[b + 3]);
+            maxY = Math.max(maxY, this.triangleBounds[b + 4]);
+            maxZ = Math.max(maxZ, this.triangleBounds[b + 5]);
+
+            centerMinX = Math.min(centerMinX, this.triangleCenters[c + 0]);
+            centerMinY = Math.min(centerMinY, this.triangleCenters[c + 1]);
+            centerMinZ = Math.min(centerMinZ, this.triangleCenters[c + 2]);
+            centerMaxX = Math.max(centerMaxX, this.triangleCenters[c + 0]);
+            centerMaxY = Math.max(centerMaxY, this.triangleCenters[c + 1]);
+            centerMaxZ = Math.max(centerMaxZ, this.triangleCenters[c + 2]);
+        }
+
+        bounds[offset + 0] = minX;
+        bounds[offset + 1] = minY;
+        bounds[offset + 2] = minZ;
+        bounds[offset + 3] = maxX;
+        bounds[offset + 4] = maxY;
+        bounds[offset + 5] = maxZ;
+
+        centerBounds[offset + 0] = centerMinX;
+        centerBounds[offset + 1] = centerMinY;
+        centerBounds[offset + 2] = centerMinZ;
+        centerBounds[offset + 3] = centerMaxX;
+        centerBounds[offset + 4] = centerMaxY;
+        centerBounds[offset + 5] = centerMaxZ;
+    }
+
+    private void calculateBoundsChunked(Scratch scratch, int start, int end) {
+        int chunks = chunks(end - start);
+        float[] chunkBounds = new float[chunks * 6];
+        float[] chunkCenterBounds = new float[chunks * 6];
+
+        runChunks(chunks, (chunk) -> {
+            int chunkStart = start + (chunk * PARALLEL_CHUNK_SIZE);
+            int chunkEnd = Math.min(chunkStart + PARALLEL_CHUNK_SIZE, end);
+            calculateBounds(chunkStart, chunkEnd, chunkBounds, chunkCenterBounds, chunk * 6);
+        });
+
+        resetBounds(scratch.bounds, 0);
+        resetBounds(scratch.centerBounds, 0);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            mergeBounds(scratch.bounds, 0, chunkBounds, chunk * 6);
+            mergeBounds(scratch.centerBounds, 0, chunkCenterBounds, chunk * 6);
+        }
+    }
+
+    private int split(Scratch scratch, int start, int end, int depth) {
+        int count = end - start;
+        boolean chunked = count >= (PARALLEL_CHUNK_SIZE * 2);
+
+        if (chunked) {
+            calculateBoundsChunked(scratch, start, end);
+        } else {
+            calculateBounds(start, end, scratch.bounds, scratch.centerBounds, 0);
+        }
+
+        if (count == 1) {
+            return -1;
+        }
+
+        float[] bounds = scratch.bounds;
+        float parentArea = surfaceArea(bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+        float leafCost = ((count + this.leafWidth - 1) / this.leafWidth) * INTERSECTION_COST;
+
+        int bestAxis = -1;
+        int bestBin = -1;
+        float bestCost = Float.POSITIVE_INFINITY;
+
+        float[] centerBounds = scratch.centerBounds;
+        int[] binCount = scratch.binCount;
+        float[] binBounds = scratch.binBounds;
+        float[] rightArea = scratch.rightArea;
+        int[] rightCount = scratch.rightCount;
+
+        if (depth < MAX_DEPTH && parentArea > 0f) {
+            for (int axis = 0; axis < 3; axis++) {
+                float extent = centerBounds[3 + axis] - centerBounds[axis];
+                if (extent <= 0f) {
+                    continue;
+                }
+
+                if (chunked) {
+                    binTrianglesChunked(scratch, start, end, axis, centerBounds[axis], NUMBER_OF_BINS / extent);
+                } else {
+                    binTriangles(start, end, axis, centerBounds[axis], NUMBER_OF_BINS / extent, binCount, binBounds, 0);
+                }
+
+                float rMinX = Float.POSITIVE_INFINITY;
+                float rMinY = Float.POSITIVE_INFINITY;
+                float rMinZ = Float.POSITIVE_INFINITY;
+                float rMaxX = Float.NEGATIVE_INFINITY;
+                float rMaxY = Float.NEGATIVE_INFINITY;
+                float rMaxZ = Float.NEGATIVE_INFINITY;
+                int rCount = 0;
+                for (int bin = NUMBER_OF_BINS - 1; bin > 0; bin--) {
+                    if (binCount[bin] != 0) {
+                        rMinX = Math.min(rMinX, binBounds[(bin * 6) + 0]);
+                        rMinY = Math.min(rMinY, binBounds[(bin * 6) + 1]);
+                        rMinZ = Math.min(rMinZ, binBounds[(bin * 6) + 2]);
+                        rMaxX = Math.max(rMaxX, binBounds[(bin * 6) + 3]);
+                        rMaxY = Math.max(rMaxY, binBounds[(bin * 6) + 4]);
+                        rMaxZ = Math.max(rMaxZ, binBounds[(bin * 6) + 5]);
+                        rCount += binCount[bin];
+                    }
+                    rightCount[bin] = rCount;
+                    rightArea[bin] = (rCount == 0 ? 0f : surfaceArea(rMinX, rMinY, rMinZ, rMaxX, rMaxY, rMaxZ));
+                }
+
+                float lMinX = Float.POSITIVE_INFINITY;
+                float lMinY = Float.POSITIVE_INFINITY;
+                float lMinZ = Float.POSITIVE_INFINITY;
+                float lMaxX = Float.NEGATIVE_INFINITY;
+                float lMaxY = Float.NEGATIVE_INFINITY;
+                float lMaxZ = Float.NEGATIVE_INFINITY;
+                int lCount = 0;
+                for (int bin = 0; bin < NUMBER_OF_BINS - 1; bin++) {
+                    if (binCount[bin] != 0) {
+                        lMinX = Math.min(lMinX, binBounds[(bin * 6) + 0]);
+                        lMinY = Math.min(lMinY, binBounds[(bin * 6) + 1]);
+                        lMinZ = Math.min(lMinZ, binBounds[(bin * 6) + 2]);
+                        lMaxX = Math.max(lMaxX, binBounds[(bin * 6) + 3]);
+                        lMaxY = Math.max(lMaxY, binBounds[(bin * 6) + 4]);
+                        lMaxZ = Math.max(lMaxZ, binBounds[(bin * 6) + 5]);
+                        lCount += binCount[bin];
+                    }
+
+                    int rc = rightCount[bin + 1];
+                    if (lCount == 0 || rc == 0) {
+                        continue;
+                    }
+
+                    float leftArea = surfaceArea(lMinX, lMinY, lMinZ, lMaxX, lMaxY, lMaxZ);
+                    float cost = TRAVERSAL_COST
+                            + ((((leftArea * lCount) + (rightArea[bin + 1] * rc)) / parentArea) * INTERSECTION_COST);
+
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestBin = bin;
+                    }
+                }
+            }
+        }
+
+        if (count <= MAX_LEAF_SIZE && (bestAxis == -1 || bestCost >= leafCost)) {
+            return -1;
+        }
+
+        int middle = -1;
+        if (bestAxis != -1) {
+            float axisMin = centerBounds[bestAxis];
+            float axisMax = centerBounds[3 + bestAxis];
+            float scale = NUMBER_OF_BINS / (axisMax - axisMin);
+            if (chunked) {
+                middle = partitionChunked(start, end, bestAxis, bestBin, axisMin, scale);
+            } else {
+                middle = partition(start, end, bestAxis, bestBin, axisMin, scale);
+            }
+        }
+        if (middle <= start || middle >= end) {
+            middle = start + (count / 2);
+        }
+
+        return middle;
+    }
+
+    private int bin(int triangle, int axis, float axisMin, float scale) {
+        int bin = (int) ((this.triangleCenters[(triangle * 3) + axis] - axisMin) * scale);
+        return Math.min(Math.max(bin, 0), NUMBER_OF_BINS - 1);
+    }
+
+    private void binTriangles(
+            int start, int end, int axis, float axisMin, float scale,
+            int[] binCount, float[] binBounds, int binOffset
+    ) {
+        Arrays.fill(binCount, binOffset, binOffset + NUMBER_OF_BINS, 0);
+        for (int bin = 0; bin < NUMBER_OF_BINS; bin++) {
+            resetBounds(binBounds, (binOffset + bin) * 6);
+        }
+
+        for (int i = start; i < end; i++) {
+            int triangle = this.triangles[i];
+            int bin = binOffset + bin(triangle, axis, axisMin, scale);
+
+            binCount[bin]++;
+            mergeBounds(binBounds, bin * 6, this.triangleBounds, triangle * 6);
+        }
+    }
+
+    private void binTrianglesChunked(Scratch scratch, int start, int end, int axis, float axisMin, float scale) {
+        int chunks = chunks(end - start);
+        int[] chunkBinCount = new int[chunks * NUMBER_OF_BINS];
+        float[] chunkBinBounds = new float[chunks * NUMBER_OF_BINS * 6];
+
+        runChunks(chunks, (chunk) -> {
+            int chunkStart = start + (chunk * PARALLEL_CHUNK_SIZE);
+            int chunkEnd = Math.min(chunkStart + PARALLEL_CHUNK_SIZE, end);
+            binTriangles(
+                    chunkStart, chunkEnd, axis, axisMin, scale,
+                    chunkBinCount, chunkBinBounds, chunk * NUMBER_OF_BINS
+            );
+        });
+
+        Arrays.fill(scratch.binCount, 0);
+        for (int bin = 0; bin < NUMBER_OF_BINS; bin++) {
+            resetBounds(scratch.binBounds, bin * 6);
+        }
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            for (int bin = 0; bin < NUMBER_OF_BINS; bin++) {
+                int chunkBin = (chunk * NUMBER_OF_BINS) + bin;
+                scratch.binCount[bin] += chunkBinCount[chunkBin];
+                mergeBounds(scratch.binBounds, bin * 6, chunkBinBounds, chunkBin * 6);
+            }
+        }
+    }
+
+    private int partition(int start, int end, int axis, int splitBin, float axisMin, float scale) {
+        int i = start;
+        int j = end - 1;
+        while (i <= j) {
+            if (bin(this.triangles[i], axis, axisMin, scale) <= splitBin) {
+                i++;
+            } else {
+                int swap = this.triangles[i];
+                this.triangles[i] = this.triangles[j];
+                this.triangles[j] = swap;
+                j--;
+            }
+        }
+        return i;
+    }
+
+    private int partitionChunked(int start, int end, int axis, int splitBin, float axisMin, float scale) {
+        int chunks = chunks(end - start);
+        int[] leftCounts = new int[chunks];
+
+        runChunks(chunks, (chunk) -> {
+            int chunkStart = start + (chunk * PARALLEL_CHUNK_SIZE);
+            int chunkEnd = Math.min(chunkStart + PARALLEL_CHUNK_SIZE, end);
+            int leftCount = 0;
+            for (int i = chunkStart; i < chunkEnd; i++) {
+                if (bin(this.triangles[i], axis, axisMin, scale) <= splitBin) {
+                    leftCount++;
+                }
+            }
+            leftCounts[chunk] = leftCount;
+        });
+
+        int[] leftOffsets = new int[chunks];
+        int[] rightOffsets = new int[chunks];
+        int totalLeft = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            leftOffsets[chunk] = totalLeft;
+            totalLeft += leftCounts[chunk];
+        }
+        int totalRight = 0;
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            rightOffsets[chunk] = totalLeft + totalRight;
+            totalRight += Math.min(PARALLEL_CHUNK_SIZE, end - (start + (chunk * PARALLEL_CHUNK_SIZE))) - leftCounts[chunk];
+        }
+
+        int[] partitioned = new int[end - start];
+        runChunks(chunks, (chunk) -> {
+            int chunkStart = start + (chunk * PARALLEL_CHUNK_SIZE);
+            int chunkEnd = Math.min(chunkStart + PARALLEL_CHUNK_SIZE, end);
+            int left = leftOffsets[chunk];
+            int right = rightOffsets[chunk];
+            for (int i = chunkStart; i < chunkEnd; i++) {
+                int triangle = this.triangles[i];
+                if (bin(triangle, axis, axisMin, scale) <= splitBin) {
+                    partitioned[left++] = triangle;
+                } else {
+                    partitioned[right++] = triangle;
+                }
+            }
+        });
+        System.arraycopy(partitioned, 0, this.triangles, start, partitioned.length);
+
+        return start + totalLeft;
+    }
+
+    private int leaf(BVHNodeBuffer buffer, float[] bounds, int start, int end, int depth) {
+        int node = buffer.addNode(depth);
+        buffer.setBounds(node, bounds[0], bounds[1], bounds[2], bounds[3], bounds[4], bounds[5]);
+        buffer.setLeaf(node, start, end - start);
+        return node;
+    }
+
+}
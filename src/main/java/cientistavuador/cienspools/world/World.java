@@ -211,6 +211,10 @@ public class World {
         for (WorldEntity e:this.worldEntities) {
             e.onWorldUpdate(this, tpf);
         }
+
+        if (this.map != null) {
+            this.map.refitInstances();
+        }
         
         if (this.player != null) {
             this.audioSpace.getListenerPosition().set(this.player.getCamera().getPosition());
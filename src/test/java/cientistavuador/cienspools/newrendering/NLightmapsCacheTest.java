@@ -0,0 +1,165 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.newrendering;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author Cien
+ */
+public class NLightmapsCacheTest {
+
+    @TempDir
+    Path directory;
+
+    private final Path cacheDirectory = NLightmapsCache.CACHE_DIRECTORY;
+    private final long maxCacheSize = NLightmapsCache.MAX_CACHE_SIZE;
+    private final int maxCacheEntries = NLightmapsCache.MAX_CACHE_ENTRIES;
+
+    @AfterEach
+    public void restore() {
+        NLightmapsCache.CACHE_DIRECTORY = this.cacheDirectory;
+        NLightmapsCache.MAX_CACHE_SIZE = this.maxCacheSize;
+        NLightmapsCache.MAX_CACHE_ENTRIES = this.maxCacheEntries;
+    }
+
+    private Path entry(String key, int size, long lastModified) throws IOException {
+        Path file = this.directory.resolve(key + "." + NLightmapsCache.EXTENSION);
+        Files.write(file, new byte[size]);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(lastModified));
+        return file;
+    }
+
+    private void configure(long maxSize, int maxEntries) {
+        NLightmapsCache.CACHE_DIRECTORY = this.directory;
+        NLightmapsCache.MAX_CACHE_SIZE = maxSize;
+        NLightmapsCache.MAX_CACHE_ENTRIES = maxEntries;
+    }
+
+    @Test
+    public void testEvictKeepsTheNewestEntriesWithinTheSizeLimit() throws IOException {
+        Path a = entry("a", 100, 1000);
+        Path b = entry("b", 100, 2000);
+        Path c = entry("c", 100, 3000);
+        Path d = entry("d", 100, 4000);
+        configure(250, 100);
+
+        NLightmapsCache.evict();
+
+        assertFalse(Files.exists(a));
+        assertFalse(Files.exists(b));
+        assertTrue(Files.exists(c));
+        assertTrue(Files.exists(d));
+    }
+
+    @Test
+    public void testEvictKeepsSmallerEntriesAfterALargeOne() throws IOException {
+        Path large = entry("large", 500, 3000);
+        Path small = entry("small", 100, 2000);
+        Path newest = entry("newest", 100, 4000);
+        configure(300, 100);
+
+        NLightmapsCache.evict();
+
+        assertTrue(Files.exists(newest));
+        assertFalse(Files.exists(large));
+        assertTrue(Files.exists(small), "an older entry that still fits must be kept");
+    }
+
+    @Test
+    public void testEvictRespectsTheEntryLimit() throws IOException {
+        Path[] files = new Path[6];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = entry("entry" + i, 10, 1000L * (i + 1));
+        }
+        configure(Long.MAX_VALUE, 2);
+
+        NLightmapsCache.evict();
+
+        for (int i = 0; i < files.length; i++) {
+            assertEquals(i >= 4, Files.exists(files[i]), files[i].toString());
+        }
+    }
+
+    @Test
+    public void testEvictBreaksTiesByName() throws IOException {
+        Path c = entry("c", 10, 5000);
+        Path a = entry("a", 10, 5000);
+        Path b = entry("b", 10, 5000);
+        configure(Long.MAX_VALUE, 2);
+
+        NLightmapsCache.evict();
+
+        assertTrue(Files.exists(a));
+        assertTrue(Files.exists(b));
+        assertFalse(Files.exists(c));
+    }
+
+    @Test
+    public void testEvictIgnoresOtherFiles() throws IOException {
+        Path other = this.directory.resolve("readme.txt");
+        Files.write(other, new byte[1000]);
+        Path entry = entry("entry", 10, 1000);
+        configure(100, 1);
+
+        NLightmapsCache.evict();
+
+        assertTrue(Files.exists(other));
+        assertTrue(Files.exists(entry));
+    }
+
+    @Test
+    public void testReadDropsCorruptedEntries() throws IOException {
+        Path corrupted = entry("corrupted", 64, 1000);
+        configure(Long.MAX_VALUE, 100);
+
+        assertNull(NLightmapsCache.read("missing"));
+        assertNull(NLightmapsCache.read("corrupted"));
+        assertFalse(Files.exists(corrupted));
+    }
+
+    @Test
+    public void testClearDeletesEveryEntry() throws IOException {
+        Path a = entry("a", 10, 1000);
+        Path b = entry("b", 10, 2000);
+        configure(Long.MAX_VALUE, 100);
+
+        NLightmapsCache.clear();
+
+        assertFalse(Files.exists(a));
+        assertFalse(Files.exists(b));
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.bakedlighting;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Cien
+ */
+public class LightmapperSamplerTest {
+
+    @Test
+    public void testSamplesAreDeterministic() {
+        for (int seed : new int[]{0, 1, -7, 123456789}) {
+            for (int dimension = 0; dimension < LightmapperSampler.DIMENSIONS; dimension++) {
+                for (int index = 0; index < 256; index++) {
+                    float a = LightmapperSampler.sample(index, dimension, seed);
+                    float b = LightmapperSampler.sample(index, dimension, seed);
+                    assertEquals(Float.floatToRawIntBits(a), Float.floatToRawIntBits(b));
+                    assertTrue(a >= 0f && a < 1f, "sample out of range: " + a);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSeedsAndSaltsAreDeterministic() {
+        int salt = LightmapperSampler.salt(LightmapperSampler.SALT_INDIRECT, 3, 1);
+        assertEquals(salt, LightmapperSampler.salt(LightmapperSampler.SALT_INDIRECT, 3, 1));
+        assertNotEquals(salt, LightmapperSampler.salt(LightmapperSampler.SALT_SHADOW, 3, 1));
+        assertNotEquals(salt, LightmapperSampler.salt(LightmapperSampler.SALT_INDIRECT, 4, 1));
+        assertNotEquals(salt, LightmapperSampler.salt(LightmapperSampler.SALT_INDIRECT, 3, 2));
+
+        int seed = LightmapperSampler.seed(10, 20, salt);
+        assertEquals(seed, LightmapperSampler.seed(10, 20, salt));
+        assertNotEquals(seed, LightmapperSampler.seed(20, 10, salt));
+    }
+
+    @Test
+    public void testSamplesAreStratified() {
+        int count = 16;
+        for (int seed : new int[]{0, 42, LightmapperSampler.seed(5, 9, 77)}) {
+            for (int dimension = 0; dimension < LightmapperSampler.DIMENSIONS; dimension++) {
+                boolean[] strata = new boolean[count];
+                for (int index = 0; index < count; index++) {
+                    int stratum = (int) (LightmapperSampler.sample(index, dimension, seed) * count);
+                    assertFalse(strata[stratum], "two samples in the same stratum, dimension " + dimension);
+                    strata[stratum] = true;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDifferentSeedsDecorrelate() {
+        int equal = 0;
+        for (int index = 0; index < 64; index++) {
+            float a = LightmapperSampler.sample(index, 0, LightmapperSampler.seed(0, 0, 1));
+            float b = LightmapperSampler.sample(index, 0, LightmapperSampler.seed(1, 0, 1));
+            if (a == b) {
+                equal++;
+            }
+        }
+        assertTrue(equal < 4, equal + " equal samples between neighbour seeds");
+    }
+
+}
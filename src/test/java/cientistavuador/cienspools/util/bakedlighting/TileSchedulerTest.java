@@ -0,0 +1,147 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.bakedlighting;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Cien
+ */
+public class TileSchedulerTest {
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> void sneakyThrow(Throwable t) throws T {
+        throw (T) t;
+    }
+
+    @Test
+    public void testCreateTilesSkipsEmptyTilesAndSortsByCost() {
+        List<TileScheduler.Tile> tiles = TileScheduler.createTiles(40, 20, 16, (x, y) -> (x < 16 && y < 16) ? 0 : x);
+
+        assertEquals(5, tiles.size());
+        long pixels = 0;
+        for (int i = 0; i < tiles.size(); i++) {
+            TileScheduler.Tile tile = tiles.get(i);
+            assertFalse(tile.getX() == 0 && tile.getY() == 0, "empty tile was kept");
+            assertTrue(tile.getCost() > 0);
+            if (i > 0) {
+                assertTrue(tiles.get(i - 1).getCost() >= tile.getCost(), "tiles are not sorted by cost");
+            }
+            pixels += tile.getPixels();
+        }
+        assertEquals((40 * 20) - (16 * 16), pixels);
+
+        TileScheduler.Tile edge = tiles.stream().filter(t -> t.getX() == 32 && t.getY() == 16).findFirst().orElseThrow();
+        assertEquals(8, edge.getWidth());
+        assertEquals(4, edge.getHeight());
+        assertEquals(0, edge.localIndex(32, 16));
+        assertEquals(9, edge.localIndex(33, 17));
+
+        assertThrows(IllegalArgumentException.class, () -> TileScheduler.createTiles(4, 4, 0, (x, y) -> 1));
+    }
+
+    @Test
+    public void testExecuteRunsEveryTile() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            AtomicInteger sum = new AtomicInteger();
+            AtomicInteger finished = new AtomicInteger();
+            List<TileScheduler.Tile> tiles = TileScheduler.createUnitTiles(100);
+            TileScheduler.execute(executor, tiles, (tile) -> sum.addAndGet(tile.getX()), finished::incrementAndGet);
+            assertEquals(99 * 100 / 2, sum.get());
+            assertEquals(100, finished.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExecuteRethrowsUnwrappedExceptions() {
+        List<TileScheduler.Tile> tiles = TileScheduler.createUnitTiles(8);
+
+        IllegalStateException runtime = new IllegalStateException("tile failed");
+        assertSame(runtime, assertThrows(IllegalStateException.class, () -> TileScheduler.execute(Runnable::run, tiles, (tile) -> {
+            if (tile.getX() == 5) {
+                throw runtime;
+            }
+        }, null)));
+
+        AssertionError error = new AssertionError("tile error");
+        assertSame(error, assertThrows(AssertionError.class, () -> TileScheduler.execute(Runnable::run, tiles, (tile) -> {
+            throw error;
+        }, null)));
+
+        IOException checked = new IOException("tile io");
+        RuntimeException wrapped = assertThrows(RuntimeException.class, () -> TileScheduler.execute(Runnable::run, tiles, (tile) -> {
+            TileSchedulerTest.<RuntimeException>sneakyThrow(checked);
+        }, null));
+        assertSame(checked, wrapped.getCause());
+    }
+
+    @Test
+    public void testExecuteRethrowsRejections() {
+        RejectedExecutionException rejected = new RejectedExecutionException("shut down");
+        assertSame(rejected, assertThrows(RejectedExecutionException.class, () -> TileScheduler.execute((command) -> {
+            throw rejected;
+        }, TileScheduler.createUnitTiles(4), (tile) -> {
+        }, null)));
+    }
+
+    @Test
+    public void testInterruptedWaitIsCancellation() throws InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            Thread.currentThread().interrupt();
+            CancellationException cancelled = assertThrows(CancellationException.class, () -> TileScheduler.execute(executor, TileScheduler.createUnitTiles(2), (tile) -> {
+                try {
+                    latch.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }, null));
+            assertTrue(Thread.interrupted(), "the interrupt flag must be restored");
+            assertTrue(cancelled.getCause() instanceof InterruptedException);
+        } finally {
+            latch.countDown();
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+
+}
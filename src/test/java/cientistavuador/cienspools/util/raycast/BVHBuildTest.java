@@ -0,0 +1,176 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import java.util.List;
+import java.util.Random;
+import org.joml.Intersectionf;
+import org.joml.Vector3f;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Cien
+ */
+public class BVHBuildTest {
+
+    static float[] randomTriangles(Random random, int amount, float area, float triangleSize) {
+        float[] vertices = new float[amount * 9];
+        for (int t = 0; t < amount; t++) {
+            float cx = random.nextFloat() * area;
+            float cy = random.nextFloat() * area;
+            float cz = random.nextFloat() * area;
+            for (int v = 0; v < 3; v++) {
+                vertices[(t * 9) + (v * 3) + 0] = cx + (random.nextFloat() * triangleSize);
+                vertices[(t * 9) + (v * 3) + 1] = cy + (random.nextFloat() * triangleSize);
+                vertices[(t * 9) + (v * 3) + 2] = cz + (random.nextFloat() * triangleSize);
+            }
+        }
+        return vertices;
+    }
+
+    static int[] sequentialIndices(int amount) {
+        int[] indices = new int[amount * 3];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = i;
+        }
+        return indices;
+    }
+
+    static float bruteForceClosest(float[] vertices, Vector3f origin, Vector3f direction) {
+        float closest = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < vertices.length; i += 9) {
+            float hit = Intersectionf.intersectRayTriangle(
+                    origin.x(), origin.y(), origin.z(),
+                    direction.x(), direction.y(), direction.z(),
+                    vertices[i + 0], vertices[i + 1], vertices[i + 2],
+                    vertices[i + 3], vertices[i + 4], vertices[i + 5],
+                    vertices[i + 6], vertices[i + 7], vertices[i + 8],
+                    1e-5f
+            );
+            if (hit >= 0f) {
+                closest = Math.min(closest, hit);
+            }
+        }
+        return closest;
+    }
+
+    static float closestSorted(BVH bvh, Vector3f origin, Vector3f direction) {
+        List<LocalRayResult> hits = bvh.testRaySorted(origin, direction, false);
+        if (hits.isEmpty()) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return hits.get(0).getLocalDistance();
+    }
+
+    @Test
+    public void testSAHAndPairMergeFindTheSameClosestHits() {
+        Random random = new Random(3);
+        int amount = 2000;
+        float[] vertices = randomTriangles(random, amount, 100f, 3f);
+        int[] indices = sequentialIndices(amount);
+
+        BVH pairMerge = BVH.create(null, vertices, indices, 3, 0, BVH.BuildMode.PAIR_MERGE);
+        BVH sah = BVH.create(null, vertices, indices, 3, 0, BVH.BuildMode.SAH_BINNED);
+
+        assertEquals(amount, pairMerge.getAmountOfTriangles());
+        assertEquals(amount, sah.getAmountOfTriangles());
+
+        Vector3f origin = new Vector3f();
+        Vector3f direction = new Vector3f();
+
+        int hits = 0;
+        for (int i = 0; i < 2000; i++) {
+            origin.set(random.nextFloat() * 100f, random.nextFloat() * 100f, random.nextFloat() * 100f);
+            direction.set(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f).normalize();
+
+            float expected = bruteForceClosest(vertices, origin, direction);
+            float pairMergeClosest = closestSorted(pairMerge, origin, direction);
+            float sahClosest = closestSorted(sah, origin, direction);
+
+            assertEquals(Float.isFinite(expected), Float.isFinite(pairMergeClosest), "pair merge hit");
+            assertEquals(Float.isFinite(pairMergeClosest), Float.isFinite(sahClosest), "sah hit");
+            if (Float.isFinite(sahClosest)) {
+                hits++;
+                assertEquals(expected, pairMergeClosest, 1e-4f, "pair merge distance");
+                assertEquals(pairMergeClosest, sahClosest, 1e-4f, "sah distance");
+            }
+
+            float length = random.nextFloat() * 30f;
+            assertEquals(expected <= length, pairMerge.fastTestRay(origin, direction, length), "pair merge any hit");
+            assertEquals(expected <= length, sah.fastTestRay(origin, direction, length), "sah any hit");
+        }
+        assertTrue(hits > 100, "too few rays hit the scene");
+    }
+
+    @Test
+    public void testClosestHitQueriesMatchSortedHits() {
+        Random random = new Random(5);
+        int amount = 2000;
+        float[] vertices = randomTriangles(random, amount, 100f, 3f);
+        int[] indices = sequentialIndices(amount);
+
+        Vector3f origin = new Vector3f();
+        Vector3f direction = new Vector3f();
+        LocalRayHit hit = new LocalRayHit();
+
+        for (BVH.BuildMode mode : BVH.BuildMode.values()) {
+            BVH bvh = BVH.create(null, vertices, indices, 3, 0, mode);
+            for (int i = 0; i < 1000; i++) {
+                origin.set(random.nextFloat() * 100f, random.nextFloat() * 100f, random.nextFloat() * 100f);
+                direction.set(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f).normalize();
+
+                float expected = closestSorted(bvh, origin, direction);
+                hit.reset();
+                boolean found = bvh.testRayClosest(origin, direction, hit);
+                assertEquals(Float.isFinite(expected), found, mode + " closest hit");
+                assertEquals(found, hit.hasHit(), mode + " hit record");
+                if (found) {
+                    assertEquals(expected, hit.getLocalDistance(), 1e-4f, mode + " closest distance");
+                    assertSame(bvh, hit.getOriginBVH());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSAHIsNotWorseThanPairMerge() {
+        Random random = new Random(7);
+        int amount = 4000;
+        float[] vertices = randomTriangles(random, amount, 100f, 2f);
+        int[] indices = sequentialIndices(amount);
+
+        BVH pairMerge = BVH.create(null, vertices, indices, 3, 0, BVH.BuildMode.PAIR_MERGE);
+        BVH sah = BVH.create(null, vertices, indices, 3, 0, BVH.BuildMode.SAH_BINNED);
+
+        double sahCost = BVHReport.create(sah).getSAHCost();
+        double pairMergeCost = BVHReport.create(pairMerge).getSAHCost();
+        assertTrue(sahCost <= pairMergeCost, "sah cost " + sahCost + " pair merge cost " + pairMergeCost);
+    }
+
+}
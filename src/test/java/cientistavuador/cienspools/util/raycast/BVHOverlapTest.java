@@ -0,0 +1,197 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.joml.Intersectionf;
+import org.joml.Vector3f;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Cien
+ */
+public class BVHOverlapTest {
+
+    private static final int AMOUNT = 2000;
+
+    private static Set<Integer> toSet(OverlapQuery query) {
+        Set<Integer> set = new HashSet<>();
+        for (int i = 0; i < query.size(); i++) {
+            assertTrue(set.add(query.get(i)), "duplicated triangle " + query.get(i));
+        }
+        return set;
+    }
+
+    private static Set<Integer> bruteForceSphere(float[] vertices, float x, float y, float z, float radius) {
+        Set<Integer> set = new HashSet<>();
+        Vector3f closest = new Vector3f();
+        for (int t = 0; t < vertices.length / 9; t++) {
+            int i = t * 9;
+            int result = Intersectionf.intersectSphereTriangle(
+                    x, y, z, radius,
+                    vertices[i + 0], vertices[i + 1], vertices[i + 2],
+                    vertices[i + 3], vertices[i + 4], vertices[i + 5],
+                    vertices[i + 6], vertices[i + 7], vertices[i + 8],
+                    closest
+            );
+            if (result != 0) {
+                set.add(t);
+            }
+        }
+        return set;
+    }
+
+    private static Set<Integer> bruteForceAab(
+            float[] vertices,
+            float minX, float minY, float minZ,
+            float maxX, float maxY, float maxZ
+    ) {
+        Set<Integer> set = new HashSet<>();
+        for (int t = 0; t < vertices.length / 9; t++) {
+            int i = t * 9;
+            if (IntersectionUtils.testAabTriangle(
+                    minX, minY, minZ,
+                    maxX, maxY, maxZ,
+                    vertices[i + 0], vertices[i + 1], vertices[i + 2],
+                    vertices[i + 3], vertices[i + 4], vertices[i + 5],
+                    vertices[i + 6], vertices[i + 7], vertices[i + 8]
+            )) {
+                set.add(t);
+            }
+        }
+        return set;
+    }
+
+    @Test
+    public void testOverlapSphere() {
+        Random random = new Random(1);
+        float[] vertices = BVHBuildTest.randomTriangles(random, AMOUNT, 100f, 3f);
+        BVH bvh = BVH.create(null, vertices, BVHBuildTest.sequentialIndices(AMOUNT), 3, 0);
+        OverlapQuery query = new OverlapQuery();
+
+        int found = 0;
+        for (int i = 0; i < 300; i++) {
+            float x = random.nextFloat() * 100f;
+            float y = random.nextFloat() * 100f;
+            float z = random.nextFloat() * 100f;
+            float radius = random.nextFloat() * 10f;
+
+            Set<Integer> expected = bruteForceSphere(vertices, x, y, z, radius);
+
+            query.clear();
+            assertEquals(expected.size(), bvh.overlapSphere(x, y, z, radius, query));
+            assertEquals(expected, toSet(query));
+            assertEquals(expected, bvh.testSphere(x, y, z, radius));
+
+            query.clear();
+            assertEquals(!expected.isEmpty(), bvh.fastTestSphere(x, y, z, radius, query));
+            assertEquals(!expected.isEmpty(), bvh.fastTestSphere(x, y, z, radius));
+
+            found += expected.size();
+        }
+        assertTrue(found > 0, "no sphere overlapped the scene");
+    }
+
+    @Test
+    public void testOverlapAab() {
+        Random random = new Random(2);
+        float[] vertices = BVHBuildTest.randomTriangles(random, AMOUNT, 100f, 3f);
+        BVH bvh = BVH.create(null, vertices, BVHBuildTest.sequentialIndices(AMOUNT), 3, 0);
+        OverlapQuery query = new OverlapQuery();
+
+        int found = 0;
+        for (int i = 0; i < 300; i++) {
+            float minX = random.nextFloat() * 100f;
+            float minY = random.nextFloat() * 100f;
+            float minZ = random.nextFloat() * 100f;
+            float maxX = minX + (random.nextFloat() * 15f);
+            float maxY = minY + (random.nextFloat() * 15f);
+            float maxZ = minZ + (random.nextFloat() * 15f);
+
+            Set<Integer> expected = bruteForceAab(vertices, minX, minY, minZ, maxX, maxY, maxZ);
+
+            query.clear();
+            assertEquals(expected.size(), bvh.overlapAab(minX, minY, minZ, maxX, maxY, maxZ, query));
+            assertEquals(expected, toSet(query));
+
+            query.clear();
+            assertEquals(!expected.isEmpty(), bvh.fastTestAab(minX, minY, minZ, maxX, maxY, maxZ, query));
+
+            found += expected.size();
+        }
+        assertTrue(found > 0, "no box overlapped the scene");
+    }
+
+    @Test
+    public void testQueriesAccumulateUntilCleared() {
+        Random random = new Random(3);
+        float[] vertices = BVHBuildTest.randomTriangles(random, AMOUNT, 100f, 3f);
+        BVH bvh = BVH.create(null, vertices, BVHBuildTest.sequentialIndices(AMOUNT), 3, 0);
+        OverlapQuery query = new OverlapQuery(1);
+
+        int first = bvh.overlapSphere(25f, 25f, 25f, 20f, query);
+        int second = bvh.overlapSphere(75f, 75f, 75f, 20f, query);
+        assertTrue(first > 0 && second > 0);
+        assertEquals(first + second, query.size());
+
+        query.clear();
+        assertTrue(query.isEmpty());
+    }
+
+    @Test
+    public void testVisitorStopsEarly() {
+        Random random = new Random(4);
+        float[] vertices = BVHBuildTest.randomTriangles(random, AMOUNT, 100f, 3f);
+        BVH bvh = BVH.create(null, vertices, BVHBuildTest.sequentialIndices(AMOUNT), 3, 0);
+        OverlapQuery query = new OverlapQuery();
+
+        Set<Integer> expected = bruteForceSphere(vertices, 50f, 50f, 50f, 30f);
+        assertTrue(expected.size() > 3);
+
+        int[] visited = {0};
+        assertTrue(bvh.overlapSphere(50f, 50f, 50f, 30f, query, (b, triangle) -> {
+            assertSame(bvh, b);
+            assertTrue(expected.contains(triangle));
+            visited[0]++;
+            return visited[0] < 3;
+        }));
+        assertEquals(3, visited[0]);
+
+        Set<Integer> all = new HashSet<>();
+        query.clear();
+        assertFalse(bvh.overlapSphere(50f, 50f, 50f, 30f, query, (b, triangle) -> {
+            all.add(triangle);
+            return true;
+        }));
+        assertEquals(expected, all);
+    }
+
+}
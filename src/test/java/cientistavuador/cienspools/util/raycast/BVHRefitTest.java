@@ -0,0 +1,131 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import java.util.Random;
+import org.joml.Vector3f;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+
+/**
+ *
+ * @author Cien
+ */
+public class BVHRefitTest {
+
+    private static void twist(float[] base, float[] output, float amount) {
+        for (int i = 0; i < base.length; i += 3) {
+            float x = base[i + 0] - 50f;
+            float y = base[i + 1];
+            float z = base[i + 2] - 50f;
+            float angle = amount * (y / 100f) * 3f;
+            float cos = (float) Math.cos(angle);
+            float sin = (float) Math.sin(angle);
+            output[i + 0] = ((x * cos) - (z * sin)) + 50f;
+            output[i + 1] = y;
+            output[i + 2] = ((x * sin) + (z * cos)) + 50f;
+        }
+    }
+
+    private static void scramble(float[] vertices, Random random) {
+        for (int i = 0; i < vertices.length; i += 18) {
+            float offset = (random.nextFloat() - 0.5f) * 60f;
+            for (int v = 0; v < 3; v++) {
+                vertices[i + (v * 3)] += offset;
+            }
+        }
+    }
+
+    private static void assertMatchesBruteForce(BVH bvh, float[] vertices, Random random) {
+        Vector3f origin = new Vector3f();
+        Vector3f direction = new Vector3f();
+        LocalRayHit hit = new LocalRayHit();
+        for (int i = 0; i < 500; i++) {
+            origin.set(random.nextFloat() * 100f, random.nextFloat() * 100f, random.nextFloat() * 100f);
+            direction.set(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f).normalize();
+
+            float expected = BVHBuildTest.bruteForceClosest(vertices, origin, direction);
+            boolean found = bvh.testRayClosest(origin, direction, Float.POSITIVE_INFINITY, false, hit);
+            assertEquals(Float.isFinite(expected), found, "closest hit");
+            if (found) {
+                assertEquals(expected, hit.getLocalDistance(), 1e-3f, "closest distance");
+            }
+
+            float length = random.nextFloat() * 30f;
+            assertEquals(expected <= length, bvh.fastTestRay(origin, direction, length), "any hit");
+        }
+    }
+
+    @Test
+    public void testRefitFollowsDeformedVertices() {
+        Random random = new Random(1);
+        int amount = 2000;
+        float[] base = BVHBuildTest.randomTriangles(random, amount, 100f, 1f);
+        float[] vertices = base.clone();
+        BVH bvh = BVH.create(null, vertices, BVHBuildTest.sequentialIndices(amount), 3, 0);
+
+        for (int frame = 1; frame <= 3; frame++) {
+            twist(base, vertices, frame * 0.4f);
+            bvh.refit();
+            assertMatchesBruteForce(bvh, vertices, random);
+        }
+    }
+
+    @Test
+    public void testRefitRotatesAfterLargeChanges() {
+        Random random = new Random(2);
+        int amount = 2000;
+        float[] vertices = BVHBuildTest.randomTriangles(random, amount, 100f, 1f);
+        BVH bvh = BVH.create(null, vertices, BVHBuildTest.sequentialIndices(amount), 3, 0);
+        float cost = bvh.calculateCost();
+
+        scramble(vertices, random);
+        assertTrue(bvh.refit(1f), "refit should rotate nodes once the cost grows");
+        assertMatchesBruteForce(bvh, vertices, random);
+        assertTrue(bvh.calculateCost() > cost);
+    }
+
+    @Test
+    public void testCopyRefitsIndependently() {
+        Random random = new Random(3);
+        int amount = 1000;
+        float[] base = BVHBuildTest.randomTriangles(random, amount, 100f, 1f);
+        float[] vertices = base.clone();
+        BVH bvh = BVH.create(null, vertices, BVHBuildTest.sequentialIndices(amount), 3, 0);
+        float[] originalBounds = bvh.getNodeBounds().clone();
+
+        float[] copyVertices = new float[vertices.length];
+        BVH copy = bvh.copy(copyVertices, 3, 0);
+        twist(base, copyVertices, 1f);
+        copy.refit();
+
+        assertArrayEquals(originalBounds, bvh.getNodeBounds(), "the original must not change");
+        assertMatchesBruteForce(bvh, vertices, random);
+        assertMatchesBruteForce(copy, copyVertices, random);
+    }
+
+}
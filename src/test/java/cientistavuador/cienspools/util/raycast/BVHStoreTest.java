@@ -0,0 +1,118 @@
+/*
+ * This is free and unencumbered software released into the public domain.
+ *
+ * Anyone is free to copy, modify, publish, use, compile, sell, or
+ * distribute this software, either in source code form or as a compiled
+ * binary, for any purpose, commercial or non-commercial, and by any
+ * means.
+ *
+ * In jurisdictions that recognize copyright laws, the author or authors
+ * of this software dedicate any and all copyright interest in the
+ * software to the public domain. We make this dedication for the benefit
+ * of the public at large and to the detriment of our heirs and
+ * successors. We intend this dedication to be an overt act of
+ * relinquishment in perpetuity of all present and future rights to this
+ * software under copyright law.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS BE LIABLE FOR ANY CLAIM, DAMAGES OR
+ * OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE,
+ * ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR
+ * OTHER DEALINGS IN THE SOFTWARE.
+ *
+ * For more information, please refer to <https://unlicense.org>
+ */
+package cientistavuador.cienspools.util.raycast;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ *
+ * @author Cien
+ */
+public class BVHStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private static void assertSameTree(BVH expected, BVH actual) {
+        assertArrayEquals(expected.getNodeBounds(), actual.getNodeBounds(), "node bounds");
+        assertArrayEquals(expected.getNodeData(), actual.getNodeData(), "node data");
+        assertArrayEquals(expected.getNodeTriangles(), actual.getNodeTriangles(), "node triangles");
+        assertEquals(expected.getMaxDepth(), actual.getMaxDepth(), "max depth");
+        assertEquals(expected.getAmountOfNodes(), actual.getAmountOfNodes(), "amount of nodes");
+    }
+
+    private static BVH createBVH(float[] vertices, int[] indices) {
+        return BVH.create(null, vertices, indices, 3, 0);
+    }
+
+    @Test
+    public void testStreamRoundTrip() throws IOException {
+        int amount = 1000;
+        float[] vertices = BVHBuildTest.randomTriangles(new Random(1), amount, 100f, 3f);
+        int[] indices = BVHBuildTest.sequentialIndices(amount);
+        BVH bvh = createBVH(vertices, indices);
+
+        byte[] data = BVHStore.writeBVH(bvh);
+        BVH read = BVHStore.readBVH(new ByteArrayInputStream(data), vertices, indices, 3, 0, null);
+        assertSameTree(bvh, read);
+    }
+
+    @Test
+    public void testFileRoundTrip() throws IOException {
+        int amount = 1000;
+        float[] vertices = BVHBuildTest.randomTriangles(new Random(2), amount, 100f, 3f);
+        int[] indices = BVHBuildTest.sequentialIndices(amount);
+        BVH bvh = createBVH(vertices, indices);
+
+        Path file = this.directory.resolve("test.bvh");
+        Files.write(file, BVHStore.writeBVH(bvh));
+        BVH read = BVHStore.readBVH(file, vertices, indices, 3, 0, null);
+        assertSameTree(bvh, read);
+    }
+
+    @Test
+    public void testSubtreeRoundTrip() throws IOException {
+        int amount = 1000;
+        float[] vertices = BVHBuildTest.randomTriangles(new Random(3), amount, 100f, 3f);
+        int[] indices = BVHBuildTest.sequentialIndices(amount);
+        BVH bvh = createBVH(vertices, indices);
+
+        BVH subtree = bvh.getLeft();
+        BVH read = BVHStore.readBVH(new ByteArrayInputStream(BVHStore.writeBVH(subtree)), vertices, indices, 3, 0, null);
+
+        assertEquals(subtree.getAmountOfTriangles(), read.getAmountOfTriangles());
+        assertEquals(subtree.getMin(), read.getMin());
+        assertEquals(subtree.getMax(), read.getMax());
+        int first = subtree.getFirstTriangle();
+        assertArrayEquals(
+                Arrays.copyOfRange(subtree.getNodeTriangles(), first, first + subtree.getAmountOfTriangles()),
+                read.getNodeTriangles()
+        );
+    }
+
+    @Test
+    public void testTruncatedDataIsRejected() {
+        int amount = 100;
+        float[] vertices = BVHBuildTest.randomTriangles(new Random(4), amount, 100f, 3f);
+        int[] indices = BVHBuildTest.sequentialIndices(amount);
+        byte[] data = BVHStore.writeBVH(createBVH(vertices, indices));
+
+        assertThrows(IOException.class, () -> BVHStore.readBVH(
+                new ByteArrayInputStream(Arrays.copyOf(data, 100)),
+                vertices, indices, 3, 0, null
+        ));
+    }
+
+}